@@ -0,0 +1,41 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing;
+
+import android.util.Log;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.samples.quickstart.livesharing.core.LogSink;
+
+/** A {@link LogSink} backed by {@link Log}. */
+@CheckReturnValue
+final class AndroidLogSink implements LogSink {
+
+  static final AndroidLogSink INSTANCE = new AndroidLogSink();
+
+  private static final String TAG = "Sample app";
+  private static final String ERROR_TAG = "LogProducer: ";
+
+  private AndroidLogSink() {}
+
+  @Override
+  public void log(String message) {
+    Log.d(TAG, message);
+  }
+
+  @Override
+  public void logError(String message) {
+    Log.e(ERROR_TAG, message);
+  }
+}
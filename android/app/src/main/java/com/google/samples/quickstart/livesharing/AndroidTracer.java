@@ -0,0 +1,56 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing;
+
+import android.os.Build;
+import android.os.Trace;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.samples.quickstart.livesharing.core.Tracer;
+
+/**
+ * A {@link Tracer} backed by {@link Trace}.
+ *
+ * <p>Counters need API level 29 and are dropped on older devices.
+ */
+@CheckReturnValue
+final class AndroidTracer implements Tracer {
+
+  static final AndroidTracer INSTANCE = new AndroidTracer();
+
+  /** Longest section name {@link Trace} accepts. */
+  private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+  private AndroidTracer() {}
+
+  @Override
+  public void beginSection(String name) {
+    Trace.beginSection(
+        name.length() > MAX_SECTION_NAME_LENGTH
+            ? name.substring(0, MAX_SECTION_NAME_LENGTH)
+            : name);
+  }
+
+  @Override
+  public void endSection() {
+    Trace.endSection();
+  }
+
+  @Override
+  public void setCounter(String name, long value) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.setCounter(name, value);
+    }
+  }
+}
@@ -0,0 +1,435 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import com.google.samples.quickstart.livesharing.core.PlaybackEngine;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PlaybackEngine} that plays the video track of a local media file.
+ *
+ * <p>The file is handed to {@link MediaExtractor} as a file descriptor, and samples are read
+ * straight into the decoder's own input buffers, so compressed data is never copied through an
+ * intermediate buffer. Decoded frames are released to a {@link Surface} without ever being mapped
+ * into the app, which lets hardware decoders keep them in device memory.
+ *
+ * <p>The playback position is the presentation time of the most recently rendered frame, advanced
+ * by the time since it was rendered for at most {@link #MAX_RENDER_CLOCK_EXTRAPOLATION}. A stalled
+ * decoder therefore shows up as a position that stops advancing. The end of the content is
+ * reported to the {@link #setEndOfStreamListener listener} once the decoder has output its end of
+ * stream and the last frame has been rendered, and the content's length is taken from the track
+ * format, so that a file shorter than its declared duration still ends.
+ *
+ * <p>All codec and extractor calls run on a dedicated thread. The engine's lock is only held to
+ * read and update playback state, never across extractor reads, so that {@link #getPosition} is
+ * not held up by file I/O.
+ */
+@CheckReturnValue
+final class FileMediaPlaybackEngine implements PlaybackEngine {
+
+  private static final String TAG = "FileMediaPlaybackEngine";
+
+  /** Frames are handed to the renderer at most this long before they are due. */
+  private static final long MAX_EARLY_RELEASE_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+
+  private static final Duration MAX_RENDER_CLOCK_EXTRAPOLATION = Duration.ofMillis(100);
+
+  private final FileInputStream input;
+  private final MediaExtractor extractor;
+  private final MediaCodec codec;
+  private final HandlerThread codecThread;
+  private final Handler codecHandler;
+  private final Runnable fatalErrorListener;
+
+  /** Length of the video track, as declared by the container. */
+  private final Optional<Duration> contentDuration;
+
+  /** Decoded frames held back while paused, as output buffer index and presentation time. */
+  @GuardedBy("this")
+  private final ArrayDeque<long[]> heldFrames = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private boolean playing = false;
+
+  @GuardedBy("this")
+  private double rate = 1;
+
+  /** Incremented on every flush; frames and scheduled releases of older generations are void. */
+  @GuardedBy("this")
+  private int generation = 0;
+
+  /** Generation the codec was last flushed for; output of earlier generations is dropped. */
+  @GuardedBy("this")
+  private int codecGeneration = 0;
+
+  /** Frames presented before this time are decoded but dropped, to land exactly on a seek. */
+  @GuardedBy("this")
+  private long seekTargetUs = 0;
+
+  @GuardedBy("this")
+  private boolean inputDone = false;
+
+  /** Media clock: presentation time {@link #clockAnchorUs} is due at {@link #clockAnchorNanos}. */
+  @GuardedBy("this")
+  private boolean clockRunning = false;
+
+  @GuardedBy("this")
+  private long clockAnchorUs = 0;
+
+  @GuardedBy("this")
+  private long clockAnchorNanos = 0;
+
+  /** Render clock: the last frame shown and when it was due. */
+  @GuardedBy("this")
+  private long renderedUs = 0;
+
+  @GuardedBy("this")
+  private long renderedNanos = 0;
+
+  @GuardedBy("this")
+  private boolean frameRenderedSinceSeek = false;
+
+  @GuardedBy("this")
+  private Optional<Runnable> endOfStreamListener = Optional.empty();
+
+  /** Presentation time of the last frame decoded since the last flush, or -1 if there was none. */
+  @GuardedBy("this")
+  private long lastDecodedUs = -1;
+
+  /** Whether the decoder has output its end of stream since the last flush. */
+  @GuardedBy("this")
+  private boolean outputDone = false;
+
+  @GuardedBy("this")
+  private boolean endOfStreamReported = false;
+
+  /**
+   * Opens {@code file} and prepares to render its first video track to {@code surface}.
+   *
+   * @param fatalErrorListener called on the codec thread if the decoder fails and playback cannot
+   *     continue; the engine should then be released
+   * @throws IOException if the file cannot be read or has no decodable video track
+   */
+  static FileMediaPlaybackEngine open(File file, Surface surface, Runnable fatalErrorListener)
+      throws IOException {
+    FileInputStream input = new FileInputStream(file);
+    MediaExtractor extractor = new MediaExtractor();
+    try {
+      extractor.setDataSource(input.getFD());
+      MediaFormat format = selectVideoTrack(extractor);
+      MediaCodec codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+      return new FileMediaPlaybackEngine(
+          input, extractor, codec, format, surface, fatalErrorListener);
+    } catch (IOException | RuntimeException e) {
+      extractor.release();
+      input.close();
+      throw e;
+    }
+  }
+
+  private static MediaFormat selectVideoTrack(MediaExtractor extractor) throws IOException {
+    for (int track = 0; track < extractor.getTrackCount(); track++) {
+      MediaFormat format = extractor.getTrackFormat(track);
+      String mime = format.getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("video/")) {
+        extractor.selectTrack(track);
+        return format;
+      }
+    }
+    throw new IOException("No video track found.");
+  }
+
+  private FileMediaPlaybackEngine(
+      FileInputStream input,
+      MediaExtractor extractor,
+      MediaCodec codec,
+      MediaFormat format,
+      Surface surface,
+      Runnable fatalErrorListener) {
+    this.input = input;
+    this.extractor = extractor;
+    this.codec = codec;
+    this.fatalErrorListener = fatalErrorListener;
+    contentDuration =
+        format.containsKey(MediaFormat.KEY_DURATION)
+            ? Optional.of(
+                Duration.ofNanos(
+                    TimeUnit.MICROSECONDS.toNanos(format.getLong(MediaFormat.KEY_DURATION))))
+            : Optional.empty();
+    codecThread = new HandlerThread(TAG);
+    codecThread.start();
+    codecHandler = new Handler(codecThread.getLooper());
+    codec.setCallback(new CodecCallback(), codecHandler);
+    codec.configure(format, surface, /* crypto= */ null, /* flags= */ 0);
+    codec.start();
+  }
+
+  @Override
+  public synchronized void play() {
+    if (playing) {
+      return;
+    }
+    playing = true;
+    clockRunning = false;
+    while (!heldFrames.isEmpty()) {
+      long[] frame = heldFrames.poll();
+      scheduleRender(generation, (int) frame[0], frame[1]);
+    }
+    maybeReportEndOfStream();
+  }
+
+  @Override
+  public synchronized void pause() {
+    renderedUs = currentRenderPositionUs();
+    renderedNanos = SystemClock.elapsedRealtimeNanos();
+    playing = false;
+    clockRunning = false;
+  }
+
+  @Override
+  public synchronized void seekTo(Duration position) {
+    long targetUs = TimeUnit.NANOSECONDS.toMicros(position.toNanos());
+    int seekGeneration = ++generation;
+    seekTargetUs = targetUs;
+    renderedUs = targetUs;
+    renderedNanos = SystemClock.elapsedRealtimeNanos();
+    frameRenderedSinceSeek = false;
+    clockRunning = false;
+    heldFrames.clear();
+    codecHandler.post(
+        () -> {
+          synchronized (this) {
+            if (seekGeneration != generation) {
+              return;
+            }
+          }
+          // Codec callbacks run on this thread, so none can interleave with the flush.
+          // Flushing returns all buffers to the codec; in asynchronous mode it must be restarted.
+          codec.flush();
+          extractor.seekTo(targetUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+          synchronized (this) {
+            inputDone = false;
+            outputDone = false;
+            endOfStreamReported = false;
+            lastDecodedUs = -1;
+            codecGeneration = seekGeneration;
+          }
+          codec.start();
+        });
+  }
+
+  @Override
+  public synchronized void setPlaybackRate(double rate) {
+    if (clockRunning) {
+      long nowNanos = SystemClock.elapsedRealtimeNanos();
+      clockAnchorUs = mediaClockUs(nowNanos);
+      clockAnchorNanos = nowNanos;
+    }
+    this.rate = rate;
+  }
+
+  @Override
+  public synchronized Duration getPosition() {
+    return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(currentRenderPositionUs()));
+  }
+
+  @Override
+  public Optional<Duration> getContentDuration() {
+    return contentDuration;
+  }
+
+  @Override
+  public synchronized void setEndOfStreamListener(Runnable listener) {
+    endOfStreamListener = Optional.of(listener);
+  }
+
+  @Override
+  public void release() {
+    synchronized (this) {
+      playing = false;
+      generation++;
+      heldFrames.clear();
+    }
+    codecHandler.post(
+        () -> {
+          try {
+            codec.stop();
+          } catch (IllegalStateException e) {
+            // The codec failed and is in its error state, which only allows releasing it.
+          }
+          codec.release();
+          extractor.release();
+          try {
+            input.close();
+          } catch (IOException e) {
+            Log.w(TAG, "Failed to close media file.", e);
+          }
+          codecThread.quitSafely();
+        });
+  }
+
+  @GuardedBy("this")
+  private long currentRenderPositionUs() {
+    if (!playing || !frameRenderedSinceSeek) {
+      return renderedUs;
+    }
+    long sinceRenderNanos =
+        Math.min(
+            SystemClock.elapsedRealtimeNanos() - renderedNanos,
+            MAX_RENDER_CLOCK_EXTRAPOLATION.toNanos());
+    return renderedUs
+        + (long) (TimeUnit.NANOSECONDS.toMicros(Math.max(0, sinceRenderNanos)) * rate);
+  }
+
+  @GuardedBy("this")
+  private long mediaClockUs(long nowNanos) {
+    return clockAnchorUs
+        + (long) (TimeUnit.NANOSECONDS.toMicros(nowNanos - clockAnchorNanos) * rate);
+  }
+
+  @GuardedBy("this")
+  private long dueNanos(long presentationUs) {
+    return clockAnchorNanos
+        + (long) (TimeUnit.MICROSECONDS.toNanos(presentationUs - clockAnchorUs) / rate);
+  }
+
+  /** Renders a decoded frame once it is due, or holds it while paused. */
+  @GuardedBy("this")
+  private void scheduleRender(int frameGeneration, int index, long presentationUs) {
+    if (frameGeneration != generation) {
+      return;
+    }
+    if (!playing) {
+      heldFrames.add(new long[] {index, presentationUs});
+      return;
+    }
+    long nowNanos = SystemClock.elapsedRealtimeNanos();
+    if (!clockRunning) {
+      // The first frame after starting or seeking defines the media clock.
+      clockRunning = true;
+      clockAnchorUs = presentationUs;
+      clockAnchorNanos = nowNanos;
+    }
+    long dueNanos = dueNanos(presentationUs);
+    long earlyNanos = dueNanos - nowNanos;
+    if (earlyNanos > MAX_EARLY_RELEASE_NANOS) {
+      codecHandler.postDelayed(
+          () -> {
+            synchronized (this) {
+              scheduleRender(frameGeneration, index, presentationUs);
+            }
+          },
+          TimeUnit.NANOSECONDS.toMillis(earlyNanos - MAX_EARLY_RELEASE_NANOS));
+      return;
+    }
+    // The render timestamp is on the System.nanoTime() clock.
+    codec.releaseOutputBuffer(index, System.nanoTime() + Math.max(0, earlyNanos));
+    renderedUs = presentationUs;
+    renderedNanos = Math.max(nowNanos, dueNanos);
+    frameRenderedSinceSeek = true;
+    maybeReportEndOfStream();
+  }
+
+  /** Reports the end of stream once the decoder output it and its last frame was rendered. */
+  @GuardedBy("this")
+  private void maybeReportEndOfStream() {
+    if (!outputDone || endOfStreamReported || !playing || renderedUs < lastDecodedUs) {
+      return;
+    }
+    endOfStreamReported = true;
+    endOfStreamListener.ifPresent(Runnable::run);
+  }
+
+  private final class CodecCallback extends MediaCodec.Callback {
+
+    @Override
+    public void onInputBufferAvailable(MediaCodec codec, int index) {
+      synchronized (FileMediaPlaybackEngine.this) {
+        if (inputDone) {
+          return;
+        }
+      }
+      // The extractor is only used on this thread; reading may block on storage.
+      ByteBuffer buffer = codec.getInputBuffer(index);
+      int size = extractor.readSampleData(buffer, /* offset= */ 0);
+      if (size < 0) {
+        synchronized (FileMediaPlaybackEngine.this) {
+          inputDone = true;
+        }
+        codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        return;
+      }
+      codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), /* flags= */ 0);
+      extractor.advance();
+    }
+
+    @Override
+    public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+      synchronized (FileMediaPlaybackEngine.this) {
+        if (codecGeneration != generation) {
+          codec.releaseOutputBuffer(index, /* render= */ false);
+          return;
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+          codec.releaseOutputBuffer(index, /* render= */ false);
+          outputDone = true;
+          maybeReportEndOfStream();
+          return;
+        }
+        lastDecodedUs = Math.max(lastDecodedUs, info.presentationTimeUs);
+        if (info.presentationTimeUs < seekTargetUs) {
+          codec.releaseOutputBuffer(index, /* render= */ false);
+          return;
+        }
+        scheduleRender(generation, index, info.presentationTimeUs);
+      }
+    }
+
+    @Override
+    public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+      if (e.isTransient()) {
+        Log.w(TAG, "Transient decoder error.", e);
+        return;
+      }
+      Log.e(TAG, "Decoder error, playback cannot continue.", e);
+      synchronized (FileMediaPlaybackEngine.this) {
+        playing = false;
+        generation++;
+        heldFrames.clear();
+      }
+      fatalErrorListener.run();
+    }
+
+    @Override
+    public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {}
+  }
+}
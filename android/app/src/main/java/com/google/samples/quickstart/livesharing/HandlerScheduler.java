@@ -0,0 +1,51 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.google.samples.quickstart.livesharing.core.Scheduler;
+import java.time.Duration;
+
+/** A {@link Scheduler} that runs tasks on the thread of a {@link Looper}. */
+final class HandlerScheduler implements Scheduler {
+
+  private final Handler handler;
+
+  HandlerScheduler(Looper looper) {
+    handler = new Handler(looper);
+  }
+
+  /** Returns a scheduler that runs tasks on the main thread. */
+  static HandlerScheduler forMainLooper() {
+    return new HandlerScheduler(Looper.getMainLooper());
+  }
+
+  @Override
+  public long nanoTime() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  @Override
+  public void postDelayed(Runnable task, Duration delay) {
+    handler.postDelayed(task, delay.toMillis());
+  }
+
+  @Override
+  public void cancel(Runnable task) {
+    handler.removeCallbacks(task);
+  }
+}
@@ -15,18 +15,27 @@
 package com.google.samples.quickstart.livesharing;
 
 import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.immediateVoidFuture;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.SystemClock;
 import android.text.method.ScrollingMovementMethod;
+import android.util.AtomicFile;
+import android.view.Surface;
+import android.view.SurfaceView;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CompoundButton;
+import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 import android.widget.Spinner;
@@ -41,10 +50,8 @@ import com.google.android.meet.addons.AddonMeetingInfo;
 import com.google.android.meet.addons.AddonSession;
 import com.google.android.meet.addons.AddonSessionHandler;
 import com.google.android.meet.addons.AddonSessionHandler.Privilege;
-import com.google.android.meet.addons.CoDoingClient;
 import com.google.android.meet.addons.CoDoingHandler;
 import com.google.android.meet.addons.CoDoingState;
-import com.google.android.meet.addons.CoWatchingClient;
 import com.google.android.meet.addons.CoWatchingHandler;
 import com.google.android.meet.addons.CoWatchingState;
 import com.google.android.meet.addons.MeetingStatusListener;
@@ -52,29 +59,68 @@ import com.google.android.meet.addons.ParticipantMetadataHandler;
 import com.google.android.meet.addons.QueriedCoWatchingState;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Bytes;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
+import com.google.samples.quickstart.livesharing.core.AbrPolicy;
+import com.google.samples.quickstart.livesharing.core.ChunkedStateTransport;
+import com.google.samples.quickstart.livesharing.core.CoWatchingSync;
+import com.google.samples.quickstart.livesharing.core.EchoSuppressor;
+import com.google.samples.quickstart.livesharing.core.LogConsumer;
+import com.google.samples.quickstart.livesharing.core.LogProducer;
+import com.google.samples.quickstart.livesharing.core.Media;
+import com.google.samples.quickstart.livesharing.core.MediaPlayer;
+import com.google.samples.quickstart.livesharing.core.MessageTimingMonitor;
+import com.google.samples.quickstart.livesharing.core.OfflineCommandBuffer;
+import com.google.samples.quickstart.livesharing.core.OutboundSyncDispatcher;
+import com.google.samples.quickstart.livesharing.core.ParticipantMetadata;
+import com.google.samples.quickstart.livesharing.core.ParticipantMetadataCodec;
+import com.google.samples.quickstart.livesharing.core.ParticipantMetadataPublisher;
+import com.google.samples.quickstart.livesharing.core.ParticipantRegistry;
+import com.google.samples.quickstart.livesharing.core.PlaybackAuthority;
+import com.google.samples.quickstart.livesharing.core.PlaybackEngine;
+import com.google.samples.quickstart.livesharing.core.PlaybackSnapshot;
+import com.google.samples.quickstart.livesharing.core.PlaybackStateMachine;
+import com.google.samples.quickstart.livesharing.core.ResumeSnapshot;
+import com.google.samples.quickstart.livesharing.core.SeekPreviewLoader;
+import com.google.samples.quickstart.livesharing.core.SessionManager;
+import com.google.samples.quickstart.livesharing.core.SessionType;
+import com.google.samples.quickstart.livesharing.core.SimulatedMediaSource;
+import com.google.samples.quickstart.livesharing.core.SimulatedNetworkLink;
+import com.google.samples.quickstart.livesharing.core.StartupTracer;
+import com.google.samples.quickstart.livesharing.core.SyncEvent;
+import com.google.samples.quickstart.livesharing.core.SyncJournal;
+import com.google.samples.quickstart.livesharing.core.SyncClient;
+import com.google.samples.quickstart.livesharing.core.TimerPlaybackEngine;
+import com.google.samples.quickstart.livesharing.core.Tracer;
+import com.google.samples.quickstart.livesharing.core.UpdateCoalescer;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 import java.util.function.UnaryOperator;
 
 /** Serves as the launch point for the app. */
 public final class MainActivity extends AppCompatActivity
     implements CoWatchingHandler, CoDoingHandler, ParticipantMetadataHandler, AddonSessionHandler {
 
-  private enum SessionType {
-    NONE,
-    CO_WATCHING,
-    CO_DOING,
-    BOTH
-  }
-
   // Predefined lengths for two media objects.
   private static final Duration MEDIA_1_LENGTH = Duration.ofSeconds(100);
   private static final Duration MEDIA_2_LENGTH = Duration.ofSeconds(10);
@@ -86,8 +132,186 @@ public final class MainActivity extends AppCompatActivity
   private static final ImmutableList<Double> PLAYOUT_RATE_RAW_VALUES =
       ImmutableList.of(0.5, 1.0, 1.25, 1.5, 1.75, 2.0);
 
-  /** A sample participant metadata that will be set on behalf of the user. */
-  private static final String PARTICIPANT_METADATA = "participant_metadata";
+  /**
+   * Rough one-way latency between a participant sending a co-watching state and this device
+   * receiving it.
+   */
+  private static final Duration REMOTE_STATE_TRANSIT_ESTIMATE = Duration.ofMillis(100);
+
+  /** Minimum interval between two co-doing state broadcasts. */
+  private static final Duration CO_DOING_UPDATE_WINDOW = Duration.ofMillis(500);
+
+  /**
+   * Whether playback changes are routed through an elected leader instead of being broadcast by
+   * every participant. All participants of a session must use the same setting, so it stays off
+   * until every client in use supports it.
+   */
+  private static final boolean LEADER_AUTHORITY_ENABLED = false;
+
+  /**
+   * How long to wait for the playback leader to acknowledge an intent before broadcasting the
+   * change directly. Intent and acknowledgement each wait for a participant metadata update.
+   */
+  private static final Duration PLAYBACK_INTENT_ACK_TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * How long after a session began to wait for its first co-watching state before sending the
+   * commands buffered before it, as if the session had none.
+   */
+  private static final Duration OFFLINE_FLUSH_SETTLE_DEADLINE = Duration.ofSeconds(2);
+
+  /** Minimum interval between two participant metadata updates. */
+  private static final Duration PARTICIPANT_METADATA_UPDATE_WINDOW = Duration.ofSeconds(1);
+
+  /** Outbound sync calls that take longer than this, including queueing, are logged. */
+  private static final Duration SLOW_OUTBOUND_SYNC_THRESHOLD = Duration.ofMillis(50);
+
+  /** Window over which main looper message timings are aggregated and logged. */
+  private static final Duration MESSAGE_TIMING_WINDOW = Duration.ofSeconds(30);
+
+  /** Number of slowest main looper message categories logged per window. */
+  private static final int MESSAGE_TIMING_REPORTED_CATEGORIES = 3;
+
+  /** Categories of the main looper messages that apply remote state. */
+  private static final String MESSAGE_CATEGORY_CO_WATCHING_APPLY = "co-watching apply";
+
+  private static final String MESSAGE_CATEGORY_CO_DOING_APPLY = "co-doing apply";
+
+  private static final String TRACE_SECTION_CO_WATCHING_STATE_CHANGED =
+      "MainActivity#onCoWatchingStateChanged";
+  private static final String TRACE_SECTION_APPLY_CO_WATCHING_STATE =
+      "MainActivity#applyCoWatchingState";
+
+  /**
+   * Whether debug builds play media from a {@link SimulatedMediaSource}, to exercise buffering and
+   * bitrate adaptation over a simulated network with random bandwidth jitter. Release builds
+   * never do.
+   */
+  private static final boolean SIMULATED_MEDIA_SOURCE_ENABLED = false;
+
+  /** Bitrate levels of the simulated media source, in bits per second. */
+  private static final ImmutableList<Long> SIMULATED_BITRATE_LEVELS =
+      ImmutableList.of(400_000L, 1_200_000L, 2_500_000L, 5_000_000L);
+
+  private static final long SIMULATED_BANDWIDTH_BITS_PER_SECOND = 8_000_000;
+  private static final Duration SIMULATED_LATENCY = Duration.ofMillis(80);
+  private static final double SIMULATED_BANDWIDTH_JITTER = 0.3;
+  private static final Duration SIMULATED_SEGMENT_DURATION = Duration.ofSeconds(2);
+  private static final Duration BUFFER_LOW_WATERMARK = Duration.ofMillis(500);
+  private static final Duration BUFFER_HIGH_WATERMARK = Duration.ofSeconds(2);
+  private static final Duration BUFFER_MAX_AHEAD = Duration.ofSeconds(10);
+
+  /** Spacing of seek preview thumbnails within the media. */
+  private static final Duration SEEK_PREVIEW_INTERVAL = Duration.ofSeconds(2);
+
+  /** Number of previews on each side of the drag position that are loaded ahead of time. */
+  private static final int SEEK_PREVIEW_PREFETCH_RADIUS = 3;
+
+  private static final long SEEK_PREVIEW_CACHE_BYTES = 8L * 1024 * 1024;
+  private static final int SEEK_PREVIEW_WIDTH_PX = 160;
+
+  /** How long a single begin or end session call may take before it is cancelled and retried. */
+  private static final Duration SESSION_CALL_DEADLINE = Duration.ofSeconds(10);
+
+  private static final int SESSION_CALL_MAX_ATTEMPTS = 3;
+  private static final Duration SESSION_CALL_INITIAL_BACKOFF = Duration.ofMillis(500);
+
+  /** A sample participant name that will be set on behalf of the user. */
+  private static final String PARTICIPANT_DISPLAY_NAME = "participant_metadata";
+
+  // Startup phases reported by the startup tracer.
+  private static final String PHASE_UI_READY = "ui_ready";
+  private static final String PHASE_FIRST_FRAME = "first_frame";
+  private static final String PHASE_DEFERRED_INIT = "deferred_init";
+  private static final String PHASE_ADDON_CLIENT_READY = "addon_client_ready";
+  private static final String PHASE_SESSION_READY = "session_ready";
+
+  /** Key of the {@link ResumeSnapshot} in the saved instance state. */
+  private static final String STATE_RESUME_SNAPSHOT = "resume_snapshot";
+
+  /** File the {@link ResumeSnapshot} is persisted to when the activity stops. */
+  private static final String RESUME_SNAPSHOT_FILE_NAME = "resume_snapshot.bin";
+
+  /**
+   * Snapshots persisted to file are only restored if they are at most this old, so that a fresh
+   * launch does not resume a long-gone session.
+   */
+  private static final Duration MAX_RESUME_SNAPSHOT_FILE_AGE = Duration.ofMinutes(10);
+
+  /** Sync journal of the current process, and of the previous one. */
+  private static final String SYNC_JOURNAL_FILE_NAME = "sync_journal.bin";
+
+  private static final String PREVIOUS_SYNC_JOURNAL_FILE_NAME = "sync_journal.prev.bin";
+
+  /** Size at which the sync journal stops recording, so that it cannot fill the storage. */
+  private static final long MAX_SYNC_JOURNAL_BYTES = 4L * 1024 * 1024;
+
+  /** Records trace sections and counters of the sync and playback paths. */
+  private final Tracer tracer = AndroidTracer.INSTANCE;
+
+  /** Attributes the time spent in main looper messages to where they came from. */
+  private final MessageTimingMonitor messageTimingMonitor =
+      new MessageTimingMonitor(
+          MESSAGE_TIMING_WINDOW,
+          SystemClock::elapsedRealtimeNanos,
+          this::onMessageTimingWindowClosed);
+
+  private final MainLooperMonitor mainLooperMonitor = new MainLooperMonitor(messageTimingMonitor);
+
+  /** Times startup phases from the moment the activity is instantiated. */
+  private final StartupTracer startupTracer = new StartupTracer(SystemClock::elapsedRealtimeNanos);
+
+  /** Runs startup work that does not need the main thread. */
+  private final ExecutorService startupExecutor = Executors.newSingleThreadExecutor();
+
+  /** Writes the resume snapshot and the sync journal off the main thread. */
+  private final ExecutorService persistenceExecutor = Executors.newSingleThreadExecutor();
+
+  /** Makes the SDK calls for outbound sync events, in order, off the main thread. */
+  private final ExecutorService outboundExecutor = Executors.newSingleThreadExecutor();
+
+  private final OutboundSyncDispatcher outboundSyncDispatcher =
+      new OutboundSyncDispatcher(
+          this::sendSyncEvent,
+          this::onOutboundSyncDispatched,
+          outboundExecutor,
+          SystemClock::elapsedRealtimeNanos,
+          tracer);
+
+  /** When the UI was last hidden, or -1 while it is visible. */
+  private long hiddenSinceNanos = -1;
+
+  /** Main looper messages dispatched when the UI was last hidden. */
+  private long messageCountWhenHidden = 0;
+
+  /** Snapshot from the saved instance state, restored once the media player exists. */
+  private Optional<byte[]> savedResumeSnapshot = Optional.empty();
+
+  /**
+   * Ending of the session of the last destroyed instance of this activity. A recreated instance
+   * waits for it before beginning its own session: the SDK binds a session to the activity that
+   * handles it, so the session cannot be handed over. Only accessed on the main thread.
+   */
+  private static ListenableFuture<Void> destroyedInstanceSessionEnd = immediateVoidFuture();
+
+  /**
+   * Whether this process has opened its sync journal. Recreated activities keep appending to the
+   * journal of the process instead of rotating it, which would overwrite the journal of the
+   * previous process. Only accessed on the main thread.
+   */
+  private static boolean processSyncJournalOpened = false;
+
+  /** Journal of the sync events of this process, if it could be opened. */
+  private static Optional<SyncJournal> processSyncJournal = Optional.empty();
+
+  /** Journal of the sync events of this process, once this activity may record to it. */
+  private volatile Optional<SyncJournal> syncJournal = Optional.empty();
+
+  /** Extracts seek preview thumbnails. */
+  private final ExecutorService seekPreviewExecutor = Executors.newSingleThreadExecutor();
+
+  /** Previews of the active media, if it has content. Only accessed on the main thread. */
+  private Optional<SeekPreviewLoader<Bitmap>> seekPreviewLoader = Optional.empty();
 
   private final ArrayBlockingQueue<String> logQueue = new ArrayBlockingQueue<>(MAX_QUEUE_LENGTH);
 
@@ -140,26 +364,171 @@ public final class MainActivity extends AppCompatActivity
   /** Slider to move media's position. */
   private SeekBar seekBarMedia;
 
+  /** Surface that media with content is rendered to. */
+  private SurfaceView surfaceViewMedia;
+
+  /** Thumbnail shown above {@link #seekBarMedia} while it is being dragged. */
+  private ImageView imageViewSeekPreview;
+
   /** Spinner to change media playout rate. */
   private Spinner spinnerPlayoutRates;
 
-  /**
-   * Flag used to determine if {@code onSelectedListener} is triggered by a user or the program
-   * itself as a side effect of call to {@code setSelection}.
-   */
-  private boolean onItemSelectedListenerTriggeredByUser = true;
+  /** Controls whose state is shared with the other participants. */
+  private enum SyncedControl {
+    PLAYOUT_RATE,
+    BACKGROUND_COLOR
+  }
+
+  /** Keeps controls from sending back state that was just applied to them from the network. */
+  private final EchoSuppressor<SyncedControl> echoSuppressor = new EchoSuppressor<>();
 
   private MediaPlayer mediaPlayer;
 
   private LogConsumer logConsumer;
   private LogProducer logProducer;
 
+  /** Coalesces rapid local co-doing changes into at most one broadcast per window. */
+  private UpdateCoalescer<CoDoingState> coDoingUpdateCoalescer;
+
+  /**
+   * Frames co-doing states so that states too large for a single payload survive the
+   * last-writer-wins global state, and so that late joiners eventually receive all of their frames.
+   */
+  private ChunkedStateTransport chunkedStateTransport;
+
+  /** Local actions taken while there is no session, sent compacted once one begins. */
+  private final OfflineCommandBuffer offlineCommandBuffer = new OfflineCommandBuffer();
+
+  /** Brings the media player to the co-watching states received, created with the player. */
+  private CoWatchingSync coWatchingSync;
+
+  /** When the current session started, until its first synchronized frame is reported, or -1. */
+  private volatile long sessionStartedNanos = -1;
+
+  /** Tracks participants across participant metadata updates. */
+  private final ParticipantRegistry<ParticipantMetadata> participantRegistry =
+      new ParticipantRegistry<>(
+          new ParticipantMetadataCodec(),
+          new ParticipantRegistry.Listener<ParticipantMetadata>() {
+            @Override
+            public void onParticipantAdded(ParticipantMetadata participant) {
+              logProducer.write("#onParticipantMetadataChanged: added %s", participant);
+              // The participant only got the last frame the co-doing global state held.
+              if (chunkedStateTransport != null) {
+                chunkedStateTransport.repeatCarousel();
+              }
+            }
+
+            @Override
+            public void onParticipantChanged(
+                ParticipantMetadata previous, ParticipantMetadata current) {
+              logProducer.write(
+                  "#onParticipantMetadataChanged: %s changed to %s", previous, current);
+            }
+
+            @Override
+            public void onParticipantRemoved(ParticipantMetadata participant) {
+              logProducer.write("#onParticipantMetadataChanged: removed %s", participant);
+            }
+          });
+
+  /** Identifies the local participant in the participant metadata it publishes. */
+  private final long localParticipantId = new Random().nextLong();
+
+  /** Whether the local participant currently may change the add-on session state. */
+  private boolean mayChangeSessionState = true;
+
+  /** Whether the local participant metadata was sent in the current session. */
+  private boolean localMetadataPublished = false;
+
+  /** Routes local playback changes through the elected leader. Only used on the main thread. */
+  private final PlaybackAuthority playbackAuthority =
+      new PlaybackAuthority(
+          localParticipantId,
+          LEADER_AUTHORITY_ENABLED,
+          new PlaybackAuthority.Transport() {
+            @Override
+            public void broadcast(SyncEvent event) {
+              outboundSyncDispatcher.dispatch(event);
+            }
+
+            @Override
+            public boolean publishIntents() {
+              if (!session.isPresent()) {
+                return false;
+              }
+              publishParticipantMetadata();
+              return true;
+            }
+          },
+          new PlaybackAuthority.Listener() {
+            @Override
+            public void onIntent(SyncEvent intent) {
+              coWatchingSync.applyPlaybackIntent(intent);
+            }
+
+            @Override
+            public Optional<SyncEvent> onIntentUnacknowledged(SyncEvent intent) {
+              logProducer.write(
+                  "Playback leader did not acknowledge %s intent; broadcasting it.",
+                  intent.type());
+              return coWatchingSync.currentPlaybackChange(intent);
+            }
+
+            @Override
+            public void onLeaderChanged(Optional<Long> leaderId, boolean isLocalLeader) {
+              logProducer.write(
+                  "Playback leader changed to %s%s (broadcast: %s, intents sent: %s, intents"
+                      + " applied: %s, intents unacknowledged: %s).",
+                  leaderId.map(String::valueOf).orElse("none"),
+                  isLocalLeader ? " (this device)" : "",
+                  playbackAuthority.getBroadcastCount(),
+                  playbackAuthority.getIntentSentCount(),
+                  playbackAuthority.getIntentAppliedCount(),
+                  playbackAuthority.getIntentUnacknowledgedCount());
+            }
+          },
+          PLAYBACK_INTENT_ACK_TIMEOUT,
+          HandlerScheduler.forMainLooper());
+
+  private ParticipantMetadataPublisher participantMetadataPublisher;
+
   // Provide the unique cloud project number of the Google Workspace Marketplace add-on associated
   // with your app. See https://workspace.google.com/marketplace/?host=meet.
-  private final AddonClient addonClient =
-      AddonClientFactory.getClient(/* cloudProjectNumber= */ 0L);
+  // The client is created by the pre-warm on startupExecutor.
+  private final SessionManager<AddonClient, AddonSession> sessionManager =
+      new SessionManager<>(
+          () -> AddonClientFactory.getClient(/* cloudProjectNumber= */ 0L),
+          startupExecutor,
+          HandlerScheduler.forMainLooper(),
+          SESSION_CALL_DEADLINE,
+          SESSION_CALL_MAX_ATTEMPTS,
+          SESSION_CALL_INITIAL_BACKOFF,
+          new SessionManager.Listener() {
+            @Override
+            public void onRetry(
+                String operation, int attempt, Throwable failure, Duration backoff) {
+              logProducer.write(
+                  "Session %s attempt %d failed (%s), retrying in %d ms",
+                  operation, attempt, failure.getMessage(), backoff.toMillis());
+            }
+
+            @Override
+            public void onFinished(String operation, boolean succeeded, StartupTracer phases) {
+              logProducer.write(
+                  "Session %s %s: %s",
+                  operation, succeeded ? "succeeded" : "failed", phases.report());
+            }
+
+            @Override
+            public void onLateSessionEnded(boolean succeeded) {
+              logProducer.write(
+                  "Session that arrived after its begin finished %s",
+                  succeeded ? "ended" : "failed to end");
+            }
+          });
   private volatile Optional<AddonMeetingInfo> addonMeetingInfo = Optional.empty();
-  private Optional<AddonSession> session = Optional.empty();
+  private volatile Optional<AddonSession> session = Optional.empty();
   private SessionType sessionType = SessionType.NONE;
 
   private final MeetingStatusListener statusListener =
@@ -175,12 +544,531 @@ public final class MainActivity extends AppCompatActivity
     super.onCreate(savedInstanceState);
     setContentView(R.layout.main_activity);
     initializeUiElements();
-    initializeInternalLogging();
-    setOnClickListeners();
-    mediaPlayer = new MediaPlayer(this);
+    logProducer = new LogProducer(logQueue, AndroidLogSink.INSTANCE);
+    // Describing every message costs string building on each dispatch; release builds time only
+    // the tagged tasks.
+    mainLooperMonitor.install(/* logMessages= */ BuildConfig.DEBUG);
     mediaBtnMap.put(media1, toggleBtnMedia1);
     mediaBtnMap.put(media2, toggleBtnMedia2);
     getSupportActionBar().hide();
+    if (savedInstanceState != null) {
+      savedResumeSnapshot =
+          Optional.ofNullable(savedInstanceState.getByteArray(STATE_RESUME_SNAPSHOT));
+    }
+    startupTracer.mark(PHASE_UI_READY);
+
+    sessionManager
+        .preWarm()
+        .addListener(() -> startupTracer.mark(PHASE_ADDON_CLIENT_READY), directExecutor());
+    runAfterFirstFrame(this::initializeDeferredComponents);
+  }
+
+  @Override
+  protected void onSaveInstanceState(Bundle outState) {
+    super.onSaveInstanceState(outState);
+    captureResumeSnapshot()
+        .ifPresent(snapshot -> outState.putByteArray(STATE_RESUME_SNAPSHOT, snapshot.encode()));
+  }
+
+  @Override
+  protected void onStart() {
+    super.onStart();
+    setUiVisible(true);
+  }
+
+  @Override
+  protected void onStop() {
+    super.onStop();
+    setUiVisible(false);
+    Optional<ResumeSnapshot> snapshot = captureResumeSnapshot();
+    if (snapshot.isPresent()) {
+      byte[] bytes = snapshot.get().encode();
+      persistenceExecutor.execute(() -> writeResumeSnapshotFile(bytes));
+    }
+    persistenceExecutor.execute(this::flushSyncJournal);
+  }
+
+  @Override
+  protected void onDestroy() {
+    // The journal stays open for the next instance of the activity in this process.
+    persistenceExecutor.execute(this::flushSyncJournal);
+    persistenceExecutor.shutdown();
+    // Pending acknowledgement timeouts would otherwise still broadcast; anything else dispatched
+    // from now on is dropped by the dispatcher.
+    playbackAuthority.reset();
+    outboundExecutor.shutdown();
+    if (session.isPresent()) {
+      logProducer.write("Ending the session of the destroyed activity.");
+      destroyedInstanceSessionEnd = session.get().endSession();
+      session = Optional.empty();
+    }
+    // A session that a begin in flight still opens is ended when it arrives.
+    sessionManager.cancelPending();
+    if (mediaPlayer != null) {
+      // Releases the decoder, its thread and the surface of this instance, and stops the ticks.
+      mediaPlayer.release();
+    }
+    startupExecutor.shutdown();
+    seekPreviewLoader.ifPresent(SeekPreviewLoader::close);
+    seekPreviewExecutor.shutdown();
+    mainLooperMonitor.uninstall();
+    super.onDestroy();
+  }
+
+  /** Logs the main looper message categories that took the most time in the last window. */
+  private void onMessageTimingWindowClosed(
+      ImmutableList<MessageTimingMonitor.CategoryTiming> slowestFirst) {
+    StringBuilder report = new StringBuilder();
+    for (MessageTimingMonitor.CategoryTiming timing :
+        slowestFirst.subList(
+            0, Math.min(MESSAGE_TIMING_REPORTED_CATEGORIES, slowestFirst.size()))) {
+      report.append(
+          String.format(
+              Locale.US,
+              "%n  %s: %d messages, %d ms total, %d ms max, queued up to %d ms",
+              timing.category(),
+              timing.messageCount(),
+              timing.totalDispatchTime().toMillis(),
+              timing.maxDispatchTime().toMillis(),
+              timing.maxQueueingDelay().toMillis()));
+    }
+    logProducer.write(
+        "Slowest main looper messages in the last %s:%s", MESSAGE_TIMING_WINDOW, report);
+  }
+
+  /**
+   * Switches the player and the log window between refreshing the UI and idling in the background.
+   *
+   * <p>Also logs how many messages woke up the main thread while idle: in debug builds whoever
+   * posted them, and in release builds, where only tagged tasks are monitored, just those.
+   */
+  private void setUiVisible(boolean visible) {
+    if (mediaPlayer == null) {
+      // Not created yet; they start out visible.
+      return;
+    }
+    long messageCount = messageTimingMonitor.getMessageCount();
+    long nowNanos = SystemClock.elapsedRealtimeNanos();
+    if (!visible) {
+      hiddenSinceNanos = nowNanos;
+      messageCountWhenHidden = messageCount;
+    }
+    mediaPlayer.setUiVisible(visible);
+    logConsumer.setUiVisible(visible);
+    if (visible && hiddenSinceNanos >= 0) {
+      Duration hidden = Duration.ofNanos(nowNanos - hiddenSinceNanos);
+      long wakeUpCount = messageCount - messageCountWhenHidden;
+      logProducer.write(
+          "Idle for %s s: %s main thread wakeups%s (%.1f per minute).",
+          hidden.getSeconds(),
+          wakeUpCount,
+          BuildConfig.DEBUG ? "" : " by tagged tasks",
+          wakeUpCount * 60e9 / Math.max(1, hidden.toNanos()));
+      hiddenSinceNanos = -1;
+    }
+  }
+
+  /** Runs {@code task} on the main thread once the first frame has been drawn. */
+  private void runAfterFirstFrame(Runnable task) {
+    runAfterNextFrame(
+        frameNanos -> {
+          startupTracer.mark(PHASE_FIRST_FRAME);
+          task.run();
+        });
+  }
+
+  /**
+   * Runs {@code task} once the next frame has been drawn, with the monotonic time at which that
+   * frame started drawing.
+   */
+  private void runAfterNextFrame(LongConsumer task) {
+    View decorView = getWindow().getDecorView();
+    decorView
+        .getViewTreeObserver()
+        .addOnPreDrawListener(
+            new ViewTreeObserver.OnPreDrawListener() {
+              @Override
+              public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                long frameNanos = SystemClock.elapsedRealtimeNanos();
+                decorView.post(() -> task.accept(frameNanos));
+                return true;
+              }
+            });
+  }
+
+  /**
+   * Creates the components that are not needed to draw the first frame: the logging worker, the
+   * media player and the session plumbing. The controls only get their listeners once these exist.
+   */
+  private void initializeDeferredComponents() {
+    initializeInternalLogging();
+    mediaPlayer =
+        new MediaPlayer(
+            (mediaName, positionSeconds, lengthSeconds) ->
+                getResources()
+                    .getString(
+                        R.string.textview_timer_running_text,
+                        mediaName,
+                        positionSeconds,
+                        lengthSeconds),
+            this::createPlaybackEngine,
+            HandlerScheduler.forMainLooper(),
+            messageTimingMonitor,
+            tracer);
+    mediaPlayer.setTransitionListener(
+        (from, event, to) -> logProducer.write("MediaPlayer: %s on %s -> %s", from, event, to));
+    coWatchingSync =
+        new CoWatchingSync(
+            mediaPlayer,
+            offlineCommandBuffer,
+            new CoWatchingSync.Host() {
+              @Override
+              public Optional<Media> findMedia(String mediaId) {
+                return Optional.ofNullable(mediaMap.get(mediaId));
+              }
+
+              @Override
+              public void registerMedia(Media media) {
+                registerMediaForPlayback(MainActivity.this, media, /* broadcastUpdate= */ false);
+              }
+
+              @Override
+              public void stopMedia(boolean publishEnded) {
+                stopMediaPlayback(/* broadcastUpdate= */ publishEnded);
+              }
+
+              @Override
+              public void switchTo(Media media, PlaybackSnapshot target) {
+                applyCanonicalTransition(media, target);
+              }
+
+              @Override
+              public void startPlayback() {
+                startMediaPlayback();
+              }
+
+              @Override
+              public void pausePlayback(boolean buffering) {
+                pauseMediaPlayback(/* simulateBuffering= */ buffering);
+              }
+
+              @Override
+              public void showRemotePlayoutRate(double playoutRate) {
+                MainActivity.this.showRemotePlayoutRate(playoutRate);
+              }
+
+              @Override
+              public void publish(SyncEvent event) {
+                if (event.type() == SyncEvent.Type.SET_GLOBAL_STATE) {
+                  setCoDoingGlobalState(event.payloads().get(0));
+                } else {
+                  notifyCoWatching(event);
+                }
+              }
+            },
+            REMOTE_STATE_TRANSIT_ESTIMATE,
+            OFFLINE_FLUSH_SETTLE_DEADLINE,
+            HandlerScheduler.forMainLooper(),
+            logProducer,
+            tracer);
+    if (BuildConfig.DEBUG && SIMULATED_MEDIA_SOURCE_ENABLED) {
+      mediaPlayer.setMediaSource(
+          new SimulatedMediaSource(
+              new SimulatedNetworkLink(
+                  SIMULATED_BANDWIDTH_BITS_PER_SECOND,
+                  SIMULATED_LATENCY,
+                  SIMULATED_BANDWIDTH_JITTER,
+                  System.nanoTime()),
+              new AbrPolicy(SIMULATED_BITRATE_LEVELS, BUFFER_HIGH_WATERMARK),
+              SIMULATED_SEGMENT_DURATION,
+              BUFFER_LOW_WATERMARK,
+              BUFFER_HIGH_WATERMARK,
+              BUFFER_MAX_AHEAD,
+              HandlerScheduler.forMainLooper(),
+              mediaPlayer::onSourceBufferingChanged));
+    }
+    coDoingUpdateCoalescer =
+        new UpdateCoalescer<>(
+            this::broadcastCoDoingState,
+            CO_DOING_UPDATE_WINDOW,
+            HandlerScheduler.forMainLooper());
+    participantMetadataPublisher =
+        new ParticipantMetadataPublisher(
+            this::sendParticipantMetadata,
+            this::onParticipantMetadataTransmitted,
+            PARTICIPANT_METADATA_UPDATE_WINDOW,
+            HandlerScheduler.forMainLooper());
+    chunkedStateTransport =
+        new ChunkedStateTransport(
+            this::dispatchCoDoingFrame, this::applyCoDoingState, HandlerScheduler.forMainLooper());
+    // The controls act on the components above; until now, taps and the spinner's initial
+    // selection are dropped.
+    setOnClickListeners();
+    openSyncJournal();
+    restoreResumeSnapshot();
+    startupTracer.mark(PHASE_DEFERRED_INIT);
+    logProducer.write("Startup: %s", startupTracer.report());
+    reportFullyDrawn();
+  }
+
+  /**
+   * Starts recording to the sync journal of this process. The first activity of a process starts
+   * a new journal, keeping the previous one so that a session that ended in a crash can still be
+   * pulled off the device.
+   */
+  private void openSyncJournal() {
+    if (!processSyncJournalOpened) {
+      processSyncJournalOpened = true;
+      File journalFile = new File(getFilesDir(), SYNC_JOURNAL_FILE_NAME);
+      if (journalFile.exists()
+          && !journalFile.renameTo(new File(getFilesDir(), PREVIOUS_SYNC_JOURNAL_FILE_NAME))) {
+        logProducer.write("Failed to keep the previous sync journal.");
+      }
+      try {
+        processSyncJournal =
+            Optional.of(
+                new SyncJournal(
+                    new BufferedOutputStream(new FileOutputStream(journalFile)),
+                    MAX_SYNC_JOURNAL_BYTES));
+      } catch (IOException e) {
+        logProducer.write("Sync journal disabled: %s", e.getMessage());
+      }
+    }
+    syncJournal = processSyncJournal;
+  }
+
+  private void flushSyncJournal() {
+    try {
+      if (syncJournal.isPresent()) {
+        syncJournal.get().flush();
+      }
+    } catch (IOException e) {
+      logProducer.write("Failed to flush the sync journal: %s", e.getMessage());
+    }
+  }
+
+  /** Returns the current player and session state, if the media player has been created. */
+  private Optional<ResumeSnapshot> captureResumeSnapshot() {
+    if (mediaPlayer == null) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        ResumeSnapshot.create(
+            mediaPlayer.getSnapshot(),
+            mediaPlayer.getPlayoutRate(),
+            sessionType,
+            System.currentTimeMillis()
+                - TimeUnit.NANOSECONDS.toMillis(
+                    SystemClock.elapsedRealtimeNanos()
+                        - mediaPlayer.getSnapshot().anchorTimeNanos())));
+  }
+
+  private void writeResumeSnapshotFile(byte[] bytes) {
+    AtomicFile file = new AtomicFile(new File(getFilesDir(), RESUME_SNAPSHOT_FILE_NAME));
+    FileOutputStream out = null;
+    try {
+      out = file.startWrite();
+      out.write(bytes);
+      file.finishWrite(out);
+    } catch (IOException e) {
+      if (out != null) {
+        file.failWrite(out);
+      }
+      logProducer.write("Failed to persist resume snapshot: %s", e.getMessage());
+    }
+  }
+
+  /**
+   * Restores the state from before the activity was recreated: the saved instance state if there
+   * is one, and otherwise the player state from a recent snapshot file left behind by a previous
+   * process. Only a recreated activity rejoins a session; a fresh launch never does.
+   */
+  private void restoreResumeSnapshot() {
+    long nowWallClockMillis = System.currentTimeMillis();
+    Optional<ResumeSnapshot> snapshot;
+    boolean recreated = savedResumeSnapshot.isPresent();
+    if (recreated) {
+      snapshot = ResumeSnapshot.decode(savedResumeSnapshot.get());
+    } else {
+      snapshot =
+          readResumeSnapshotFile()
+              .flatMap(ResumeSnapshot::decode)
+              .filter(
+                  fileSnapshot ->
+                      fileSnapshot.age(nowWallClockMillis).compareTo(MAX_RESUME_SNAPSHOT_FILE_AGE)
+                          <= 0);
+    }
+    savedResumeSnapshot = Optional.empty();
+    if (snapshot.isPresent()) {
+      applyResumeSnapshot(snapshot.get(), nowWallClockMillis);
+      if (recreated) {
+        rejoinSession(snapshot.get().sessionType());
+      }
+    }
+  }
+
+  private Optional<byte[]> readResumeSnapshotFile() {
+    AtomicFile file = new AtomicFile(new File(getFilesDir(), RESUME_SNAPSHOT_FILE_NAME));
+    try {
+      return Optional.of(file.readFully());
+    } catch (FileNotFoundException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      logProducer.write("Failed to read resume snapshot: %s", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Puts the player back onto the persisted media, rate and the position it would have reached by
+   * now, but paused: only a session's canonical state, once rejoined, starts playback again.
+   */
+  private void applyResumeSnapshot(ResumeSnapshot snapshot, long nowWallClockMillis) {
+    PlaybackSnapshot playback = snapshot.playback();
+    if (playback.mediaId().isPresent() && mediaMap.containsKey(playback.mediaId().get())) {
+      try {
+        registerMediaForPlayback(this, playback.mediaId().get(), /* broadcastUpdate= */ false);
+      } catch (MediaNotFoundException mediaNotFoundException) {
+        logProducer.write("Resume: %s", mediaNotFoundException.toString());
+        return;
+      }
+      double playoutRate = snapshot.nominalPlayoutRate();
+      mediaPlayer.setPlayoutRate(playoutRate);
+      int playoutRatePosition = PLAYOUT_RATE_RAW_VALUES.indexOf(playoutRate);
+      if (playoutRatePosition != -1) {
+        echoSuppressor.applyRemote(
+            SyncedControl.PLAYOUT_RATE,
+            playoutRate,
+            () -> spinnerPlayoutRates.setSelection(playoutRatePosition));
+      }
+      Duration position =
+          snapshot.positionAt(SystemClock.elapsedRealtimeNanos(), nowWallClockMillis);
+      mediaPlayer.setCurrentPosition(position);
+      pauseMediaPlayback(/* simulateBuffering= */ false);
+      logProducer.write(
+          "Resume: restored %s paused at %s, rate %s, was %s",
+          playback.mediaId().get(), position, playoutRate, playback.state());
+    }
+  }
+
+  /** Begins a session of {@code type} once the session of the destroyed instance has ended. */
+  private void rejoinSession(SessionType type) {
+    if (type == SessionType.NONE) {
+      return;
+    }
+    logProducer.write("Resume: rejoining a %s session.", type);
+    destroyedInstanceSessionEnd.addListener(
+        () ->
+            runOnUiThread(
+                () -> {
+                  if (isDestroyed()) {
+                    return;
+                  }
+                  switch (type) {
+                    case CO_WATCHING:
+                      beginCoWatching();
+                      break;
+                    case CO_DOING:
+                      beginCoDoing();
+                      break;
+                    case BOTH:
+                      beginCoWatchingAndDoing();
+                      break;
+                    case NONE:
+                      break;
+                  }
+                }),
+        directExecutor());
+  }
+
+  /**
+   * Creates the engine that plays {@code media}.
+   *
+   * <p>Media content is looked up in {@link Media#contentFile()} and otherwise in the app's movies
+   * directory as {@code <media id>.mp4}. Media without content, or whose content cannot be decoded,
+   * falls back to timed playback.
+   */
+  private PlaybackEngine createPlaybackEngine(Media media) {
+    Optional<File> contentFile = findContentFile(media);
+    Surface surface = surfaceViewMedia.getHolder().getSurface();
+    if (contentFile.isPresent() && surface.isValid()) {
+      try {
+        return FileMediaPlaybackEngine.open(
+            contentFile.get(), surface, () -> runOnUiThread(() -> onPlaybackEngineFailed(media)));
+      } catch (IOException e) {
+        logProducer.write(
+            "Cannot play %s from %s, falling back to timed playback: %s",
+            media.name(), contentFile.get(), e.getMessage());
+      }
+    }
+    return new TimerPlaybackEngine(media.duration(), SystemClock::elapsedRealtimeNanos);
+  }
+
+  /** Stops local playback of {@code media} once its decoder failed for good. */
+  private void onPlaybackEngineFailed(Media media) {
+    logProducer.write("Decoding %s failed, stopping playback.", media.name());
+    if (!mediaPlayer.getActiveMedia().equals(Optional.of(media))) {
+      return;
+    }
+    Toast.makeText(this, "Cannot play " + media.name(), Toast.LENGTH_SHORT).show();
+    stopMediaPlayback(/* broadcastUpdate= */ false);
+  }
+
+  private Optional<File> findContentFile(Media media) {
+    if (media.contentFile().isPresent()) {
+      return media.contentFile();
+    }
+    File sampleFile =
+        new File(getExternalFilesDir(Environment.DIRECTORY_MOVIES), media.id() + ".mp4");
+    return sampleFile.exists() ? Optional.of(sampleFile) : Optional.empty();
+  }
+
+  /** Starts loading seek previews of {@code media}, replacing those of the previous media. */
+  private void prepareSeekPreviews(Media media) {
+    closeSeekPreviews();
+    Optional<File> contentFile = findContentFile(media);
+    if (!contentFile.isPresent()) {
+      return;
+    }
+    try {
+      SeekPreviewLoader<Bitmap> loader =
+          new SeekPreviewLoader<>(
+              media.id(),
+              new RetrieverFrameExtractor(contentFile.get(), SEEK_PREVIEW_WIDTH_PX),
+              Bitmap::getAllocationByteCount,
+              SEEK_PREVIEW_CACHE_BYTES,
+              media.duration(),
+              SEEK_PREVIEW_INTERVAL,
+              SEEK_PREVIEW_PREFETCH_RADIUS,
+              seekPreviewExecutor,
+              (mediaId, position, preview) -> runOnUiThread(() -> onSeekPreviewLoaded(mediaId)));
+      loader.start();
+      seekPreviewLoader = Optional.of(loader);
+    } catch (IOException e) {
+      logProducer.write("Seek previews unavailable for %s: %s", media.name(), e.getMessage());
+    }
+  }
+
+  private void closeSeekPreviews() {
+    seekPreviewLoader.ifPresent(SeekPreviewLoader::close);
+    seekPreviewLoader = Optional.empty();
+    imageViewSeekPreview.setVisibility(View.GONE);
+  }
+
+  /** Shows the cached preview for {@code position}; misses are filled in once loaded. */
+  private void showSeekPreview(Duration position) {
+    if (imageViewSeekPreview.getVisibility() != View.VISIBLE || !seekPreviewLoader.isPresent()) {
+      return;
+    }
+    seekPreviewLoader.get().getPreview(position).ifPresent(imageViewSeekPreview::setImageBitmap);
+  }
+
+  /** Shows the preview nearest to the drag position again, now that one more is loaded. */
+  private void onSeekPreviewLoaded(String mediaId) {
+    if (seekPreviewLoader.isPresent() && seekPreviewLoader.get().getMediaId().equals(mediaId)) {
+      showSeekPreview(Duration.ofSeconds(seekBarMedia.getProgress()));
+    }
   }
 
   /** Initializes UI elements such as buttons, switches etc. */
@@ -200,6 +1088,8 @@ public final class MainActivity extends AppCompatActivity
     btnPause = findViewById(R.id.button_pause);
     btnSetMetadata = findViewById(R.id.button_set_metadata);
     seekBarMedia = findViewById(R.id.seekbar_media);
+    surfaceViewMedia = findViewById(R.id.surfaceview_media);
+    imageViewSeekPreview = findViewById(R.id.imageview_seek_preview);
     spinnerPlayoutRates = (Spinner) findViewById(R.id.spinner_playoutrate);
     String[] dropdownValues = new String[PLAYOUT_RATE_RAW_VALUES.size()];
     for (int i = 0; i < PLAYOUT_RATE_RAW_VALUES.size(); i++) {
@@ -218,12 +1108,17 @@ public final class MainActivity extends AppCompatActivity
     spinnerPlayoutRates.setSelection(adapter.getPosition("1.0x"));
   }
 
-  /** Initializes the {@link LogConsumer}. */
+  /**
+   * Initializes the {@link LogConsumer}.
+   *
+   * <p>Messages written before this point wait in the log queue and are shown once the consumer
+   * starts.
+   */
   private void initializeInternalLogging() {
-    logConsumer = new LogConsumer(logQueue);
-    logConsumer.subscribe(textViewLogWindow);
+    logConsumer =
+        new LogConsumer(logQueue, HandlerScheduler.forMainLooper(), messageTimingMonitor, tracer);
+    logConsumer.subscribe(textViewLogWindow::append);
     new Thread(logConsumer).start();
-    logProducer = new LogProducer(logQueue);
   }
 
   /** Sets {@code onClick} listeners for various UI components. */
@@ -245,34 +1140,43 @@ public final class MainActivity extends AppCompatActivity
           public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
             if (fromUser) {
               Duration seekDuration = Duration.ofSeconds(progress);
+              showSeekPreview(seekDuration);
               mediaPlayer.setCurrentPosition(seekDuration);
-              maybeUpdateCoWatching(coWatching -> coWatching.notifySeekToTimestamp(seekDuration));
+              notifyCoWatching(
+                  SyncEvent.seekToTimestamp(SystemClock.elapsedRealtimeNanos(), seekDuration));
             }
           }
 
           @Override
-          public void onStartTrackingTouch(SeekBar seekBar) {}
+          public void onStartTrackingTouch(SeekBar seekBar) {
+            if (seekPreviewLoader.isPresent()) {
+              imageViewSeekPreview.setImageDrawable(null);
+              imageViewSeekPreview.setVisibility(View.VISIBLE);
+              showSeekPreview(Duration.ofSeconds(seekBar.getProgress()));
+            }
+          }
 
           @Override
-          public void onStopTrackingTouch(SeekBar seekBar) {}
+          public void onStopTrackingTouch(SeekBar seekBar) {
+            imageViewSeekPreview.setVisibility(View.GONE);
+          }
         });
 
     spinnerPlayoutRates.setOnItemSelectedListener(
         new AdapterView.OnItemSelectedListener() {
           @Override
           public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-            // If triggered by the program itself as a side effect of call to setSelection method,
-            // do not proceed as in this case the intention is to only set the selection and not
-            // trigger associated listener.
-            if (!onItemSelectedListenerTriggeredByUser) {
-              onItemSelectedListenerTriggeredByUser = true;
+            double playoutRate = PLAYOUT_RATE_RAW_VALUES.get(position);
+            // Selecting a rate applied from the network also lands here; it is already in effect.
+            if (!echoSuppressor.shouldBroadcast(SyncedControl.PLAYOUT_RATE, playoutRate)) {
               return;
             }
-            mediaPlayer.setPlayoutRate(PLAYOUT_RATE_RAW_VALUES.get(position));
-            maybeUpdateCoWatching(
-                coWatching ->
-                    coWatching.notifyPlayoutRate(
-                        PLAYOUT_RATE_RAW_VALUES.get(position), mediaPlayer.getCurrentPosition()));
+            mediaPlayer.setPlayoutRate(playoutRate);
+            notifyCoWatching(
+                SyncEvent.playoutRate(
+                    SystemClock.elapsedRealtimeNanos(),
+                    playoutRate,
+                    mediaPlayer.getCurrentPosition()));
           }
 
           @Override
@@ -314,30 +1218,30 @@ public final class MainActivity extends AppCompatActivity
     if (!activeMedia.isPresent()) {
       return;
     }
-    try {
-      Duration currentPosition = mediaPlayer.getCurrentPosition();
-      mediaPlayer.stopMediaPlayback(
-          seekBarPosition ->
-              runOnUiThread(
-                  () -> {
-                    seekBarMedia.setProgress(seekBarPosition);
-                    if (mediaBtnMap.containsKey(activeMedia.get())) {
-                      mediaBtnMap.get(activeMedia.get()).setChecked(false);
-                    } else {
-                      Toast.makeText(
-                              getApplicationContext(),
-                              "No associated button for this media was found on UI. Please make"
-                                  + " sure all media objects have associated UI buttons before"
-                                  + " running the app.",
-                              Toast.LENGTH_LONG)
-                          .show();
-                    }
-                  }));
-      if (broadcastUpdate) {
-        maybeUpdateCoWatching(coWatching -> coWatching.notifyEnded(currentPosition));
-      }
-    } catch (MediaNotActiveException mediaNotActiveException) {
-      Toast.makeText(this, mediaNotActiveException.toString(), Toast.LENGTH_SHORT).show();
+    closeSeekPreviews();
+    Duration currentPosition = mediaPlayer.getCurrentPosition();
+    PlaybackStateMachine.Result result =
+        mediaPlayer.stopMediaPlayback(
+            seekBarPosition ->
+                runOnUiThread(
+                    () -> {
+                      seekBarMedia.setProgress(seekBarPosition);
+                      if (mediaBtnMap.containsKey(activeMedia.get())) {
+                        mediaBtnMap.get(activeMedia.get()).setChecked(false);
+                      } else {
+                        Toast.makeText(
+                                getApplicationContext(),
+                                "No associated button for this media was found on UI. Please make"
+                                    + " sure all media objects have associated UI buttons before"
+                                    + " running the app.",
+                                Toast.LENGTH_LONG)
+                            .show();
+                      }
+                    }));
+    if (result != PlaybackStateMachine.Result.APPLIED) {
+      showRejection(result);
+    } else if (broadcastUpdate) {
+      notifyCoWatching(SyncEvent.ended(SystemClock.elapsedRealtimeNanos(), currentPosition));
     }
     runOnUiThread(
         () ->
@@ -359,7 +1263,12 @@ public final class MainActivity extends AppCompatActivity
     if (!mediaMap.containsKey(mediaId)) {
       throw new MediaNotFoundException("Media with Id: " + mediaId + " not found.");
     }
-    Media media = mediaMap.get(mediaId);
+    registerMediaForPlayback(context, mediaMap.get(mediaId), broadcastUpdate);
+  }
+
+  /** Performs tasks required for playback registration of {@code media}, which is known. */
+  private void registerMediaForPlayback(Context context, Media media, boolean broadcastUpdate) {
+    prepareSeekPreviews(media);
     mediaPlayer.registerMediaForPlayback(
         seekBarPosition ->
             runOnUiThread(
@@ -371,13 +1280,15 @@ public final class MainActivity extends AppCompatActivity
                   seekBarMedia.setMax((int) media.duration().getSeconds());
                 }),
         media);
-    mediaPlayer.getStatePublisher().subscribe(textViewTimer);
+    mediaPlayer.getStatePublisher().subscribe(textViewTimer::setText);
     startMediaPlayback();
     if (broadcastUpdate) {
-      maybeUpdateCoWatching(
-          coWatching ->
-              coWatching.notifySwitchedToMedia(
-                  media.name(), mediaId, /* mediaPlayoutPosition= */ Duration.ZERO));
+      notifyCoWatching(
+          SyncEvent.switchedToMedia(
+              SystemClock.elapsedRealtimeNanos(),
+              media.name(),
+              media.id(),
+              /* position= */ Duration.ZERO));
     }
   }
 
@@ -421,26 +1332,50 @@ public final class MainActivity extends AppCompatActivity
     }
     Toast.makeText(this, "Playing Media.", Toast.LENGTH_SHORT).show();
     startMediaPlayback();
-    maybeUpdateCoWatching(
-        coWatching ->
-            coWatching.notifyPauseState(/* paused= */ false, mediaPlayer.getCurrentPosition()));
+    notifyCoWatching(
+        SyncEvent.pauseState(
+            SystemClock.elapsedRealtimeNanos(),
+            /* paused= */ false,
+            mediaPlayer.getCurrentPosition()));
   }
 
   private void startMediaPlayback() {
-    try {
-      mediaPlayer.startMediaPlayback(
-          seekBarProgress -> runOnUiThread(() -> seekBarMedia.setProgress(seekBarProgress)));
-    } catch (MediaNotActiveException mediaNotActiveException) {
-      Toast.makeText(this, mediaNotActiveException.toString(), Toast.LENGTH_SHORT).show();
-    }
+    showRejection(
+        mediaPlayer.startMediaPlayback(
+            seekBarProgress -> runOnUiThread(() -> seekBarMedia.setProgress(seekBarProgress))));
   }
 
-  /** Wraps {@link MediaPlayer#pauseMediaPlayback} with exception handling. */
+  /** Wraps {@link MediaPlayer#pauseMediaPlayback}, telling the user if it was rejected. */
   private void pauseMediaPlayback(boolean simulateBuffering) {
-    try {
-      mediaPlayer.pauseMediaPlayback(simulateBuffering);
-    } catch (MediaNotActiveException mediaNotActiveException) {
-      Toast.makeText(this, mediaNotActiveException.toString(), Toast.LENGTH_SHORT).show();
+    showRejection(mediaPlayer.pauseMediaPlayback(simulateBuffering));
+  }
+
+  /**
+   * Tells the user why the media player rejected a command, if it did. A command that was already
+   * in effect needs no explanation.
+   */
+  private void showRejection(PlaybackStateMachine.Result result) {
+    switch (result) {
+      case APPLIED:
+      case ALREADY_IN_STATE:
+        break;
+      case NO_ACTIVE_MEDIA:
+        Toast.makeText(
+                this,
+                "No active media is selected. Please select media before proceeding.",
+                Toast.LENGTH_SHORT)
+            .show();
+        break;
+      case MEDIA_ENDED:
+        Toast.makeText(
+                this,
+                "Media has reached the end of play. Seek back or select media to play it again.",
+                Toast.LENGTH_SHORT)
+            .show();
+        break;
+      case INVALID_TRANSITION:
+        logProducer.write("Media player rejected a command in state %s.", mediaPlayer.getState());
+        break;
     }
   }
 
@@ -460,22 +1395,71 @@ public final class MainActivity extends AppCompatActivity
     }
     Toast.makeText(this, "Pausing Media.", Toast.LENGTH_SHORT).show();
     pauseMediaPlayback(/* simulateBuffering= */ false);
-    maybeUpdateCoWatching(
-        coWatching ->
-            coWatching.notifyPauseState(/* paused= */ true, mediaPlayer.getCurrentPosition()));
+    notifyCoWatching(
+        SyncEvent.pauseState(
+            SystemClock.elapsedRealtimeNanos(),
+            /* paused= */ true,
+            mediaPlayer.getCurrentPosition()));
   }
 
   /** Handles "set metadata" button click. */
   public void handleSetMetadataBtnClick(View view) {
-    session.ifPresent(
-        session -> {
-          try {
-            session.updateParticipantMetadata(PARTICIPANT_METADATA.getBytes());
-            logProducer.write("#setParticipantMetadata: setting sample participant metadata.");
-          } catch (IllegalStateException | IllegalArgumentException e) {
-            logProducer.write("#setParticipantMetadata failed with error: %s", e);
-          }
-        });
+    publishParticipantMetadata();
+  }
+
+  /** Publishes the local participant's metadata, if it changed since it was last sent. */
+  private void publishParticipantMetadata() {
+    participantMetadataPublisher.publish(localParticipantMetadata());
+  }
+
+  private ParticipantMetadata localParticipantMetadata() {
+    return ParticipantMetadata.builder()
+        .setParticipantId(localParticipantId)
+        .setDisplayName(PARTICIPANT_DISPLAY_NAME)
+        .setFlags(mayChangeSessionState ? ParticipantMetadata.FLAG_MAY_CHANGE_STATE : 0)
+        .setPendingIntent(playbackAuthority.getPendingIntent())
+        .setAppliedIntents(playbackAuthority.getAppliedIntents())
+        .build();
+  }
+
+  /**
+   * Re-elects the playback leader from the known participants. The local participant only takes
+   * part once the others can see its metadata, so that everyone elects from the same set.
+   */
+  private void electPlaybackLeader() {
+    List<ParticipantMetadata> participants =
+        new ArrayList<>(participantRegistry.getParticipants().values());
+    if (localMetadataPublished) {
+      participants.add(localParticipantMetadata());
+    }
+    playbackAuthority.updateParticipants(participants);
+  }
+
+  private boolean sendParticipantMetadata(byte[] encodedMetadata) {
+    if (!session.isPresent()) {
+      return false;
+    }
+    try {
+      session.get().updateParticipantMetadata(encodedMetadata);
+      return true;
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      logProducer.write("#setParticipantMetadata failed with error: %s", e);
+      return false;
+    }
+  }
+
+  /** Called once the publisher has sent and counted an update of the local metadata. */
+  private void onParticipantMetadataTransmitted(byte[] encodedMetadata) {
+    logProducer.write(
+        "#setParticipantMetadata: set participant metadata of %s bytes (transmitted: %s, bytes:"
+            + " %s, duplicates: %s, merged: %s).",
+        encodedMetadata.length,
+        participantMetadataPublisher.getTransmittedCount(),
+        participantMetadataPublisher.getTransmittedBytes(),
+        participantMetadataPublisher.getDuplicateCount(),
+        participantMetadataPublisher.getMergedCount());
+    localMetadataPublished = true;
+    electPlaybackLeader();
   }
 
   /** Handles a background color toggle change. */
@@ -488,18 +1472,27 @@ public final class MainActivity extends AppCompatActivity
       btn.getRootView().setBackgroundColor(getResources().getColor(android.R.color.white));
     }
 
-    // Only broadcast update if the user has manually pressed the background change button.
-    if (btn.isPressed()) {
-      logProducer.write("Broadcasting new coDoing state %s with CoDoing#setGlobalState", isChecked);
-      maybeUpdateCoDoing(
-          coDoing ->
-              coDoing.setGlobalState(
-                  CoDoingState.builder()
-                      .setState(ByteString.copyFromUtf8(String.valueOf(isChecked)).toByteArray())
-                      .build()));
+    // Only broadcast the change if it did not come from the network.
+    if (echoSuppressor.shouldBroadcast(SyncedControl.BACKGROUND_COLOR, isChecked)) {
+      coDoingUpdateCoalescer.submit(
+          CoDoingState.builder()
+              .setState(ByteString.copyFromUtf8(String.valueOf(isChecked)).toByteArray())
+              .build());
     }
   }
 
+  /** Broadcasts a co-doing state that survived coalescing. */
+  private void broadcastCoDoingState(CoDoingState coDoingState) {
+    logProducer.write(
+        "Broadcasting new coDoing state %s with CoDoing#setGlobalState (sent: %s, suppressed: %s,"
+            + " echoes dropped: %s)",
+        ByteString.copyFrom(coDoingState.state()).toStringUtf8(),
+        coDoingUpdateCoalescer.getSentCount(),
+        coDoingUpdateCoalescer.getSuppressedCount(),
+        echoSuppressor.getSuppressedCount());
+    setCoDoingGlobalState(coDoingState.state());
+  }
+
   private void beginCoWatching() {
     beginSession(
         builder -> builder.withCoWatching(/* coWatchingHandler= */ this), SessionType.CO_WATCHING);
@@ -523,16 +1516,23 @@ public final class MainActivity extends AppCompatActivity
       Toast.makeText(this, "A session is already in progress.", Toast.LENGTH_SHORT).show();
       return;
     }
-
-    AddonSession.Builder builder =
-        addonClient
-            .newSessionBuilder(/* handler= */ this)
-            .withParticipantMetadata(/* handler= */ this);
+    if (sessionManager.isBeginPending()) {
+      Toast.makeText(this, "A session is already starting.", Toast.LENGTH_SHORT).show();
+      return;
+    }
 
     logProducer.write("Calling AddonSession.Builder#begin.");
 
     addCallback(
-        setUpSessionFn.apply(builder).begin(getApplicationContext()),
+        sessionManager.begin(
+            client ->
+                setUpSessionFn
+                    .apply(
+                        client
+                            .newSessionBuilder(/* handler= */ this)
+                            .withParticipantMetadata(/* handler= */ this))
+                    .begin(getApplicationContext()),
+            AddonSession::endSession),
         new FutureCallback<AddonSession>() {
           @Override
           public void onSuccess(AddonSession result) {
@@ -548,6 +1548,14 @@ public final class MainActivity extends AppCompatActivity
             setStartButtonsVisible(/* visible= */ false);
             addonMeetingInfo = Optional.of(meetingInfo);
             sessionType = type;
+            sessionStartedNanos = SystemClock.elapsedRealtimeNanos();
+            startupTracer.mark(PHASE_SESSION_READY);
+            logProducer.write("Startup: %s", startupTracer.report());
+            if (LEADER_AUTHORITY_ENABLED) {
+              // Leader election needs everyone's metadata.
+              runOnUiThread(MainActivity.this::publishParticipantMetadata);
+            }
+            runOnUiThread(coWatchingSync::scheduleOfflineFlush);
           }
 
           @Override
@@ -577,7 +1585,7 @@ public final class MainActivity extends AppCompatActivity
     session.ifPresent(
         activeSession ->
             addCallback(
-                activeSession.endSession(),
+                sessionManager.end(activeSession::endSession),
                 new FutureCallback<Void>() {
                   @Override
                   public void onSuccess(Void result) {
@@ -586,6 +1594,7 @@ public final class MainActivity extends AppCompatActivity
                     setUiControlsEnabledState(/* state= */ true);
                     session = Optional.empty();
                     sessionType = SessionType.NONE;
+                    runOnUiThread(this::resetOutboundState);
                   }
 
                   @Override
@@ -596,146 +1605,291 @@ public final class MainActivity extends AppCompatActivity
                 directExecutor()));
   }
 
-  /** Applies co-watching state to the media player. */
+  /**
+   * Drops outbound updates that are pending for the session that just ended, including local
+   * actions buffered before it began that were not sent yet. Actions taken from now on are buffered
+   * for the next session.
+   */
+  private void resetOutboundState() {
+    coWatchingSync.reset();
+    coDoingUpdateCoalescer.reset();
+    participantMetadataPublisher.reset();
+    echoSuppressor.reset();
+    playbackAuthority.reset();
+    chunkedStateTransport.reset();
+    localMetadataPublished = false;
+    sessionStartedNanos = -1;
+  }
+
+  /**
+   * Applies co-watching state to the media player.
+   *
+   * <p>The state is applied on the main thread, where the media player lives. The time of receipt
+   * is kept so that the position can be compensated for the time spent waiting there.
+   */
   @Override
   public void onCoWatchingStateChanged(CoWatchingState coWatchingState) {
-    logProducer.write("CoWatchingHandler#onCoWatchingStateChanged: callback method called by SDK.");
+    tracer.beginSection(TRACE_SECTION_CO_WATCHING_STATE_CHANGED);
+    try {
+      long receivedNanos = SystemClock.elapsedRealtimeNanos();
+      journal(
+          SyncEvent.coWatchingStateReceived(
+              receivedNanos,
+              coWatchingState.mediaId(),
+              coWatchingState.mediaPlayoutPosition(),
+              coWatchingState.mediaPlayoutRate(),
+              coWatchingState.playbackState().name()));
+      logProducer.write(
+          "CoWatchingHandler#onCoWatchingStateChanged: callback method called by SDK.");
 
-    logProducer.write(
-        "Received CoWatchingState: %s, with position:%s",
-        coWatchingState, coWatchingState.mediaPlayoutPosition().getSeconds());
+      logProducer.write(
+          "Received CoWatchingState: %s, with position:%s",
+          coWatchingState, coWatchingState.mediaPlayoutPosition().getSeconds());
+
+      long generation =
+          coWatchingSync.onStateReceived(
+              coWatchingState.mediaId(),
+              CoWatchingSync.stateOf(coWatchingState.playbackState().name()),
+              coWatchingState.mediaPlayoutPosition(),
+              coWatchingState.mediaPlayoutRate(),
+              receivedNanos);
+      runOnUiThread(
+          messageTimingMonitor.tag(
+              MESSAGE_CATEGORY_CO_WATCHING_APPLY,
+              () -> {
+                tracer.beginSection(TRACE_SECTION_APPLY_CO_WATCHING_STATE);
+                try {
+                  if (coWatchingSync.applyState(generation)) {
+                    maybeReportFirstSynchronizedFrame();
+                  }
+                } finally {
+                  tracer.endSection();
+                }
+              }));
+    } finally {
+      tracer.endSection();
+    }
+  }
 
-    try {
-      handleMediaRegistrationUpdate(coWatchingState.mediaId());
-    } catch (MediaNotFoundException mediaNotFoundException) {
-      logProducer.write("CoWatchingHandler: %s", mediaNotFoundException.toString());
+  /**
+   * Switches the player straight to {@code target}, a state of {@code media}, and updates the
+   * controls to match.
+   */
+  private void applyCanonicalTransition(Media media, PlaybackSnapshot target) {
+    mediaPlayer.getActiveMedia().ifPresent(previous -> mediaBtnMap.get(previous).setChecked(false));
+    prepareSeekPreviews(media);
+    mediaPlayer.applyCanonicalState(
+        seekBarProgress -> runOnUiThread(() -> seekBarMedia.setProgress(seekBarProgress)),
+        media,
+        target);
+    mediaBtnMap.get(media).setChecked(true);
+    seekBarMedia.setMax((int) media.duration().getSeconds());
+    mediaPlayer.getStatePublisher().subscribe(textViewTimer::setText);
+  }
+
+  /** Logs how long it took from the start of the session to the first synchronized frame. */
+  private void maybeReportFirstSynchronizedFrame() {
+    long startedNanos = sessionStartedNanos;
+    if (startedNanos < 0) {
       return;
     }
+    sessionStartedNanos = -1;
+    runAfterNextFrame(
+        frameNanos ->
+            logProducer.write(
+                "Time to first synchronized frame: %s ms",
+                TimeUnit.NANOSECONDS.toMillis(frameNanos - startedNanos)));
+  }
 
-    if (mediaPlayer.getPlayoutRate() != coWatchingState.mediaPlayoutRate()) {
+  /** Shows a playout rate chosen by another participant in the rate selection. */
+  private void showRemotePlayoutRate(double playoutRate) {
+    int playoutRatePosition = PLAYOUT_RATE_RAW_VALUES.indexOf(playoutRate);
+    if (playoutRatePosition != -1) {
+      echoSuppressor.applyRemote(
+          SyncedControl.PLAYOUT_RATE,
+          playoutRate,
+          () -> spinnerPlayoutRates.setSelection(playoutRatePosition));
+    } else {
       logProducer.write(
-          "CoWatchingHandler#onCoWatchingStateChanged: Changing playout rate to: %s",
-          coWatchingState.mediaPlayoutRate());
-      mediaPlayer.setPlayoutRate(coWatchingState.mediaPlayoutRate());
-      int playoutRatePosition = PLAYOUT_RATE_RAW_VALUES.indexOf(coWatchingState.mediaPlayoutRate());
-      if (playoutRatePosition != -1) {
-        onItemSelectedListenerTriggeredByUser = false;
-        runOnUiThread(() -> spinnerPlayoutRates.setSelection(playoutRatePosition));
-      } else {
-        logProducer.write(
-            "Could not find playout rate %s in available playout rates.",
-            coWatchingState.mediaPlayoutRate());
-      }
+          "Could not find playout rate %s in available playout rates; playing at it without"
+              + " updating the rate selection.",
+          playoutRate);
     }
+  }
 
-    if (!mediaPlayer.getCurrentPosition().equals(coWatchingState.mediaPlayoutPosition())) {
-      logProducer.write(
-          "CoWatchingHandler#onCoWatchingStateChanged: Changing playout position to: %s",
-          coWatchingState.mediaPlayoutPosition().getSeconds());
-      mediaPlayer.setCurrentPosition(coWatchingState.mediaPlayoutPosition());
+  private boolean isCoWatchingSession() {
+    if (!(sessionType.equals(SessionType.CO_WATCHING) || sessionType.equals(SessionType.BOTH))) {
+      logProducer.write("Skipped updating co-watching: wrong session type.");
+      return false;
     }
+    return session.isPresent();
+  }
 
-    handlePlaybackStateUpdates(coWatchingState.playbackState());
+  /**
+   * Publishes a local playback change to the session: broadcast directly, or sent to the playback
+   * leader if there is another one.
+   */
+  private void notifyCoWatching(SyncEvent event) {
+    if (shouldBufferOutbound()) {
+      offlineCommandBuffer.record(event);
+    } else if (isCoWatchingSession()) {
+      playbackAuthority.publish(event);
+    }
   }
 
   /**
-   * Takes appropriate media registration action based on received media information.
-   *
-   * @param mediaId ID of media that is currently playing.
+   * Returns whether outbound events should be buffered: while there is no session, and after one
+   * began until the events buffered before it have been flushed, so that they are not overtaken.
    */
-  private void handleMediaRegistrationUpdate(String mediaId) throws MediaNotFoundException {
-    boolean mediaRegistrationRequired = true;
-
-    if (mediaPlayer.getActiveMedia().isPresent()) {
-      Media activeMedia = mediaPlayer.getActiveMedia().get();
-      if (activeMedia.id().equals(mediaId)) {
-        mediaRegistrationRequired = false;
-      } else {
-        runOnUiThread(() -> mediaBtnMap.get(activeMedia).setChecked(false));
-        logProducer.write("handleMediaRegistrationUpdate: Stopping existing media" + " playback.");
-        stopMediaPlayback(/* broadcastUpdate= */ false);
-      }
+  private boolean shouldBufferOutbound() {
+    return !session.isPresent() || offlineCommandBuffer.getRecordedCount() > 0;
+  }
+
+  /** Sends an update of the co-doing global state of the session, framed by the transport. */
+  private void setCoDoingGlobalState(byte[] state) {
+    if (shouldBufferOutbound()) {
+      offlineCommandBuffer.record(
+          SyncEvent.setGlobalState(SystemClock.elapsedRealtimeNanos(), state));
+    } else if (isCoDoingSession()) {
+      chunkedStateTransport.send(state);
     }
+  }
 
-    if (mediaRegistrationRequired) {
-      logProducer.write(
-          "handleMediaRegistrationUpdate: Registering new media for playback" + " with ID %s",
-          mediaId);
-      registerMediaForPlayback(this, mediaId, /* broadcastUpdate= */ false);
-      runOnUiThread(() -> mediaBtnMap.get(mediaPlayer.getActiveMedia().get()).setChecked(true));
+  /** Queues a frame of {@link #chunkedStateTransport} as the co-doing global state. */
+  private void dispatchCoDoingFrame(byte[] frame) {
+    if (session.isPresent()) {
+      outboundSyncDispatcher.dispatch(
+          SyncEvent.setGlobalState(SystemClock.elapsedRealtimeNanos(), frame));
     }
   }
 
-  /**
-   * Takes appropriate media playback action based on received playback state
-   *
-   * @param playbackState the current state of media playback.
-   */
-  private void handlePlaybackStateUpdates(CoWatchingState.PlaybackState playbackState) {
-    switch (playbackState) {
-      case PLAY:
-        if (!mediaPlayer.isPlaying()) {
-          logProducer.write("handlePlaybackStateUpdates: Starting media playback.");
-          startMediaPlayback();
-        }
-        break;
-      case PAUSE:
-        if (!mediaPlayer.isPaused()) {
-          logProducer.write("handlePlaybackStateUpdates: Pausing media.");
-          pauseMediaPlayback(/* simulateBuffering= */ false);
-        }
-        break;
-      case BUFFERING:
-        if (!mediaPlayer.isBuffering()) {
-          logProducer.write("handlePlaybackStateUpdates: Buffering media.");
-          pauseMediaPlayback(/* simulateBuffering= */ true);
-        }
-        break;
-      case ENDED:
-        logProducer.write("handlePlaybackStateUpdates: Ended media playback.");
-        stopMediaPlayback(/* broadcastUpdate= */ false);
-        break;
+  /** Makes the SDK call for an outbound event and journals it, on {@link #outboundExecutor}. */
+  private void sendSyncEvent(SyncEvent event) {
+    Optional<AddonSession> currentSession = session;
+    if (!currentSession.isPresent()) {
+      // The session ended while the event was queued.
+      return;
     }
+    journal(event);
+    SyncClient.send(syncClientOf(currentSession.get()), event);
   }
 
-  private void maybeUpdateCoWatching(Consumer<CoWatchingClient> notifyFn) {
-    if (!(sessionType.equals(SessionType.CO_WATCHING) || sessionType.equals(SessionType.BOTH))) {
-      logProducer.write("Skipped updating co-watching: wrong session type.");
+  /** Adapts the co-doing and co-watching clients of {@code session}. */
+  private static SyncClient syncClientOf(AddonSession session) {
+    return new SyncClient() {
+      @Override
+      public void setGlobalState(byte[] state) {
+        session.getCoDoing().setGlobalState(CoDoingState.builder().setState(state).build());
+      }
+
+      @Override
+      public void notifySwitchedToMedia(String mediaTitle, String mediaId, Duration position) {
+        session.getCoWatching().notifySwitchedToMedia(mediaTitle, mediaId, position);
+      }
+
+      @Override
+      public void notifyPauseState(boolean paused, Duration position) {
+        session.getCoWatching().notifyPauseState(paused, position);
+      }
+
+      @Override
+      public void notifySeekToTimestamp(Duration position) {
+        session.getCoWatching().notifySeekToTimestamp(position);
+      }
+
+      @Override
+      public void notifyPlayoutRate(double playoutRate, Duration position) {
+        session.getCoWatching().notifyPlayoutRate(playoutRate, position);
+      }
+
+      @Override
+      public void notifyEnded(Duration position) {
+        session.getCoWatching().notifyEnded(position);
+      }
+    };
+  }
+
+  /** Logs outbound calls that failed or were slow. Runs on {@link #outboundExecutor}. */
+  private void onOutboundSyncDispatched(
+      SyncEvent event,
+      Duration queueingDelay,
+      Duration callLatency,
+      Optional<RuntimeException> failure) {
+    if (failure.isPresent()) {
+      logProducer.write("Failed to send %s: %s", event.type(), failure.get());
+    } else if (queueingDelay.plus(callLatency).compareTo(SLOW_OUTBOUND_SYNC_THRESHOLD) > 0) {
+      logProducer.write(
+          "Slow %s: queued %s ms, call %s ms (mean queued %s ms, mean call %s ms, sent: %s)",
+          event.type(),
+          queueingDelay.toMillis(),
+          callLatency.toMillis(),
+          outboundSyncDispatcher.getMeanQueueingDelay().toMillis(),
+          outboundSyncDispatcher.getMeanCallLatency().toMillis(),
+          outboundSyncDispatcher.getDispatchedCount());
+    }
+  }
+
+  /** Appends {@code event} to the sync journal, if it is open. */
+  private void journal(SyncEvent event) {
+    if (!syncJournal.isPresent()) {
       return;
     }
-    session.ifPresent(session -> notifyFn.accept(session.getCoWatching()));
+    try {
+      syncJournal.get().append(event);
+    } catch (IOException e) {
+      logProducer.write("Failed to journal %s: %s", event.type(), e.getMessage());
+    }
   }
 
-  private void maybeUpdateCoDoing(Consumer<CoDoingClient> notifyFn) {
+  private boolean isCoDoingSession() {
     if (!(sessionType.equals(SessionType.CO_DOING) || sessionType.equals(SessionType.BOTH))) {
       logProducer.write("Skipped updating co-doing: wrong session type.");
-      return;
+      return false;
     }
-    session.ifPresent(session -> notifyFn.accept(session.getCoDoing()));
+    return session.isPresent();
   }
 
-  /** Returns co-watching state based on the current media player state. */
+  /**
+   * Returns co-watching state based on the current media player state.
+   *
+   * <p>Called by the SDK on its own thread, so this only reads the player's latest snapshot and
+   * does not log.
+   */
   @Override
   public Optional<QueriedCoWatchingState> onStateQuery() {
     if (!session.isPresent()) {
       return Optional.empty();
     }
 
-    Duration position = mediaPlayer.getCurrentPosition();
-    logProducer.write("CoWatchingHandler#onCoWatchingStateQuery: %s", position);
+    Duration position = mediaPlayer.getSnapshotPosition();
     return Optional.of(() -> position);
   }
 
   /** Applies co-doing state. */
   @Override
   public void onGlobalStateChanged(CoDoingState coDoingState) {
+    long receivedNanos = SystemClock.elapsedRealtimeNanos();
+    journal(SyncEvent.globalStateReceived(receivedNanos, coDoingState.state()));
     logProducer.write("CoDoingHandler#onCoDoingStateChanged: callback method called by SDK.");
+    // Small states, and all states of participants running an older version, arrive unframed.
+    chunkedStateTransport.onFrameReceived(coDoingState.state());
+  }
+
+  /** Applies a complete co-doing state, either reassembled or received unframed. */
+  private void applyCoDoingState(byte[] state) {
     try {
-      String coDoingStateString = ByteString.copyFrom(coDoingState.state()).toStringUtf8();
+      String coDoingStateString = ByteString.copyFrom(state).toStringUtf8();
       logProducer.write(
           "CoDoingHandler#onCoDoingStateChanged: coDoingState value: %s", coDoingStateString);
       boolean checkedState = Boolean.parseBoolean(coDoingStateString);
-      runOnUiThread(() -> switchBackgroundColorChange.setChecked(checkedState));
+      runOnUiThread(
+          messageTimingMonitor.tag(
+              MESSAGE_CATEGORY_CO_DOING_APPLY,
+              () ->
+                  echoSuppressor.applyRemote(
+                      SyncedControl.BACKGROUND_COLOR,
+                      checkedState,
+                      () -> switchBackgroundColorChange.setChecked(checkedState))));
     } catch (RuntimeException exception) {
       logProducer.write(
           "CoDoingHandler#onCoDoingStateChanged: got exception: %s", exception.toString());
@@ -744,12 +1898,22 @@ public final class MainActivity extends AppCompatActivity
 
   @Override
   public void onParticipantMetadataUpdated(Set<Byte[]> allParticipantMetadata) {
-    logProducer.write("#onParticipantMetadataChanged: %s", allParticipantMetadata);
+    if (syncJournal.isPresent()) {
+      List<byte[]> metadata = new ArrayList<>(allParticipantMetadata.size());
+      for (Byte[] participantMetadata : allParticipantMetadata) {
+        metadata.add(Bytes.toArray(Arrays.asList(participantMetadata)));
+      }
+      journal(
+          SyncEvent.participantMetadataReceived(SystemClock.elapsedRealtimeNanos(), metadata));
+    }
+    participantRegistry.update(allParticipantMetadata);
+    runOnUiThread(this::electPlaybackLeader);
   }
 
   /** Handles the end of a session. */
   @Override
   public void onSessionEnded(EndReason endReason) {
+    journal(SyncEvent.sessionEnded(SystemClock.elapsedRealtimeNanos(), endReason.name()));
     if (!addonMeetingInfo.isPresent()) {
       logProducer.write(
           "onMeetingEnded: AddonMeetingInfo is absent indicating joinMeeting was"
@@ -777,18 +1941,33 @@ public final class MainActivity extends AppCompatActivity
     session = Optional.empty();
     sessionType = SessionType.NONE;
     addonMeetingInfo = Optional.empty();
+    runOnUiThread(this::resetOutboundState);
   }
 
   @Override
   public void onParticipantPrivilegeChanged(
       List<Privilege> privileges, List<Privilege> disabledPrivileges) {
+    journal(
+        SyncEvent.privilegeChanged(
+            SystemClock.elapsedRealtimeNanos(),
+            "+" + privileges + " -" + disabledPrivileges));
     logProducer.write(
         "#onParticipantPrivilegeChanged: assigned privileges: %s, revoked privileges: %s",
         privileges, disabledPrivileges);
     if (privileges.contains(Privilege.MAY_CHANGE_ADDON_SESSION_STATE)) {
       setUiControlsEnabledState(/* state= */ true);
+      runOnUiThread(() -> updateMayChangeSessionState(/* mayChange= */ true));
     } else if (disabledPrivileges.contains(Privilege.MAY_CHANGE_ADDON_SESSION_STATE)) {
       setUiControlsEnabledState(/* state= */ false);
+      runOnUiThread(() -> updateMayChangeSessionState(/* mayChange= */ false));
+    }
+  }
+
+  /** Records a privilege change and republishes participant metadata if it was set before. */
+  private void updateMayChangeSessionState(boolean mayChange) {
+    mayChangeSessionState = mayChange;
+    if (participantMetadataPublisher.getTransmittedCount() > 0) {
+      publishParticipantMetadata();
     }
   }
 
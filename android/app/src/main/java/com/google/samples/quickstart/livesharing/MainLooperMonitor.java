@@ -0,0 +1,73 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing;
+
+import android.os.Looper;
+import android.util.Printer;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.samples.quickstart.livesharing.core.MessageTimingMonitor;
+
+/**
+ * Feeds the messages of the main looper to a {@link MessageTimingMonitor}.
+ *
+ * <p>The looper's message logging hook reports every message, but while a printer is set the
+ * looper builds a description string for every message it dispatches, and the monitor scans it to
+ * categorize untagged messages. Without the hook, only tagged tasks are timed, by themselves: two
+ * clock reads and a map lookup per tagged task, and nothing for any other message.
+ */
+@CheckReturnValue
+final class MainLooperMonitor implements Printer {
+
+  private final MessageTimingMonitor monitor;
+
+  MainLooperMonitor(MessageTimingMonitor monitor) {
+    this.monitor = monitor;
+  }
+
+  private boolean logging = false;
+
+  /**
+   * Starts monitoring the main looper: every message with {@code logMessages}, which replaces any
+   * other message logging printer, and only tagged tasks otherwise.
+   */
+  void install(boolean logMessages) {
+    Looper looper = Looper.getMainLooper();
+    logging = logMessages;
+    if (logMessages) {
+      looper.setMessageLogging(this);
+    } else {
+      monitor.timeTaggedTasksOn(looper.getThread());
+    }
+  }
+
+  void uninstall() {
+    if (logging) {
+      Looper.getMainLooper().setMessageLogging(null);
+      logging = false;
+    }
+    monitor.timeTaggedTasksOn(null);
+  }
+
+  @Override
+  public void println(String x) {
+    // The looper prints ">>>>> Dispatching to ..." before and "<<<<< Finished to ..." after a
+    // message.
+    if (x.startsWith(">>>>>")) {
+      monitor.onDispatchStarted(x);
+    } else if (x.startsWith("<<<<<")) {
+      monitor.onDispatchFinished();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.samples.quickstart.livesharing.core.SeekPreviewLoader;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/** Extracts scaled-down preview frames from a local media file. */
+@CheckReturnValue
+final class RetrieverFrameExtractor implements SeekPreviewLoader.FrameExtractor<Bitmap> {
+
+  private static final String TAG = "RetrieverFrameExtractor";
+
+  private final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+  private final int widthPx;
+
+  /** Opens {@code file}; previews are scaled to {@code widthPx} keeping the aspect ratio. */
+  RetrieverFrameExtractor(File file, int widthPx) throws IOException {
+    try {
+      retriever.setDataSource(file.getPath());
+    } catch (IllegalArgumentException e) {
+      retriever.release();
+      throw new IOException("Cannot read " + file, e);
+    }
+    this.widthPx = widthPx;
+  }
+
+  @Override
+  public Optional<Bitmap> extractFrame(Duration position) {
+    // Sync frames decode without decoding their predecessors, which keeps extraction fast.
+    Bitmap frame =
+        retriever.getFrameAtTime(
+            TimeUnit.NANOSECONDS.toMicros(position.toNanos()),
+            MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+    if (frame == null) {
+      return Optional.empty();
+    }
+    int heightPx = Math.max(1, frame.getHeight() * widthPx / frame.getWidth());
+    Bitmap preview = Bitmap.createScaledBitmap(frame, widthPx, heightPx, /* filter= */ true);
+    if (preview != frame) {
+      frame.recycle();
+    }
+    return Optional.of(preview);
+  }
+
+  @Override
+  public void close() {
+    try {
+      retriever.release();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to release the retriever.", e);
+    }
+  }
+}
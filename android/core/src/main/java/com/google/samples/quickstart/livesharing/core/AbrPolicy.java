@@ -0,0 +1,86 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+
+/**
+ * An adaptive bitrate policy that picks the bitrate of the next segment.
+ *
+ * <p>Throughput is estimated with an exponentially weighted moving average over completed
+ * downloads. The policy picks the highest bitrate that fits within a safety fraction of that
+ * estimate, and steps down one level while the forward buffer is critically low.
+ */
+@CheckReturnValue
+public final class AbrPolicy {
+
+  /** Weight of the latest throughput sample in the moving average. */
+  private static final double SAMPLE_WEIGHT = 0.3;
+
+  /** Fraction of the estimated throughput that a bitrate may use. */
+  private static final double SAFETY_FACTOR = 0.8;
+
+  private final ImmutableList<Long> bitratesBitsPerSecond;
+  private final Duration criticalBufferLevel;
+
+  private double throughputEstimate = -1;
+
+  /**
+   * Creates a policy.
+   *
+   * @param bitratesBitsPerSecond available bitrate levels in ascending order
+   * @param criticalBufferLevel buffer level below which the policy steps down a level
+   */
+  public AbrPolicy(ImmutableList<Long> bitratesBitsPerSecond, Duration criticalBufferLevel) {
+    if (bitratesBitsPerSecond.isEmpty()) {
+      throw new IllegalArgumentException("At least one bitrate level is required.");
+    }
+    this.bitratesBitsPerSecond = bitratesBitsPerSecond;
+    this.criticalBufferLevel = criticalBufferLevel;
+  }
+
+  /** Returns the bitrate to download the next segment at, given the current buffer level. */
+  long selectBitrate(Duration bufferLevel) {
+    if (throughputEstimate < 0) {
+      return bitratesBitsPerSecond.get(0);
+    }
+    int level = 0;
+    for (int i = 0; i < bitratesBitsPerSecond.size(); i++) {
+      if (bitratesBitsPerSecond.get(i) <= throughputEstimate * SAFETY_FACTOR) {
+        level = i;
+      }
+    }
+    if (bufferLevel.compareTo(criticalBufferLevel) < 0 && level > 0) {
+      level--;
+    }
+    return bitratesBitsPerSecond.get(level);
+  }
+
+  /** Feeds a completed download into the throughput estimate. */
+  void onSegmentDownloaded(long bytes, Duration transferTime) {
+    double sample = bytes * 8 * 1e9 / Math.max(1, transferTime.toNanos());
+    throughputEstimate =
+        throughputEstimate < 0
+            ? sample
+            : SAMPLE_WEIGHT * sample + (1 - SAMPLE_WEIGHT) * throughputEstimate;
+  }
+
+  /** Returns the current throughput estimate in bits per second, or -1 before any download. */
+  double getThroughputEstimate() {
+    return throughputEstimate;
+  }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+/**
+ * A least-recently-used cache bounded by the total size of its values in bytes.
+ *
+ * <p>Values are sized once when inserted. Inserting evicts the least recently read or written
+ * entries until the new value fits; a value larger than the whole budget is not cached.
+ *
+ * @param <K> type of key
+ * @param <V> type of cached value
+ */
+@CheckReturnValue
+final class ByteBudgetLruCache<K, V> {
+
+  private final long maxBytes;
+  private final ToIntFunction<V> sizer;
+
+  /** Entries and their sizes, in access order from least to most recently used. */
+  private final LinkedHashMap<K, Sized<V>> entries =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  private long sizeBytes = 0;
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+
+  ByteBudgetLruCache(long maxBytes, ToIntFunction<V> sizer) {
+    this.maxBytes = maxBytes;
+    this.sizer = sizer;
+  }
+
+  /** Returns the value cached for {@code key} and marks it as most recently used. */
+  synchronized Optional<V> get(K key) {
+    Sized<V> entry = entries.get(key);
+    if (entry == null) {
+      missCount++;
+      return Optional.empty();
+    }
+    hitCount++;
+    return Optional.of(entry.value);
+  }
+
+  /** Returns whether {@code key} is cached, without affecting recency or statistics. */
+  synchronized boolean contains(K key) {
+    return entries.containsKey(key);
+  }
+
+  /** Caches {@code value}, evicting least recently used entries as needed. */
+  synchronized void put(K key, V value) {
+    int size = sizer.applyAsInt(value);
+    Sized<V> previous = entries.remove(key);
+    if (previous != null) {
+      sizeBytes -= previous.size;
+    }
+    if (size > maxBytes) {
+      return;
+    }
+    Iterator<Map.Entry<K, Sized<V>>> leastRecentlyUsed = entries.entrySet().iterator();
+    while (sizeBytes + size > maxBytes && leastRecentlyUsed.hasNext()) {
+      sizeBytes -= leastRecentlyUsed.next().getValue().size;
+      leastRecentlyUsed.remove();
+      evictionCount++;
+    }
+    entries.put(key, new Sized<>(value, size));
+    sizeBytes += size;
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  private static final class Sized<V> {
+    final V value;
+    final int size;
+
+    Sized(V value, int size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.util.Optional;
+
+/**
+ * The latest canonical playback state of the session, as received from the other participants.
+ *
+ * <p>States are put here on the thread they arrive on, anchored at the moment they were received,
+ * and applied later on the main thread. When several states queue up behind each other, e.g. the
+ * burst a participant receives right after joining, only the latest is applied; the others are
+ * skipped instead of each driving the player through its own transition.
+ */
+@CheckReturnValue
+final class CanonicalStateCache {
+
+  @GuardedBy("this")
+  private Optional<PlaybackSnapshot> latest = Optional.empty();
+
+  @GuardedBy("this")
+  private long generation = 0;
+
+  @GuardedBy("this")
+  private long skippedCount = 0;
+
+  /** Records {@code state} as the latest and returns its generation. */
+  synchronized long put(PlaybackSnapshot state) {
+    latest = Optional.of(state);
+    return ++generation;
+  }
+
+  /** Returns the latest state, if any was received since the cache was last cleared. */
+  synchronized Optional<PlaybackSnapshot> get() {
+    return latest;
+  }
+
+  /**
+   * Returns the state of {@code generation} if it is still the latest, and otherwise empty, since
+   * a newer state is going to be applied.
+   */
+  synchronized Optional<PlaybackSnapshot> getIfLatest(long generation) {
+    if (generation != this.generation) {
+      skippedCount++;
+      return Optional.empty();
+    }
+    return latest;
+  }
+
+  /** Forgets the state of the session that just ended. */
+  synchronized void clear() {
+    latest = Optional.empty();
+  }
+
+  /** Returns how many states were skipped because a newer one arrived before they were applied. */
+  synchronized long getSkippedCount() {
+    return skippedCount;
+  }
+}
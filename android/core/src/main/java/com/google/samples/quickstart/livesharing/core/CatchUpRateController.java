@@ -0,0 +1,130 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Corrects small playback drifts by nudging the playout rate instead of seeking.
+ *
+ * <p>Once a target is set, the controller extrapolates where playback should be and returns a
+ * rate multiplier that closes the gap over {@link #correctionHorizon}, bounded by {@link
+ * #maxRateDeviation}. Drifts below the tolerance count as converged; drifts at or above the seek
+ * threshold need a hard seek.
+ *
+ * <p>The returned multiplier applies on top of the nominal rate chosen by the user, which stays
+ * unchanged.
+ */
+@CheckReturnValue
+final class CatchUpRateController {
+
+  static final Duration DEFAULT_TOLERANCE = Duration.ofMillis(50);
+  static final Duration DEFAULT_SEEK_THRESHOLD = Duration.ofMillis(500);
+  static final Duration DEFAULT_CORRECTION_HORIZON = Duration.ofSeconds(4);
+  static final double DEFAULT_MAX_RATE_DEVIATION = 0.05;
+
+  private final long toleranceNanos;
+  private final long seekThresholdNanos;
+  private final long correctionHorizonNanos;
+  private final double maxRateDeviation;
+
+  private boolean hasTarget = false;
+  private long targetAnchorPositionNanos;
+  private long targetAnchorTimeNanos;
+  private double targetRate;
+
+  CatchUpRateController() {
+    this(
+        DEFAULT_TOLERANCE,
+        DEFAULT_SEEK_THRESHOLD,
+        DEFAULT_CORRECTION_HORIZON,
+        DEFAULT_MAX_RATE_DEVIATION);
+  }
+
+  CatchUpRateController(
+      Duration tolerance,
+      Duration seekThreshold,
+      Duration correctionHorizon,
+      double maxRateDeviation) {
+    this.toleranceNanos = tolerance.toNanos();
+    this.seekThresholdNanos = seekThreshold.toNanos();
+    this.correctionHorizonNanos = correctionHorizon.toNanos();
+    this.maxRateDeviation = maxRateDeviation;
+  }
+
+  /** Returns whether a drift is small enough to be ignored. */
+  boolean isWithinTolerance(Duration drift) {
+    return Math.abs(drift.toNanos()) <= toleranceNanos;
+  }
+
+  /** Returns whether a drift is too large to be corrected through the playout rate. */
+  boolean requiresSeek(Duration drift) {
+    return Math.abs(drift.toNanos()) >= seekThresholdNanos;
+  }
+
+  /**
+   * Starts catching up with a playback that was at {@code position} at monotonic time {@code
+   * nowNanos} and advances at {@code nominalRate}.
+   */
+  void setTarget(Duration position, double nominalRate, long nowNanos) {
+    hasTarget = true;
+    targetAnchorPositionNanos = position.toNanos();
+    targetAnchorTimeNanos = nowNanos;
+    targetRate = nominalRate;
+  }
+
+  /** Stops catching up, e.g. after a seek or a local playback change. */
+  void clearTarget() {
+    hasTarget = false;
+  }
+
+  /** Returns whether the controller is currently catching up with a target. */
+  boolean isCatchingUp() {
+    return hasTarget;
+  }
+
+  /** Returns where the target is at {@code nowNanos}, if catching up. */
+  Optional<Duration> targetPositionAt(long nowNanos) {
+    if (!hasTarget) {
+      return Optional.empty();
+    }
+    return Optional.of(Duration.ofNanos(targetPositionNanosAt(nowNanos)));
+  }
+
+  /**
+   * Returns the rate multiplier to apply given the local position at {@code nowNanos}.
+   *
+   * <p>Returns 1 when there is no target. The target is dropped once the drift is within
+   * tolerance.
+   */
+  double rateMultiplier(Duration localPosition, long nowNanos) {
+    if (!hasTarget) {
+      return 1;
+    }
+    long driftNanos = localPosition.toNanos() - targetPositionNanosAt(nowNanos);
+    if (Math.abs(driftNanos) <= toleranceNanos) {
+      hasTarget = false;
+      return 1;
+    }
+    double correction = (double) driftNanos / correctionHorizonNanos;
+    return 1 - Math.max(-maxRateDeviation, Math.min(maxRateDeviation, correction));
+  }
+
+  private long targetPositionNanosAt(long nowNanos) {
+    return targetAnchorPositionNanos + (long) ((nowNanos - targetAnchorTimeNanos) * targetRate);
+  }
+}
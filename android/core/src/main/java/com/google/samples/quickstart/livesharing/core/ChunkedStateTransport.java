@@ -0,0 +1,396 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Sends logical states that are too large for a single co-doing payload as a sequence of
+ * checksummed frames, and reassembles them on the receiving side.
+ *
+ * <p>Each logical state is tagged with a generation. Generations follow a Lamport clock, so a
+ * state sent after receiving another one always supersedes it; ties between participants are
+ * broken by sender id. Frames are copied into their reassembly buffer as they arrive, and a
+ * partially received generation is discarded as soon as a frame of a newer one shows up.
+ *
+ * <p>The co-doing global state only keeps the latest value, so frames sent back to back can be
+ * collapsed, and a participant that joins later only ever sees the last frame. Frames of a state
+ * that does not fit into a single one are therefore sent again one at a time, in a carousel, for a
+ * few rounds while the state is the latest one. A receiver that missed frames completes the state
+ * within one round; call {@link #repeatCarousel} when a participant joins so that it does too.
+ *
+ * <p>A state that fits into a single frame is sent unframed, as participants running a version
+ * without this transport expect. It carries no generation, so it supersedes whatever state was
+ * sent or received before it, and any frame received after it is taken as newer.
+ *
+ * <p>The transport is agnostic of the co-doing SDK: outgoing frames go to a {@code frameSender}
+ * (typically wrapping {@code CoDoingClient#setGlobalState}) and incoming frames are passed to
+ * {@link #onFrameReceived}.
+ *
+ * <p>Thread-safe, provided the scheduler accepts tasks from any thread.
+ */
+@CheckReturnValue
+public final class ChunkedStateTransport {
+
+  /** Default number of state bytes carried by a single frame. */
+  static final int DEFAULT_MAX_CHUNK_DATA_BYTES = 4 * 1024;
+
+  /** Default interval between two frames of the carousel. */
+  static final Duration DEFAULT_CAROUSEL_INTERVAL = Duration.ofMillis(500);
+
+  /** Default number of times the carousel resends every frame of a state. */
+  static final int DEFAULT_CAROUSEL_ROUNDS = 3;
+
+  /** Largest number of frames a single state may be split into. */
+  private static final int MAX_CHUNK_COUNT = 0xFFFF;
+
+  /** Largest state that is sent or reassembled, whatever the frame headers claim. */
+  static final int MAX_STATE_BYTES = 1024 * 1024;
+
+  private final Consumer<byte[]> frameSender;
+  private final Consumer<byte[]> stateListener;
+  private final int maxChunkDataBytes;
+  private final int senderId;
+  private final Scheduler scheduler;
+  private final Duration carouselInterval;
+  private final int carouselRounds;
+  private final Runnable carouselTick = this::sendNextCarouselFrame;
+
+  private int generation = 0;
+  private ImmutableList<byte[]> lastSentFrames = ImmutableList.of();
+  /** Whether a newer state was sent unframed or received since {@link #lastSentFrames}. */
+  private boolean lastSentSuperseded = false;
+  private boolean carouselRunning = false;
+  private int nextCarouselIndex = 0;
+  private int carouselFramesLeft = 0;
+
+  /** Version of the newest state that was delivered or sent, see {@link #version}. */
+  private long latestVersion = Long.MIN_VALUE;
+
+  private Optional<Assembly> assembly = Optional.empty();
+
+  private long framesSent = 0;
+  private long framesReceived = 0;
+  private long corruptFrames = 0;
+  private long staleFrames = 0;
+  private long supersededGenerations = 0;
+  private long statesDelivered = 0;
+
+  public ChunkedStateTransport(
+      Consumer<byte[]> frameSender, Consumer<byte[]> stateListener, Scheduler scheduler) {
+    this(
+        frameSender,
+        stateListener,
+        DEFAULT_MAX_CHUNK_DATA_BYTES,
+        new Random().nextInt(),
+        scheduler,
+        DEFAULT_CAROUSEL_INTERVAL,
+        DEFAULT_CAROUSEL_ROUNDS);
+  }
+
+  /**
+   * @param maxChunkDataBytes state bytes per frame; all participants must use the same value
+   * @param carouselInterval interval between two frames resent by the carousel
+   * @param carouselRounds number of times the carousel resends every frame of a state
+   */
+  public ChunkedStateTransport(
+      Consumer<byte[]> frameSender,
+      Consumer<byte[]> stateListener,
+      int maxChunkDataBytes,
+      int senderId,
+      Scheduler scheduler,
+      Duration carouselInterval,
+      int carouselRounds) {
+    if (maxChunkDataBytes <= 0) {
+      throw new IllegalArgumentException("maxChunkDataBytes must be positive.");
+    }
+    if (carouselRounds < 0) {
+      throw new IllegalArgumentException("carouselRounds must not be negative.");
+    }
+    this.frameSender = frameSender;
+    this.stateListener = stateListener;
+    this.maxChunkDataBytes = maxChunkDataBytes;
+    this.senderId = senderId;
+    this.scheduler = scheduler;
+    this.carouselInterval = carouselInterval;
+    this.carouselRounds = carouselRounds;
+  }
+
+  /**
+   * Splits {@code state} into frames and sends them as a new generation, or sends it as is if it
+   * fits into a single frame. If there is more than one frame, the carousel resends them until a
+   * newer state is sent or received, or for {@code carouselRounds} rounds.
+   *
+   * @throws IllegalArgumentException if the state is larger than {@link #MAX_STATE_BYTES} or needs
+   *     more frames than the header can express
+   */
+  public synchronized void send(byte[] state) {
+    int count = Math.max(1, (state.length + maxChunkDataBytes - 1) / maxChunkDataBytes);
+    if (state.length > MAX_STATE_BYTES || count > MAX_CHUNK_COUNT) {
+      throw new IllegalArgumentException(
+          "State of " + state.length + " bytes is too large to be sent in chunks.");
+    }
+    generation++;
+    dropAssembly();
+    stopCarousel();
+    if (count == 1 && !StateChunk.isChunkFrame(state)) {
+      latestVersion = Long.MIN_VALUE;
+      lastSentFrames = ImmutableList.of(state);
+      lastSentSuperseded = true;
+      sendFrames();
+      return;
+    }
+    latestVersion = version(generation, senderId);
+
+    int stateCrc = StateChunk.crc32(state, 0, state.length);
+    ImmutableList.Builder<byte[]> frames = ImmutableList.builderWithExpectedSize(count);
+    for (int index = 0; index < count; index++) {
+      int offset = index * maxChunkDataBytes;
+      int length = Math.min(maxChunkDataBytes, state.length - offset);
+      frames.add(
+          StateChunk.encode(
+              senderId, generation, index, count, state, stateCrc, offset, length));
+    }
+    lastSentFrames = frames.build();
+    lastSentSuperseded = false;
+    sendFrames();
+    if (count > 1) {
+      startCarousel();
+    }
+  }
+
+  /**
+   * Restarts the carousel for another {@code carouselRounds} rounds if the last state this
+   * transport sent took more than one frame and is still the latest, e.g. because a participant
+   * joined and only got the frame the global state held.
+   */
+  public synchronized void repeatCarousel() {
+    if (lastSentFrames.size() > 1 && !lastSentSuperseded) {
+      stopCarousel();
+      startCarousel();
+    }
+  }
+
+  /**
+   * Sends all frames of the last generation sent by this transport again, so that receivers that
+   * lost some of them can complete it.
+   */
+  synchronized void resend() {
+    sendFrames();
+  }
+
+  /** Stops the carousel and forgets the state being reassembled, e.g. because a session ended. */
+  public synchronized void reset() {
+    stopCarousel();
+    lastSentFrames = ImmutableList.of();
+    lastSentSuperseded = false;
+    assembly = Optional.empty();
+    latestVersion = Long.MIN_VALUE;
+  }
+
+  /** Returns whether the frames of the last sent state are still being resent. */
+  synchronized boolean isCarouselRunning() {
+    return carouselRunning;
+  }
+
+  /** Handles a frame, or an unframed state, received from another participant. */
+  public synchronized void onFrameReceived(byte[] payload) {
+    framesReceived++;
+    if (!StateChunk.isChunkFrame(payload)) {
+      supersedeLastSent();
+      dropAssembly();
+      latestVersion = Long.MIN_VALUE;
+      statesDelivered++;
+      stateListener.accept(payload);
+      return;
+    }
+    Optional<StateChunk> decoded = StateChunk.decode(payload);
+    if (!decoded.isPresent()) {
+      corruptFrames++;
+      return;
+    }
+    StateChunk chunk = decoded.get();
+    long chunkVersion = version(chunk.generation, chunk.senderId);
+    if (chunkVersion <= latestVersion) {
+      staleFrames++;
+      return;
+    }
+    generation = Math.max(generation, chunk.generation);
+    // The frame belongs to a state newer than the one this transport sent, if any.
+    supersedeLastSent();
+
+    if (assembly.isPresent() && assembly.get().version != chunkVersion) {
+      if (assembly.get().version > chunkVersion) {
+        staleFrames++;
+        return;
+      }
+      dropAssembly();
+    }
+    if (!assembly.isPresent()) {
+      if (chunk.totalLength > maxStateLength(chunk.count)) {
+        // Do not trust the header with an allocation larger than the frames can fill.
+        corruptFrames++;
+        return;
+      }
+      assembly = Optional.of(new Assembly(chunkVersion, chunk));
+    }
+
+    Assembly current = assembly.get();
+    if (!current.accepts(chunk)) {
+      corruptFrames++;
+      return;
+    }
+    current.add(chunk);
+    if (!current.isComplete()) {
+      return;
+    }
+    assembly = Optional.empty();
+    if (StateChunk.crc32(current.state, 0, current.state.length) != current.stateCrc) {
+      corruptFrames++;
+      return;
+    }
+    latestVersion = chunkVersion;
+    statesDelivered++;
+    stateListener.accept(current.state);
+  }
+
+  synchronized long getFramesSent() {
+    return framesSent;
+  }
+
+  synchronized long getFramesReceived() {
+    return framesReceived;
+  }
+
+  /** Returns how many received frames failed header or checksum validation. */
+  synchronized long getCorruptFrames() {
+    return corruptFrames;
+  }
+
+  /** Returns how many received frames belonged to an already superseded generation. */
+  synchronized long getStaleFrames() {
+    return staleFrames;
+  }
+
+  /** Returns how many partially received generations were discarded for a newer one. */
+  synchronized long getSupersededGenerations() {
+    return supersededGenerations;
+  }
+
+  synchronized long getStatesDelivered() {
+    return statesDelivered;
+  }
+
+  /** Returns the largest state that {@code count} frames can carry. */
+  private int maxStateLength(int count) {
+    return (int) Math.min((long) count * maxChunkDataBytes, MAX_STATE_BYTES);
+  }
+
+  private synchronized void sendNextCarouselFrame() {
+    if (!carouselRunning) {
+      return;
+    }
+    byte[] frame = lastSentFrames.get(nextCarouselIndex);
+    nextCarouselIndex = (nextCarouselIndex + 1) % lastSentFrames.size();
+    framesSent++;
+    frameSender.accept(frame);
+    carouselFramesLeft--;
+    if (carouselFramesLeft > 0) {
+      scheduler.postDelayed(carouselTick, carouselInterval);
+    } else {
+      carouselRunning = false;
+    }
+  }
+
+  private void startCarousel() {
+    carouselFramesLeft = carouselRounds * lastSentFrames.size();
+    if (carouselFramesLeft > 0) {
+      carouselRunning = true;
+      nextCarouselIndex = 0;
+      scheduler.postDelayed(carouselTick, carouselInterval);
+    }
+  }
+
+  private void supersedeLastSent() {
+    lastSentSuperseded = true;
+    stopCarousel();
+  }
+
+  private void stopCarousel() {
+    if (carouselRunning) {
+      carouselRunning = false;
+      scheduler.cancel(carouselTick);
+    }
+  }
+
+  private void sendFrames() {
+    for (byte[] frame : lastSentFrames) {
+      framesSent++;
+      frameSender.accept(frame);
+    }
+  }
+
+  private void dropAssembly() {
+    if (assembly.isPresent()) {
+      supersededGenerations++;
+      assembly = Optional.empty();
+    }
+  }
+
+  /** Orders states by generation first and sender id second. */
+  private static long version(int generation, int senderId) {
+    return ((long) generation << 32) | (senderId & 0xFFFFFFFFL);
+  }
+
+  /** Reassembly buffer of a single generation. */
+  private static final class Assembly {
+    final long version;
+    final int count;
+    final int stateCrc;
+    final byte[] state;
+    final BitSet received;
+
+    Assembly(long version, StateChunk first) {
+      this.version = version;
+      this.count = first.count;
+      this.stateCrc = first.stateCrc;
+      this.state = new byte[first.totalLength];
+      this.received = new BitSet(first.count);
+    }
+
+    boolean accepts(StateChunk chunk) {
+      return chunk.count == count
+          && chunk.stateCrc == stateCrc
+          && chunk.totalLength == state.length;
+    }
+
+    void add(StateChunk chunk) {
+      if (!received.get(chunk.index)) {
+        chunk.copyDataInto(state);
+        received.set(chunk.index);
+      }
+    }
+
+    boolean isComplete() {
+      return received.cardinality() == count;
+    }
+  }
+}
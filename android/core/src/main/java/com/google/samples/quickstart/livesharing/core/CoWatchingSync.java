@@ -0,0 +1,459 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Keeps the local {@link MediaPlayer} in sync with the co-watching session.
+ *
+ * <p>Received co-watching states go through a {@link SyncReconciler}, and the resulting step is
+ * taken with the player: stop, switch to the state in one step, or converge to its rate, position
+ * and playback state. As the playback leader, this also applies the changes other participants
+ * sent as intents. Local actions taken before the session began are sent once the session's first
+ * state arrived, or after a settle deadline if none does.
+ *
+ * <p>What involves the views, or the session itself, is left to the {@link Host}.
+ *
+ * <p>Not thread-safe; call from the thread the {@link Scheduler} runs tasks on, except for {@link
+ * #onStateReceived}.
+ */
+@CheckReturnValue
+public final class CoWatchingSync {
+
+  /** Takes the steps that involve the views or the session. Called on the scheduler's thread. */
+  public interface Host {
+    /** Returns the media with {@code mediaId}, if it is known. May be called on any thread. */
+    Optional<Media> findMedia(String mediaId);
+
+    /** Registers {@code media} with the player and starts playing it, without publishing it. */
+    void registerMedia(Media media);
+
+    /** Stops the active media, publishing that it ended if {@code publishEnded}. */
+    void stopMedia(boolean publishEnded);
+
+    /** Switches the player straight to {@code target}, a state of {@code media}. */
+    void switchTo(Media media, PlaybackSnapshot target);
+
+    void startPlayback();
+
+    void pausePlayback(boolean buffering);
+
+    /** Shows a playout rate chosen by another participant, which the player already plays at. */
+    void showRemotePlayoutRate(double playoutRate);
+
+    /** Publishes a local playback change, or co-doing state, to the session. */
+    void publish(SyncEvent event);
+  }
+
+  private static final String TRACE_SECTION_ENSURE_MEDIA_ACTIVE =
+      "CoWatchingSync#ensureMediaActive";
+  private static final String TRACE_SECTION_APPLY_PLAYBACK_STATE =
+      "CoWatchingSync#applyPlaybackState";
+
+  private final MediaPlayer player;
+  private final OfflineCommandBuffer offlineCommandBuffer;
+  private final Host host;
+  private final SyncReconciler reconciler;
+  private final Duration offlineFlushSettleDeadline;
+  private final Scheduler scheduler;
+  private final LogProducer logProducer;
+  private final Tracer tracer;
+  private final Runnable offlineFlushTask = this::flushOfflineCommands;
+
+  /** Whether the actions buffered before the session began still wait to be sent. */
+  private boolean offlineFlushPending = false;
+
+  private int switchCount = 0;
+  private int seekCount = 0;
+  private int catchUpCount = 0;
+  private Duration lastDrift = Duration.ZERO;
+
+  /**
+   * @param offlineCommandBuffer where local actions are recorded while there is no session
+   * @param transitEstimate how long a state takes from the sender to this device
+   * @param offlineFlushSettleDeadline how long to wait for the session's first state before
+   *     sending the buffered actions anyway
+   */
+  public CoWatchingSync(
+      MediaPlayer player,
+      OfflineCommandBuffer offlineCommandBuffer,
+      Host host,
+      Duration transitEstimate,
+      Duration offlineFlushSettleDeadline,
+      Scheduler scheduler,
+      LogProducer logProducer,
+      Tracer tracer) {
+    this.player = player;
+    this.offlineCommandBuffer = offlineCommandBuffer;
+    this.host = host;
+    this.reconciler = new SyncReconciler(transitEstimate);
+    this.offlineFlushSettleDeadline = offlineFlushSettleDeadline;
+    this.scheduler = scheduler;
+    this.logProducer = logProducer;
+    this.tracer = tracer;
+  }
+
+  /**
+   * Returns the player state of a co-watching playback state, by the name of its constant: {@code
+   * PLAY}, {@code PAUSE} or {@code BUFFERING}. Anything else, such as {@code ENDED}, is inactive.
+   */
+  public static MediaPlayer.State stateOf(String playbackState) {
+    switch (playbackState) {
+      case "PLAY":
+        return MediaPlayer.State.PLAYING;
+      case "PAUSE":
+        return MediaPlayer.State.PAUSED;
+      case "BUFFERING":
+        return MediaPlayer.State.BUFFERING;
+      default:
+        return MediaPlayer.State.INACTIVE;
+    }
+  }
+
+  /**
+   * Records a received co-watching state as the canonical one. May be called on any thread.
+   *
+   * @return the generation of the state, to be passed to {@link #applyState}
+   */
+  public long onStateReceived(
+      String mediaId,
+      MediaPlayer.State state,
+      Duration position,
+      double playoutRate,
+      long receivedNanos) {
+    return reconciler.onStateReceived(
+        mediaId,
+        state,
+        position,
+        playoutRate,
+        host.findMedia(mediaId).map(Media::duration).orElse(position),
+        receivedNanos);
+  }
+
+  /**
+   * Applies a received co-watching state, unless a newer one arrived while it waited, then sends
+   * the actions buffered before the session began, since whether the session is already playing
+   * is known now.
+   *
+   * <p>If the session's media ended, playback stops, without registering the media first. If the
+   * state's media is not active yet, as after joining a session that is already underway, the
+   * player is brought to the state in one step. Otherwise the player converges to it as usual.
+   *
+   * @return whether the state was applied
+   */
+  public boolean applyState(long generation) {
+    Optional<PlaybackSnapshot> target = reconciler.getIfLatest(generation);
+    if (target.isPresent()) {
+      applyState(target.get());
+    }
+    flushOfflineCommands();
+    return target.isPresent();
+  }
+
+  private void applyState(PlaybackSnapshot target) {
+    switch (SyncReconciler.reconcile(target, player.getActiveMedia())) {
+      case STOP:
+        if (player.getActiveMedia().isPresent()) {
+          logProducer.write("CoWatchingHandler: session media ended; stopping playback.");
+          host.stopMedia(/* publishEnded= */ false);
+        }
+        return;
+      case SWITCH:
+        switchTo(target);
+        return;
+      case CONVERGE:
+        break;
+    }
+
+    String mediaId = target.mediaId().get();
+    if (!ensureMediaActive(mediaId)) {
+      logProducer.write("CoWatchingHandler: Media with Id: %s not found.", mediaId);
+      return;
+    }
+
+    if (player.getPlayoutRate() != target.playoutRate()) {
+      logProducer.write(
+          "CoWatchingHandler#onCoWatchingStateChanged: Changing playout rate to: %s",
+          target.playoutRate());
+      applyRemotePlayoutRate(target.playoutRate());
+    }
+
+    Duration remotePosition = target.positionAt(scheduler.nanoTime());
+    lastDrift = player.getCurrentPosition().minus(remotePosition);
+    MediaPlayer.SyncResult syncResult =
+        player.syncTo(remotePosition, target.state() == MediaPlayer.State.PLAYING);
+    switch (syncResult) {
+      case SEEKED:
+        seekCount++;
+        break;
+      case CATCHING_UP:
+        catchUpCount++;
+        break;
+      case IN_SYNC:
+        break;
+    }
+    if (syncResult != MediaPlayer.SyncResult.IN_SYNC) {
+      logProducer.write(
+          "CoWatchingHandler#onCoWatchingStateChanged: %s to playout position %s (drift %s,"
+              + " effective rate %s)",
+          syncResult, remotePosition, lastDrift, player.getEffectivePlayoutRate());
+    }
+
+    applyPlaybackState(target.state());
+  }
+
+  /**
+   * Switches the player straight to {@code target}, instead of stopping, registering, seeking,
+   * setting the rate and starting one after the other.
+   */
+  private void switchTo(PlaybackSnapshot target) {
+    String mediaId = target.mediaId().get();
+    Optional<Media> media = host.findMedia(mediaId);
+    if (!media.isPresent()) {
+      logProducer.write("CoWatchingHandler: Media with Id: %s not found.", mediaId);
+      return;
+    }
+    host.switchTo(media.get(), target);
+    host.showRemotePlayoutRate(target.playoutRate());
+    switchCount++;
+    logProducer.write(
+        "CoWatchingHandler: switched to %s, %s at %s, rate %s in one step (states skipped: %s).",
+        mediaId,
+        player.getState(),
+        player.getCurrentPosition(),
+        player.getPlayoutRate(),
+        reconciler.getSkippedCount());
+  }
+
+  /**
+   * Applies a playback change another participant sent to this device as the leader, and
+   * publishes the resulting state as the canonical one.
+   */
+  public void applyPlaybackIntent(SyncEvent intent) {
+    logProducer.write("Applying %s intent as the playback leader.", intent.type());
+    if (intent.type() == SyncEvent.Type.NOTIFY_SWITCHED_TO_MEDIA) {
+      if (!ensureMediaActive(intent.mediaId())) {
+        logProducer.write("Playback intent: Media with Id: %s not found.", intent.mediaId());
+        return;
+      }
+      host.publish(
+          SyncEvent.switchedToMedia(
+              scheduler.nanoTime(),
+              intent.label(),
+              intent.mediaId(),
+              player.getCurrentPosition()));
+      return;
+    }
+    if (!player.getActiveMedia().isPresent()) {
+      logProducer.write("Dropped %s intent: no media is active.", intent.type());
+      return;
+    }
+    switch (intent.type()) {
+      case NOTIFY_PAUSE_STATE:
+        applyPlaybackState(
+            intent.paused() ? MediaPlayer.State.PAUSED : MediaPlayer.State.PLAYING);
+        player.setCurrentPosition(intent.position());
+        host.publish(
+            SyncEvent.pauseState(
+                scheduler.nanoTime(), player.isPaused(), player.getCurrentPosition()));
+        break;
+      case NOTIFY_SEEK_TO_TIMESTAMP:
+        player.setCurrentPosition(intent.position());
+        host.publish(SyncEvent.seekToTimestamp(scheduler.nanoTime(), player.getCurrentPosition()));
+        break;
+      case NOTIFY_PLAYOUT_RATE:
+        applyRemotePlayoutRate(intent.playoutRate());
+        host.publish(
+            SyncEvent.playoutRate(
+                scheduler.nanoTime(), player.getPlayoutRate(), player.getCurrentPosition()));
+        break;
+      case NOTIFY_ENDED:
+        host.stopMedia(/* publishEnded= */ true);
+        break;
+      default:
+        logProducer.write("Dropped unexpected %s intent.", intent.type());
+    }
+  }
+
+  /**
+   * Returns the current local playback state as a change of the same type as {@code intent}, to
+   * broadcast in its place once the leader failed to apply it.
+   */
+  public Optional<SyncEvent> currentPlaybackChange(SyncEvent intent) {
+    long nowNanos = scheduler.nanoTime();
+    Optional<Media> activeMedia = player.getActiveMedia();
+    if (intent.type() == SyncEvent.Type.NOTIFY_ENDED) {
+      return activeMedia.isPresent()
+          ? Optional.empty()
+          : Optional.of(SyncEvent.ended(nowNanos, intent.position()));
+    }
+    if (!activeMedia.isPresent()) {
+      return Optional.empty();
+    }
+    Duration position = player.getCurrentPosition();
+    switch (intent.type()) {
+      case NOTIFY_SWITCHED_TO_MEDIA:
+        return Optional.of(
+            SyncEvent.switchedToMedia(
+                nowNanos, activeMedia.get().name(), activeMedia.get().id(), position));
+      case NOTIFY_PAUSE_STATE:
+        return Optional.of(SyncEvent.pauseState(nowNanos, player.isPaused(), position));
+      case NOTIFY_SEEK_TO_TIMESTAMP:
+        return Optional.of(SyncEvent.seekToTimestamp(nowNanos, position));
+      case NOTIFY_PLAYOUT_RATE:
+        return Optional.of(SyncEvent.playoutRate(nowNanos, player.getPlayoutRate(), position));
+      default:
+        return Optional.empty();
+    }
+  }
+
+  /**
+   * Makes the media with {@code mediaId} the active one, stopping any other first. Returns false if
+   * the media is not known.
+   */
+  private boolean ensureMediaActive(String mediaId) {
+    tracer.beginSection(TRACE_SECTION_ENSURE_MEDIA_ACTIVE);
+    try {
+      Optional<Media> activeMedia = player.getActiveMedia();
+      if (activeMedia.isPresent() && activeMedia.get().id().equals(mediaId)) {
+        return true;
+      }
+      Optional<Media> media = host.findMedia(mediaId);
+      if (!media.isPresent()) {
+        return false;
+      }
+      if (activeMedia.isPresent()) {
+        logProducer.write("handleMediaRegistrationUpdate: Stopping existing media playback.");
+        host.stopMedia(/* publishEnded= */ false);
+      }
+      logProducer.write(
+          "handleMediaRegistrationUpdate: Registering new media for playback with ID %s", mediaId);
+      host.registerMedia(media.get());
+      return true;
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  /** Plays, pauses or buffers, unless the player already does. */
+  private void applyPlaybackState(MediaPlayer.State state) {
+    tracer.beginSection(TRACE_SECTION_APPLY_PLAYBACK_STATE);
+    try {
+      switch (state) {
+        case PLAYING:
+          if (!player.isPlaying()) {
+            logProducer.write("handlePlaybackStateUpdates: Starting media playback.");
+            host.startPlayback();
+          }
+          break;
+        case PAUSED:
+          if (!player.isPaused()) {
+            logProducer.write("handlePlaybackStateUpdates: Pausing media.");
+            host.pausePlayback(/* buffering= */ false);
+          }
+          break;
+        case BUFFERING:
+          if (!player.isBuffering()) {
+            logProducer.write("handlePlaybackStateUpdates: Buffering media.");
+            host.pausePlayback(/* buffering= */ true);
+          }
+          break;
+        default:
+          break;
+      }
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  /** Plays at a playout rate chosen by another participant and shows it. */
+  private void applyRemotePlayoutRate(double playoutRate) {
+    player.setPlayoutRate(playoutRate);
+    host.showRemotePlayoutRate(playoutRate);
+  }
+
+  /**
+   * Sends the local actions taken before the session began once its first co-watching state
+   * arrived, or after the settle deadline if none does. Until then, actions keep being buffered.
+   */
+  public void scheduleOfflineFlush() {
+    if (offlineCommandBuffer.getRecordedCount() == 0) {
+      return;
+    }
+    offlineFlushPending = true;
+    scheduler.postDelayed(offlineFlushTask, offlineFlushSettleDeadline);
+  }
+
+  /**
+   * Sends the local actions taken before the session began, compacted, in one burst, if they are
+   * still pending. The co-watching actions are dropped if the session already has a playback
+   * state, since a late joiner's offline state must not override it.
+   */
+  private void flushOfflineCommands() {
+    if (!offlineFlushPending) {
+      return;
+    }
+    offlineFlushPending = false;
+    scheduler.cancel(offlineFlushTask);
+    int recordedCount = offlineCommandBuffer.getRecordedCount();
+    ImmutableList<SyncEvent> events = offlineCommandBuffer.drain(scheduler.nanoTime());
+    if (events.isEmpty()) {
+      return;
+    }
+    boolean dropCoWatching = reconciler.hasReceivedState();
+    logProducer.write(
+        "Sending %s commands buffered before the session began, compacted from %s%s",
+        events.size(),
+        recordedCount,
+        dropCoWatching ? "; dropping co-watching commands, the session is already playing" : "");
+    for (SyncEvent event : events) {
+      if (event.type() == SyncEvent.Type.SET_GLOBAL_STATE || !dropCoWatching) {
+        host.publish(event);
+      }
+    }
+  }
+
+  /**
+   * Forgets the session that just ended: its received states, and the local actions buffered
+   * before it began that were not sent yet.
+   */
+  public void reset() {
+    offlineFlushPending = false;
+    scheduler.cancel(offlineFlushTask);
+    offlineCommandBuffer.clear();
+    reconciler.clear();
+  }
+
+  int getSwitchCount() {
+    return switchCount;
+  }
+
+  int getSeekCount() {
+    return seekCount;
+  }
+
+  int getCatchUpCount() {
+    return catchUpCount;
+  }
+
+  /** Returns how far the player was ahead of the last state it converged to, before syncing. */
+  Duration getLastDrift() {
+    return lastDrift;
+  }
+}
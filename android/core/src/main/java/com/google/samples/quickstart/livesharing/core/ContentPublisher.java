@@ -12,21 +12,23 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
-import android.widget.TextView;
-
-/** Interface for classes that subscribe {@link TextView}'s to receive updates from a publisher. */
-interface TextViewContentPublisher {
+/**
+ * Interface for classes that subscribe views to receive updates from a publisher.
+ *
+ * @param <T> type of subscriber
+ */
+public interface ContentPublisher<T> {
 
-  /** Subscribes a {@link TextView} to receive an update. */
-  void subscribe(TextView textView);
+  /** Subscribes a view to receive an update. */
+  void subscribe(T subscriber);
 
-  /** Unsubscribes a {@link TextView} from receiving updates. */
-  void unsubscribe(TextView textView);
+  /** Unsubscribes a view from receiving updates. */
+  void unsubscribe(T subscriber);
 
-  /** Notifies subscribed {@link TextView}'s via an {@link UpdateNotifier}. */
-  void notifyUpdate(UpdateNotifier<TextView> notifier);
+  /** Notifies subscribed views via an {@link UpdateNotifier}. */
+  void notifyUpdate(UpdateNotifier<T> notifier);
 
   /** Clears all subscribers. */
   void clearSubscribersList();
@@ -0,0 +1,100 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps state applied from the network from being sent back out.
+ *
+ * <p>Applying remote state to a control can make the control's listener fire, either right away
+ * or later from the UI thread's queue, and the listener cannot tell that change from a user's.
+ * Each control is therefore tagged with the origin of its latest value: remote values are applied
+ * through {@link #applyRemote}, and listeners ask {@link #shouldBroadcast} before sending. A
+ * change that only reports the remote value just applied is an echo and is dropped; any other
+ * change is the user's and is sent.
+ *
+ * <p>Not thread-safe; call from the thread the controls live on.
+ *
+ * @param <K> type identifying a control
+ */
+@CheckReturnValue
+public final class EchoSuppressor<K> {
+
+  /** Where the latest value of a control came from. */
+  enum Origin {
+    LOCAL,
+    REMOTE
+  }
+
+  private static final class Stamp {
+    final Origin origin;
+    final Object value;
+
+    Stamp(Origin origin, Object value) {
+      this.origin = origin;
+      this.value = value;
+    }
+  }
+
+  private final Map<K, Stamp> stamps = new HashMap<>();
+  private long broadcastCount = 0;
+  private long suppressedCount = 0;
+
+  /** Tags {@code control} as holding the remote {@code value}, then runs {@code apply}. */
+  public void applyRemote(K control, Object value, Runnable apply) {
+    stamps.put(control, new Stamp(Origin.REMOTE, value));
+    apply.run();
+  }
+
+  /**
+   * Returns whether a change of {@code control} to {@code value}, reported by its listener, should
+   * be sent to the other participants.
+   */
+  public boolean shouldBroadcast(K control, Object value) {
+    Stamp stamp = stamps.get(control);
+    if (stamp != null && stamp.origin == Origin.REMOTE && Objects.equals(stamp.value, value)) {
+      suppressedCount++;
+      return false;
+    }
+    stamps.put(control, new Stamp(Origin.LOCAL, value));
+    broadcastCount++;
+    return true;
+  }
+
+  /** Returns the origin of the latest value of {@code control}, defaulting to local. */
+  Origin getOrigin(K control) {
+    Stamp stamp = stamps.get(control);
+    return stamp == null ? Origin.LOCAL : stamp.origin;
+  }
+
+  /** Forgets all tags, for example when the session ends. */
+  public void reset() {
+    stamps.clear();
+  }
+
+  /** Returns how many changes were let through to be sent. */
+  long getBroadcastCount() {
+    return broadcastCount;
+  }
+
+  /** Returns how many echoes of remote state were dropped. */
+  public long getSuppressedCount() {
+    return suppressedCount;
+  }
+}
@@ -0,0 +1,154 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ContentPublisher} that pulls logs from a queue and appends them to its subscribers, such
+ * as a log window.
+ */
+public final class LogConsumer implements Runnable, ContentPublisher<Consumer<String>> {
+  private static final Logger logger = Logger.getLogger(LogConsumer.class.getName());
+
+  /** Category of the log appends on the main looper. */
+  static final String MESSAGE_CATEGORY_APPEND = "log append";
+
+  private static final String TRACE_SECTION_DRAIN = "LogConsumer#drain";
+  private static final String TRACE_SECTION_APPEND = "LogConsumer#append";
+  private static final String TRACE_COUNTER_QUEUE_DEPTH = "log queue depth";
+
+  /** Most log text kept while hidden; older text is dropped. */
+  private static final int MAX_HIDDEN_LOG_LENGTH = 64 * 1024;
+
+  /** Runs the appends on the thread the subscribed views live on. */
+  private final Scheduler uiScheduler;
+
+  private final ArrayBlockingQueue<String> logQueue;
+  private final MessageTimingMonitor messageTimingMonitor;
+  private final Tracer tracer;
+  private final List<Consumer<String>> subscribers = new ArrayList<>();
+
+  private final Object visibilityLock = new Object();
+
+  @GuardedBy("visibilityLock")
+  private boolean uiVisible = true;
+
+  /** Log text consumed while hidden, shown in a single append once visible again. */
+  @GuardedBy("visibilityLock")
+  private final StringBuilder hiddenLog = new StringBuilder();
+
+  public LogConsumer(
+      ArrayBlockingQueue<String> logQueue,
+      Scheduler uiScheduler,
+      MessageTimingMonitor messageTimingMonitor,
+      Tracer tracer) {
+    this.logQueue = logQueue;
+    this.uiScheduler = uiScheduler;
+    this.messageTimingMonitor = messageTimingMonitor;
+    this.tracer = tracer;
+  }
+
+  /**
+   * Runs continuously in a separate thread to consume log messages from the log queue and publishes
+   * the log message update to subscribers.
+   */
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        String logMessage = logQueue.take();
+        tracer.beginSection(TRACE_SECTION_DRAIN);
+        try {
+          tracer.setCounter(TRACE_COUNTER_QUEUE_DEPTH, logQueue.size());
+          synchronized (visibilityLock) {
+            if (uiVisible) {
+              postAppend(logMessage);
+            } else {
+              hiddenLog.append(logMessage);
+              if (hiddenLog.length() > MAX_HIDDEN_LOG_LENGTH) {
+                hiddenLog.delete(0, hiddenLog.length() - MAX_HIDDEN_LOG_LENGTH);
+              }
+            }
+          }
+        } finally {
+          tracer.endSection();
+        }
+      } catch (InterruptedException interruptedException) {
+        logger.severe(interruptedException.toString());
+      }
+    }
+  }
+
+  /**
+   * Sets whether the subscribed views are visible.
+   *
+   * <p>While they are hidden, log text is kept instead of being posted to the main thread. It is
+   * posted as a single append once they are visible again.
+   */
+  public void setUiVisible(boolean visible) {
+    synchronized (visibilityLock) {
+      uiVisible = visible;
+      if (visible && hiddenLog.length() > 0) {
+        postAppend(hiddenLog.toString());
+        hiddenLog.setLength(0);
+      }
+    }
+  }
+
+  private void postAppend(String logText) {
+    notifyUpdate(
+        subscriber -> {
+          uiScheduler.postDelayed(
+              messageTimingMonitor.tag(MESSAGE_CATEGORY_APPEND, () -> append(subscriber, logText)),
+              Duration.ZERO);
+        });
+  }
+
+  private void append(Consumer<String> subscriber, String logMessage) {
+    tracer.beginSection(TRACE_SECTION_APPEND);
+    try {
+      subscriber.accept(logMessage);
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  @Override
+  public void subscribe(Consumer<String> subscriber) {
+    subscribers.add(subscriber);
+  }
+
+  @Override
+  public void unsubscribe(Consumer<String> subscriber) {
+    subscribers.remove(subscriber);
+  }
+
+  @Override
+  public void notifyUpdate(UpdateNotifier<Consumer<String>> updateNotifier) {
+    subscribers.stream().forEach(updateNotifier::notifySubscribers);
+  }
+
+  @Override
+  public void clearSubscribersList() {
+    subscribers.clear();
+  }
+}
@@ -12,10 +12,8 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
-import android.util.Log;
-import androidx.annotation.Nullable;
 import com.google.errorprone.annotations.FormatMethod;
 import com.google.errorprone.annotations.FormatString;
 import java.io.PrintWriter;
@@ -24,9 +22,10 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.concurrent.ArrayBlockingQueue;
+import javax.annotation.Nullable;
 
-/** Logs to a queue. */
-final class LogProducer {
+/** Logs to a queue, and to a {@link LogSink}. */
+public final class LogProducer {
   /** Max number of retry attempts used by retry strategy. */
   private static final int TOTAL_RETRY_ATTEMPTS = 3;
 
@@ -34,9 +33,11 @@ final class LogProducer {
       new SimpleDateFormat("dd-MMM-yyyy hh:mm:ss aa", Locale.getDefault());
 
   private final ArrayBlockingQueue<String> logQueue;
+  private final LogSink sink;
 
-  LogProducer(ArrayBlockingQueue<String> logQueue) {
+  public LogProducer(ArrayBlockingQueue<String> logQueue, LogSink sink) {
     this.logQueue = logQueue;
+    this.sink = sink;
   }
 
   /** Writes a log message to the log queue. */
@@ -50,10 +51,10 @@ final class LogProducer {
                 + ": "
                 + String.format(logMessage, args);
         logQueue.put(formattedLog + "\n\n");
-        Log.d("Sample app", formattedLog);
+        sink.log(formattedLog);
         break;
       } catch (Exception e) {
-        Log.e("LogProducer: ", e.toString());
+        sink.logError(e.toString());
         retryAttempt += 1;
       }
     }
@@ -76,13 +77,13 @@ final class LogProducer {
                 + "\n"
                 + stackTraceWriter;
         logQueue.put(formattedLog + "\n\n");
-        Log.d("Sample app", formattedLog);
+        sink.log(formattedLog);
         break;
       } catch (Exception exception) {
         if (exception instanceof InterruptedException) {
           Thread.currentThread().interrupt();
         }
-        Log.e("LogProducer: ", exception.toString());
+        sink.logError(exception.toString());
         retryAttempt += 1;
       }
     }
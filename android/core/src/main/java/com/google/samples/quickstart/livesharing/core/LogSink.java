@@ -0,0 +1,29 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+/**
+ * Writes log lines to the platform log.
+ *
+ * <p>Lets {@link LogProducer} log to logcat in the app, and anywhere else on a plain JVM.
+ */
+public interface LogSink {
+
+  /** Writes a line logged by the app. */
+  void log(String message);
+
+  /** Writes an error of the logging pipeline itself. */
+  void logError(String message);
+}
@@ -12,35 +12,43 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
 import com.google.auto.value.AutoValue;
 import com.google.errorprone.annotations.Immutable;
+import java.io.File;
 import java.time.Duration;
+import java.util.Optional;
 
 /** A piece of media that is played by the {@link MediaPlayer}. */
 @Immutable
 @AutoValue
-abstract class Media {
-  abstract String id();
+public abstract class Media {
+  public abstract String id();
 
-  abstract String name();
+  public abstract String name();
 
-  abstract Duration duration();
+  public abstract Duration duration();
 
-  static Builder builder() {
+  /** Local file holding the media content, if any; media without content is only timed. */
+  @SuppressWarnings("Immutable") // File is immutable but not annotated as such.
+  public abstract Optional<File> contentFile();
+
+  public static Builder builder() {
     return new AutoValue_Media.Builder();
   }
 
   /** Builder for {@link Media} */
   @AutoValue.Builder
-  abstract static class Builder {
-    abstract Builder setId(String value);
+  public abstract static class Builder {
+    public abstract Builder setId(String value);
+
+    public abstract Builder setName(String value);
 
-    abstract Builder setName(String value);
+    public abstract Builder setDuration(Duration value);
 
-    abstract Builder setDuration(Duration value);
+    public abstract Builder setContentFile(File value);
 
-    abstract Media build();
+    public abstract Media build();
   }
 }
@@ -0,0 +1,691 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.samples.quickstart.livesharing.core.PlaybackStateMachine.Event;
+import com.google.samples.quickstart.livesharing.core.PlaybackStateMachine.Result;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/** A media player. */
+@CheckReturnValue
+public final class MediaPlayer {
+
+  private static final Duration TIMER_INTERVAL_BETWEEN_TASKS = Duration.ofSeconds(1);
+
+  /** Category of the timer ticks on the main looper. */
+  static final String MESSAGE_CATEGORY_TICK = "player tick";
+
+  private static final String TRACE_SECTION_TICK = "MediaPlayer#tick";
+
+  /** Drift from the latest remote position, in microseconds. */
+  private static final String TRACE_COUNTER_DRIFT = "sync drift (us)";
+
+  /** Effective playout rate, in thousandths. */
+  private static final String TRACE_COUNTER_RATE = "playout rate (x1000)";
+
+  private static final Logger logger = Logger.getLogger(MediaPlayer.class.getName());
+
+  private final Scheduler scheduler;
+  private final MediaPlayerStatePublisher mediaPlayerStatePublisher;
+  private final UpdateNotifier<Consumer<String>> updateNotifier;
+  private final PlaybackEngine.Factory engineFactory;
+  private final MessageTimingMonitor messageTimingMonitor;
+  private final Tracer tracer;
+
+  /** Engine rendering the active media; its clock is the source of truth for the position. */
+  private Optional<PlaybackEngine> engine = Optional.empty();
+
+  private Duration length = Duration.ZERO;
+  private Duration currentPosition = Duration.ZERO;
+  private double playoutRate = 1;
+  private final PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+  private Optional<Media> activeMedia = Optional.empty();
+  private Optional<Runnable> runnable = Optional.empty();
+
+  /** The posted, tagged {@link #runnable}, if a tick is pending. */
+  private Optional<Runnable> pendingTick = Optional.empty();
+
+  /**
+   * Whether any UI shows the player. While hidden, the timer only wakes up at the end of the media
+   * and the position is computed on demand from the engine's clock.
+   */
+  private boolean uiVisible = true;
+
+  /** Number of timer ticks that ran, to measure wakeups. */
+  private long wakeUpCount = 0;
+  private boolean muted = false;
+
+  /** Internal adjustment on top of {@link #playoutRate} used to catch up with small drifts. */
+  private double rateMultiplier = 1;
+
+  private final CatchUpRateController catchUpRateController = new CatchUpRateController();
+
+  /** Monotonic time at which {@link #currentPosition} was last accurate. */
+  private long positionAnchorNanos;
+
+  /** Optional simulated network source that playback consumes; absent plays without stalls. */
+  private Optional<SimulatedMediaSource> mediaSource = Optional.empty();
+
+  /** Whether the player is in {@link State#BUFFERING} because {@link #mediaSource} ran dry. */
+  private boolean bufferingOnSource = false;
+
+  /** UI handler of the current playback, used to resume once the source has refilled. */
+  private Optional<UiObjectHandler> playbackUiObjectHandler = Optional.empty();
+
+  /** Latest playback state, for readers on other threads. */
+  private volatile PlaybackSnapshot snapshot = PlaybackSnapshot.INACTIVE;
+
+  /** Possible states of the media player. */
+  public enum State {
+    PLAYING,
+    PAUSED,
+    BUFFERING,
+    INACTIVE,
+    /** Playback reached the end of the media and stays there until rewound or stopped. */
+    ENDED
+  }
+
+  /** How {@link #syncTo} brought the player in line with a remote position. */
+  public enum SyncResult {
+    /** The drift was within tolerance and nothing changed. */
+    IN_SYNC,
+    /** The drift is being corrected by temporarily adjusting the effective playout rate. */
+    CATCHING_UP,
+    /** The drift was too large, or playback is not running, so the player jumped. */
+    SEEKED
+  }
+
+  /** Formats the playback status shown to subscribers of the {@link #getStatePublisher}. */
+  public interface StatusFormatter {
+    String format(String mediaName, long positionSeconds, long lengthSeconds);
+  }
+
+  /** Creates a player that only keeps time, without rendering any content. */
+  public MediaPlayer(
+      StatusFormatter statusFormatter,
+      Scheduler scheduler,
+      MessageTimingMonitor messageTimingMonitor,
+      Tracer tracer) {
+    this(
+        statusFormatter,
+        media -> new TimerPlaybackEngine(media.duration(), scheduler::nanoTime),
+        scheduler,
+        messageTimingMonitor,
+        tracer);
+  }
+
+  /**
+   * Creates a player.
+   *
+   * @param scheduler runs the timer and provides the clock; must run tasks on the thread that calls
+   *     the player
+   */
+  public MediaPlayer(
+      StatusFormatter statusFormatter,
+      PlaybackEngine.Factory engineFactory,
+      Scheduler scheduler,
+      MessageTimingMonitor messageTimingMonitor,
+      Tracer tracer) {
+    this.engineFactory = engineFactory;
+    this.scheduler = scheduler;
+    this.messageTimingMonitor = messageTimingMonitor;
+    this.tracer = tracer;
+    positionAnchorNanos = scheduler.nanoTime();
+    mediaPlayerStatePublisher = new MediaPlayerStatePublisher();
+    updateNotifier =
+        subscriber ->
+            subscriber.accept(
+                statusFormatter.format(
+                    activeMedia.get().name(), currentPosition.getSeconds(), length.getSeconds()));
+  }
+
+  /**
+   * Registers a {@link Media} for playback.
+   *
+   * <p>Executes associated UI operations, sets length and active media, etc.
+   */
+  public void registerMediaForPlayback(UiObjectHandler uiObjectHandler, Media media) {
+    cancelHandlerRunnableTasks();
+    stopCatchingUp();
+    stateMachine.fire(Event.LOAD);
+    currentPosition = Duration.ZERO;
+    positionAnchorNanos = scheduler.nanoTime();
+    uiObjectHandler.executeUiOperations((int) currentPosition.getSeconds());
+    activeMedia = Optional.of(media);
+    engine.ifPresent(PlaybackEngine::release);
+    engine = Optional.of(createEngine(media));
+    updateEngineRate();
+    bufferingOnSource = false;
+    mediaSource.ifPresent(source -> source.load(length));
+    publishSnapshot();
+  }
+
+  /**
+   * Makes playback consume {@code source}.
+   *
+   * <p>The source must report its buffering transitions to {@link #onSourceBufferingChanged}.
+   */
+  public void setMediaSource(SimulatedMediaSource source) {
+    mediaSource = Optional.of(source);
+    source.setSuspended(!uiVisible);
+    if (activeMedia.isPresent()) {
+      source.load(length);
+      source.seekTo(currentPosition);
+    }
+  }
+
+  /** Stalls or resumes playback as the {@link SimulatedMediaSource} runs dry or refills. */
+  public void onSourceBufferingChanged(boolean buffering) {
+    if (buffering && isPlaying()) {
+      enterSourceBuffering();
+    } else if (!buffering && bufferingOnSource && playbackUiObjectHandler.isPresent()) {
+      if (startMediaPlayback(playbackUiObjectHandler.get()) != Result.APPLIED) {
+        logger.severe("Source refilled after the media became inactive.");
+      }
+    }
+  }
+
+  private void enterSourceBuffering() {
+    refreshPosition();
+    engine.ifPresent(PlaybackEngine::pause);
+    stateMachine.fire(Event.BUFFER);
+    bufferingOnSource = true;
+    cancelHandlerRunnableTasks();
+    stopCatchingUp();
+    publishSnapshot();
+  }
+
+  /**
+   * Starts playing current media.
+   *
+   * <p>Continues playing until the end is reached.
+   *
+   * @return {@link Result#APPLIED}, or why playback could not start, such as {@link
+   *     Result#NO_ACTIVE_MEDIA} if no media is selected or {@link Result#ALREADY_IN_STATE} if it is
+   *     already playing
+   */
+  public Result startMediaPlayback(UiObjectHandler uiObjectHandler) {
+    return play(uiObjectHandler);
+  }
+
+  @CanIgnoreReturnValue
+  private Result play(UiObjectHandler uiObjectHandler) {
+    Result result = stateMachine.fire(Event.PLAY);
+    if (result != Result.APPLIED) {
+      return result;
+    }
+    // The position was frozen until now.
+    positionAnchorNanos = scheduler.nanoTime();
+    keepPlaying(uiObjectHandler);
+    return result;
+  }
+
+  /** Runs the engine, the timer and the source for the playing state. */
+  private void keepPlaying(UiObjectHandler uiObjectHandler) {
+    bufferingOnSource = false;
+    playbackUiObjectHandler = Optional.of(uiObjectHandler);
+    engine.ifPresent(PlaybackEngine::play);
+    publishSnapshot();
+    if (!runnable.isPresent()) {
+      runnable =
+          Optional.of(
+              () -> {
+                tracer.beginSection(TRACE_SECTION_TICK);
+                try {
+                  tick(uiObjectHandler);
+                } finally {
+                  tracer.endSection();
+                }
+              });
+    }
+    postTick();
+    if (mediaSource.isPresent()) {
+      mediaSource.get().setPlaying(true, playoutRate);
+      if (mediaSource.get().isBuffering()) {
+        enterSourceBuffering();
+      }
+    }
+  }
+
+  private void tick(UiObjectHandler uiObjectHandler) {
+    wakeUpCount++;
+    if (hasReachedEndOfMedia()) {
+      pause(Event.END);
+      return;
+    }
+    if (!uiVisible) {
+      // Woke up early, for example after the rate changed; wait for the end again.
+      postTick();
+      return;
+    }
+    // The tick only refreshes the UI; the engine's render clock drives the position.
+    refreshPosition();
+    rateMultiplier = catchUpRateController.rateMultiplier(currentPosition, positionAnchorNanos);
+    updateEngineRate();
+    publishSnapshot();
+    mediaSource.ifPresent(source -> source.onPlaybackPosition(currentPosition));
+    if (!isPlaying()) {
+      // The source ran dry at this position.
+      return;
+    }
+    uiObjectHandler.executeUiOperations((int) currentPosition.getSeconds());
+    mediaPlayerStatePublisher.notifyUpdate(updateNotifier);
+
+    // The runnable should run at every defined interval, hence triggering it here again.
+    postTick();
+  }
+
+  /**
+   * Creates the engine for {@code media} and sets {@link #length} from it: the length of its
+   * content if the engine read it, and otherwise the declared duration.
+   */
+  private PlaybackEngine createEngine(Media media) {
+    PlaybackEngine created = engineFactory.create(media);
+    length = created.getContentDuration().orElse(media.duration());
+    created.setEndOfStreamListener(
+        () -> scheduler.postDelayed(() -> onEndOfStream(created), Duration.ZERO));
+    return created;
+  }
+
+  /**
+   * Ends playback once {@code source} presented its last frame, which the position may not reach
+   * on its own when the content is shorter than its declared length.
+   */
+  private void onEndOfStream(PlaybackEngine source) {
+    if (!engine.equals(Optional.of(source)) || !isPlaying()) {
+      return;
+    }
+    refreshPosition();
+    if (currentPosition.compareTo(length) < 0) {
+      length = currentPosition;
+    }
+    pause(Event.END);
+  }
+
+  /** Returns whether the playback position has reached the media's end. */
+  public boolean hasReachedEndOfMedia() {
+    refreshPosition();
+    return currentPosition.compareTo(length) >= 0;
+  }
+
+  /**
+   * Posts the next timer tick, replacing a pending one.
+   *
+   * <p>While the UI is hidden, the tick is only needed to stop at the end of the media, so it is
+   * posted for then.
+   */
+  private void postTick() {
+    cancelHandlerRunnableTasks();
+    Duration delay = uiVisible ? TIMER_INTERVAL_BETWEEN_TASKS : timeUntilEndOfMedia();
+    Runnable tick = messageTimingMonitor.tag(MESSAGE_CATEGORY_TICK, runnable.get(), delay);
+    pendingTick = Optional.of(tick);
+    scheduler.postDelayed(tick, delay);
+  }
+
+  /** Returns how long playback takes to reach the end of the media, rounded up to milliseconds. */
+  private Duration timeUntilEndOfMedia() {
+    refreshPosition();
+    double rate = getEffectivePlayoutRate();
+    long remainingNanos = Math.max(0, length.minus(currentPosition).toNanos());
+    return Duration.ofMillis((long) Math.ceil(remainingNanos / rate / 1e6));
+  }
+
+  /** Re-posts the end of media wakeup after the position or rate changed while hidden. */
+  private void maybeRescheduleIdleWakeUp() {
+    if (!uiVisible && pendingTick.isPresent()) {
+      postTick();
+    }
+  }
+
+  /**
+   * Sets whether any UI shows the player.
+   *
+   * <p>Hiding it stops the periodic UI refresh; a small drift that is being caught up with is
+   * closed by a seek instead, since nobody sees the jump, and the {@link SimulatedMediaSource} is
+   * suspended. Showing it again refreshes the UI once and resumes the periodic refresh.
+   */
+  public void setUiVisible(boolean visible) {
+    if (uiVisible == visible) {
+      return;
+    }
+    uiVisible = visible;
+    mediaSource.ifPresent(source -> source.setSuspended(!visible));
+    if (visible) {
+      if (pendingTick.isPresent()) {
+        cancelHandlerRunnableTasks();
+        runnable.get().run();
+      }
+      return;
+    }
+    Optional<Duration> catchUpTarget =
+        catchUpRateController.targetPositionAt(scheduler.nanoTime());
+    if (catchUpTarget.isPresent()) {
+      setCurrentPosition(catchUpTarget.get());
+    }
+    maybeRescheduleIdleWakeUp();
+  }
+
+  /** Returns how many times the timer woke up the main thread. */
+  public long getWakeUpCount() {
+    return wakeUpCount;
+  }
+
+  /** Stops the timer and purges it. */
+  private void cancelHandlerRunnableTasks() {
+    pendingTick.ifPresent(scheduler::cancel);
+    pendingTick = Optional.empty();
+  }
+
+  /**
+   * Pauses media playback.
+   *
+   * @param simulateBuffering a flag that sets the media player state to buffering when {@code
+   *     true}. In this state, the media player is actually paused internally and only simulating
+   *     the buffering scenario.
+   * @return {@link Result#APPLIED}, or why playback could not be paused, such as {@link
+   *     Result#NO_ACTIVE_MEDIA} if no media is selected or {@link Result#ALREADY_IN_STATE} if it is
+   *     already paused
+   */
+  public Result pauseMediaPlayback(boolean simulateBuffering) {
+    return pause(simulateBuffering ? Event.BUFFER : Event.PAUSE);
+  }
+
+  @CanIgnoreReturnValue
+  private Result pause(Event event) {
+    Result result = stateMachine.fire(event);
+    if (result != Result.APPLIED) {
+      return result;
+    }
+    refreshPosition();
+    engine.ifPresent(PlaybackEngine::pause);
+    bufferingOnSource = false;
+    cancelHandlerRunnableTasks();
+    stopCatchingUp();
+    mediaSource.ifPresent(source -> source.setPlaying(false, playoutRate));
+    publishSnapshot();
+    return result;
+  }
+
+  /**
+   * Moves the player to {@code target} in a single transition, switching to {@code media} first if
+   * it is not the active media.
+   *
+   * <p>This replaces stopping, registering, seeking, setting the rate and starting one after the
+   * other: at most one engine is created, it is sought once to the position {@code target} has
+   * reached by now, and the UI and the snapshot are refreshed once.
+   */
+  public void applyCanonicalState(
+      UiObjectHandler uiObjectHandler, Media media, PlaybackSnapshot target) {
+    cancelHandlerRunnableTasks();
+    catchUpRateController.clearTarget();
+    rateMultiplier = 1;
+    if (!activeMedia.equals(Optional.of(media))) {
+      engine.ifPresent(PlaybackEngine::release);
+      mediaPlayerStatePublisher.clearSubscribersList();
+      activeMedia = Optional.of(media);
+      engine = Optional.of(createEngine(media));
+      mediaSource.ifPresent(source -> source.load(length));
+      stateMachine.fire(Event.LOAD);
+    }
+    long nowNanos = scheduler.nanoTime();
+    Duration position = target.positionAt(nowNanos);
+    currentPosition = position.compareTo(length) < 0 ? position : length;
+    positionAnchorNanos = nowNanos;
+    playoutRate = target.playoutRate();
+    engine.get().seekTo(currentPosition);
+    updateEngineRate();
+    mediaSource.ifPresent(source -> source.seekTo(currentPosition));
+    rewindIfBeforeEnd();
+    uiObjectHandler.executeUiOperations((int) currentPosition.getSeconds());
+    if (target.state() == State.PLAYING) {
+      if (isPlaying()) {
+        keepPlaying(uiObjectHandler);
+      } else {
+        play(uiObjectHandler);
+      }
+      return;
+    }
+    if (pause(target.state() == State.BUFFERING ? Event.BUFFER : Event.PAUSE) != Result.APPLIED) {
+      // Already in the target state, or at the end of the media; only the position moved.
+      publishSnapshot();
+    }
+  }
+
+  /**
+   * Stops media playback.
+   *
+   * <p>As a consequence, all the subscribers of the {@link #getStatePublisher} will be unsubscribed
+   * from receiving further playback position updates.
+   *
+   * @return {@link Result#APPLIED}, or {@link Result#NO_ACTIVE_MEDIA} if no media is selected
+   */
+  public Result stopMediaPlayback(UiObjectHandler uiObjectHandler) {
+    Result result = stateMachine.fire(Event.STOP);
+    if (result != Result.APPLIED) {
+      return result;
+    }
+    cancelHandlerRunnableTasks();
+    stopCatchingUp();
+    engine.ifPresent(PlaybackEngine::release);
+    engine = Optional.empty();
+    currentPosition = Duration.ZERO;
+    positionAnchorNanos = scheduler.nanoTime();
+    uiObjectHandler.executeUiOperations((int) currentPosition.getSeconds());
+    bufferingOnSource = false;
+    playbackUiObjectHandler = Optional.empty();
+    mediaSource.ifPresent(SimulatedMediaSource::release);
+    activeMedia = Optional.empty();
+    mediaPlayerStatePublisher.clearSubscribersList();
+    publishSnapshot();
+    return result;
+  }
+
+  /**
+   * Releases the engine and stops the timer and the source, e.g. when the UI that shows the player
+   * is destroyed. The player must not be used afterwards.
+   */
+  public void release() {
+    cancelHandlerRunnableTasks();
+    stopCatchingUp();
+    engine.ifPresent(PlaybackEngine::release);
+    engine = Optional.empty();
+    mediaSource.ifPresent(
+        source -> {
+          source.release();
+          source.setSuspended(true);
+        });
+    playbackUiObjectHandler = Optional.empty();
+    mediaPlayerStatePublisher.clearSubscribersList();
+  }
+
+  /** Returns whether media is currently active (selected on UI) or not. */
+  boolean isActive() {
+    return stateMachine.getState() != State.INACTIVE;
+  }
+
+  /** Returns whether the media is playing. */
+  public boolean isPlaying() {
+    return stateMachine.getState() == State.PLAYING;
+  }
+
+  /** Returns whether the media is paused, including at its end. */
+  public boolean isPaused() {
+    return stateMachine.getState() == State.PAUSED || isEnded();
+  }
+
+  /** Returns whether playback reached the end of the media. */
+  public boolean isEnded() {
+    return stateMachine.getState() == State.ENDED;
+  }
+
+  /** Returns whether the media is paused. */
+  public boolean isBuffering() {
+    return stateMachine.getState() == State.BUFFERING;
+  }
+
+  /** Returns the current media state. */
+  public State getState() {
+    return stateMachine.getState();
+  }
+
+  /** Sets the listener that receives every state transition of the player. */
+  public void setTransitionListener(PlaybackStateMachine.Listener listener) {
+    stateMachine.setListener(listener);
+  }
+
+  /** Returns the active media. */
+  public Optional<Media> getActiveMedia() {
+    return activeMedia;
+  }
+
+  /** Sets the current position of media player. */
+  public void setCurrentPosition(Duration position) {
+    engine.ifPresent(playbackEngine -> playbackEngine.seekTo(position));
+    currentPosition = position;
+    positionAnchorNanos = scheduler.nanoTime();
+    stopCatchingUp();
+    mediaSource.ifPresent(source -> source.seekTo(position));
+    rewindIfBeforeEnd();
+    publishSnapshot();
+    maybeRescheduleIdleWakeUp();
+  }
+
+  /** Leaves {@link State#ENDED} once the position moved back from the end of the media. */
+  private void rewindIfBeforeEnd() {
+    if (isEnded() && currentPosition.compareTo(length) < 0) {
+      stateMachine.fire(Event.REWIND);
+    }
+  }
+
+  /**
+   * Brings the player in line with a remote playback position.
+   *
+   * <p>Small drifts during playback are corrected by nudging the effective playout rate until the
+   * player converges. Only drifts above {@link CatchUpRateController#DEFAULT_SEEK_THRESHOLD}, or
+   * any drift while {@code remotePlaying} is false, cause a seek.
+   */
+  public SyncResult syncTo(Duration remotePosition, boolean remotePlaying) {
+    refreshPosition();
+    publishSnapshot();
+    long nowNanos = scheduler.nanoTime();
+    Duration drift = snapshot.positionAt(nowNanos).minus(remotePosition);
+    tracer.setCounter(TRACE_COUNTER_DRIFT, drift.toNanos() / 1000);
+    if (catchUpRateController.isWithinTolerance(drift)) {
+      stopCatchingUp();
+      publishSnapshot();
+      return SyncResult.IN_SYNC;
+    }
+    // While hidden, nobody sees a jump, and nothing would keep adjusting the rate.
+    if (!remotePlaying || !uiVisible || catchUpRateController.requiresSeek(drift)) {
+      setCurrentPosition(remotePosition);
+      return SyncResult.SEEKED;
+    }
+    catchUpRateController.setTarget(remotePosition, playoutRate, nowNanos);
+    rateMultiplier = catchUpRateController.rateMultiplier(snapshot.positionAt(nowNanos), nowNanos);
+    updateEngineRate();
+    publishSnapshot();
+    return SyncResult.CATCHING_UP;
+  }
+
+  private void stopCatchingUp() {
+    catchUpRateController.clearTarget();
+    rateMultiplier = 1;
+    updateEngineRate();
+  }
+
+  /** Returns the current position of the media player, as reported by the playback engine. */
+  public Duration getCurrentPosition() {
+    refreshPosition();
+    return currentPosition;
+  }
+
+  /** Reads the position from the engine's render clock. */
+  private void refreshPosition() {
+    if (engine.isPresent()) {
+      currentPosition = engine.get().getPosition();
+      positionAnchorNanos = scheduler.nanoTime();
+    }
+  }
+
+  private void updateEngineRate() {
+    engine.ifPresent(playbackEngine -> playbackEngine.setPlaybackRate(getEffectivePlayoutRate()));
+    tracer.setCounter(TRACE_COUNTER_RATE, Math.round(getEffectivePlayoutRate() * 1000));
+  }
+
+  /** Returns the nominal media playout rate, as chosen by the user. */
+  public double getPlayoutRate() {
+    return playoutRate;
+  }
+
+  /** Returns the rate playback actually advances at, including any catch-up adjustment. */
+  public double getEffectivePlayoutRate() {
+    return playoutRate * rateMultiplier;
+  }
+
+  /** Sets the nominal media play rate. */
+  public void setPlayoutRate(double playoutRate) {
+    refreshPosition();
+    this.playoutRate = playoutRate;
+    stopCatchingUp();
+    mediaSource.ifPresent(
+        source -> source.setPlaying(isPlaying() || bufferingOnSource, playoutRate));
+    publishSnapshot();
+    maybeRescheduleIdleWakeUp();
+  }
+
+  /** Returns whether the media player is muted. */
+  boolean isMuted() {
+    return muted;
+  }
+
+  /** Sets whether the media player is muted. */
+  void setMuted(boolean mutedState) {
+    muted = mutedState;
+  }
+
+  /**
+   * Returns the latest playback snapshot.
+   *
+   * <p>Safe to call from any thread; the snapshot is replaced atomically on every change.
+   */
+  public PlaybackSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /** Returns the current playback position, extrapolated from the latest snapshot. */
+  public Duration getSnapshotPosition() {
+    return snapshot.positionAt(scheduler.nanoTime());
+  }
+
+  private void publishSnapshot() {
+    snapshot =
+        PlaybackSnapshot.create(
+            activeMedia.map(Media::id),
+            stateMachine.getState(),
+            currentPosition,
+            positionAnchorNanos,
+            getEffectivePlayoutRate(),
+            length);
+  }
+
+  public MediaPlayerStatePublisher getStatePublisher() {
+    return mediaPlayerStatePublisher;
+  }
+}
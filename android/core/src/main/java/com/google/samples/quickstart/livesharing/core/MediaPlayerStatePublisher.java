@@ -12,38 +12,40 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
-import android.widget.TextView;
 import com.google.errorprone.annotations.CheckReturnValue;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
-/** A {@link TextViewContentPublisher} that publishes {@link MediaPlayer} position updates. */
+/**
+ * A {@link ContentPublisher} that publishes {@link MediaPlayer} position updates as status text.
+ */
 @CheckReturnValue
-final class MediaPlayerStatePublisher implements TextViewContentPublisher {
+public final class MediaPlayerStatePublisher implements ContentPublisher<Consumer<String>> {
 
-  private final List<TextView> subscribedTextViews = new ArrayList<>();
+  private final List<Consumer<String>> subscribers = new ArrayList<>();
 
   @Override
-  public void subscribe(TextView textView) {
-    subscribedTextViews.add(textView);
+  public void subscribe(Consumer<String> subscriber) {
+    subscribers.add(subscriber);
   }
 
   @Override
-  public void unsubscribe(TextView textView) {
-    subscribedTextViews.remove(textView);
+  public void unsubscribe(Consumer<String> subscriber) {
+    subscribers.remove(subscriber);
   }
 
   @Override
-  public void notifyUpdate(UpdateNotifier<TextView> notifier) {
-    for (TextView textView : subscribedTextViews) {
-      notifier.notifySubscribers(textView);
+  public void notifyUpdate(UpdateNotifier<Consumer<String>> notifier) {
+    for (Consumer<String> subscriber : subscribers) {
+      notifier.notifySubscribers(subscriber);
     }
   }
 
   @Override
   public void clearSubscribersList() {
-    subscribedTextViews.clear();
+    subscribers.clear();
   }
 }
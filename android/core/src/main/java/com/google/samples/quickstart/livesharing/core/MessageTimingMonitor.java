@@ -0,0 +1,232 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Times the messages of a looper and attributes them to where they came from.
+ *
+ * <p>The looper reports the start and end of every message it dispatches. Tasks wrapped with
+ * {@link #tag} report their category and when they were due when they run, which gives the
+ * message its category and queueing delay. Other messages are attributed from the looper's
+ * description of them.
+ *
+ * <p>Where reporting every message costs too much, the looper need not report anything: after
+ * {@link #timeTaggedTasksOn}, tagged tasks time themselves as one message each, and untagged
+ * messages go uncounted.
+ *
+ * <p>Timings are aggregated per category over a rolling window. When a message ends after the
+ * window has elapsed, the categories are reported slowest first and a new window starts.
+ *
+ * <p>{@link #tag} may be called from any thread; everything else must be called from the looper's
+ * thread.
+ */
+@CheckReturnValue
+public final class MessageTimingMonitor {
+
+  /** Category of messages that draw frames. */
+  static final String CATEGORY_FRAME = "frame";
+
+  /** Category of untagged messages that are not frames. */
+  static final String CATEGORY_OTHER = "other";
+
+  /** Receives the timings of every window. */
+  public interface Listener {
+    void onWindowClosed(ImmutableList<CategoryTiming> slowestFirst);
+  }
+
+  /** Timing of the messages of one category over a window. */
+  @AutoValue
+  public abstract static class CategoryTiming {
+    public abstract String category();
+
+    public abstract long messageCount();
+
+    /** Total time spent dispatching the messages. */
+    public abstract Duration totalDispatchTime();
+
+    public abstract Duration maxDispatchTime();
+
+    /** Longest time a tagged message waited in the queue past the time it was due. */
+    public abstract Duration maxQueueingDelay();
+
+    static CategoryTiming create(
+        String category,
+        long messageCount,
+        Duration totalDispatchTime,
+        Duration maxDispatchTime,
+        Duration maxQueueingDelay) {
+      return new AutoValue_MessageTimingMonitor_CategoryTiming(
+          category, messageCount, totalDispatchTime, maxDispatchTime, maxQueueingDelay);
+    }
+  }
+
+  private static final class Accumulator {
+    long messageCount = 0;
+    long totalDispatchNanos = 0;
+    long maxDispatchNanos = 0;
+    long maxQueueingNanos = 0;
+  }
+
+  private final long windowNanos;
+  private final LongSupplier nanoClock;
+  private final Listener listener;
+  private final Map<String, Accumulator> accumulators = new HashMap<>();
+
+  private long windowStartNanos;
+  private long totalMessageCount = 0;
+  private boolean dispatching = false;
+  private Thread looperThread;
+  @Nullable private Thread selfTimedThread = null;
+  private String dispatchDescription = "";
+  private long dispatchStartNanos = 0;
+  private String dispatchCategory = null;
+  private long dispatchQueueingNanos = 0;
+
+  public MessageTimingMonitor(Duration window, LongSupplier nanoClock, Listener listener) {
+    this.windowNanos = window.toNanos();
+    this.nanoClock = nanoClock;
+    this.listener = listener;
+    this.windowStartNanos = nanoClock.getAsLong();
+  }
+
+  /**
+   * Returns {@code task} wrapped to attribute the message it runs in to {@code category}.
+   *
+   * <p>{@code delay} is the delay {@code task} is about to be posted with, so that only waiting
+   * past the time it was due counts as queueing delay. Post the returned task, and use it to
+   * remove the post again.
+   */
+  public Runnable tag(String category, Runnable task, Duration delay) {
+    long dueNanos = nanoClock.getAsLong() + delay.toNanos();
+    return () -> {
+      if (dispatching || Thread.currentThread() != selfTimedThread) {
+        onTaggedTaskStarted(category, dueNanos);
+        task.run();
+        return;
+      }
+      onDispatchStarted(category);
+      onTaggedTaskStarted(category, dueNanos);
+      try {
+        task.run();
+      } finally {
+        onDispatchFinished();
+      }
+    };
+  }
+
+  /** Returns {@code task} wrapped to attribute the message it runs in to {@code category}. */
+  public Runnable tag(String category, Runnable task) {
+    return tag(category, task, Duration.ZERO);
+  }
+
+  /**
+   * Makes tagged tasks that run on {@code thread} outside a reported message time themselves, or
+   * stops that if {@code thread} is null.
+   */
+  public void timeTaggedTasksOn(@Nullable Thread thread) {
+    selfTimedThread = thread;
+  }
+
+  /** Reports that the looper started dispatching the message it describes as {@code message}. */
+  public void onDispatchStarted(String message) {
+    looperThread = Thread.currentThread();
+    dispatching = true;
+    dispatchDescription = message;
+    dispatchCategory = null;
+    dispatchQueueingNanos = 0;
+    dispatchStartNanos = nanoClock.getAsLong();
+  }
+
+  /** Reports that the looper finished dispatching the current message. */
+  public void onDispatchFinished() {
+    if (!dispatching) {
+      // Monitoring started in the middle of a message.
+      return;
+    }
+    dispatching = false;
+    long nowNanos = nanoClock.getAsLong();
+    String category = dispatchCategory != null ? dispatchCategory : categorize(dispatchDescription);
+    Accumulator accumulator = accumulators.get(category);
+    if (accumulator == null) {
+      accumulator = new Accumulator();
+      accumulators.put(category, accumulator);
+    }
+    long dispatchNanos = nowNanos - dispatchStartNanos;
+    totalMessageCount++;
+    accumulator.messageCount++;
+    accumulator.totalDispatchNanos += dispatchNanos;
+    accumulator.maxDispatchNanos = Math.max(accumulator.maxDispatchNanos, dispatchNanos);
+    accumulator.maxQueueingNanos = Math.max(accumulator.maxQueueingNanos, dispatchQueueingNanos);
+    if (nowNanos - windowStartNanos >= windowNanos) {
+      closeWindow(nowNanos);
+    }
+  }
+
+  /**
+   * Returns how many messages the looper finished dispatching since monitoring started, or only
+   * how many tagged tasks ran if the looper does not report its messages.
+   */
+  public long getMessageCount() {
+    return totalMessageCount;
+  }
+
+  /** Returns the timings of the current window so far, slowest first. */
+  ImmutableList<CategoryTiming> getSlowestCategories() {
+    List<CategoryTiming> timings = new ArrayList<>(accumulators.size());
+    for (Map.Entry<String, Accumulator> entry : accumulators.entrySet()) {
+      Accumulator accumulator = entry.getValue();
+      timings.add(
+          CategoryTiming.create(
+              entry.getKey(),
+              accumulator.messageCount,
+              Duration.ofNanos(accumulator.totalDispatchNanos),
+              Duration.ofNanos(accumulator.maxDispatchNanos),
+              Duration.ofNanos(accumulator.maxQueueingNanos)));
+    }
+    timings.sort((a, b) -> b.totalDispatchTime().compareTo(a.totalDispatchTime()));
+    return ImmutableList.copyOf(timings);
+  }
+
+  private void onTaggedTaskStarted(String category, long dueNanos) {
+    // Tasks run inline within another message are accounted to that message.
+    if (!dispatching || dispatchCategory != null || Thread.currentThread() != looperThread) {
+      return;
+    }
+    dispatchCategory = category;
+    dispatchQueueingNanos = Math.max(0, dispatchStartNanos - dueNanos);
+  }
+
+  private void closeWindow(long nowNanos) {
+    ImmutableList<CategoryTiming> slowestFirst = getSlowestCategories();
+    accumulators.clear();
+    windowStartNanos = nowNanos;
+    listener.onWindowClosed(slowestFirst);
+  }
+
+  private static String categorize(String message) {
+    return message.contains("Choreographer") ? CATEGORY_FRAME : CATEGORY_OTHER;
+  }
+}
@@ -0,0 +1,35 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+
+/** A {@link Tracer} that records nothing, for unit tests and benchmarks. */
+@CheckReturnValue
+final class NoOpTracer implements Tracer {
+
+  static final NoOpTracer INSTANCE = new NoOpTracer();
+
+  private NoOpTracer() {}
+
+  @Override
+  public void beginSection(String name) {}
+
+  @Override
+  public void endSection() {}
+
+  @Override
+  public void setCounter(String name, long value) {}
+}
@@ -0,0 +1,161 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Records outbound sync events while there is no session to send them to, and compacts them into
+ * the fewest events that bring the group to the same state once there is.
+ *
+ * <p>Only the latest of each kind of state is kept: the media, the position anchor, the playout
+ * rate, the play state and the co-doing state. When drained, the position is extrapolated to the
+ * time of draining if the media was last known to be playing. A media switch replaces the play
+ * state recorded before it with playing, since selecting media starts its playback.
+ *
+ * <p>Thread-safe.
+ */
+@CheckReturnValue
+public final class OfflineCommandBuffer {
+
+  /** Rate assumed for extrapolation when no playout rate was recorded. */
+  private static final double DEFAULT_PLAYOUT_RATE = 1.0;
+
+  @GuardedBy("this")
+  private Optional<SyncEvent> media = Optional.empty();
+
+  @GuardedBy("this")
+  private Optional<SyncEvent> positionAnchor = Optional.empty();
+
+  @GuardedBy("this")
+  private Optional<SyncEvent> playoutRate = Optional.empty();
+
+  /** The latest {@code NOTIFY_PAUSE_STATE} or {@code NOTIFY_ENDED} event. */
+  @GuardedBy("this")
+  private Optional<SyncEvent> playState = Optional.empty();
+
+  @GuardedBy("this")
+  private Optional<SyncEvent> coDoingState = Optional.empty();
+
+  @GuardedBy("this")
+  private int recordedCount = 0;
+
+  /**
+   * Records an outbound event.
+   *
+   * @throws IllegalArgumentException if {@code event} is an inbound event
+   */
+  public synchronized void record(SyncEvent event) {
+    if (event.type().inbound) {
+      throw new IllegalArgumentException("Not an outbound sync event: " + event.type());
+    }
+    recordedCount++;
+    switch (event.type()) {
+      case SET_GLOBAL_STATE:
+        coDoingState = Optional.of(event);
+        return;
+      case NOTIFY_SWITCHED_TO_MEDIA:
+        media = Optional.of(event);
+        playState =
+            Optional.of(
+                SyncEvent.pauseState(event.timestampNanos(), /* paused= */ false, event.position()));
+        break;
+      case NOTIFY_PAUSE_STATE:
+      case NOTIFY_ENDED:
+        playState = Optional.of(event);
+        break;
+      case NOTIFY_PLAYOUT_RATE:
+        playoutRate = Optional.of(event);
+        break;
+      default:
+        break;
+    }
+    positionAnchor = Optional.of(event);
+  }
+
+  /** Returns how many events were recorded since the buffer was last drained. */
+  public synchronized int getRecordedCount() {
+    return recordedCount;
+  }
+
+  /**
+   * Returns the compacted events, timestamped {@code nowNanos}, and empties the buffer.
+   *
+   * <p>The events are in the order they should be sent: media, playout rate, play state (or a seek
+   * if there is no other co-watching event to carry the position), then co-doing state.
+   */
+  public synchronized ImmutableList<SyncEvent> drain(long nowNanos) {
+    ImmutableList.Builder<SyncEvent> events = ImmutableList.builder();
+    Duration position = getPosition(nowNanos);
+    boolean positionSent = false;
+    if (media.isPresent()) {
+      events.add(
+          SyncEvent.switchedToMedia(
+              nowNanos, media.get().label(), media.get().mediaId(), position));
+      positionSent = true;
+    }
+    if (playoutRate.isPresent()) {
+      events.add(SyncEvent.playoutRate(nowNanos, playoutRate.get().playoutRate(), position));
+      positionSent = true;
+    }
+    if (playState.isPresent()) {
+      events.add(
+          playState.get().type() == SyncEvent.Type.NOTIFY_ENDED
+              ? SyncEvent.ended(nowNanos, position)
+              : SyncEvent.pauseState(nowNanos, playState.get().paused(), position));
+      positionSent = true;
+    }
+    if (positionAnchor.isPresent() && !positionSent) {
+      events.add(SyncEvent.seekToTimestamp(nowNanos, position));
+    }
+    if (coDoingState.isPresent()) {
+      events.add(SyncEvent.setGlobalState(nowNanos, coDoingState.get().payloads().get(0)));
+    }
+    clear();
+    return events.build();
+  }
+
+  /** Drops everything recorded. */
+  public synchronized void clear() {
+    media = Optional.empty();
+    positionAnchor = Optional.empty();
+    playoutRate = Optional.empty();
+    playState = Optional.empty();
+    coDoingState = Optional.empty();
+    recordedCount = 0;
+  }
+
+  @GuardedBy("this")
+  private Duration getPosition(long nowNanos) {
+    if (!positionAnchor.isPresent()) {
+      return Duration.ZERO;
+    }
+    SyncEvent anchor = positionAnchor.get();
+    boolean playing =
+        playState.isPresent()
+            && playState.get().type() == SyncEvent.Type.NOTIFY_PAUSE_STATE
+            && !playState.get().paused();
+    if (!playing) {
+      return anchor.position();
+    }
+    double rate = playoutRate.isPresent() ? playoutRate.get().playoutRate() : DEFAULT_PLAYOUT_RATE;
+    long elapsedNanos = Math.max(0, nowNanos - anchor.timestampNanos());
+    return anchor.position().plusNanos((long) (elapsedNanos * rate));
+  }
+}
@@ -0,0 +1,179 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Sends outbound sync events to the session off the calling thread, in the order they were
+ * dispatched.
+ *
+ * <p>The caller only enqueues the event; the SDK call happens on a serial executor. For every
+ * event, the dispatcher records how long it waited in the queue, measured from the event's
+ * timestamp, and how long the SDK call took. Each call is traced as a section named after the
+ * event type, and the number of queued events as a counter.
+ *
+ * <p>Events dispatched once the executor rejects tasks, e.g. because it was shut down when the
+ * activity was destroyed, are dropped and counted.
+ *
+ * <p>Thread-safe.
+ */
+@CheckReturnValue
+public final class OutboundSyncDispatcher {
+
+  /** Makes the SDK call for an event. Runs on the dispatcher's executor. */
+  public interface Sender {
+    void send(SyncEvent event);
+  }
+
+  /** Receives the outcome of every call. Runs on the dispatcher's executor. */
+  public interface Listener {
+    void onDispatched(
+        SyncEvent event,
+        Duration queueingDelay,
+        Duration callLatency,
+        Optional<RuntimeException> failure);
+  }
+
+  private static final String TRACE_COUNTER_QUEUE_DEPTH = "outbound sync queue depth";
+
+  private final Sender sender;
+  private final Listener listener;
+  private final Executor executor;
+  private final LongSupplier nanoClock;
+  private final Tracer tracer;
+  private final AtomicInteger queueDepth = new AtomicInteger();
+
+  @GuardedBy("this")
+  private long dispatchedCount = 0;
+
+  @GuardedBy("this")
+  private long failedCount = 0;
+
+  @GuardedBy("this")
+  private long droppedCount = 0;
+
+  @GuardedBy("this")
+  private long totalQueueingNanos = 0;
+
+  @GuardedBy("this")
+  private long maxQueueingNanos = 0;
+
+  @GuardedBy("this")
+  private long totalCallNanos = 0;
+
+  @GuardedBy("this")
+  private long maxCallNanos = 0;
+
+  /**
+   * @param executor must run tasks one at a time, in submission order
+   * @param nanoClock the clock that event timestamps are taken from
+   */
+  public OutboundSyncDispatcher(
+      Sender sender,
+      Listener listener,
+      Executor executor,
+      LongSupplier nanoClock,
+      Tracer tracer) {
+    this.sender = sender;
+    this.listener = listener;
+    this.executor = executor;
+    this.nanoClock = nanoClock;
+    this.tracer = tracer;
+  }
+
+  /** Queues {@code event} to be sent after every event dispatched before it. */
+  public void dispatch(SyncEvent event) {
+    tracer.setCounter(TRACE_COUNTER_QUEUE_DEPTH, queueDepth.incrementAndGet());
+    try {
+      executor.execute(() -> send(event));
+    } catch (RejectedExecutionException e) {
+      tracer.setCounter(TRACE_COUNTER_QUEUE_DEPTH, queueDepth.decrementAndGet());
+      synchronized (this) {
+        droppedCount++;
+      }
+    }
+  }
+
+  /** Returns how many events are queued or being sent. */
+  int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  public synchronized long getDispatchedCount() {
+    return dispatchedCount;
+  }
+
+  /** Returns how many calls threw. */
+  synchronized long getFailedCount() {
+    return failedCount;
+  }
+
+  /** Returns how many events were dropped because the executor rejected them. */
+  synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  public synchronized Duration getMeanQueueingDelay() {
+    return Duration.ofNanos(dispatchedCount == 0 ? 0 : totalQueueingNanos / dispatchedCount);
+  }
+
+  synchronized Duration getMaxQueueingDelay() {
+    return Duration.ofNanos(maxQueueingNanos);
+  }
+
+  public synchronized Duration getMeanCallLatency() {
+    return Duration.ofNanos(dispatchedCount == 0 ? 0 : totalCallNanos / dispatchedCount);
+  }
+
+  synchronized Duration getMaxCallLatency() {
+    return Duration.ofNanos(maxCallNanos);
+  }
+
+  private void send(SyncEvent event) {
+    long startNanos = nanoClock.getAsLong();
+    Optional<RuntimeException> failure = Optional.empty();
+    tracer.beginSection(event.type().name());
+    try {
+      sender.send(event);
+    } catch (RuntimeException e) {
+      failure = Optional.of(e);
+    } finally {
+      tracer.endSection();
+    }
+    tracer.setCounter(TRACE_COUNTER_QUEUE_DEPTH, queueDepth.decrementAndGet());
+    long queueingNanos = Math.max(0, startNanos - event.timestampNanos());
+    long callNanos = nanoClock.getAsLong() - startNanos;
+    synchronized (this) {
+      dispatchedCount++;
+      if (failure.isPresent()) {
+        failedCount++;
+      }
+      totalQueueingNanos += queueingNanos;
+      maxQueueingNanos = Math.max(maxQueueingNanos, queueingNanos);
+      totalCallNanos += callNanos;
+      maxCallNanos = Math.max(maxCallNanos, callNanos);
+    }
+    listener.onDispatched(
+        event, Duration.ofNanos(queueingNanos), Duration.ofNanos(callNanos), failure);
+  }
+}
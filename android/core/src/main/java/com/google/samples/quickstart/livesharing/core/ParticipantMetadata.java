@@ -0,0 +1,67 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+
+/** Metadata a participant shares with everyone else in a live sharing session. */
+@AutoValue
+public abstract class ParticipantMetadata {
+  /** Set when the participant may change the add-on session state. */
+  public static final int FLAG_MAY_CHANGE_STATE = 1;
+
+  /** Randomly chosen identifier of the participant, stable across metadata updates. */
+  abstract long participantId();
+
+  abstract String displayName();
+
+  /** Bit set of {@code FLAG_*} values. */
+  abstract int flags();
+
+  /** Playback change the participant asks the leader to apply, until the leader acknowledges it. */
+  abstract Optional<PlaybackIntent> pendingIntent();
+
+  /** Sequence number of the last intent applied per sender, while the participant is the leader. */
+  abstract ImmutableMap<Long, Long> appliedIntents();
+
+  boolean mayChangeState() {
+    return (flags() & FLAG_MAY_CHANGE_STATE) != 0;
+  }
+
+  public static Builder builder() {
+    return new AutoValue_ParticipantMetadata.Builder()
+        .setFlags(0)
+        .setPendingIntent(Optional.empty())
+        .setAppliedIntents(ImmutableMap.of());
+  }
+
+  /** Builder for {@link ParticipantMetadata} */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setParticipantId(long value);
+
+    public abstract Builder setDisplayName(String value);
+
+    public abstract Builder setFlags(int value);
+
+    public abstract Builder setPendingIntent(Optional<PlaybackIntent> value);
+
+    public abstract Builder setAppliedIntents(ImmutableMap<Long, Long> value);
+
+    public abstract ParticipantMetadata build();
+  }
+}
@@ -0,0 +1,184 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Compact binary encoding of {@link ParticipantMetadata}.
+ *
+ * <p>Layout: a version byte, the flags as a varint, the participant id as 8 bytes and the display
+ * name as a varint length followed by UTF-8 bytes. The version byte is not printable, so the
+ * encoding cannot be confused with the plain text metadata written by older clients.
+ *
+ * <p>Metadata that carries playback intents uses version 2, which appends the pending intent as a
+ * varint length (zero if there is none) followed by its encoding, and the applied intents as a
+ * varint count followed by a sender id and a sequence number of 8 bytes each. Metadata without
+ * intents keeps using version 1, so that clients that predate intents can still decode it.
+ */
+@CheckReturnValue
+public final class ParticipantMetadataCodec
+    implements ParticipantRegistry.Decoder<ParticipantMetadata> {
+
+  private static final byte VERSION = 1;
+  private static final byte VERSION_WITH_INTENTS = 2;
+
+  /** Encodes {@code metadata}. */
+  static byte[] encode(ParticipantMetadata metadata) {
+    byte[] name = metadata.displayName().getBytes(UTF_8);
+    boolean withIntents =
+        metadata.pendingIntent().isPresent() || !metadata.appliedIntents().isEmpty();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1 + 5 + 8 + 5 + name.length);
+    out.write(withIntents ? VERSION_WITH_INTENTS : VERSION);
+    writeVarint(out, metadata.flags());
+    writeLong(out, metadata.participantId());
+    writeVarint(out, name.length);
+    out.write(name, 0, name.length);
+    if (!withIntents) {
+      return out.toByteArray();
+    }
+    byte[] intent = metadata.pendingIntent().map(PlaybackIntent::encode).orElse(new byte[0]);
+    writeVarint(out, intent.length);
+    out.write(intent, 0, intent.length);
+    writeVarint(out, metadata.appliedIntents().size());
+    for (Map.Entry<Long, Long> applied : metadata.appliedIntents().entrySet()) {
+      writeLong(out, applied.getKey());
+      writeLong(out, applied.getValue());
+    }
+    return out.toByteArray();
+  }
+
+  /** Decodes metadata produced by {@link #encode}, returning empty for any other payload. */
+  static Optional<ParticipantMetadata> tryDecode(byte[] encoded) {
+    if (encoded.length == 0 || (encoded[0] != VERSION && encoded[0] != VERSION_WITH_INTENTS)) {
+      return Optional.empty();
+    }
+    boolean withIntents = encoded[0] == VERSION_WITH_INTENTS;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(encoded, 1, encoded.length - 1);
+      int flags = readVarint(buffer);
+      long id = buffer.getLong();
+      int nameLength = readLength(buffer);
+      if (!withIntents && nameLength != buffer.remaining()) {
+        return Optional.empty();
+      }
+      String name = new String(encoded, buffer.position(), nameLength, UTF_8);
+      ParticipantMetadata.Builder metadata =
+          ParticipantMetadata.builder().setParticipantId(id).setDisplayName(name).setFlags(flags);
+      if (withIntents) {
+        buffer.position(buffer.position() + nameLength);
+        int intentLength = readLength(buffer);
+        if (intentLength > 0) {
+          int intentStart = buffer.position();
+          Optional<PlaybackIntent> intent =
+              PlaybackIntent.decode(
+                  Arrays.copyOfRange(encoded, intentStart, intentStart + intentLength));
+          if (!intent.isPresent()) {
+            return Optional.empty();
+          }
+          metadata.setPendingIntent(intent);
+          buffer.position(intentStart + intentLength);
+        }
+        int appliedCount = readVarint(buffer);
+        if (appliedCount < 0 || appliedCount != buffer.remaining() / (2 * Long.BYTES)) {
+          return Optional.empty();
+        }
+        ImmutableMap.Builder<Long, Long> applied = ImmutableMap.builder();
+        for (int i = 0; i < appliedCount; i++) {
+          applied.put(buffer.getLong(), buffer.getLong());
+        }
+        if (buffer.hasRemaining()) {
+          return Optional.empty();
+        }
+        metadata.setAppliedIntents(applied.build());
+      }
+      return Optional.of(metadata.build());
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Decodes participant metadata.
+   *
+   * <p>Metadata written by clients that predate the compact encoding becomes the display name,
+   * with an id derived from its content.
+   */
+  @Override
+  public ParticipantMetadata decode(byte[] metadata) {
+    Optional<ParticipantMetadata> decoded = tryDecode(metadata);
+    if (decoded.isPresent()) {
+      return decoded.get();
+    }
+    return ParticipantMetadata.builder()
+        .setParticipantId(Hashing.murmur3_128().hashBytes(metadata).asLong())
+        .setDisplayName(new String(metadata, UTF_8))
+        .build();
+  }
+
+  @Override
+  public String keyOf(ParticipantMetadata participant) {
+    return Long.toHexString(participant.participantId());
+  }
+
+  private static void writeLong(ByteArrayOutputStream out, long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Reads a varint length.
+   *
+   * @throws IllegalArgumentException if the length is negative or longer than what is left
+   */
+  private static int readLength(ByteBuffer buffer) {
+    int length = readVarint(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid length: " + length);
+    }
+    return length;
+  }
+
+  private static int readVarint(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint.");
+  }
+}
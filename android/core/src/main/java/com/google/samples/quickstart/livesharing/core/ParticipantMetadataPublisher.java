@@ -0,0 +1,114 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Publishes the local participant's metadata.
+ *
+ * <p>Every metadata update is a round trip that all participants have to process, so the
+ * publisher only transmits what is needed: bursts are rate limited through an {@link
+ * UpdateCoalescer} so that only the latest pending value is sent, and a value identical to the
+ * last transmitted one is not sent again.
+ *
+ * <p>Not thread-safe; call from the thread the {@link Scheduler} runs tasks on.
+ */
+@CheckReturnValue
+public final class ParticipantMetadataPublisher {
+
+  private final Predicate<byte[]> sender;
+  private final Consumer<byte[]> transmittedListener;
+  private final UpdateCoalescer<byte[]> coalescer;
+
+  private Optional<byte[]> lastTransmitted = Optional.empty();
+  private long publishCount = 0;
+  private long transmittedCount = 0;
+  private long transmittedBytes = 0;
+  private long duplicateCount = 0;
+
+  /**
+   * Creates a publisher.
+   *
+   * @param sender sends encoded metadata to the session and returns whether that succeeded
+   * @param transmittedListener called with encoded metadata once it was sent, after the counters
+   *     of this publisher account for it
+   */
+  public ParticipantMetadataPublisher(
+      Predicate<byte[]> sender,
+      Consumer<byte[]> transmittedListener,
+      Duration minInterval,
+      Scheduler scheduler) {
+    this.sender = sender;
+    this.transmittedListener = transmittedListener;
+    this.coalescer = new UpdateCoalescer<>(this::transmit, minInterval, scheduler);
+  }
+
+  /** Publishes {@code metadata}, unless it is already what other participants see. */
+  public void publish(ParticipantMetadata metadata) {
+    publishCount++;
+    coalescer.submit(ParticipantMetadataCodec.encode(metadata));
+  }
+
+  /** Forgets what was transmitted, e.g. because a new session started. */
+  public void reset() {
+    coalescer.reset();
+    lastTransmitted = Optional.empty();
+  }
+
+  /** Returns how many times {@link #publish} was called. */
+  long getPublishCount() {
+    return publishCount;
+  }
+
+  /** Returns how many metadata updates were actually sent. */
+  public long getTransmittedCount() {
+    return transmittedCount;
+  }
+
+  /** Returns the total size of all metadata updates that were actually sent. */
+  public long getTransmittedBytes() {
+    return transmittedBytes;
+  }
+
+  /** Returns how many updates were dropped because they matched the last transmitted value. */
+  public long getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  /** Returns how many updates were replaced by a later one while rate limited. */
+  public long getMergedCount() {
+    return coalescer.getSuppressedCount();
+  }
+
+  private void transmit(byte[] encoded) {
+    if (lastTransmitted.isPresent() && Arrays.equals(lastTransmitted.get(), encoded)) {
+      duplicateCount++;
+      return;
+    }
+    if (!sender.test(encoded)) {
+      return;
+    }
+    lastTransmitted = Optional.of(encoded);
+    transmittedCount++;
+    transmittedBytes += encoded.length;
+    transmittedListener.accept(encoded);
+  }
+}
@@ -0,0 +1,252 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the participants of a session from their metadata.
+ *
+ * <p>Each {@code onParticipantMetadataUpdated} callback carries the metadata of every participant.
+ * The registry diffs it against the previous snapshot by content hash, decodes only metadata it
+ * has not seen before, and reports which participants were added, changed or removed.
+ *
+ * <p>The SDK hands out fresh boxed arrays on every callback, so every entry is still read once: it
+ * is unboxed into a reused buffer, and then hashed and compared as primitive bytes. Entries that
+ * are still present are matched in place, so a callback in which nothing changed allocates almost
+ * nothing, and one in which a single participant changed decodes only that participant.
+ *
+ * @param <T> decoded form of a participant's metadata
+ */
+@CheckReturnValue
+public final class ParticipantRegistry<T> {
+
+  /** Decodes raw participant metadata. */
+  public interface Decoder<T> {
+    /** Decodes the metadata of a single participant. */
+    T decode(byte[] metadata);
+
+    /** Returns a key that identifies the participant across metadata updates. */
+    String keyOf(T participant);
+  }
+
+  /** Receives participant changes computed by {@link #update}. */
+  public interface Listener<T> {
+    void onParticipantAdded(T participant);
+
+    void onParticipantChanged(T previous, T current);
+
+    void onParticipantRemoved(T participant);
+  }
+
+  private final Decoder<T> decoder;
+  private final Listener<T> listener;
+
+  /** Entries of the current snapshot by content hash, chained on collisions. */
+  private final Map<Integer, Entry<T>> entriesByHash = new HashMap<>();
+
+  /** Entries of the current snapshot by participant key. */
+  private final Map<String, Entry<T>> entriesByKey = new LinkedHashMap<>();
+
+  /** Stamp of the update in progress, used to mark entries that are still present. */
+  private int updateStamp = 0;
+
+  /** Reused buffer that each entry is unboxed into before it is matched. */
+  private byte[] scratch = new byte[0];
+
+  private ImmutableMap<String, T> participants = ImmutableMap.of();
+  private boolean participantsStale = false;
+
+  private long decodeCount = 0;
+  private long reuseCount = 0;
+
+  public ParticipantRegistry(Decoder<T> decoder, Listener<T> listener) {
+    this.decoder = decoder;
+    this.listener = listener;
+  }
+
+  /** Applies a full metadata snapshot and publishes the resulting participant changes. */
+  public synchronized void update(Set<Byte[]> allParticipantMetadata) {
+    updateStamp++;
+    List<byte[]> unknownMetadata = new ArrayList<>();
+    int presentCount = 0;
+    for (Byte[] metadata : allParticipantMetadata) {
+      int length = unboxIntoScratch(metadata);
+      Entry<T> entry = find(entriesByHash.get(contentHash(scratch, length)), scratch, length);
+      if (entry == null) {
+        unknownMetadata.add(Arrays.copyOf(scratch, length));
+      } else if (entry.stamp != updateStamp) {
+        entry.stamp = updateStamp;
+        presentCount++;
+        reuseCount++;
+      }
+    }
+    if (unknownMetadata.isEmpty() && presentCount == entriesByKey.size()) {
+      return;
+    }
+
+    Map<String, Entry<T>> staleEntries = new HashMap<>();
+    for (Iterator<Entry<T>> it = entriesByKey.values().iterator(); it.hasNext(); ) {
+      Entry<T> entry = it.next();
+      if (entry.stamp != updateStamp) {
+        it.remove();
+        unlink(entry);
+        staleEntries.put(entry.key, entry);
+      }
+    }
+
+    for (byte[] raw : unknownMetadata) {
+      int hash = contentHash(raw, raw.length);
+      if (find(entriesByHash.get(hash), raw, raw.length) != null) {
+        // Same content reported twice in this snapshot.
+        continue;
+      }
+      T decoded = decoder.decode(raw);
+      decodeCount++;
+      Entry<T> entry = new Entry<>(raw, hash, decoded, decoder.keyOf(decoded));
+      entry.stamp = updateStamp;
+      entry.next = entriesByHash.put(hash, entry);
+      Entry<T> replaced = entriesByKey.put(entry.key, entry);
+      if (replaced != null) {
+        // Another entry of this snapshot claimed the same key; the later one wins.
+        unlink(replaced);
+        staleEntries.putIfAbsent(replaced.key, replaced);
+      }
+      Entry<T> previous = staleEntries.remove(entry.key);
+      if (previous == null) {
+        listener.onParticipantAdded(entry.decoded);
+      } else {
+        listener.onParticipantChanged(previous.decoded, entry.decoded);
+      }
+    }
+    for (Entry<T> removed : staleEntries.values()) {
+      listener.onParticipantRemoved(removed.decoded);
+    }
+    participantsStale = true;
+  }
+
+  /** Returns the decoded metadata of all current participants by key. */
+  public synchronized ImmutableMap<String, T> getParticipants() {
+    if (participantsStale) {
+      ImmutableMap.Builder<String, T> snapshot =
+          ImmutableMap.builderWithExpectedSize(entriesByKey.size());
+      for (Entry<T> entry : entriesByKey.values()) {
+        snapshot.put(entry.key, entry.decoded);
+      }
+      participants = snapshot.buildOrThrow();
+      participantsStale = false;
+    }
+    return participants;
+  }
+
+  /** Returns how many metadata entries had to be decoded so far. */
+  synchronized long getDecodeCount() {
+    return decodeCount;
+  }
+
+  /** Returns how many metadata entries were served from the previous snapshot so far. */
+  synchronized long getReuseCount() {
+    return reuseCount;
+  }
+
+  /** Removes {@code entry} from its content hash chain. */
+  private void unlink(Entry<T> entry) {
+    Entry<T> head = entriesByHash.get(entry.hash);
+    if (head == entry) {
+      if (entry.next == null) {
+        entriesByHash.remove(entry.hash);
+      } else {
+        entriesByHash.put(entry.hash, entry.next);
+      }
+      return;
+    }
+    for (Entry<T> current = head; current != null; current = current.next) {
+      if (current.next == entry) {
+        current.next = entry.next;
+        return;
+      }
+    }
+  }
+
+  private static <T> Entry<T> find(Entry<T> chain, byte[] content, int length) {
+    for (Entry<T> entry = chain; entry != null; entry = entry.next) {
+      if (entry.matches(content, length)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private static int contentHash(byte[] content, int length) {
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + content[i];
+    }
+    return hash;
+  }
+
+  /** Unboxes {@code metadata} into {@link #scratch}, growing it as needed; returns its length. */
+  private int unboxIntoScratch(Byte[] metadata) {
+    if (scratch.length < metadata.length) {
+      scratch = new byte[Math.max(metadata.length, 2 * scratch.length)];
+    }
+    for (int i = 0; i < metadata.length; i++) {
+      scratch[i] = metadata[i] == null ? 0 : metadata[i];
+    }
+    return metadata.length;
+  }
+
+  /** Metadata of a single participant together with its decoded form. */
+  private static final class Entry<T> {
+    final byte[] raw;
+    final int hash;
+    final T decoded;
+    final String key;
+
+    /** Next entry with the same content hash. */
+    Entry<T> next;
+
+    /** Stamp of the last update this entry was present in. */
+    int stamp;
+
+    Entry(byte[] raw, int hash, T decoded, String key) {
+      this.raw = raw;
+      this.hash = hash;
+      this.decoded = decoded;
+      this.key = key;
+    }
+
+    boolean matches(byte[] content, int length) {
+      if (length != raw.length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (content[i] != raw[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Resolves conflicting playback changes by routing them through a single leader.
+ *
+ * <p>Without a leader, every participant broadcasts its own changes and each receiver applies
+ * whichever arrives last, so concurrent changes can leave participants in different states. With
+ * a leader, the others send their changes to it as {@link PlaybackIntent}s; the leader applies them
+ * in the order it receives them and broadcasts the result, which everyone converges to.
+ *
+ * <p>The leader is the participant with the lowest id among those that may change the session
+ * state. Every participant computes this from the same participant metadata, so they agree without
+ * exchanging any messages. While no leader is known, changes are broadcast as before.
+ *
+ * <p>Intents travel in the participant metadata of their sender, which is kept per participant, so
+ * intents of different senders do not overwrite each other or any state of the session. The
+ * leader acknowledges them in its own metadata. If an intent is not acknowledged within the ack
+ * timeout, or the leader changes first, its sender broadcasts the change itself.
+ *
+ * <p>Not thread-safe; call from the thread the {@link Scheduler} runs tasks on.
+ */
+@CheckReturnValue
+public final class PlaybackAuthority {
+
+  /** Carries playback changes to the other participants. */
+  public interface Transport {
+    /** Broadcasts {@code event} to every other participant. */
+    void broadcast(SyncEvent event);
+
+    /**
+     * Publishes {@link #getPendingIntent} and {@link #getAppliedIntents} in the metadata of the
+     * local participant. Returns false if they could not be published.
+     */
+    boolean publishIntents();
+  }
+
+  /** Receives the results of leader election and intents to apply. */
+  public interface Listener {
+    /** Called on the leader with the change requested by another participant. */
+    void onIntent(SyncEvent intent);
+
+    /**
+     * Called on the sender of an intent the leader did not acknowledge in time. Returns the change
+     * to broadcast instead, as of now, or empty if there is nothing left to broadcast.
+     */
+    Optional<SyncEvent> onIntentUnacknowledged(SyncEvent intent);
+
+    void onLeaderChanged(Optional<Long> leaderId, boolean isLocalLeader);
+  }
+
+  private final long localParticipantId;
+  private final boolean enabled;
+  private final Transport transport;
+  private final Listener listener;
+  private final Scheduler scheduler;
+  private final Duration ackTimeout;
+  private final Runnable ackTimeoutTask = this::onAckTimeout;
+
+  /** Sequence number of the last intent applied per sender, as the leader. */
+  private final Map<Long, Long> appliedIntents = new HashMap<>();
+
+  private Optional<Long> leaderId = Optional.empty();
+  private Optional<PlaybackIntent> pendingIntent = Optional.empty();
+  private long nextSequence = 0;
+
+  private long broadcastCount = 0;
+  private long intentSentCount = 0;
+  private long intentAppliedCount = 0;
+  private long intentUnacknowledgedCount = 0;
+
+  /**
+   * @param enabled whether to elect a leader at all. All participants of a session must agree on
+   *     this, since participants without a leader ignore intents sent to them.
+   * @param ackTimeout how long to wait for the leader to acknowledge an intent
+   */
+  public PlaybackAuthority(
+      long localParticipantId,
+      boolean enabled,
+      Transport transport,
+      Listener listener,
+      Duration ackTimeout,
+      Scheduler scheduler) {
+    this.localParticipantId = localParticipantId;
+    this.enabled = enabled;
+    this.transport = transport;
+    this.listener = listener;
+    this.ackTimeout = ackTimeout;
+    this.scheduler = scheduler;
+  }
+
+  /** Returns the id of the leader among {@code participants}, if any may change the state. */
+  static Optional<Long> electLeader(Collection<ParticipantMetadata> participants) {
+    Optional<Long> leaderId = Optional.empty();
+    for (ParticipantMetadata participant : participants) {
+      if (participant.mayChangeState()
+          && (!leaderId.isPresent() || participant.participantId() < leaderId.get())) {
+        leaderId = Optional.of(participant.participantId());
+      }
+    }
+    return leaderId;
+  }
+
+  /**
+   * Updates from the metadata of all participants, including the local one once it has been
+   * published: re-elects the leader, applies new intents as the leader and notices the
+   * acknowledgement of the pending intent otherwise.
+   */
+  public void updateParticipants(Collection<ParticipantMetadata> participants) {
+    Optional<Long> electedId = enabled ? electLeader(participants) : Optional.empty();
+    if (!electedId.equals(leaderId)) {
+      leaderId = electedId;
+      listener.onLeaderChanged(leaderId, isLeader());
+      // A new leader may never have seen the pending intent.
+      if (pendingIntent.isPresent()) {
+        broadcastUnacknowledgedIntent();
+      }
+    }
+    if (isLeader()) {
+      applyIntents(participants);
+    } else if (pendingIntent.isPresent() && leaderId.isPresent()) {
+      for (ParticipantMetadata participant : participants) {
+        if (participant.participantId() == leaderId.get()) {
+          Long applied = participant.appliedIntents().get(localParticipantId);
+          if (applied != null && applied >= pendingIntent.get().sequence()) {
+            clearPendingIntent();
+            transport.publishIntents();
+          }
+        }
+      }
+    }
+  }
+
+  Optional<Long> getLeaderId() {
+    return leaderId;
+  }
+
+  boolean isLeader() {
+    return leaderId.isPresent() && leaderId.get() == localParticipantId;
+  }
+
+  /**
+   * Publishes a playback change made locally: broadcasts it if there is no other leader, and
+   * otherwise sends it to the leader, replacing any intent it has not acknowledged yet, and falling
+   * back to a broadcast if the intent cannot be sent.
+   */
+  public void publish(SyncEvent event) {
+    if (leaderId.isPresent() && !isLeader()) {
+      pendingIntent = Optional.of(PlaybackIntent.create(localParticipantId, nextSequence++, event));
+      scheduler.cancel(ackTimeoutTask);
+      if (transport.publishIntents()) {
+        intentSentCount++;
+        scheduler.postDelayed(ackTimeoutTask, ackTimeout);
+        return;
+      }
+      pendingIntent = Optional.empty();
+    }
+    broadcast(event);
+  }
+
+  /** Returns the intent waiting for the leader to acknowledge it, to publish in the metadata. */
+  public Optional<PlaybackIntent> getPendingIntent() {
+    return pendingIntent;
+  }
+
+  /** Returns the intents applied as the leader, to acknowledge them in the metadata. */
+  public ImmutableMap<Long, Long> getAppliedIntents() {
+    return ImmutableMap.copyOf(appliedIntents);
+  }
+
+  /** Forgets the leader and the intents of the session that just ended. */
+  public void reset() {
+    leaderId = Optional.empty();
+    clearPendingIntent();
+    appliedIntents.clear();
+  }
+
+  /** Returns how many changes were broadcast, including those applied as the leader. */
+  public long getBroadcastCount() {
+    return broadcastCount;
+  }
+
+  /** Returns how many changes were sent to the leader. */
+  public long getIntentSentCount() {
+    return intentSentCount;
+  }
+
+  /** Returns how many intents were applied as the leader. */
+  public long getIntentAppliedCount() {
+    return intentAppliedCount;
+  }
+
+  /** Returns how many intents were broadcast because the leader did not acknowledge them. */
+  public long getIntentUnacknowledgedCount() {
+    return intentUnacknowledgedCount;
+  }
+
+  /** Applies the intents not applied yet, each once, and acknowledges them. */
+  private void applyIntents(Collection<ParticipantMetadata> participants) {
+    boolean applied = false;
+    Set<Long> participantIds = new HashSet<>();
+    for (ParticipantMetadata participant : participants) {
+      participantIds.add(participant.participantId());
+      Optional<PlaybackIntent> intent = participant.pendingIntent();
+      if (!intent.isPresent()
+          || participant.participantId() == localParticipantId
+          || intent.get().senderId() != participant.participantId()) {
+        continue;
+      }
+      Long lastSequence = appliedIntents.get(intent.get().senderId());
+      if (lastSequence != null && intent.get().sequence() <= lastSequence) {
+        continue;
+      }
+      appliedIntents.put(intent.get().senderId(), intent.get().sequence());
+      intentAppliedCount++;
+      applied = true;
+      listener.onIntent(intent.get().event());
+    }
+    boolean forgotLeftSenders = appliedIntents.keySet().retainAll(participantIds);
+    if (applied || forgotLeftSenders) {
+      transport.publishIntents();
+    }
+  }
+
+  private void onAckTimeout() {
+    if (pendingIntent.isPresent()) {
+      broadcastUnacknowledgedIntent();
+    }
+  }
+
+  private void broadcastUnacknowledgedIntent() {
+    SyncEvent intent = pendingIntent.get().event();
+    clearPendingIntent();
+    intentUnacknowledgedCount++;
+    transport.publishIntents();
+    Optional<SyncEvent> event = listener.onIntentUnacknowledged(intent);
+    if (event.isPresent()) {
+      broadcast(event.get());
+    }
+  }
+
+  private void clearPendingIntent() {
+    pendingIntent = Optional.empty();
+    scheduler.cancel(ackTimeoutTask);
+  }
+
+  private void broadcast(SyncEvent event) {
+    broadcastCount++;
+    transport.broadcast(event);
+  }
+}
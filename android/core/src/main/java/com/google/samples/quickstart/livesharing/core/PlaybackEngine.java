@@ -0,0 +1,61 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Renders a piece of media for the {@link MediaPlayer}.
+ *
+ * <p>The engine owns the playback clock: {@link #getPosition} reports the position of what is
+ * currently being presented, so that sync decisions are based on what users actually see and hear.
+ * Engines start paused at position zero.
+ */
+public interface PlaybackEngine {
+
+  /** Creates the engine that plays a given piece of media. */
+  interface Factory {
+    PlaybackEngine create(Media media);
+  }
+
+  void play();
+
+  void pause();
+
+  /** Moves playback to {@code position}; {@link #getPosition} reports it right away. */
+  void seekTo(Duration position);
+
+  /** Sets the rate at which playback advances, 1 being real time. */
+  void setPlaybackRate(double rate);
+
+  /** Returns the position of the media currently presented. */
+  Duration getPosition();
+
+  /**
+   * Returns the length of the content as read from the content itself, if the engine has any; it
+   * takes precedence over the declared {@link Media#duration}.
+   */
+  Optional<Duration> getContentDuration();
+
+  /**
+   * Sets the listener called once the last frame of the content has been presented, which may be
+   * before the declared {@link Media#duration}. May be called on any thread and must not block.
+   */
+  void setEndOfStreamListener(Runnable listener);
+
+  /** Releases all resources; the engine must not be used afterwards. */
+  void release();
+}
@@ -0,0 +1,106 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A playback change requested by a participant that is not the leader, sent to the leader in the
+ * participant metadata of the sender.
+ *
+ * <p>The binary form is the sender, its sequence number and the requested outbound event.
+ */
+@AutoValue
+public abstract class PlaybackIntent {
+
+  /** Participant id of the sender. */
+  abstract long senderId();
+
+  /** Increases with every intent of the sender, so that stale and repeated intents are dropped. */
+  abstract long sequence();
+
+  /** Requested change, as the outbound event the sender would have broadcast itself. */
+  abstract SyncEvent event();
+
+  static PlaybackIntent create(long senderId, long sequence, SyncEvent event) {
+    return new AutoValue_PlaybackIntent(senderId, sequence, event);
+  }
+
+  byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(/* size= */ 48);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      SyncEvent event = event();
+      out.writeLong(senderId());
+      out.writeLong(sequence());
+      out.writeByte(event.type().code);
+      out.writeUTF(event.mediaId());
+      out.writeUTF(event.label());
+      out.writeLong(event.position().toNanos());
+      out.writeDouble(event.playoutRate());
+      out.writeBoolean(event.paused());
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes an intent, or returns empty if {@code bytes} is not a valid intent. The event is not
+   * stamped with a time, so that decoding the same intent twice gives equal values.
+   */
+  static Optional<PlaybackIntent> decode(byte[] bytes) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      long senderId = in.readLong();
+      long sequence = in.readLong();
+      int code = in.readUnsignedByte();
+      Optional<SyncEvent.Type> type = outboundTypeOf(code);
+      if (!type.isPresent()) {
+        return Optional.empty();
+      }
+      SyncEvent event =
+          SyncEvent.builder(type.get(), /* timestampNanos= */ 0)
+              .setMediaId(in.readUTF())
+              .setLabel(in.readUTF())
+              .setPosition(Duration.ofNanos(in.readLong()))
+              .setPlayoutRate(in.readDouble())
+              .setPaused(in.readBoolean())
+              .build();
+      if (in.available() > 0) {
+        return Optional.empty();
+      }
+      return Optional.of(create(senderId, sequence, event));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /** Returns the playback change type with {@code code}; co-doing updates are not intents. */
+  private static Optional<SyncEvent.Type> outboundTypeOf(int code) {
+    for (SyncEvent.Type type : SyncEvent.Type.values()) {
+      if (type.code == code && !type.inbound && type != SyncEvent.Type.SET_GLOBAL_STATE) {
+        return Optional.of(type);
+      }
+    }
+    return Optional.empty();
+  }
+}
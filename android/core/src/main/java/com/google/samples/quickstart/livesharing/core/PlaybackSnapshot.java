@@ -0,0 +1,81 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import com.google.errorprone.annotations.Immutable;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * An immutable view of the {@link MediaPlayer}'s playback state.
+ *
+ * <p>The position is stored as an anchor: the position at a point in monotonic time. Readers on
+ * any thread can extrapolate it to the moment they need it with {@link #positionAt}.
+ */
+@Immutable
+@AutoValue
+public abstract class PlaybackSnapshot {
+
+  static final PlaybackSnapshot INACTIVE =
+      create(
+          Optional.empty(),
+          MediaPlayer.State.INACTIVE,
+          Duration.ZERO,
+          /* anchorTimeNanos= */ 0,
+          /* playoutRate= */ 1,
+          Duration.ZERO);
+
+  public abstract Optional<String> mediaId();
+
+  public abstract MediaPlayer.State state();
+
+  /** Playback position at {@link #anchorTimeNanos}. */
+  public abstract Duration anchorPosition();
+
+  /** Monotonic time, in nanoseconds, at which {@link #anchorPosition} was current. */
+  public abstract long anchorTimeNanos();
+
+  public abstract double playoutRate();
+
+  /** Length of the active media. */
+  public abstract Duration length();
+
+  public static PlaybackSnapshot create(
+      Optional<String> mediaId,
+      MediaPlayer.State state,
+      Duration anchorPosition,
+      long anchorTimeNanos,
+      double playoutRate,
+      Duration length) {
+    return new AutoValue_PlaybackSnapshot(
+        mediaId, state, anchorPosition, anchorTimeNanos, playoutRate, length);
+  }
+
+  /**
+   * Returns the playback position at monotonic time {@code nowNanos}.
+   *
+   * <p>While playing, the anchor is advanced by the elapsed time scaled by the playout rate and
+   * capped at the media's length. In any other state the anchor is returned as is.
+   */
+  public Duration positionAt(long nowNanos) {
+    if (state() != MediaPlayer.State.PLAYING) {
+      return anchorPosition();
+    }
+    long elapsedNanos = Math.max(0, nowNanos - anchorTimeNanos());
+    long positionNanos = anchorPosition().toNanos() + (long) (elapsedNanos * playoutRate());
+    return Duration.ofNanos(Math.min(positionNanos, length().toNanos()));
+  }
+}
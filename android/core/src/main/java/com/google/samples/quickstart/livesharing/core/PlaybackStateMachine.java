@@ -0,0 +1,169 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.samples.quickstart.livesharing.core.MediaPlayer.State;
+import javax.annotation.Nullable;
+
+/**
+ * The {@link State} of a {@link MediaPlayer}, moved by playback events along a transition table.
+ *
+ * <p>Every event is looked up in the table by the ordinals of the current state and the event, so
+ * validating it takes constant time. An event the table rejects leaves the state as it is and is
+ * reported through a {@link Result}, without throwing, so that a burst of remote commands that
+ * arrive before any media is active costs no more than the lookups. An event that would leave the
+ * state unchanged is rejected too, except for {@link Event#LOAD}, which always changes the media.
+ * Every applied transition is published to the {@link Listener}.
+ *
+ * <p>Not thread-safe; call from the thread the player lives on.
+ */
+@CheckReturnValue
+public final class PlaybackStateMachine {
+
+  /** Something that happens to playback. */
+  public enum Event {
+    /** Media was selected for playback. */
+    LOAD,
+    /** Playback was started or resumed. */
+    PLAY,
+    /** Playback was paused. */
+    PAUSE,
+    /** Playback is waiting for content, for real or simulated. */
+    BUFFER,
+    /** Playback reached the end of the media. */
+    END,
+    /** Playback was stopped and the media released. */
+    STOP,
+    /** The position moved back from the end of the media. */
+    REWIND
+  }
+
+  /** Outcome of an {@link Event}. */
+  public enum Result {
+    /** The event moved the player to the state in the table. */
+    APPLIED,
+    /** The event needs an active media, and none was selected. */
+    NO_ACTIVE_MEDIA,
+    /** The player is already in the state the event leads to. */
+    ALREADY_IN_STATE,
+    /** Playback reached the end of the media, which must be rewound or reloaded first. */
+    MEDIA_ENDED,
+    /** The event does not apply to the current state. */
+    INVALID_TRANSITION
+  }
+
+  /** Receives every applied transition. */
+  public interface Listener {
+    void onTransition(State from, Event event, State to);
+  }
+
+  /** Next state by current state and event ordinals; {@code null} rejects the event. */
+  private static final State[][] TRANSITIONS =
+      new State[State.values().length][Event.values().length];
+
+  /** Why an event is rejected, by current state and event ordinals, where it is. */
+  private static final Result[][] REJECTIONS =
+      new Result[State.values().length][Event.values().length];
+
+  static {
+    for (State state : State.values()) {
+      for (Event event : Event.values()) {
+        reject(state, event, Result.INVALID_TRANSITION);
+      }
+      if (state == State.INACTIVE) {
+        continue;
+      }
+      allow(state, Event.LOAD, State.PAUSED);
+      allow(state, Event.STOP, State.INACTIVE);
+    }
+    for (Event event : Event.values()) {
+      reject(State.INACTIVE, event, Result.NO_ACTIVE_MEDIA);
+    }
+    allow(State.INACTIVE, Event.LOAD, State.PAUSED);
+
+    allow(State.PLAYING, Event.PAUSE, State.PAUSED);
+    allow(State.PLAYING, Event.BUFFER, State.BUFFERING);
+    allow(State.PLAYING, Event.END, State.ENDED);
+    reject(State.PLAYING, Event.PLAY, Result.ALREADY_IN_STATE);
+
+    allow(State.PAUSED, Event.PLAY, State.PLAYING);
+    allow(State.PAUSED, Event.BUFFER, State.BUFFERING);
+    reject(State.PAUSED, Event.PAUSE, Result.ALREADY_IN_STATE);
+
+    allow(State.BUFFERING, Event.PLAY, State.PLAYING);
+    allow(State.BUFFERING, Event.PAUSE, State.PAUSED);
+    reject(State.BUFFERING, Event.BUFFER, Result.ALREADY_IN_STATE);
+
+    allow(State.ENDED, Event.REWIND, State.PAUSED);
+    reject(State.ENDED, Event.PLAY, Result.MEDIA_ENDED);
+    reject(State.ENDED, Event.PAUSE, Result.MEDIA_ENDED);
+    reject(State.ENDED, Event.BUFFER, Result.MEDIA_ENDED);
+    reject(State.ENDED, Event.END, Result.ALREADY_IN_STATE);
+  }
+
+  private static void allow(State from, Event event, State to) {
+    TRANSITIONS[from.ordinal()][event.ordinal()] = to;
+    REJECTIONS[from.ordinal()][event.ordinal()] = null;
+  }
+
+  private static void reject(State from, Event event, Result result) {
+    TRANSITIONS[from.ordinal()][event.ordinal()] = null;
+    REJECTIONS[from.ordinal()][event.ordinal()] = result;
+  }
+
+  private State state = State.INACTIVE;
+  private Listener listener = (from, event, to) -> {};
+
+  /** Returns the state after {@code event} in {@code state}, or {@code null} if it is rejected. */
+  @Nullable
+  static State next(State state, Event event) {
+    return TRANSITIONS[state.ordinal()][event.ordinal()];
+  }
+
+  /** Returns why {@code event} is rejected in {@code state}, or {@code null} if it is applied. */
+  @Nullable
+  static Result rejection(State state, Event event) {
+    return REJECTIONS[state.ordinal()][event.ordinal()];
+  }
+
+  /**
+   * Applies {@code event} to the current state.
+   *
+   * <p>The result may be ignored for events the table never rejects, such as {@link Event#LOAD}, or
+   * that the caller already knows to be valid.
+   */
+  @CanIgnoreReturnValue
+  public Result fire(Event event) {
+    State to = next(state, event);
+    if (to == null) {
+      return rejection(state, event);
+    }
+    State from = state;
+    state = to;
+    listener.onTransition(from, event, to);
+    return Result.APPLIED;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /** Sets the listener that receives every applied transition. */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+}
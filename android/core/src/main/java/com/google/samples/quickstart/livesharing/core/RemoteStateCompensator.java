@@ -0,0 +1,61 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+
+/**
+ * Compensates a received playback position for the time that passed before it is applied.
+ *
+ * <p>A position received from another participant was accurate when it was sent. By the time it
+ * is applied, it is stale by the transit time plus however long it waited locally, e.g. in the
+ * main thread's queue. The co-watching state carries no send timestamp, so the reference time is
+ * the moment the state was received, moved back by a configurable transit estimate.
+ */
+@CheckReturnValue
+final class RemoteStateCompensator {
+
+  private final long transitEstimateNanos;
+
+  /**
+   * Creates a compensator.
+   *
+   * @param transitEstimate expected time between a participant sending a state and this device
+   *     receiving it
+   */
+  RemoteStateCompensator(Duration transitEstimate) {
+    this.transitEstimateNanos = transitEstimate.toNanos();
+  }
+
+  /**
+   * Returns the position a remote playback has reached at monotonic time {@code nowNanos}.
+   *
+   * @param position the received position
+   * @param playoutRate the received playout rate
+   * @param playing whether the remote playback is running; paused or buffering positions are
+   *     returned as is
+   * @param receivedNanos monotonic time at which the state was received
+   * @param nowNanos monotonic time at which the state is applied
+   */
+  Duration compensate(
+      Duration position, double playoutRate, boolean playing, long receivedNanos, long nowNanos) {
+    if (!playing) {
+      return position;
+    }
+    long elapsedNanos = transitEstimateNanos + Math.max(0, nowNanos - receivedNanos);
+    return position.plusNanos((long) (elapsedNanos * playoutRate));
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import com.google.errorprone.annotations.Immutable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Player and session state persisted across activity recreation and process death.
+ *
+ * <p>The playback position is anchored both in monotonic time, which is exact across recreation
+ * but restarts on reboot, and in wall-clock time, which survives reboots but can be adjusted. On
+ * restore, {@link #positionAt} extrapolates from whichever anchor is trustworthy, at the playout
+ * rate chosen by the user: a catch-up adjustment in effect when the snapshot was taken only applied
+ * to the moment.
+ *
+ * <p>The binary form is about 50 bytes: a version byte followed by the fields in declaration order.
+ */
+@Immutable
+@AutoValue
+public abstract class ResumeSnapshot {
+
+  /** Version 1 also stored the effective playout rate, which included catch-up adjustments. */
+  private static final int VERSION = 2;
+
+  /**
+   * How far the monotonic and wall-clock anchors may disagree before the monotonic clock is
+   * assumed to have restarted.
+   */
+  private static final long MAX_CLOCK_DISAGREEMENT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  /** Playback state, advancing at {@link #nominalPlayoutRate}. */
+  public abstract PlaybackSnapshot playback();
+
+  public abstract SessionType sessionType();
+
+  /** Wall-clock time, in milliseconds since the epoch, when the playback anchor was current. */
+  abstract long wallClockAnchorMillis();
+
+  /**
+   * Creates a snapshot of {@code playback}, which may advance at a catch-up adjusted rate, to be
+   * resumed at {@code nominalPlayoutRate}.
+   */
+  public static ResumeSnapshot create(
+      PlaybackSnapshot playback,
+      double nominalPlayoutRate,
+      SessionType sessionType,
+      long wallClockAnchorMillis) {
+    return new AutoValue_ResumeSnapshot(
+        PlaybackSnapshot.create(
+            playback.mediaId(),
+            playback.state(),
+            playback.anchorPosition(),
+            playback.anchorTimeNanos(),
+            nominalPlayoutRate,
+            playback.length()),
+        sessionType,
+        wallClockAnchorMillis);
+  }
+
+  /** Playout rate chosen by the user, without any catch-up adjustment. */
+  public double nominalPlayoutRate() {
+    return playback().playoutRate();
+  }
+
+  /** Returns how long ago the snapshot was taken, according to the wall clock. */
+  public Duration age(long nowWallClockMillis) {
+    return Duration.ofMillis(nowWallClockMillis - wallClockAnchorMillis());
+  }
+
+  /** Returns the playback position now, extrapolated from the persisted anchors. */
+  public Duration positionAt(long nowNanos, long nowWallClockMillis) {
+    long monotonicElapsedNanos = nowNanos - playback().anchorTimeNanos();
+    long wallClockElapsedNanos =
+        TimeUnit.MILLISECONDS.toNanos(nowWallClockMillis - wallClockAnchorMillis());
+    boolean monotonicClockContinuous =
+        monotonicElapsedNanos >= 0
+            && Math.abs(monotonicElapsedNanos - wallClockElapsedNanos)
+                <= MAX_CLOCK_DISAGREEMENT_NANOS;
+    long elapsedNanos =
+        monotonicClockContinuous ? monotonicElapsedNanos : Math.max(0, wallClockElapsedNanos);
+    return playback().positionAt(playback().anchorTimeNanos() + elapsedNanos);
+  }
+
+  public byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(/* size= */ 64);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      PlaybackSnapshot playback = playback();
+      out.writeByte(VERSION);
+      out.writeUTF(playback.mediaId().orElse(""));
+      out.writeByte(playback.state().ordinal());
+      out.writeLong(playback.anchorPosition().toNanos());
+      out.writeLong(playback.anchorTimeNanos());
+      out.writeDouble(playback.playoutRate());
+      out.writeLong(playback.length().toNanos());
+      out.writeByte(sessionType().ordinal());
+      out.writeLong(wallClockAnchorMillis());
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Decodes a snapshot, or returns empty if {@code bytes} is not a valid snapshot. */
+  public static Optional<ResumeSnapshot> decode(byte[] bytes) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      if (in.readByte() != VERSION) {
+        return Optional.empty();
+      }
+      String mediaId = in.readUTF();
+      MediaPlayer.State[] states = MediaPlayer.State.values();
+      int state = in.readByte();
+      Duration anchorPosition = Duration.ofNanos(in.readLong());
+      long anchorTimeNanos = in.readLong();
+      double playoutRate = in.readDouble();
+      Duration length = Duration.ofNanos(in.readLong());
+      SessionType[] sessionTypes = SessionType.values();
+      int sessionType = in.readByte();
+      long wallClockAnchorMillis = in.readLong();
+      if (state < 0
+          || state >= states.length
+          || sessionType < 0
+          || sessionType >= sessionTypes.length) {
+        return Optional.empty();
+      }
+      PlaybackSnapshot playback =
+          PlaybackSnapshot.create(
+              mediaId.isEmpty() ? Optional.empty() : Optional.of(mediaId),
+              states[state],
+              anchorPosition,
+              anchorTimeNanos,
+              playoutRate,
+              length);
+      return Optional.of(
+          create(playback, playoutRate, sessionTypes[sessionType], wallClockAnchorMillis));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+}
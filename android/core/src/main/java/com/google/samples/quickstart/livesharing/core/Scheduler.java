@@ -0,0 +1,35 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import java.time.Duration;
+
+/**
+ * Schedules tasks against a monotonic clock.
+ *
+ * <p>Lets timing-dependent classes run on a {@code android.os.Handler} in the app and on a plain
+ * JVM elsewhere.
+ */
+public interface Scheduler {
+
+  /** Returns the current monotonic time in nanoseconds. */
+  long nanoTime();
+
+  /** Runs {@code task} once {@code delay} has elapsed. */
+  void postDelayed(Runnable task, Duration delay);
+
+  /** Cancels all pending runs of {@code task}. */
+  void cancel(Runnable task);
+}
@@ -0,0 +1,259 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.ToIntFunction;
+
+/**
+ * Extracts seek preview thumbnails in the background and serves them from memory.
+ *
+ * <p>Previews exist at fixed intervals, or slots, of one media. Lookups never block: they return
+ * the cached preview nearest to the requested position within the prefetch radius, if any, and
+ * move the prefetch focus there. The background worker first loads the previews within the
+ * prefetch radius of the focus, nearest first, and otherwise sweeps through the media while the
+ * cache has room.
+ *
+ * <p>Previews are cached and reported by media id and slot, so that a result of a loader that was
+ * replaced for other media cannot be taken for one of the current media. Previews extracted after
+ * {@link #close} are dropped.
+ *
+ * @param <T> type of preview image
+ */
+@CheckReturnValue
+public final class SeekPreviewLoader<T> {
+
+  /** Decodes preview frames; only ever called from the loader's executor. */
+  public interface FrameExtractor<T> {
+    /** Returns the frame at {@code position}, or empty if there is none. */
+    Optional<T> extractFrame(Duration position) throws IOException;
+
+    void close();
+  }
+
+  /** Receives previews as they are loaded near the prefetch focus. */
+  public interface Listener<T> {
+    void onPreviewLoaded(String mediaId, Duration position, T preview);
+  }
+
+  /** Identifies a preview across media. */
+  @AutoValue
+  abstract static class PreviewKey {
+    abstract String mediaId();
+
+    abstract int slot();
+
+    static PreviewKey create(String mediaId, int slot) {
+      return new AutoValue_SeekPreviewLoader_PreviewKey(mediaId, slot);
+    }
+  }
+
+  private final String mediaId;
+  private final FrameExtractor<T> extractor;
+  private final ByteBudgetLruCache<PreviewKey, T> cache;
+  private final Duration interval;
+  private final int slotCount;
+  private final int prefetchRadius;
+  private final Executor executor;
+  private final Listener<T> listener;
+
+  @GuardedBy("this")
+  private final BitSet failedSlots = new BitSet();
+
+  @GuardedBy("this")
+  private int focusSlot = 0;
+
+  @GuardedBy("this")
+  private int nextSweepSlot = 0;
+
+  @GuardedBy("this")
+  private boolean workerScheduled = false;
+
+  @GuardedBy("this")
+  private boolean closed = false;
+
+  /**
+   * Creates a loader.
+   *
+   * @param mediaId id of the media that {@code extractor} extracts from
+   * @param sizer returns the in-memory size of a preview in bytes
+   * @param maxBytes memory budget for cached previews
+   * @param executor runs extraction; must run tasks one at a time
+   */
+  public SeekPreviewLoader(
+      String mediaId,
+      FrameExtractor<T> extractor,
+      ToIntFunction<T> sizer,
+      long maxBytes,
+      Duration length,
+      Duration interval,
+      int prefetchRadius,
+      Executor executor,
+      Listener<T> listener) {
+    this.mediaId = mediaId;
+    this.extractor = extractor;
+    this.cache = new ByteBudgetLruCache<>(maxBytes, sizer);
+    this.interval = interval;
+    this.slotCount = (int) (length.toMillis() / interval.toMillis()) + 1;
+    this.prefetchRadius = prefetchRadius;
+    this.executor = executor;
+    this.listener = listener;
+  }
+
+  /** Starts loading previews in the background. */
+  public synchronized void start() {
+    scheduleWorker();
+  }
+
+  /** Returns the id of the media the previews are of. */
+  public String getMediaId() {
+    return mediaId;
+  }
+
+  /**
+   * Returns the cached preview nearest to {@code position}, at most the prefetch radius away, and
+   * prefetches around it.
+   *
+   * <p>Never blocks on extraction, so it is safe to call while the user is dragging.
+   */
+  public Optional<T> getPreview(Duration position) {
+    int slot = slotOf(position);
+    synchronized (this) {
+      if (slot != focusSlot) {
+        focusSlot = slot;
+        scheduleWorker();
+      }
+    }
+    // Of two slots equally far away, the one on the side of the position is nearer.
+    int towardPosition = position.compareTo(interval.multipliedBy(slot)) >= 0 ? 1 : -1;
+    for (int distance = 0; distance <= prefetchRadius; distance++) {
+      Optional<T> preview = getCached(slot + towardPosition * distance);
+      if (!preview.isPresent()) {
+        preview = getCached(slot - towardPosition * distance);
+      }
+      if (preview.isPresent()) {
+        return preview;
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** Stops loading and releases the extractor once any extraction in progress is done. */
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    cache.clear();
+    executor.execute(extractor::close);
+  }
+
+  ByteBudgetLruCache<PreviewKey, T> getCache() {
+    return cache;
+  }
+
+  /** Returns the preview of {@code slot} if it is cached, without counting a miss otherwise. */
+  private Optional<T> getCached(int slot) {
+    PreviewKey key = PreviewKey.create(mediaId, slot);
+    return cache.contains(key) ? cache.get(key) : Optional.empty();
+  }
+
+  private int slotOf(Duration position) {
+    long slot = Math.round((double) position.toMillis() / interval.toMillis());
+    return (int) Math.max(0, Math.min(slotCount - 1, slot));
+  }
+
+  @GuardedBy("this")
+  private void scheduleWorker() {
+    if (workerScheduled || closed) {
+      return;
+    }
+    workerScheduled = true;
+    executor.execute(this::loadPreviews);
+  }
+
+  private void loadPreviews() {
+    while (true) {
+      int slot;
+      synchronized (this) {
+        slot = closed ? -1 : nextSlotToLoad();
+        if (slot < 0) {
+          workerScheduled = false;
+          return;
+        }
+      }
+      Duration position = interval.multipliedBy(slot);
+      Optional<T> preview;
+      try {
+        preview = extractor.extractFrame(position);
+      } catch (IOException e) {
+        preview = Optional.empty();
+      }
+      boolean nearFocus;
+      synchronized (this) {
+        if (!preview.isPresent()) {
+          failedSlots.set(slot);
+          continue;
+        }
+        if (closed) {
+          return;
+        }
+        nearFocus = Math.abs(slot - focusSlot) <= prefetchRadius;
+      }
+      cache.put(PreviewKey.create(mediaId, slot), preview.get());
+      if (nearFocus) {
+        listener.onPreviewLoaded(mediaId, position, preview.get());
+      }
+    }
+  }
+
+  /** Returns the slot to load next, or -1 if there is nothing worth loading. */
+  @GuardedBy("this")
+  private int nextSlotToLoad() {
+    for (int distance = 0; distance <= prefetchRadius; distance++) {
+      if (needsLoading(focusSlot + distance)) {
+        return focusSlot + distance;
+      }
+      if (needsLoading(focusSlot - distance)) {
+        return focusSlot - distance;
+      }
+    }
+    // Sweep only while the budget has room left, so that the sweep does not churn the cache.
+    while (nextSweepSlot < slotCount && cache.getSizeBytes() < cache.getMaxBytes()) {
+      int slot = nextSweepSlot++;
+      if (needsLoading(slot)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  @GuardedBy("this")
+  private boolean needsLoading(int slot) {
+    return slot >= 0
+        && slot < slotCount
+        && !failedSlots.get(slot)
+        && !cache.contains(PreviewKey.create(mediaId, slot));
+  }
+}
@@ -0,0 +1,340 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.errorprone.annotations.CheckReturnValue;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Begins and ends sessions with a deadline on every call, retrying failed calls with exponential
+ * backoff.
+ *
+ * <p>The client that sessions are begun with is created once, on a warm-up executor. Calling
+ * {@link #preWarm} early, e.g. at startup, takes its creation off the path of the first {@link
+ * #begin}. An end call that misses its deadline is cancelled and counts as a failed attempt. The
+ * phases of every operation (waiting for the client, each attempt) are recorded in a {@link
+ * StartupTracer} that is passed to the listener when the operation finishes.
+ *
+ * <p>Only one begin may be pending at a time, and a begin call that misses its deadline is not
+ * retried: cancelling it does not stop the SDK from opening its session, so a retry could open a
+ * second one. A session that arrives after its begin timed out or was cancelled is ended instead.
+ *
+ * <p>Thread-safe, provided the scheduler accepts tasks from any thread.
+ *
+ * @param <C> the client type
+ * @param <S> the session type
+ */
+@CheckReturnValue
+public final class SessionManager<C, S> {
+
+  /** Receives progress of begin and end operations. May run on any thread. */
+  public interface Listener {
+    /** Called before attempt {@code attempt + 1} is made, {@code backoff} from now. */
+    void onRetry(String operation, int attempt, Throwable failure, Duration backoff);
+
+    /** Called once per operation, with the time each of its phases completed. */
+    void onFinished(String operation, boolean succeeded, StartupTracer phases);
+
+    /** Called when a session that arrived after its begin finished has been ended. */
+    void onLateSessionEnded(boolean succeeded);
+  }
+
+  public static final String OPERATION_BEGIN = "begin";
+  public static final String OPERATION_END = "end";
+  static final String PHASE_CLIENT_READY = "client_ready";
+
+  private final Supplier<C> clientFactory;
+  private final Executor warmUpExecutor;
+  private final Scheduler scheduler;
+  private final Duration callDeadline;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Listener listener;
+
+  @GuardedBy("this")
+  private Optional<ListenableFuture<C>> client = Optional.empty();
+
+  @GuardedBy("this")
+  private Optional<ListenableFuture<S>> pendingBegin = Optional.empty();
+
+  @GuardedBy("this")
+  private Optional<ListenableFuture<Void>> pendingEnd = Optional.empty();
+
+  /**
+   * @param clientFactory creates the client; called at most once, on {@code warmUpExecutor}
+   * @param scheduler runs deadlines and retries, and provides the clock that phases are timed with
+   * @param callDeadline how long a single begin or end call may take before it is cancelled
+   * @param maxAttempts how many calls an operation makes before it fails; at least 1
+   * @param initialBackoff the wait before the first retry, doubled for every retry after it
+   */
+  public SessionManager(
+      Supplier<C> clientFactory,
+      Executor warmUpExecutor,
+      Scheduler scheduler,
+      Duration callDeadline,
+      int maxAttempts,
+      Duration initialBackoff,
+      Listener listener) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+    }
+    this.clientFactory = clientFactory;
+    this.warmUpExecutor = warmUpExecutor;
+    this.scheduler = scheduler;
+    this.callDeadline = callDeadline;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+    this.listener = listener;
+  }
+
+  /** Starts creating the client unless that has already started, and returns it. */
+  public synchronized ListenableFuture<C> preWarm() {
+    if (!client.isPresent()) {
+      ListenableFutureTask<C> task = ListenableFutureTask.create(clientFactory::get);
+      client = Optional.of(task);
+      warmUpExecutor.execute(task);
+    }
+    return client.get();
+  }
+
+  /**
+   * Begins a session with {@code beginFn}, once the client is ready. Fails with an {@link
+   * IllegalStateException} while another begin is pending.
+   *
+   * @param endFn ends a session that arrives after the begin timed out or was cancelled
+   */
+  public ListenableFuture<S> begin(AsyncFunction<C, S> beginFn, AsyncFunction<S, Void> endFn) {
+    StartupTracer phases = new StartupTracer(scheduler::nanoTime);
+    SettableFuture<S> session = SettableFuture.create();
+    synchronized (this) {
+      if (pendingBegin.isPresent()) {
+        return Futures.immediateFailedFuture(
+            new IllegalStateException("A session is already being begun"));
+      }
+      pendingBegin = Optional.of(session);
+    }
+    notifyWhenFinished(OPERATION_BEGIN, session, phases);
+    session.setFuture(
+        Futures.transformAsync(
+            preWarm(),
+            readyClient -> {
+              phases.mark(PHASE_CLIENT_READY);
+              return withRetries(
+                  OPERATION_BEGIN,
+                  () -> beginFn.apply(readyClient),
+                  phases,
+                  Optional.of(endFn));
+            },
+            directExecutor()));
+    return session;
+  }
+
+  /** Returns whether a begin has been started and has not finished yet. */
+  public synchronized boolean isBeginPending() {
+    return pendingBegin.isPresent();
+  }
+
+  /** Ends a session with {@code endFn}. An end that is still pending is cancelled. */
+  public ListenableFuture<Void> end(AsyncCallable<Void> endFn) {
+    StartupTracer phases = new StartupTracer(scheduler::nanoTime);
+    ListenableFuture<Void> ended =
+        withRetries(OPERATION_END, endFn, phases, /* endLateResult= */ Optional.empty());
+    synchronized (this) {
+      pendingEnd.ifPresent(previous -> previous.cancel(/* mayInterruptIfRunning= */ false));
+      pendingEnd = Optional.of(ended);
+    }
+    notifyWhenFinished(OPERATION_END, ended, phases);
+    return ended;
+  }
+
+  /**
+   * Cancels pending begin and end operations. An end call in flight is cancelled; a session that a
+   * begin call in flight opens is ended.
+   */
+  public synchronized void cancelPending() {
+    pendingBegin.ifPresent(pending -> pending.cancel(/* mayInterruptIfRunning= */ false));
+    pendingEnd.ifPresent(pending -> pending.cancel(/* mayInterruptIfRunning= */ false));
+    pendingBegin = Optional.empty();
+    pendingEnd = Optional.empty();
+  }
+
+  private void notifyWhenFinished(
+      String operation, ListenableFuture<?> future, StartupTracer phases) {
+    future.addListener(
+        () -> {
+          synchronized (this) {
+            if (pendingBegin.orElse(null) == future) {
+              pendingBegin = Optional.empty();
+            }
+            if (pendingEnd.orElse(null) == future) {
+              pendingEnd = Optional.empty();
+            }
+          }
+          boolean succeeded;
+          try {
+            Futures.getDone(future);
+            succeeded = true;
+          } catch (RuntimeException | ExecutionException e) {
+            succeeded = false;
+          }
+          listener.onFinished(operation, succeeded, phases);
+        },
+        directExecutor());
+  }
+
+  /**
+   * @param endLateResult if present, a call that misses its deadline fails the operation without
+   *     being cancelled or retried, and a result it delivers after the operation finished is passed
+   *     to this function
+   */
+  private <T> ListenableFuture<T> withRetries(
+      String operation,
+      AsyncCallable<T> call,
+      StartupTracer phases,
+      Optional<AsyncFunction<T, Void>> endLateResult) {
+    SettableFuture<T> result = SettableFuture.create();
+    attempt(operation, call, phases, endLateResult, result, /* attempt= */ 1, initialBackoff);
+    return result;
+  }
+
+  private <T> void attempt(
+      String operation,
+      AsyncCallable<T> call,
+      StartupTracer phases,
+      Optional<AsyncFunction<T, Void>> endLateResult,
+      SettableFuture<T> result,
+      int attempt,
+      Duration backoff) {
+    if (result.isDone()) {
+      // Cancelled while backing off.
+      return;
+    }
+    ListenableFuture<T> response;
+    try {
+      response = call.call();
+    } catch (Exception e) {
+      response = Futures.immediateFailedFuture(e);
+    }
+    ListenableFuture<T> inFlight = response;
+    AtomicBoolean timedOut = new AtomicBoolean();
+    Runnable deadline =
+        () -> {
+          if (inFlight.isDone()) {
+            return;
+          }
+          timedOut.set(true);
+          if (endLateResult.isPresent()) {
+            phases.mark(String.format("attempt_%d_timed_out", attempt));
+            result.setException(timeout(operation, attempt));
+          } else {
+            inFlight.cancel(/* mayInterruptIfRunning= */ true);
+          }
+        };
+    scheduler.postDelayed(deadline, callDeadline);
+    if (!endLateResult.isPresent()) {
+      result.addListener(
+          () -> {
+            if (result.isCancelled()) {
+              inFlight.cancel(/* mayInterruptIfRunning= */ true);
+            }
+          },
+          directExecutor());
+    }
+    Futures.addCallback(
+        inFlight,
+        new FutureCallback<T>() {
+          @Override
+          public void onSuccess(T value) {
+            scheduler.cancel(deadline);
+            if (!result.isDone()) {
+              phases.mark(String.format("attempt_%d_succeeded", attempt));
+            }
+            if (!result.set(value)) {
+              // Timed out or cancelled before the call returned.
+              endLateResult.ifPresent(endFn -> endLate(endFn, value));
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            scheduler.cancel(deadline);
+            if (result.isDone()) {
+              return;
+            }
+            Throwable failure = timedOut.get() ? timeout(operation, attempt) : t;
+            phases.mark(
+                String.format("attempt_%d_%s", attempt, timedOut.get() ? "timed_out" : "failed"));
+            if (attempt >= maxAttempts
+                || (t instanceof CancellationException && !timedOut.get())) {
+              result.setException(failure);
+              return;
+            }
+            listener.onRetry(operation, attempt, failure, backoff);
+            Duration nextBackoff = backoff.multipliedBy(2);
+            scheduler.postDelayed(
+                () ->
+                    attempt(
+                        operation, call, phases, endLateResult, result, attempt + 1, nextBackoff),
+                backoff);
+          }
+        },
+        directExecutor());
+  }
+
+  private TimeoutException timeout(String operation, int attempt) {
+    return new TimeoutException(
+        String.format("%s attempt %d took longer than %s", operation, attempt, callDeadline));
+  }
+
+  private <T> void endLate(AsyncFunction<T, Void> endFn, T value) {
+    ListenableFuture<Void> ended;
+    try {
+      ended = endFn.apply(value);
+    } catch (Exception e) {
+      ended = Futures.immediateFailedFuture(e);
+    }
+    Futures.addCallback(
+        ended,
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void unused) {
+            listener.onLateSessionEnded(/* succeeded= */ true);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            listener.onLateSessionEnded(/* succeeded= */ false);
+          }
+        },
+        directExecutor());
+  }
+}
@@ -12,12 +12,12 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
-/** An exception thrown when the {@link Media} accessed is not active in the {@link MediaPlayer}. */
-final class MediaNotActiveException extends Exception {
-
-  MediaNotActiveException(String errorMessage) {
-    super(errorMessage);
-  }
+/** The live sharing experiences a session was begun with. */
+public enum SessionType {
+  NONE,
+  CO_WATCHING,
+  CO_DOING,
+  BOTH
 }
@@ -0,0 +1,278 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A simulated segmented media source with a bounded forward buffer.
+ *
+ * <p>Segments are downloaded one at a time over a {@link SimulatedNetworkLink}, at the bitrate
+ * chosen by an {@link AbrPolicy}, until {@code maxBuffer} of media is buffered ahead of the
+ * playback position. Playback drains the buffer. When the buffer drains to the low watermark
+ * during playback the source reports buffering, and it reports recovery once the buffer has
+ * refilled to the high watermark or the whole remaining media is buffered. Playback does not
+ * advance while the source is buffering.
+ *
+ * <p>Not thread-safe; call from the thread the {@link Scheduler} runs tasks on.
+ */
+@CheckReturnValue
+public final class SimulatedMediaSource {
+
+  /** Receives buffering transitions. */
+  public interface Listener {
+    void onBufferingChanged(boolean buffering);
+  }
+
+  private final SimulatedNetworkLink link;
+  private final AbrPolicy abrPolicy;
+  private final Scheduler scheduler;
+  private final Listener listener;
+  private final long segmentNanos;
+  private final long lowWatermarkNanos;
+  private final long highWatermarkNanos;
+  private final long maxBufferNanos;
+  private final Runnable wakeUpTask = this::update;
+
+  private long lengthNanos = 0;
+  private long bufferedUntilNanos = 0;
+  private long positionNanos = 0;
+  private long positionAnchorNanos = 0;
+  private double playoutRate = 1;
+  private boolean playing = false;
+  private boolean buffering = false;
+  private boolean loading = false;
+  private boolean suspended = false;
+
+  /** The completion of the in-flight download, if {@link #loading}. */
+  private Optional<Runnable> pendingLoad = Optional.empty();
+
+  /** Incremented whenever the buffer is flushed, so that in-flight downloads are discarded. */
+  private int loadGeneration = 0;
+
+  private long segmentsLoaded = 0;
+  private long bytesLoaded = 0;
+  private long rebufferCount = 0;
+  private long lastBitrate = 0;
+
+  public SimulatedMediaSource(
+      SimulatedNetworkLink link,
+      AbrPolicy abrPolicy,
+      Duration segmentDuration,
+      Duration lowWatermark,
+      Duration highWatermark,
+      Duration maxBuffer,
+      Scheduler scheduler,
+      Listener listener) {
+    if (lowWatermark.compareTo(highWatermark) > 0 || highWatermark.compareTo(maxBuffer) > 0) {
+      throw new IllegalArgumentException(
+          "Watermarks must satisfy lowWatermark <= highWatermark <= maxBuffer.");
+    }
+    this.link = link;
+    this.abrPolicy = abrPolicy;
+    this.segmentNanos = segmentDuration.toNanos();
+    this.lowWatermarkNanos = lowWatermark.toNanos();
+    this.highWatermarkNanos = highWatermark.toNanos();
+    this.maxBufferNanos = maxBuffer.toNanos();
+    this.scheduler = scheduler;
+    this.listener = listener;
+  }
+
+  /** Starts loading new media of the given length from its beginning. */
+  void load(Duration length) {
+    lengthNanos = length.toNanos();
+    playing = false;
+    flushBuffer(0);
+    setBuffering(false);
+    update();
+  }
+
+  /**
+   * Moves the playback position.
+   *
+   * <p>Buffered media ahead of the current position is kept if {@code position} falls inside it;
+   * otherwise the buffer is flushed and loading restarts from {@code position}.
+   */
+  void seekTo(Duration position) {
+    long targetNanos = position.toNanos();
+    long currentNanos = currentPositionNanos();
+    if (targetNanos < currentNanos || targetNanos >= bufferedUntilNanos) {
+      flushBuffer(targetNanos);
+    } else {
+      positionNanos = targetNanos;
+      positionAnchorNanos = scheduler.nanoTime();
+    }
+    update();
+  }
+
+  /** Reports the playback position of the player consuming this source. */
+  void onPlaybackPosition(Duration position) {
+    positionNanos = position.toNanos();
+    positionAnchorNanos = scheduler.nanoTime();
+    update();
+  }
+
+  /** Reports whether the consuming player is playing, and at which rate. */
+  void setPlaying(boolean playing, double playoutRate) {
+    positionNanos = currentPositionNanos();
+    positionAnchorNanos = scheduler.nanoTime();
+    this.playing = playing;
+    this.playoutRate = playoutRate;
+    update();
+  }
+
+  /**
+   * Suspends or resumes the source.
+   *
+   * <p>While suspended, the in-flight download is abandoned and the source schedules no work:
+   * playback keeps draining the buffer, but loading only restarts, and running dry is only
+   * noticed, once the source is resumed.
+   */
+  void setSuspended(boolean suspended) {
+    if (this.suspended == suspended) {
+      return;
+    }
+    this.suspended = suspended;
+    if (suspended) {
+      cancelLoad();
+      scheduler.cancel(wakeUpTask);
+    } else {
+      update();
+    }
+  }
+
+  /** Stops loading and discards the buffer. */
+  void release() {
+    playing = false;
+    lengthNanos = 0;
+    flushBuffer(0);
+    setBuffering(false);
+  }
+
+  boolean isBuffering() {
+    return buffering;
+  }
+
+  /** Returns how much media is buffered ahead of the playback position. */
+  Duration getBufferedAhead() {
+    return Duration.ofNanos(Math.max(0, bufferedUntilNanos - currentPositionNanos()));
+  }
+
+  long getSegmentsLoaded() {
+    return segmentsLoaded;
+  }
+
+  long getBytesLoaded() {
+    return bytesLoaded;
+  }
+
+  /** Returns how many times playback ran out of buffer. */
+  long getRebufferCount() {
+    return rebufferCount;
+  }
+
+  /** Returns the bitrate of the most recently requested segment, in bits per second. */
+  long getLastBitrate() {
+    return lastBitrate;
+  }
+
+  private long currentPositionNanos() {
+    if (!playing || buffering) {
+      return positionNanos;
+    }
+    long elapsedNanos = scheduler.nanoTime() - positionAnchorNanos;
+    return Math.min(lengthNanos, positionNanos + (long) (elapsedNanos * playoutRate));
+  }
+
+  private void flushBuffer(long fromNanos) {
+    cancelLoad();
+    positionNanos = fromNanos;
+    positionAnchorNanos = scheduler.nanoTime();
+    bufferedUntilNanos = fromNanos;
+    scheduler.cancel(wakeUpTask);
+  }
+
+  private void cancelLoad() {
+    loadGeneration++;
+    loading = false;
+    pendingLoad.ifPresent(scheduler::cancel);
+    pendingLoad = Optional.empty();
+  }
+
+  private void update() {
+    if (suspended) {
+      return;
+    }
+    long aheadNanos = bufferedUntilNanos - currentPositionNanos();
+    boolean fullyBuffered = bufferedUntilNanos >= lengthNanos;
+    if (buffering && (fullyBuffered || aheadNanos >= highWatermarkNanos)) {
+      setBuffering(false);
+    } else if (!buffering && playing && !fullyBuffered && aheadNanos <= lowWatermarkNanos) {
+      rebufferCount++;
+      setBuffering(true);
+    }
+    maybeLoadNextSegment(aheadNanos);
+    scheduler.cancel(wakeUpTask);
+    if (playing && !buffering && !fullyBuffered && playoutRate > 0) {
+      // Wake up when the buffer drains to the low watermark, or earlier if loading is paused
+      // because the buffer is full and needs to resume once there is room again.
+      long wakeUpAheadNanos =
+          loading ? lowWatermarkNanos : Math.max(lowWatermarkNanos, maxBufferNanos - 1);
+      long drainNanos = (long) Math.ceil((aheadNanos - wakeUpAheadNanos) / playoutRate);
+      scheduler.postDelayed(wakeUpTask, Duration.ofNanos(Math.max(1, drainNanos)));
+    }
+  }
+
+  private void maybeLoadNextSegment(long aheadNanos) {
+    if (loading || bufferedUntilNanos >= lengthNanos || aheadNanos >= maxBufferNanos) {
+      return;
+    }
+    long durationNanos = Math.min(segmentNanos, lengthNanos - bufferedUntilNanos);
+    lastBitrate = abrPolicy.selectBitrate(Duration.ofNanos(Math.max(0, aheadNanos)));
+    long bytes = (long) (lastBitrate * (durationNanos / 1e9) / 8);
+    Duration transferTime = link.transferTime(bytes);
+    int generation = loadGeneration;
+    loading = true;
+    Runnable load = () -> onSegmentLoaded(generation, durationNanos, bytes, transferTime);
+    pendingLoad = Optional.of(load);
+    scheduler.postDelayed(load, transferTime);
+  }
+
+  private void onSegmentLoaded(
+      int generation, long durationNanos, long bytes, Duration transferTime) {
+    if (generation != loadGeneration) {
+      return;
+    }
+    loading = false;
+    pendingLoad = Optional.empty();
+    bufferedUntilNanos += durationNanos;
+    segmentsLoaded++;
+    bytesLoaded += bytes;
+    abrPolicy.onSegmentDownloaded(bytes, transferTime);
+    update();
+  }
+
+  private void setBuffering(boolean buffering) {
+    if (this.buffering == buffering) {
+      return;
+    }
+    positionNanos = currentPositionNanos();
+    positionAnchorNanos = scheduler.nanoTime();
+    this.buffering = buffering;
+    listener.onBufferingChanged(buffering);
+  }
+}
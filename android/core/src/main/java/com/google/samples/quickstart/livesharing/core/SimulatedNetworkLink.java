@@ -0,0 +1,60 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * A simulated network link that turns download sizes into transfer times.
+ *
+ * <p>Each transfer pays the link latency once, then proceeds at the link bandwidth. Bandwidth can
+ * vary randomly per transfer by up to the jitter fraction.
+ */
+@CheckReturnValue
+public final class SimulatedNetworkLink {
+
+  private final Duration latency;
+  private final double jitter;
+  private final Random random;
+  private final long bandwidthBitsPerSecond;
+
+  /**
+   * Creates a link.
+   *
+   * @param jitter fraction in {@code [0, 1)} by which the bandwidth of a single transfer may
+   *     deviate from the nominal bandwidth
+   * @param seed seed for the jitter, so that simulations are reproducible
+   */
+  public SimulatedNetworkLink(
+      long bandwidthBitsPerSecond, Duration latency, double jitter, long seed) {
+    if (bandwidthBitsPerSecond <= 0 || jitter < 0 || jitter >= 1) {
+      throw new IllegalArgumentException("Invalid bandwidth or jitter.");
+    }
+    this.bandwidthBitsPerSecond = bandwidthBitsPerSecond;
+    this.latency = latency;
+    this.jitter = jitter;
+    this.random = new Random(seed);
+  }
+
+  /** Returns how long it takes to download {@code bytes} over this link. */
+  Duration transferTime(long bytes) {
+    double effectiveBandwidth =
+        bandwidthBitsPerSecond * (1 + (random.nextDouble() * 2 - 1) * jitter);
+    long transferNanos = (long) (bytes * 8 * 1e9 / effectiveBandwidth);
+    return latency.plusNanos(transferNanos);
+  }
+}
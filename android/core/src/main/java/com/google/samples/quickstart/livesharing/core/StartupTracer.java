@@ -0,0 +1,70 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Records when startup phases complete, relative to the moment the tracer was created.
+ *
+ * <p>Phases may be marked from any thread. Only the first mark of a phase is kept, so marking a
+ * phase again (e.g. when a second session becomes ready) does not skew the report.
+ */
+@CheckReturnValue
+public final class StartupTracer {
+
+  private final LongSupplier nanoClock;
+  private final long startNanos;
+  private final Map<String, Long> phaseEndNanos = new LinkedHashMap<>();
+
+  public StartupTracer(LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+    this.startNanos = nanoClock.getAsLong();
+  }
+
+  /** Marks {@code phase} as complete now. */
+  public synchronized void mark(String phase) {
+    if (!phaseEndNanos.containsKey(phase)) {
+      phaseEndNanos.put(phase, nanoClock.getAsLong());
+    }
+  }
+
+  /**
+   * Returns a one-line report of all phases in the order they completed, each with the time since
+   * startup and the time since the previous phase.
+   */
+  public synchronized String report() {
+    StringBuilder report = new StringBuilder();
+    long previousNanos = startNanos;
+    for (Map.Entry<String, Long> phase : phaseEndNanos.entrySet()) {
+      if (report.length() > 0) {
+        report.append(", ");
+      }
+      report.append(
+          String.format(
+              Locale.US,
+              "%s at %.1fms (+%.1fms)",
+              phase.getKey(),
+              (phase.getValue() - startNanos) / 1e6,
+              (phase.getValue() - previousNanos) / 1e6));
+      previousNanos = phase.getValue();
+    }
+    return report.toString();
+  }
+}
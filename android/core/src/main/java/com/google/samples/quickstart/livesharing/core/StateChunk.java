@@ -0,0 +1,145 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * One frame of a logical state that was split up by {@link ChunkedStateTransport}.
+ *
+ * <p>Every frame carries enough of a header to be placed into its reassembly buffer on arrival,
+ * regardless of the order frames are received in:
+ *
+ * <pre>
+ *   magic | sender id | generation | index | count | offset | total length | state crc | chunk crc
+ * </pre>
+ */
+@CheckReturnValue
+final class StateChunk {
+
+  /** Marks a co-doing payload as a chunk frame ("LSC1"). */
+  static final int MAGIC = 0x4C534331;
+
+  /** Size of the frame header in bytes. */
+  static final int HEADER_SIZE = 32;
+
+  final int senderId;
+  final int generation;
+  final int index;
+  final int count;
+  final int offset;
+  final int totalLength;
+  final int stateCrc;
+  final byte[] frame;
+
+  private StateChunk(
+      int senderId,
+      int generation,
+      int index,
+      int count,
+      int offset,
+      int totalLength,
+      int stateCrc,
+      byte[] frame) {
+    this.senderId = senderId;
+    this.generation = generation;
+    this.index = index;
+    this.count = count;
+    this.offset = offset;
+    this.totalLength = totalLength;
+    this.stateCrc = stateCrc;
+    this.frame = frame;
+  }
+
+  /** Returns whether {@code payload} starts with the chunk frame marker. */
+  static boolean isChunkFrame(byte[] payload) {
+    return payload.length >= HEADER_SIZE && ByteBuffer.wrap(payload).getInt(0) == MAGIC;
+  }
+
+  /** Encodes the {@code [offset, offset + length)} slice of {@code state} into a frame. */
+  static byte[] encode(
+      int senderId,
+      int generation,
+      int index,
+      int count,
+      byte[] state,
+      int stateCrc,
+      int offset,
+      int length) {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+    buffer
+        .putInt(MAGIC)
+        .putInt(senderId)
+        .putInt(generation)
+        .putShort((short) index)
+        .putShort((short) count)
+        .putInt(offset)
+        .putInt(state.length)
+        .putInt(stateCrc)
+        .putInt(crc32(state, offset, length))
+        .put(state, offset, length);
+    return buffer.array();
+  }
+
+  /**
+   * Parses a frame, returning empty if it is not a chunk frame, its header is inconsistent or its
+   * chunk checksum does not match.
+   */
+  static Optional<StateChunk> decode(byte[] frame) {
+    if (!isChunkFrame(frame)) {
+      return Optional.empty();
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    buffer.getInt();
+    int senderId = buffer.getInt();
+    int generation = buffer.getInt();
+    int index = buffer.getShort() & 0xFFFF;
+    int count = buffer.getShort() & 0xFFFF;
+    int offset = buffer.getInt();
+    int totalLength = buffer.getInt();
+    int stateCrc = buffer.getInt();
+    int chunkCrc = buffer.getInt();
+    int length = frame.length - HEADER_SIZE;
+    if (count == 0
+        || index >= count
+        || offset < 0
+        || totalLength < 0
+        || offset > totalLength - length
+        || crc32(frame, HEADER_SIZE, length) != chunkCrc) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new StateChunk(senderId, generation, index, count, offset, totalLength, stateCrc, frame));
+  }
+
+  /** Returns the number of state bytes carried by this frame. */
+  int dataLength() {
+    return frame.length - HEADER_SIZE;
+  }
+
+  /** Copies the state bytes carried by this frame into their place in {@code state}. */
+  void copyDataInto(byte[] state) {
+    System.arraycopy(frame, HEADER_SIZE, state, offset, dataLength());
+  }
+
+  static int crc32(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+}
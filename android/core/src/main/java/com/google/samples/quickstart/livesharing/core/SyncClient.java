@@ -0,0 +1,68 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import java.time.Duration;
+
+/**
+ * Makes the calls that send outbound sync events to the session.
+ *
+ * <p>Lets the app adapt the add-on session clients, and a plain JVM record the calls instead.
+ */
+public interface SyncClient {
+
+  /** Sets the co-doing global state of the session. */
+  void setGlobalState(byte[] state);
+
+  void notifySwitchedToMedia(String mediaTitle, String mediaId, Duration position);
+
+  void notifyPauseState(boolean paused, Duration position);
+
+  void notifySeekToTimestamp(Duration position);
+
+  void notifyPlayoutRate(double playoutRate, Duration position);
+
+  void notifyEnded(Duration position);
+
+  /**
+   * Makes the call of {@code client} that sends {@code event}.
+   *
+   * @throws IllegalArgumentException if {@code event} is not an outbound event
+   */
+  static void send(SyncClient client, SyncEvent event) {
+    switch (event.type()) {
+      case SET_GLOBAL_STATE:
+        client.setGlobalState(event.payloads().get(0));
+        break;
+      case NOTIFY_SWITCHED_TO_MEDIA:
+        client.notifySwitchedToMedia(event.label(), event.mediaId(), event.position());
+        break;
+      case NOTIFY_PAUSE_STATE:
+        client.notifyPauseState(event.paused(), event.position());
+        break;
+      case NOTIFY_SEEK_TO_TIMESTAMP:
+        client.notifySeekToTimestamp(event.position());
+        break;
+      case NOTIFY_PLAYOUT_RATE:
+        client.notifyPlayoutRate(event.playoutRate(), event.position());
+        break;
+      case NOTIFY_ENDED:
+        client.notifyEnded(event.position());
+        break;
+      default:
+        throw new IllegalArgumentException("Not an outbound sync event: " + event.type());
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * A sync event exchanged with the Live Sharing session: an inbound callback, or an outbound call.
+ *
+ * <p>Events are recorded in a {@link SyncJournal}. Each type uses a subset of the fields; unused
+ * fields keep their defaults, which are not written to the journal.
+ */
+@AutoValue
+public abstract class SyncEvent {
+
+  /** Kind of event. Codes are persisted in journals and must not change. */
+  public enum Type {
+    CO_WATCHING_STATE_RECEIVED(1, /* inbound= */ true),
+    GLOBAL_STATE_RECEIVED(2, /* inbound= */ true),
+    PARTICIPANT_METADATA_RECEIVED(3, /* inbound= */ true),
+    PRIVILEGE_CHANGED(4, /* inbound= */ true),
+    SESSION_ENDED(5, /* inbound= */ true),
+    NOTIFY_SWITCHED_TO_MEDIA(16, /* inbound= */ false),
+    NOTIFY_PAUSE_STATE(17, /* inbound= */ false),
+    NOTIFY_SEEK_TO_TIMESTAMP(18, /* inbound= */ false),
+    NOTIFY_PLAYOUT_RATE(19, /* inbound= */ false),
+    NOTIFY_ENDED(20, /* inbound= */ false),
+    SET_GLOBAL_STATE(21, /* inbound= */ false);
+
+    final int code;
+    final boolean inbound;
+
+    Type(int code, boolean inbound) {
+      this.code = code;
+      this.inbound = inbound;
+    }
+  }
+
+  public abstract Type type();
+
+  /** Monotonic time of the event, in nanoseconds. */
+  abstract long timestampNanos();
+
+  public abstract String mediaId();
+
+  /** Media name, playback state, privileges or end reason, depending on the type. */
+  public abstract String label();
+
+  public abstract Duration position();
+
+  public abstract double playoutRate();
+
+  /** Whether playback is paused, for {@link Type#NOTIFY_PAUSE_STATE}. */
+  public abstract boolean paused();
+
+  /** Co-doing state or participant metadata. */
+  public abstract ImmutableList<byte[]> payloads();
+
+  static Builder builder(Type type, long timestampNanos) {
+    return new AutoValue_SyncEvent.Builder()
+        .setType(type)
+        .setTimestampNanos(timestampNanos)
+        .setMediaId("")
+        .setLabel("")
+        .setPosition(Duration.ZERO)
+        .setPlayoutRate(1)
+        .setPaused(false)
+        .setPayloads(ImmutableList.of());
+  }
+
+  public static SyncEvent coWatchingStateReceived(
+      long timestampNanos,
+      String mediaId,
+      Duration position,
+      double playoutRate,
+      String playbackState) {
+    return builder(Type.CO_WATCHING_STATE_RECEIVED, timestampNanos)
+        .setMediaId(mediaId)
+        .setPosition(position)
+        .setPlayoutRate(playoutRate)
+        .setLabel(playbackState)
+        .build();
+  }
+
+  public static SyncEvent globalStateReceived(long timestampNanos, byte[] state) {
+    return builder(Type.GLOBAL_STATE_RECEIVED, timestampNanos)
+        .setPayloads(ImmutableList.of(state))
+        .build();
+  }
+
+  public static SyncEvent participantMetadataReceived(
+      long timestampNanos, Collection<byte[]> allParticipantMetadata) {
+    return builder(Type.PARTICIPANT_METADATA_RECEIVED, timestampNanos)
+        .setPayloads(ImmutableList.copyOf(allParticipantMetadata))
+        .build();
+  }
+
+  public static SyncEvent privilegeChanged(long timestampNanos, String privileges) {
+    return builder(Type.PRIVILEGE_CHANGED, timestampNanos).setLabel(privileges).build();
+  }
+
+  public static SyncEvent sessionEnded(long timestampNanos, String endReason) {
+    return builder(Type.SESSION_ENDED, timestampNanos).setLabel(endReason).build();
+  }
+
+  public static SyncEvent switchedToMedia(
+      long timestampNanos, String mediaName, String mediaId, Duration position) {
+    return builder(Type.NOTIFY_SWITCHED_TO_MEDIA, timestampNanos)
+        .setLabel(mediaName)
+        .setMediaId(mediaId)
+        .setPosition(position)
+        .build();
+  }
+
+  public static SyncEvent pauseState(long timestampNanos, boolean paused, Duration position) {
+    return builder(Type.NOTIFY_PAUSE_STATE, timestampNanos)
+        .setPaused(paused)
+        .setPosition(position)
+        .build();
+  }
+
+  public static SyncEvent seekToTimestamp(long timestampNanos, Duration position) {
+    return builder(Type.NOTIFY_SEEK_TO_TIMESTAMP, timestampNanos).setPosition(position).build();
+  }
+
+  public static SyncEvent playoutRate(long timestampNanos, double playoutRate, Duration position) {
+    return builder(Type.NOTIFY_PLAYOUT_RATE, timestampNanos)
+        .setPlayoutRate(playoutRate)
+        .setPosition(position)
+        .build();
+  }
+
+  public static SyncEvent ended(long timestampNanos, Duration position) {
+    return builder(Type.NOTIFY_ENDED, timestampNanos).setPosition(position).build();
+  }
+
+  public static SyncEvent setGlobalState(long timestampNanos, byte[] state) {
+    return builder(Type.SET_GLOBAL_STATE, timestampNanos)
+        .setPayloads(ImmutableList.of(state))
+        .build();
+  }
+
+  /** Builder for {@link SyncEvent}. */
+  @AutoValue.Builder
+  abstract static class Builder {
+    abstract Builder setType(Type value);
+
+    abstract Builder setTimestampNanos(long value);
+
+    abstract Builder setMediaId(String value);
+
+    abstract Builder setLabel(String value);
+
+    abstract Builder setPosition(Duration value);
+
+    abstract Builder setPlayoutRate(double value);
+
+    abstract Builder setPaused(boolean value);
+
+    abstract Builder setPayloads(ImmutableList<byte[]> value);
+
+    abstract SyncEvent build();
+  }
+}
@@ -0,0 +1,276 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * An append-only binary journal of {@link SyncEvent}s.
+ *
+ * <p>Each record is a type code, the timestamp as a zigzag varint delta to the previous record, a
+ * bit set of the fields that differ from their defaults, and those fields. A typical playback
+ * notification takes about a dozen bytes.
+ *
+ * <p>The journal stops recording once it has written its size limit, so that a long session
+ * cannot fill the device's storage; it counts the events it dropped instead. It also drops events
+ * with a string or payload longer than {@link #MAX_FIELD_BYTES}, which a reader takes for
+ * corruption.
+ *
+ * <p>Appending is thread-safe and only buffers; call {@link #flush} to push records to the
+ * underlying stream.
+ */
+@CheckReturnValue
+public final class SyncJournal {
+
+  private static final int MAGIC = 0x4C534A31; // "LSJ1"
+
+  /** Longest string or payload recorded; larger than any state the app sends or receives. */
+  static final int MAX_FIELD_BYTES = 2 * ChunkedStateTransport.MAX_STATE_BYTES;
+
+  private static final int HAS_MEDIA_ID = 1;
+  private static final int HAS_LABEL = 1 << 1;
+  private static final int HAS_POSITION = 1 << 2;
+  private static final int HAS_PLAYOUT_RATE = 1 << 3;
+  private static final int PAUSED = 1 << 4;
+  private static final int HAS_PAYLOADS = 1 << 5;
+
+  private final DataOutputStream out;
+  private final long maxBytes;
+  private long lastTimestampNanos = 0;
+  private long recordCount = 0;
+  private long droppedCount = 0;
+
+  /**
+   * Starts a new journal on {@code out}, which should be buffered.
+   *
+   * @param maxBytes size after which no more records are written; the last record written may
+   *     exceed it
+   */
+  public SyncJournal(OutputStream out, long maxBytes) throws IOException {
+    this.out = new DataOutputStream(out);
+    this.maxBytes = maxBytes;
+    this.out.writeInt(MAGIC);
+  }
+
+  /** Appends {@code event} to the journal, unless the journal is full. */
+  public synchronized void append(SyncEvent event) throws IOException {
+    if (out.size() >= maxBytes || hasOversizedField(event)) {
+      droppedCount++;
+      return;
+    }
+    int fields =
+        (event.mediaId().isEmpty() ? 0 : HAS_MEDIA_ID)
+            | (event.label().isEmpty() ? 0 : HAS_LABEL)
+            | (event.position().isZero() ? 0 : HAS_POSITION)
+            | (event.playoutRate() == 1 ? 0 : HAS_PLAYOUT_RATE)
+            | (event.paused() ? PAUSED : 0)
+            | (event.payloads().isEmpty() ? 0 : HAS_PAYLOADS);
+    out.writeByte(event.type().code);
+    writeVarLong(out, zigZag(event.timestampNanos() - lastTimestampNanos));
+    out.writeByte(fields);
+    if ((fields & HAS_MEDIA_ID) != 0) {
+      writeString(out, event.mediaId());
+    }
+    if ((fields & HAS_LABEL) != 0) {
+      writeString(out, event.label());
+    }
+    if ((fields & HAS_POSITION) != 0) {
+      writeVarLong(out, zigZag(event.position().toNanos()));
+    }
+    if ((fields & HAS_PLAYOUT_RATE) != 0) {
+      out.writeDouble(event.playoutRate());
+    }
+    if ((fields & HAS_PAYLOADS) != 0) {
+      writeVarLong(out, event.payloads().size());
+      for (byte[] payload : event.payloads()) {
+        writeBytes(out, payload);
+      }
+    }
+    lastTimestampNanos = event.timestampNanos();
+    recordCount++;
+  }
+
+  public synchronized void flush() throws IOException {
+    out.flush();
+  }
+
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  synchronized long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Returns how many events were not recorded because the journal was full or they were too large.
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Reads a journal back, one event at a time. */
+  static final class Reader {
+    private final DataInputStream in;
+    private long lastTimestampNanos = 0;
+
+    /** Opens a journal on {@code in}, which should be buffered. */
+    Reader(InputStream in) throws IOException {
+      this.in = new DataInputStream(in);
+      if (this.in.readInt() != MAGIC) {
+        throw new IOException("Not a sync journal.");
+      }
+    }
+
+    /**
+     * Returns the next event, or empty at the end of the journal.
+     *
+     * <p>A record truncated by a crash while it was being written also ends the journal.
+     *
+     * @throws IOException if the record is corrupt, e.g. claims a field longer than any the
+     *     journal records
+     */
+    Optional<SyncEvent> next() throws IOException {
+      int code = in.read();
+      if (code < 0) {
+        return Optional.empty();
+      }
+      try {
+        SyncEvent.Type type = typeOf(code);
+        long timestampNanos = lastTimestampNanos + unZigZag(readVarLong(in));
+        int fields = in.readUnsignedByte();
+        SyncEvent.Builder event = SyncEvent.builder(type, timestampNanos);
+        if ((fields & HAS_MEDIA_ID) != 0) {
+          event.setMediaId(readString(in));
+        }
+        if ((fields & HAS_LABEL) != 0) {
+          event.setLabel(readString(in));
+        }
+        if ((fields & HAS_POSITION) != 0) {
+          event.setPosition(Duration.ofNanos(unZigZag(readVarLong(in))));
+        }
+        if ((fields & HAS_PLAYOUT_RATE) != 0) {
+          event.setPlayoutRate(in.readDouble());
+        }
+        event.setPaused((fields & PAUSED) != 0);
+        if ((fields & HAS_PAYLOADS) != 0) {
+          int count = readLength(in, Integer.MAX_VALUE);
+          ImmutableList.Builder<byte[]> payloads = ImmutableList.builder();
+          for (int i = 0; i < count; i++) {
+            payloads.add(readBytes(in));
+          }
+          event.setPayloads(payloads.build());
+        }
+        lastTimestampNanos = timestampNanos;
+        return Optional.of(event.build());
+      } catch (EOFException e) {
+        return Optional.empty();
+      }
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+
+    private static SyncEvent.Type typeOf(int code) throws IOException {
+      for (SyncEvent.Type type : SyncEvent.Type.values()) {
+        if (type.code == code) {
+          return type;
+        }
+      }
+      throw new IOException("Unknown sync event type " + code);
+    }
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static boolean hasOversizedField(SyncEvent event) {
+    // UTF-8 takes at most three bytes per char.
+    if (Math.max(event.mediaId().length(), event.label().length()) * 3L > MAX_FIELD_BYTES) {
+      return true;
+    }
+    for (byte[] payload : event.payloads()) {
+      if (payload.length > MAX_FIELD_BYTES) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint.");
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value.getBytes(UTF_8));
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return new String(readBytes(in), UTF_8);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+    writeVarLong(out, value.length);
+    out.write(value);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    // Checked before allocating, so that a corrupt length cannot exhaust the heap.
+    byte[] value = new byte[readLength(in, MAX_FIELD_BYTES)];
+    in.readFully(value);
+    return value;
+  }
+
+  private static int readLength(DataInputStream in, int maxLength) throws IOException {
+    long length = readVarLong(in);
+    if (length < 0 || length > maxLength) {
+      throw new IOException("Corrupt journal: length " + length + " exceeds " + maxLength + ".");
+    }
+    return (int) length;
+  }
+}
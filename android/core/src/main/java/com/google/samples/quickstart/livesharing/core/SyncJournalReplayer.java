@@ -0,0 +1,75 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Feeds a {@link SyncJournal} back through sync logic under a {@link VirtualScheduler}.
+ *
+ * <p>Before each event is delivered, the virtual clock is advanced to the event's timestamp, so
+ * timers the sync logic scheduled in between fire exactly as they would have. No real time passes,
+ * which makes replays deterministic and fast enough to serve as performance regression inputs.
+ */
+@CheckReturnValue
+final class SyncJournalReplayer {
+
+  private final VirtualScheduler scheduler;
+
+  private long replayedCount = 0;
+  private long firstTimestampNanos = -1;
+  private long lastTimestampNanos = -1;
+
+  SyncJournalReplayer(VirtualScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Replays every event in {@code journal} to {@code target}.
+   *
+   * <p>When {@code inboundOnly} is set, outbound events are skipped. That is how a recorded session
+   * is re-driven: inbound events are the inputs, and outbound events are what the logic under test
+   * is expected to produce itself.
+   */
+  void replay(SyncJournal.Reader journal, boolean inboundOnly, Consumer<SyncEvent> target)
+      throws IOException {
+    for (Optional<SyncEvent> next = journal.next(); next.isPresent(); next = journal.next()) {
+      SyncEvent event = next.get();
+      scheduler.advanceTo(event.timestampNanos());
+      if (firstTimestampNanos < 0) {
+        firstTimestampNanos = event.timestampNanos();
+      }
+      lastTimestampNanos = event.timestampNanos();
+      if (inboundOnly && !event.type().inbound) {
+        continue;
+      }
+      target.accept(event);
+      replayedCount++;
+    }
+  }
+
+  /** Returns how many events were delivered. */
+  long getReplayedCount() {
+    return replayedCount;
+  }
+
+  /** Returns the time span covered by the replayed journal, in nanoseconds. */
+  long getSpanNanos() {
+    return firstTimestampNanos < 0 ? 0 : lastTimestampNanos - firstTimestampNanos;
+  }
+}
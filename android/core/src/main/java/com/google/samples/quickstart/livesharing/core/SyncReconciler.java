@@ -0,0 +1,110 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Reconciles the local player with the playback states received from the other participants.
+ *
+ * <p>Received states are anchored at the moment they arrived, compensated for the transit time,
+ * and kept until the main thread gets to them; by then, a state may have been superseded. What is
+ * left is a {@link Step} for the app to take with its player and views; received states that were
+ * superseded in the meantime are skipped.
+ */
+@CheckReturnValue
+public final class SyncReconciler {
+
+  /** How the player is brought to a received state. */
+  public enum Step {
+    /** The session's media ended; stop playback. */
+    STOP,
+    /** The state's media is not active; switch to it, at the state's position, in one step. */
+    SWITCH,
+    /** The state's media is active; converge to the state's rate, position and playback state. */
+    CONVERGE,
+  }
+
+  private final RemoteStateCompensator remoteStateCompensator;
+  private final CanonicalStateCache canonicalStateCache = new CanonicalStateCache();
+
+  /**
+   * @param transitEstimate how long a state takes from the sender to this device
+   */
+  public SyncReconciler(Duration transitEstimate) {
+    remoteStateCompensator = new RemoteStateCompensator(transitEstimate);
+  }
+
+  /**
+   * Records a received state as the latest canonical one. May be called on any thread.
+   *
+   * @param length length of the state's media, capping the extrapolated position
+   * @return the generation of the state, to be passed to {@link #getIfLatest}
+   */
+  public long onStateReceived(
+      String mediaId,
+      MediaPlayer.State state,
+      Duration position,
+      double playoutRate,
+      Duration length,
+      long receivedNanos) {
+    return canonicalStateCache.put(
+        PlaybackSnapshot.create(
+            Optional.of(mediaId),
+            state,
+            remoteStateCompensator.compensate(
+                position,
+                playoutRate,
+                state == MediaPlayer.State.PLAYING,
+                receivedNanos,
+                receivedNanos),
+            receivedNanos,
+            playoutRate,
+            length));
+  }
+
+  /** Returns the state of {@code generation}, unless a newer one has been received since. */
+  public Optional<PlaybackSnapshot> getIfLatest(long generation) {
+    return canonicalStateCache.getIfLatest(generation);
+  }
+
+  /** Decides how to bring a player with {@code activeMedia} to {@code target}. */
+  public static Step reconcile(PlaybackSnapshot target, Optional<Media> activeMedia) {
+    if (target.state() == MediaPlayer.State.INACTIVE) {
+      return Step.STOP;
+    }
+    boolean targetMediaActive =
+        activeMedia.isPresent() && target.mediaId().equals(Optional.of(activeMedia.get().id()));
+    return targetMediaActive ? Step.CONVERGE : Step.SWITCH;
+  }
+
+  /** Returns whether a state has been received since the reconciler was last cleared. */
+  public boolean hasReceivedState() {
+    return canonicalStateCache.get().isPresent();
+  }
+
+  /** Returns how many received states were superseded before they could be applied. */
+  public long getSkippedCount() {
+    return canonicalStateCache.getSkippedCount();
+  }
+
+  /** Forgets the received states, e.g. when the session ends. */
+  public void clear() {
+    canonicalStateCache.clear();
+  }
+}
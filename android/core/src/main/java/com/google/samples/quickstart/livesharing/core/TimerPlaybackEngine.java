@@ -0,0 +1,97 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link PlaybackEngine} that presents nothing and only keeps time.
+ *
+ * <p>The position is computed from a monotonic clock rather than accumulated from periodic ticks,
+ * so it is exact whenever it is read. It stops at the media length, and leaves ending playback
+ * there to the player's own timer.
+ */
+@CheckReturnValue
+public final class TimerPlaybackEngine implements PlaybackEngine {
+
+  private final Duration length;
+  private final LongSupplier nanoClock;
+
+  private Duration anchorPosition = Duration.ZERO;
+  private long anchorNanos;
+  private double rate = 1;
+  private boolean playing = false;
+
+  public TimerPlaybackEngine(Duration length, LongSupplier nanoClock) {
+    this.length = length;
+    this.nanoClock = nanoClock;
+    this.anchorNanos = nanoClock.getAsLong();
+  }
+
+  @Override
+  public void play() {
+    reanchor();
+    playing = true;
+  }
+
+  @Override
+  public void pause() {
+    reanchor();
+    playing = false;
+  }
+
+  @Override
+  public void seekTo(Duration position) {
+    anchorPosition = position;
+    anchorNanos = nanoClock.getAsLong();
+  }
+
+  @Override
+  public void setPlaybackRate(double rate) {
+    reanchor();
+    this.rate = rate;
+  }
+
+  @Override
+  public Duration getPosition() {
+    if (!playing) {
+      return anchorPosition;
+    }
+    long elapsedNanos = nanoClock.getAsLong() - anchorNanos;
+    Duration position = anchorPosition.plusNanos((long) (elapsedNanos * rate));
+    return position.compareTo(length) < 0 ? position : length;
+  }
+
+  @Override
+  public Optional<Duration> getContentDuration() {
+    return Optional.empty();
+  }
+
+  @Override
+  public void setEndOfStreamListener(Runnable listener) {}
+
+  @Override
+  public void release() {
+    pause();
+  }
+
+  private void reanchor() {
+    anchorPosition = getPosition();
+    anchorNanos = nanoClock.getAsLong();
+  }
+}
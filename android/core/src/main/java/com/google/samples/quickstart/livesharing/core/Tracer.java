@@ -0,0 +1,36 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+/**
+ * Emits trace sections and counters.
+ *
+ * <p>Lets instrumented code record to {@code android.os.Trace}, and from there to Perfetto and
+ * systrace, in the app, and run unchanged on a plain JVM elsewhere.
+ */
+public interface Tracer {
+
+  /**
+   * Begins a section on the calling thread. Sections nest, and must be ended on the thread that
+   * began them.
+   */
+  void beginSection(String name);
+
+  /** Ends the section most recently begun on the calling thread. */
+  void endSection();
+
+  /** Sets the value of a process-wide counter track. */
+  void setCounter(String name, long value);
+}
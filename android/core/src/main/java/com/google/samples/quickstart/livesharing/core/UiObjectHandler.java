@@ -12,9 +12,9 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
 /** A handler for executing UI operations from non-activity classes. */
-interface UiObjectHandler {
+public interface UiObjectHandler {
   void executeUiOperations(int seekBarPosition);
 }
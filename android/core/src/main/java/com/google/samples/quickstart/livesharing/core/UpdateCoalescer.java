@@ -0,0 +1,99 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces rapid updates so that at most one of them is sent per window.
+ *
+ * <p>The first update after a quiet period is sent straight away and opens a window. Updates
+ * submitted while the window is open replace each other, and only the latest one is sent when the
+ * window closes. The final submitted update is therefore always sent.
+ *
+ * <p>Not thread-safe; call {@link #submit} from the thread the {@link Scheduler} runs tasks on.
+ *
+ * @param <T> type of update
+ */
+@CheckReturnValue
+public final class UpdateCoalescer<T> {
+
+  private final Consumer<T> sender;
+  private final Duration window;
+  private final Scheduler scheduler;
+  private final Runnable closeWindowTask = this::closeWindow;
+
+  private Optional<T> pendingUpdate = Optional.empty();
+  private boolean windowOpen = false;
+  private long sentCount = 0;
+  private long suppressedCount = 0;
+
+  public UpdateCoalescer(Consumer<T> sender, Duration window, Scheduler scheduler) {
+    this.sender = sender;
+    this.window = window;
+    this.scheduler = scheduler;
+  }
+
+  /** Submits an update, sending it now or once the current window closes. */
+  public void submit(T update) {
+    if (!windowOpen) {
+      send(update);
+      return;
+    }
+    if (pendingUpdate.isPresent()) {
+      suppressedCount++;
+    }
+    pendingUpdate = Optional.of(update);
+  }
+
+  /** Drops any pending update and closes the current window without sending. */
+  public void reset() {
+    scheduler.cancel(closeWindowTask);
+    if (pendingUpdate.isPresent()) {
+      suppressedCount++;
+      pendingUpdate = Optional.empty();
+    }
+    windowOpen = false;
+  }
+
+  /** Returns how many updates were passed on to the sender. */
+  public long getSentCount() {
+    return sentCount;
+  }
+
+  /** Returns how many updates were replaced by a later one before being sent. */
+  public long getSuppressedCount() {
+    return suppressedCount;
+  }
+
+  private void send(T update) {
+    sentCount++;
+    windowOpen = true;
+    scheduler.postDelayed(closeWindowTask, window);
+    sender.accept(update);
+  }
+
+  private void closeWindow() {
+    windowOpen = false;
+    if (pendingUpdate.isPresent()) {
+      T update = pendingUpdate.get();
+      pendingUpdate = Optional.empty();
+      send(update);
+    }
+  }
+}
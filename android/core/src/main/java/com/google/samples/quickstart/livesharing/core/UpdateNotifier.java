@@ -12,7 +12,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.samples.quickstart.livesharing;
+package com.google.samples.quickstart.livesharing.core;
 
 /**
  * An update notifier used by a publisher in a pub-sub model.
@@ -21,6 +21,6 @@ package com.google.samples.quickstart.livesharing;
  *
  * @param <T> type of subscriber
  */
-interface UpdateNotifier<T> {
-  void notifySubscribers(T textView);
+public interface UpdateNotifier<T> {
+  void notifySubscribers(T subscriber);
 }
@@ -0,0 +1,95 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A {@link Scheduler} whose clock only moves when told to.
+ *
+ * <p>Advancing the clock runs every task that becomes due, in due-time order and with the clock
+ * set to each task's due time, so timing-dependent code runs deterministically and as fast as the
+ * CPU allows. Not thread-safe.
+ */
+@CheckReturnValue
+final class VirtualScheduler implements Scheduler {
+
+  private final PriorityQueue<ScheduledTask> queue = new PriorityQueue<>();
+  private long nowNanos;
+  private long sequence = 0;
+
+  VirtualScheduler(long startNanos) {
+    this.nowNanos = startNanos;
+  }
+
+  @Override
+  public long nanoTime() {
+    return nowNanos;
+  }
+
+  @Override
+  public void postDelayed(Runnable task, Duration delay) {
+    queue.add(new ScheduledTask(nowNanos + Math.max(0, delay.toNanos()), sequence++, task));
+  }
+
+  @Override
+  public void cancel(Runnable task) {
+    for (Iterator<ScheduledTask> it = queue.iterator(); it.hasNext(); ) {
+      if (it.next().task == task) {
+        it.remove();
+      }
+    }
+  }
+
+  /** Moves the clock to {@code targetNanos}, running all tasks due by then. */
+  void advanceTo(long targetNanos) {
+    while (!queue.isEmpty() && queue.peek().dueNanos <= targetNanos) {
+      ScheduledTask next = queue.poll();
+      nowNanos = Math.max(nowNanos, next.dueNanos);
+      next.task.run();
+    }
+    nowNanos = Math.max(nowNanos, targetNanos);
+  }
+
+  void advanceBy(Duration duration) {
+    advanceTo(nowNanos + duration.toNanos());
+  }
+
+  /** Returns the number of tasks waiting to run. */
+  int getPendingCount() {
+    return queue.size();
+  }
+
+  private static final class ScheduledTask implements Comparable<ScheduledTask> {
+    final long dueNanos;
+    final long sequence;
+    final Runnable task;
+
+    ScheduledTask(long dueNanos, long sequence, Runnable task) {
+      this.dueNanos = dueNanos;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(ScheduledTask other) {
+      int byDueTime = Long.compare(dueNanos, other.dueNanos);
+      return byDueTime != 0 ? byDueTime : Long.compare(sequence, other.sequence);
+    }
+  }
+}
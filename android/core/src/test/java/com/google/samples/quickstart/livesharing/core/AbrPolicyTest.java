@@ -0,0 +1,80 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AbrPolicy}. */
+@RunWith(JUnit4.class)
+public class AbrPolicyTest {
+
+  private static final ImmutableList<Long> BITRATES =
+      ImmutableList.of(400_000L, 1_200_000L, 2_500_000L, 5_000_000L);
+  private static final Duration CRITICAL_BUFFER_LEVEL = Duration.ofSeconds(2);
+  private static final Duration HEALTHY_BUFFER_LEVEL = Duration.ofSeconds(8);
+
+  private final AbrPolicy policy = new AbrPolicy(BITRATES, CRITICAL_BUFFER_LEVEL);
+
+  @Test
+  public void selectBitrate_beforeAnyDownload_picksLowestLevel() {
+    assertEquals(-1, policy.getThroughputEstimate(), 0);
+    assertEquals(400_000L, policy.selectBitrate(HEALTHY_BUFFER_LEVEL));
+  }
+
+  @Test
+  public void selectBitrate_picksHighestLevelWithinSafetyFactor() {
+    // 8 Mbit/s, of which 6.4 Mbit/s may be used.
+    policy.onSegmentDownloaded(1_000_000, Duration.ofSeconds(1));
+    assertEquals(5_000_000L, policy.selectBitrate(HEALTHY_BUFFER_LEVEL));
+
+    AbrPolicy slowPolicy = new AbrPolicy(BITRATES, CRITICAL_BUFFER_LEVEL);
+    // 3 Mbit/s, of which 2.4 Mbit/s may be used.
+    slowPolicy.onSegmentDownloaded(375_000, Duration.ofSeconds(1));
+    assertEquals(1_200_000L, slowPolicy.selectBitrate(HEALTHY_BUFFER_LEVEL));
+  }
+
+  @Test
+  public void selectBitrate_criticalBuffer_stepsDownOneLevel() {
+    policy.onSegmentDownloaded(1_000_000, Duration.ofSeconds(1));
+
+    assertEquals(2_500_000L, policy.selectBitrate(Duration.ofSeconds(1)));
+  }
+
+  @Test
+  public void selectBitrate_criticalBufferAtLowestLevel_staysAtLowestLevel() {
+    assertEquals(400_000L, policy.selectBitrate(Duration.ZERO));
+  }
+
+  @Test
+  public void onSegmentDownloaded_averagesSamples() {
+    policy.onSegmentDownloaded(1_000_000, Duration.ofSeconds(1));
+    policy.onSegmentDownloaded(125_000, Duration.ofSeconds(1));
+
+    // 0.3 * 1 Mbit/s + 0.7 * 8 Mbit/s.
+    assertEquals(5_900_000, policy.getThroughputEstimate(), 1);
+    assertEquals(2_500_000L, policy.selectBitrate(HEALTHY_BUFFER_LEVEL));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_noLevels_throws() {
+    new AbrPolicy(ImmutableList.of(), CRITICAL_BUFFER_LEVEL);
+  }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CanonicalStateCache}. */
+@RunWith(JUnit4.class)
+public class CanonicalStateCacheTest {
+
+  private static PlaybackSnapshot playingAt(Duration position) {
+    return PlaybackSnapshot.create(
+        Optional.of("media_1"),
+        MediaPlayer.State.PLAYING,
+        position,
+        /* anchorTimeNanos= */ 0,
+        /* playoutRate= */ 1,
+        Duration.ofMinutes(1));
+  }
+
+  @Test
+  public void getIfLatest_burstOfStates_onlyLatestIsApplied() {
+    CanonicalStateCache cache = new CanonicalStateCache();
+    long first = cache.put(playingAt(Duration.ofSeconds(1)));
+    long second = cache.put(playingAt(Duration.ofSeconds(2)));
+    long third = cache.put(playingAt(Duration.ofSeconds(3)));
+
+    assertFalse(cache.getIfLatest(first).isPresent());
+    assertFalse(cache.getIfLatest(second).isPresent());
+    assertEquals(Optional.of(playingAt(Duration.ofSeconds(3))), cache.getIfLatest(third));
+    assertEquals(2, cache.getSkippedCount());
+  }
+
+  @Test
+  public void clear_forgetsState() {
+    CanonicalStateCache cache = new CanonicalStateCache();
+    cache.put(playingAt(Duration.ofSeconds(1)));
+
+    cache.clear();
+
+    assertFalse(cache.get().isPresent());
+  }
+}
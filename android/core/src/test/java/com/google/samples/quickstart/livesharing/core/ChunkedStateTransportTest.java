@@ -0,0 +1,446 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ChunkedStateTransport}. */
+@RunWith(JUnit4.class)
+public class ChunkedStateTransportTest {
+
+  private static final int CHUNK_SIZE = 64;
+  private static final Duration CAROUSEL_INTERVAL = Duration.ofMillis(100);
+  private static final int CAROUSEL_ROUNDS = 3;
+
+  /**
+   * A local stand-in for the co-doing channel that drops, duplicates and reorders frames.
+   *
+   * <p>Frames are held back until {@link #deliver} is called, which then hands them to the
+   * receiver in shuffled order.
+   */
+  private static final class LossyChannel {
+    private final Random random;
+    private final double dropRate;
+    private final double duplicateRate;
+    private final List<byte[]> inFlight = new ArrayList<>();
+
+    LossyChannel(long seed, double dropRate, double duplicateRate) {
+      this.random = new Random(seed);
+      this.dropRate = dropRate;
+      this.duplicateRate = duplicateRate;
+    }
+
+    void send(byte[] frame) {
+      if (random.nextDouble() < dropRate) {
+        return;
+      }
+      inFlight.add(frame);
+      if (random.nextDouble() < duplicateRate) {
+        inFlight.add(frame);
+      }
+    }
+
+    void deliver(ChunkedStateTransport receiver) {
+      List<byte[]> frames = new ArrayList<>(inFlight);
+      inFlight.clear();
+      Collections.shuffle(frames, random);
+      frames.forEach(receiver::onFrameReceived);
+    }
+  }
+
+  /**
+   * A local stand-in for the co-doing global state: it only keeps the latest frame, and only the
+   * receivers connected at the time a frame is set are told about it.
+   */
+  private static final class LastWriterWinsChannel {
+    private final List<ChunkedStateTransport> receivers = new ArrayList<>();
+    private byte[] value = new byte[0];
+
+    void set(byte[] frame) {
+      value = frame;
+    }
+
+    /** Tells the connected receivers about the current value, as the SDK does once per update. */
+    void notifyReceivers() {
+      receivers.forEach(receiver -> receiver.onFrameReceived(value));
+    }
+
+    void join(ChunkedStateTransport receiver) {
+      receivers.add(receiver);
+      receiver.onFrameReceived(value);
+    }
+  }
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final List<byte[]> delivered = new ArrayList<>();
+
+  private ChunkedStateTransport newTransport(
+      Consumer<byte[]> frameSender, Consumer<byte[]> stateListener, int senderId) {
+    return new ChunkedStateTransport(
+        frameSender,
+        stateListener,
+        CHUNK_SIZE,
+        senderId,
+        scheduler,
+        CAROUSEL_INTERVAL,
+        CAROUSEL_ROUNDS);
+  }
+
+  private ChunkedStateTransport newReceiver() {
+    return newTransport(frame -> {}, delivered::add, /* senderId= */ 2);
+  }
+
+  private static byte[] randomState(long seed, int length) {
+    byte[] state = new byte[length];
+    new Random(seed).nextBytes(state);
+    return state;
+  }
+
+  @Test
+  public void send_smallState_isSentUnframed() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+
+    sender.send("true".getBytes());
+    frames.forEach(receiver::onFrameReceived);
+
+    // Participants without the transport parse the payload as is.
+    assertEquals(1, frames.size());
+    assertArrayEquals("true".getBytes(), frames.get(0));
+    assertEquals(1, delivered.size());
+    assertArrayEquals("true".getBytes(), delivered.get(0));
+  }
+
+  @Test
+  public void send_smallStateThatLooksLikeFrame_isFramed() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+    byte[] state = new byte[StateChunk.HEADER_SIZE];
+    ByteBuffer.wrap(state).putInt(StateChunk.MAGIC);
+
+    sender.send(state);
+    frames.forEach(receiver::onFrameReceived);
+
+    assertEquals(1, frames.size());
+    assertEquals(StateChunk.HEADER_SIZE * 2, frames.get(0).length);
+    assertEquals(1, delivered.size());
+    assertArrayEquals(state, delivered.get(0));
+  }
+
+  @Test
+  public void onFrameReceived_unframedState_discardsPartialAndAcceptsLaterFrames() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 9);
+    ChunkedStateTransport receiver = newReceiver();
+    byte[] state = randomState(/* seed= */ 1, /* length= */ 3 * CHUNK_SIZE);
+
+    sender.send(state);
+    receiver.onFrameReceived(frames.get(0));
+    receiver.onFrameReceived("false".getBytes());
+    frames.clear();
+    sender.send(state);
+    frames.forEach(receiver::onFrameReceived);
+
+    assertEquals(1, receiver.getSupersededGenerations());
+    assertEquals(2, delivered.size());
+    assertArrayEquals("false".getBytes(), delivered.get(0));
+    assertArrayEquals(state, delivered.get(1));
+  }
+
+  @Test
+  public void send_largeStateReordered_reassemblesOnce() {
+    LossyChannel channel = new LossyChannel(/* seed= */ 1, /* dropRate= */ 0, 0.3);
+    ChunkedStateTransport sender = newTransport(channel::send, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+    byte[] state = randomState(/* seed= */ 7, /* length= */ 10_000);
+
+    sender.send(state);
+    channel.deliver(receiver);
+
+    assertEquals(1, delivered.size());
+    assertArrayEquals(state, delivered.get(0));
+  }
+
+  @Test
+  public void onFrameReceived_lostFrame_completesAfterResend() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+    byte[] state = randomState(/* seed= */ 3, /* length= */ 1_000);
+
+    sender.send(state);
+    frames.remove(5);
+    frames.forEach(receiver::onFrameReceived);
+    assertEquals(0, delivered.size());
+
+    frames.clear();
+    sender.resend();
+    frames.forEach(receiver::onFrameReceived);
+
+    assertEquals(1, delivered.size());
+    assertArrayEquals(state, delivered.get(0));
+  }
+
+  @Test
+  public void onFrameReceived_newerGeneration_discardsPartialAndIgnoresLateFrames() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+    byte[] oldState = randomState(/* seed= */ 1, /* length= */ 500);
+    byte[] newState = randomState(/* seed= */ 2, /* length= */ 300);
+
+    sender.send(oldState);
+    List<byte[]> oldFrames = new ArrayList<>(frames);
+    frames.clear();
+    sender.send(newState);
+
+    receiver.onFrameReceived(oldFrames.get(0));
+    frames.forEach(receiver::onFrameReceived);
+    oldFrames.forEach(receiver::onFrameReceived);
+
+    assertEquals(1, delivered.size());
+    assertArrayEquals(newState, delivered.get(0));
+    assertEquals(1, receiver.getSupersededGenerations());
+    assertEquals(oldFrames.size(), receiver.getStaleFrames());
+  }
+
+  @Test
+  public void onFrameReceived_corruptedFrame_isRejected() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+
+    sender.send(randomState(/* seed= */ 4, /* length= */ 200));
+    frames.get(1)[StateChunk.HEADER_SIZE + 3] ^= 0x1;
+    frames.forEach(receiver::onFrameReceived);
+
+    assertEquals(0, delivered.size());
+    assertEquals(1, receiver.getCorruptFrames());
+  }
+
+  @Test
+  public void onFrameReceived_receiverThenSends_supersedesReceivedState() {
+    List<byte[]> toReceiver = new ArrayList<>();
+    List<byte[]> toSender = new ArrayList<>();
+    List<byte[]> deliveredToSender = new ArrayList<>();
+    ChunkedStateTransport sender =
+        newTransport(toReceiver::add, deliveredToSender::add, /* senderId= */ 9);
+    ChunkedStateTransport receiver = newTransport(toSender::add, delivered::add, /* senderId= */ 1);
+
+    sender.send(randomState(/* seed= */ 1, /* length= */ 100));
+    toReceiver.forEach(receiver::onFrameReceived);
+    byte[] reply = randomState(/* seed= */ 2, /* length= */ 100);
+    receiver.send(reply);
+    toSender.forEach(sender::onFrameReceived);
+
+    // The reply has a lower sender id, but was sent after the first state was received.
+    assertEquals(1, deliveredToSender.size());
+    assertArrayEquals(reply, deliveredToSender.get(0));
+  }
+
+  @Test
+  public void onFrameReceived_headerClaimsHugeState_isRejectedWithoutAllocating() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+    sender.send(randomState(/* seed= */ 5, /* length= */ 2 * CHUNK_SIZE));
+    byte[] frame = frames.get(0);
+    // Total length field of the header.
+    ByteBuffer.wrap(frame).putInt(20, Integer.MAX_VALUE - 1);
+
+    receiver.onFrameReceived(frame);
+
+    assertEquals(1, receiver.getCorruptFrames());
+    assertEquals(0, delivered.size());
+  }
+
+  @Test
+  public void send_singleFrame_doesNotStartCarousel() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+
+    sender.send("true".getBytes());
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertFalse(sender.isCarouselRunning());
+    assertEquals(1, frames.size());
+  }
+
+  @Test
+  public void lastWriterWinsChannel_lateJoiner_completesStateFromCarousel() {
+    LastWriterWinsChannel channel = new LastWriterWinsChannel();
+    ChunkedStateTransport sender =
+        newTransport(
+            frame -> {
+              channel.set(frame);
+              channel.notifyReceivers();
+            },
+            state -> {},
+            /* senderId= */ 1);
+    byte[] state = randomState(/* seed= */ 6, /* length= */ 10 * CHUNK_SIZE);
+    sender.send(state);
+    scheduler.advanceBy(CAROUSEL_INTERVAL.multipliedBy(15));
+
+    // Joining only yields the frame the channel currently holds; the rest come from the carousel.
+    channel.join(newReceiver());
+    assertEquals(0, delivered.size());
+    scheduler.advanceBy(CAROUSEL_INTERVAL.multipliedBy(10));
+
+    assertEquals(1, delivered.size());
+    assertArrayEquals(state, delivered.get(0));
+  }
+
+  @Test
+  public void carousel_stopsAfterItsRounds() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+
+    sender.send(randomState(/* seed= */ 1, /* length= */ 4 * CHUNK_SIZE));
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertFalse(sender.isCarouselRunning());
+    assertEquals(4 + CAROUSEL_ROUNDS * 4, frames.size());
+    assertEquals(0, scheduler.getPendingCount());
+  }
+
+  @Test
+  public void repeatCarousel_afterRoundsEnded_letsLateJoinerComplete() {
+    LastWriterWinsChannel channel = new LastWriterWinsChannel();
+    ChunkedStateTransport sender =
+        newTransport(
+            frame -> {
+              channel.set(frame);
+              channel.notifyReceivers();
+            },
+            state -> {},
+            /* senderId= */ 1);
+    byte[] state = randomState(/* seed= */ 6, /* length= */ 10 * CHUNK_SIZE);
+    sender.send(state);
+    scheduler.advanceBy(Duration.ofSeconds(10));
+    assertFalse(sender.isCarouselRunning());
+
+    channel.join(newReceiver());
+    sender.repeatCarousel();
+    scheduler.advanceBy(CAROUSEL_INTERVAL.multipliedBy(10));
+
+    assertEquals(1, delivered.size());
+    assertArrayEquals(state, delivered.get(0));
+  }
+
+  @Test
+  public void repeatCarousel_afterNewerStateReceived_sendsNothing() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    sender.send(randomState(/* seed= */ 1, /* length= */ 4 * CHUNK_SIZE));
+    sender.onFrameReceived("false".getBytes());
+    frames.clear();
+
+    sender.repeatCarousel();
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertTrue(frames.isEmpty());
+  }
+
+  @Test
+  public void onFrameReceived_newerStateFromOtherSender_stopsCarousel() {
+    List<byte[]> toReceiver = new ArrayList<>();
+    List<byte[]> toSender = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(toReceiver::add, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport other = newTransport(toSender::add, delivered::add, /* senderId= */ 2);
+
+    sender.send(randomState(/* seed= */ 1, /* length= */ 5 * CHUNK_SIZE));
+    toReceiver.forEach(other::onFrameReceived);
+    other.send("false".getBytes());
+    toSender.forEach(sender::onFrameReceived);
+    toReceiver.clear();
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertFalse(sender.isCarouselRunning());
+    assertTrue(toReceiver.isEmpty());
+  }
+
+  @Test
+  public void reset_stopsCarousel() {
+    List<byte[]> frames = new ArrayList<>();
+    ChunkedStateTransport sender = newTransport(frames::add, state -> {}, /* senderId= */ 1);
+    sender.send(randomState(/* seed= */ 1, /* length= */ 5 * CHUNK_SIZE));
+
+    sender.reset();
+    frames.clear();
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertTrue(frames.isEmpty());
+  }
+
+  @Test
+  public void lossyChannel_repeatedResends_convergeOnLatestState() {
+    LossyChannel channel = new LossyChannel(/* seed= */ 42, /* dropRate= */ 0.2, 0.1);
+    ChunkedStateTransport sender = newTransport(channel::send, state -> {}, /* senderId= */ 1);
+    ChunkedStateTransport receiver = newReceiver();
+    List<byte[]> sent = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      byte[] state = randomState(/* seed= */ i, /* length= */ 2_000 + i * 10);
+      sent.add(state);
+      sender.send(state);
+      channel.deliver(receiver);
+    }
+    byte[] latest = sent.get(sent.size() - 1);
+    for (int attempt = 0; attempt < 100 && !endsWith(delivered, latest); attempt++) {
+      sender.resend();
+      channel.deliver(receiver);
+    }
+
+    assertTrue(endsWith(delivered, latest));
+    // States are only ever delivered in the order they were sent.
+    int lastIndex = -1;
+    for (byte[] state : delivered) {
+      int index = indexOf(sent, state);
+      assertTrue(index > lastIndex);
+      lastIndex = index;
+    }
+    assertEquals(0, receiver.getCorruptFrames());
+  }
+
+  private static boolean endsWith(List<byte[]> states, byte[] state) {
+    return !states.isEmpty() && Arrays.equals(states.get(states.size() - 1), state);
+  }
+
+  private static int indexOf(List<byte[]> states, byte[] state) {
+    for (int i = 0; i < states.size(); i++) {
+      if (Arrays.equals(states.get(i), state)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,329 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CoWatchingSync} and {@link SyncClient}, run in virtual time. */
+@RunWith(JUnit4.class)
+public class CoWatchingSyncTest {
+
+  private static final Duration SETTLE_DEADLINE = Duration.ofSeconds(2);
+
+  private static final Media MEDIA_1 =
+      Media.builder().setId("media_1").setName("Media 1").setDuration(Duration.ofHours(1)).build();
+  private static final Media MEDIA_2 =
+      Media.builder().setId("media_2").setName("Media 2").setDuration(Duration.ofHours(1)).build();
+
+  private static final LogSink SILENT_LOG_SINK =
+      new LogSink() {
+        @Override
+        public void log(String message) {}
+
+        @Override
+        public void logError(String message) {}
+      };
+
+  /** Takes the steps with the player, and records what is published. */
+  private final class RecordingHost implements CoWatchingSync.Host {
+    final List<SyncEvent> published = new ArrayList<>();
+
+    @Override
+    public Optional<Media> findMedia(String mediaId) {
+      return ImmutableList.of(MEDIA_1, MEDIA_2).stream()
+          .filter(media -> media.id().equals(mediaId))
+          .findFirst();
+    }
+
+    @Override
+    public void registerMedia(Media media) {
+      player.registerMediaForPlayback(uiObjectHandler, media);
+      player.startMediaPlayback(uiObjectHandler);
+    }
+
+    @Override
+    public void stopMedia(boolean publishEnded) {
+      Duration position = player.getCurrentPosition();
+      if (player.stopMediaPlayback(uiObjectHandler) == PlaybackStateMachine.Result.APPLIED
+          && publishEnded) {
+        published.add(SyncEvent.ended(scheduler.nanoTime(), position));
+      }
+    }
+
+    @Override
+    public void switchTo(Media media, PlaybackSnapshot target) {
+      player.applyCanonicalState(uiObjectHandler, media, target);
+    }
+
+    @Override
+    public void startPlayback() {
+      player.startMediaPlayback(uiObjectHandler);
+    }
+
+    @Override
+    public void pausePlayback(boolean buffering) {
+      player.pauseMediaPlayback(buffering);
+    }
+
+    @Override
+    public void showRemotePlayoutRate(double playoutRate) {}
+
+    @Override
+    public void publish(SyncEvent event) {
+      published.add(event);
+    }
+  }
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final UiObjectHandler uiObjectHandler = seekBarPosition -> {};
+  private final MediaPlayer player =
+      new MediaPlayer(
+          (mediaName, positionSeconds, lengthSeconds) -> "",
+          media -> new TimerPlaybackEngine(media.duration(), scheduler::nanoTime),
+          scheduler,
+          new MessageTimingMonitor(Duration.ofMinutes(1), scheduler::nanoTime, timings -> {}),
+          NoOpTracer.INSTANCE);
+  private final OfflineCommandBuffer offlineCommandBuffer = new OfflineCommandBuffer();
+  private final RecordingHost host = new RecordingHost();
+  private final CoWatchingSync sync =
+      new CoWatchingSync(
+          player,
+          offlineCommandBuffer,
+          host,
+          /* transitEstimate= */ Duration.ZERO,
+          SETTLE_DEADLINE,
+          scheduler,
+          new LogProducer(new ArrayBlockingQueue<>(100), SILENT_LOG_SINK),
+          NoOpTracer.INSTANCE);
+
+  private static SyncClient recordingClient(List<String> calls) {
+    return new SyncClient() {
+      @Override
+      public void setGlobalState(byte[] state) {
+        calls.add("setGlobalState " + new String(state, UTF_8));
+      }
+
+      @Override
+      public void notifySwitchedToMedia(String mediaTitle, String mediaId, Duration position) {
+        calls.add("notifySwitchedToMedia " + mediaId);
+      }
+
+      @Override
+      public void notifyPauseState(boolean paused, Duration position) {
+        calls.add("notifyPauseState " + paused);
+      }
+
+      @Override
+      public void notifySeekToTimestamp(Duration position) {
+        calls.add("notifySeekToTimestamp " + position.getSeconds());
+      }
+
+      @Override
+      public void notifyPlayoutRate(double playoutRate, Duration position) {
+        calls.add("notifyPlayoutRate " + playoutRate);
+      }
+
+      @Override
+      public void notifyEnded(Duration position) {
+        calls.add("notifyEnded");
+      }
+    };
+  }
+
+  private long receive(Media media, String playbackState, Duration position) {
+    return sync.onStateReceived(
+        media.id(),
+        CoWatchingSync.stateOf(playbackState),
+        position,
+        /* playoutRate= */ 1,
+        scheduler.nanoTime());
+  }
+
+  @Test
+  public void applyState_mediaNotActive_switchesInOneStep() {
+    assertTrue(sync.applyState(receive(MEDIA_1, "PLAY", Duration.ofSeconds(30))));
+
+    assertEquals(Optional.of(MEDIA_1), player.getActiveMedia());
+    assertTrue(player.isPlaying());
+    assertEquals(Duration.ofSeconds(30), player.getCurrentPosition());
+    assertEquals(1, sync.getSwitchCount());
+    assertTrue(host.published.isEmpty());
+  }
+
+  @Test
+  public void applyState_sameMedia_convergesToPositionAndPlaybackState() {
+    assertTrue(sync.applyState(receive(MEDIA_1, "PLAY", Duration.ZERO)));
+
+    assertTrue(sync.applyState(receive(MEDIA_1, "PAUSE", Duration.ofMinutes(5))));
+
+    assertTrue(player.isPaused());
+    assertEquals(Duration.ofMinutes(5), player.getCurrentPosition());
+    assertEquals(1, sync.getSwitchCount());
+    assertEquals(1, sync.getSeekCount());
+  }
+
+  @Test
+  public void applyState_newerStateReceived_skipsOlderOne() {
+    long older = receive(MEDIA_1, "PLAY", Duration.ZERO);
+    long newer = receive(MEDIA_2, "PLAY", Duration.ZERO);
+
+    assertFalse(sync.applyState(older));
+    assertFalse(player.getActiveMedia().isPresent());
+    assertTrue(sync.applyState(newer));
+    assertEquals(Optional.of(MEDIA_2), player.getActiveMedia());
+  }
+
+  @Test
+  public void applyState_mediaEnded_stopsWithoutPublishing() {
+    assertTrue(sync.applyState(receive(MEDIA_1, "PLAY", Duration.ZERO)));
+
+    assertTrue(sync.applyState(receive(MEDIA_1, "ENDED", Duration.ofMinutes(60))));
+
+    assertFalse(player.getActiveMedia().isPresent());
+    assertTrue(host.published.isEmpty());
+  }
+
+  @Test
+  public void applyState_offlineCommandsPending_dropsCoWatchingCommands() {
+    offlineCommandBuffer.record(
+        SyncEvent.pauseState(scheduler.nanoTime(), /* paused= */ true, Duration.ZERO));
+    offlineCommandBuffer.record(
+        SyncEvent.setGlobalState(scheduler.nanoTime(), "state".getBytes(UTF_8)));
+    sync.scheduleOfflineFlush();
+
+    assertTrue(sync.applyState(receive(MEDIA_1, "PLAY", Duration.ZERO)));
+
+    assertEquals(1, host.published.size());
+    assertEquals(SyncEvent.Type.SET_GLOBAL_STATE, host.published.get(0).type());
+    // The settle deadline no longer sends anything.
+    scheduler.advanceBy(SETTLE_DEADLINE);
+    assertEquals(1, host.published.size());
+  }
+
+  @Test
+  public void scheduleOfflineFlush_noStateBeforeDeadline_sendsEverything() {
+    offlineCommandBuffer.record(
+        SyncEvent.pauseState(scheduler.nanoTime(), /* paused= */ true, Duration.ZERO));
+    sync.scheduleOfflineFlush();
+
+    scheduler.advanceBy(SETTLE_DEADLINE.minusNanos(1));
+    assertTrue(host.published.isEmpty());
+    scheduler.advanceBy(Duration.ofNanos(1));
+
+    assertEquals(1, host.published.size());
+    assertEquals(SyncEvent.Type.NOTIFY_PAUSE_STATE, host.published.get(0).type());
+  }
+
+  @Test
+  public void reset_dropsPendingOfflineCommands() {
+    offlineCommandBuffer.record(
+        SyncEvent.pauseState(scheduler.nanoTime(), /* paused= */ true, Duration.ZERO));
+    sync.scheduleOfflineFlush();
+
+    sync.reset();
+    scheduler.advanceBy(SETTLE_DEADLINE);
+
+    assertTrue(host.published.isEmpty());
+    assertEquals(0, offlineCommandBuffer.getRecordedCount());
+  }
+
+  @Test
+  public void applyPlaybackIntent_switch_registersMediaAndPublishesIt() {
+    sync.applyPlaybackIntent(
+        SyncEvent.switchedToMedia(
+            scheduler.nanoTime(), MEDIA_2.name(), MEDIA_2.id(), Duration.ZERO));
+
+    assertEquals(Optional.of(MEDIA_2), player.getActiveMedia());
+    assertEquals(1, host.published.size());
+    assertEquals(SyncEvent.Type.NOTIFY_SWITCHED_TO_MEDIA, host.published.get(0).type());
+    assertEquals(MEDIA_2.id(), host.published.get(0).mediaId());
+  }
+
+  @Test
+  public void applyPlaybackIntent_pause_appliesAndPublishesResultingState() {
+    assertTrue(sync.applyState(receive(MEDIA_1, "PLAY", Duration.ZERO)));
+
+    sync.applyPlaybackIntent(
+        SyncEvent.pauseState(scheduler.nanoTime(), /* paused= */ true, Duration.ofSeconds(42)));
+
+    assertTrue(player.isPaused());
+    SyncEvent published = host.published.get(0);
+    assertEquals(SyncEvent.Type.NOTIFY_PAUSE_STATE, published.type());
+    assertTrue(published.paused());
+    assertEquals(Duration.ofSeconds(42), published.position());
+  }
+
+  @Test
+  public void applyPlaybackIntent_noActiveMedia_isDropped() {
+    sync.applyPlaybackIntent(SyncEvent.seekToTimestamp(scheduler.nanoTime(), Duration.ZERO));
+
+    assertTrue(host.published.isEmpty());
+  }
+
+  @Test
+  public void currentPlaybackChange_reportsLocalState() {
+    assertTrue(sync.applyState(receive(MEDIA_1, "PAUSE", Duration.ofSeconds(7))));
+
+    SyncEvent change =
+        sync.currentPlaybackChange(
+                SyncEvent.seekToTimestamp(scheduler.nanoTime(), Duration.ofSeconds(99)))
+            .get();
+
+    assertEquals(SyncEvent.Type.NOTIFY_SEEK_TO_TIMESTAMP, change.type());
+    assertEquals(Duration.ofSeconds(7), change.position());
+  }
+
+  @Test
+  public void send_makesTheCallOfEachOutboundEvent() {
+    List<String> calls = new ArrayList<>();
+    SyncClient client = recordingClient(calls);
+
+    SyncClient.send(client, SyncEvent.setGlobalState(0, "state".getBytes(UTF_8)));
+    SyncClient.send(client, SyncEvent.switchedToMedia(0, "Media 1", "media_1", Duration.ZERO));
+    SyncClient.send(client, SyncEvent.pauseState(0, /* paused= */ true, Duration.ZERO));
+    SyncClient.send(client, SyncEvent.seekToTimestamp(0, Duration.ofSeconds(3)));
+    SyncClient.send(client, SyncEvent.playoutRate(0, 1.5, Duration.ZERO));
+    SyncClient.send(client, SyncEvent.ended(0, Duration.ZERO));
+
+    assertEquals(
+        ImmutableList.of(
+            "setGlobalState state",
+            "notifySwitchedToMedia media_1",
+            "notifyPauseState true",
+            "notifySeekToTimestamp 3",
+            "notifyPlayoutRate 1.5",
+            "notifyEnded"),
+        calls);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void send_inboundEvent_throws() {
+    SyncClient.send(
+        recordingClient(new ArrayList<>()), SyncEvent.sessionEnded(0, "SESSION_ENDED_BY_USER"));
+  }
+}
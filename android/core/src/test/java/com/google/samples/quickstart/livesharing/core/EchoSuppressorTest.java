@@ -0,0 +1,168 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link EchoSuppressor}. */
+@RunWith(JUnit4.class)
+public class EchoSuppressorTest {
+
+  private static final String CONTROL = "rate";
+
+  /**
+   * Stand-in for a meeting: every participant has a control whose listener broadcasts changes,
+   * and broadcasts are delivered to every other participant. Listeners fire either straight away,
+   * like a switch, or from the UI queue, like a spinner.
+   */
+  private static final class Meeting {
+    final Queue<Runnable> pending = new ArrayDeque<>();
+    final List<Participant> participants = new ArrayList<>();
+    int messageCount = 0;
+
+    Meeting(int participantCount, boolean deferredListeners) {
+      for (int i = 0; i < participantCount; i++) {
+        participants.add(new Participant(this, deferredListeners));
+      }
+    }
+
+    void broadcast(Participant sender, Object value) {
+      messageCount++;
+      for (Participant participant : participants) {
+        if (participant != sender) {
+          pending.add(() -> participant.onRemoteValue(value));
+        }
+      }
+    }
+
+    void runUntilIdle() {
+      for (int i = 0; i < 100_000 && !pending.isEmpty(); i++) {
+        pending.remove().run();
+      }
+    }
+  }
+
+  private static final class Participant {
+    final Meeting meeting;
+    final boolean deferredListener;
+    final EchoSuppressor<String> suppressor = new EchoSuppressor<>();
+    Object value = 1.0;
+
+    Participant(Meeting meeting, boolean deferredListener) {
+      this.meeting = meeting;
+      this.deferredListener = deferredListener;
+    }
+
+    /** Sets the control the way the UI toolkit does, notifying its listener of a change. */
+    void setControl(Object newValue) {
+      if (newValue.equals(value)) {
+        return;
+      }
+      value = newValue;
+      if (deferredListener) {
+        meeting.pending.add(() -> onControlChanged(newValue));
+      } else {
+        onControlChanged(newValue);
+      }
+    }
+
+    void onControlChanged(Object newValue) {
+      if (suppressor.shouldBroadcast(CONTROL, newValue)) {
+        meeting.broadcast(this, newValue);
+      }
+    }
+
+    void onRemoteValue(Object remoteValue) {
+      suppressor.applyRemote(CONTROL, remoteValue, () -> setControl(remoteValue));
+    }
+  }
+
+  private static void assertOneMessagePerChange(boolean deferredListeners) {
+    Meeting meeting = new Meeting(/* participantCount= */ 8, deferredListeners);
+    Object[] rates = {0.5, 1.5, 2.0, 1.0, 0.5};
+
+    for (int i = 0; i < rates.length; i++) {
+      meeting.participants.get(i % meeting.participants.size()).setControl(rates[i]);
+      meeting.runUntilIdle();
+    }
+
+    assertTrue(meeting.pending.isEmpty());
+    // No redundant messages: exactly one per user change.
+    assertEquals(rates.length, meeting.messageCount);
+    for (Participant participant : meeting.participants) {
+      assertEquals(0.5, participant.value);
+    }
+  }
+
+  @Test
+  public void meeting_immediateListeners_sendsOneMessagePerChange() {
+    assertOneMessagePerChange(/* deferredListeners= */ false);
+  }
+
+  @Test
+  public void meeting_deferredListeners_sendsOneMessagePerChange() {
+    assertOneMessagePerChange(/* deferredListeners= */ true);
+  }
+
+  @Test
+  public void shouldBroadcast_echoOfRemoteValue_isSuppressed() {
+    EchoSuppressor<String> suppressor = new EchoSuppressor<>();
+    suppressor.applyRemote(CONTROL, true, () -> {});
+
+    assertFalse(suppressor.shouldBroadcast(CONTROL, true));
+    assertEquals(EchoSuppressor.Origin.REMOTE, suppressor.getOrigin(CONTROL));
+    assertEquals(1, suppressor.getSuppressedCount());
+  }
+
+  @Test
+  public void shouldBroadcast_userChangeAfterRemoteValue_isSent() {
+    EchoSuppressor<String> suppressor = new EchoSuppressor<>();
+    suppressor.applyRemote(CONTROL, true, () -> {});
+
+    assertTrue(suppressor.shouldBroadcast(CONTROL, false));
+    // Changing back to the remote value is a user change too, now that the control is local.
+    assertTrue(suppressor.shouldBroadcast(CONTROL, true));
+    assertEquals(EchoSuppressor.Origin.LOCAL, suppressor.getOrigin(CONTROL));
+    assertEquals(2, suppressor.getBroadcastCount());
+  }
+
+  @Test
+  public void shouldBroadcast_otherControl_isNotAffected() {
+    EchoSuppressor<String> suppressor = new EchoSuppressor<>();
+    suppressor.applyRemote(CONTROL, true, () -> {});
+
+    assertTrue(suppressor.shouldBroadcast("background", true));
+  }
+
+  @Test
+  public void reset_forgetsRemoteValues() {
+    EchoSuppressor<String> suppressor = new EchoSuppressor<>();
+    suppressor.applyRemote(CONTROL, true, () -> {});
+
+    suppressor.reset();
+
+    assertTrue(suppressor.shouldBroadcast(CONTROL, true));
+  }
+}
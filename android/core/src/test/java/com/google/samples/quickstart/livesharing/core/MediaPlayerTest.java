@@ -0,0 +1,439 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link MediaPlayer}, run in virtual time. */
+@RunWith(JUnit4.class)
+public class MediaPlayerTest {
+
+  private static final Media HOUR_LONG_MEDIA =
+      Media.builder().setId("media_1").setName("Media 1").setDuration(Duration.ofHours(1)).build();
+
+  private static final Media TEN_MINUTE_MEDIA =
+      Media.builder()
+          .setId("media_2")
+          .setName("Media 2")
+          .setDuration(Duration.ofMinutes(10))
+          .build();
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final List<Integer> seekBarPositions = new ArrayList<>();
+  private final UiObjectHandler uiObjectHandler = seekBarPositions::add;
+  private int createdEngineCount = 0;
+  private final MediaPlayer player =
+      createPlayer(
+          media -> {
+            createdEngineCount++;
+            return new TimerPlaybackEngine(media.duration(), scheduler::nanoTime);
+          });
+
+  private MediaPlayer createPlayer(PlaybackEngine.Factory engineFactory) {
+    return new MediaPlayer(
+        (mediaName, positionSeconds, lengthSeconds) ->
+            mediaName + " " + positionSeconds + "/" + lengthSeconds,
+        engineFactory,
+        scheduler,
+        new MessageTimingMonitor(Duration.ofMinutes(1), scheduler::nanoTime, timings -> {}),
+        NoOpTracer.INSTANCE);
+  }
+
+  /** Plays content of {@code contentLength}, reporting it as its length if it is known. */
+  private static final class ContentEngine implements PlaybackEngine {
+    private final TimerPlaybackEngine timer;
+    private final Optional<Duration> contentDuration;
+    private Optional<Runnable> endOfStreamListener = Optional.empty();
+    private boolean released = false;
+
+    ContentEngine(
+        Duration contentLength, boolean contentLengthKnown, VirtualScheduler scheduler) {
+      timer = new TimerPlaybackEngine(contentLength, scheduler::nanoTime);
+      contentDuration = contentLengthKnown ? Optional.of(contentLength) : Optional.empty();
+    }
+
+    @Override
+    public void play() {
+      timer.play();
+    }
+
+    @Override
+    public void pause() {
+      timer.pause();
+    }
+
+    @Override
+    public void seekTo(Duration position) {
+      timer.seekTo(position);
+    }
+
+    @Override
+    public void setPlaybackRate(double rate) {
+      timer.setPlaybackRate(rate);
+    }
+
+    @Override
+    public Duration getPosition() {
+      return timer.getPosition();
+    }
+
+    @Override
+    public Optional<Duration> getContentDuration() {
+      return contentDuration;
+    }
+
+    @Override
+    public void setEndOfStreamListener(Runnable listener) {
+      endOfStreamListener = Optional.of(listener);
+    }
+
+    @Override
+    public void release() {
+      released = true;
+      timer.release();
+    }
+  }
+
+  private void startPlaying() {
+    player.registerMediaForPlayback(uiObjectHandler, HOUR_LONG_MEDIA);
+    assertEquals(PlaybackStateMachine.Result.APPLIED, player.startMediaPlayback(uiObjectHandler));
+  }
+
+  @Test
+  public void commands_noActiveMedia_areRejectedWithoutThrowing() {
+    assertEquals(
+        PlaybackStateMachine.Result.NO_ACTIVE_MEDIA, player.startMediaPlayback(uiObjectHandler));
+    assertEquals(
+        PlaybackStateMachine.Result.NO_ACTIVE_MEDIA,
+        player.pauseMediaPlayback(/* simulateBuffering= */ true));
+    assertEquals(
+        PlaybackStateMachine.Result.NO_ACTIVE_MEDIA, player.stopMediaPlayback(uiObjectHandler));
+
+    assertEquals(MediaPlayer.State.INACTIVE, player.getState());
+    assertEquals(0, scheduler.getPendingCount());
+  }
+
+  @Test
+  public void transitions_arePublished() {
+    List<String> transitions = new ArrayList<>();
+    player.setTransitionListener(
+        (from, event, to) -> transitions.add(from + " " + event + " " + to));
+
+    startPlaying();
+    scheduler.advanceBy(Duration.ofHours(1));
+    assertEquals(PlaybackStateMachine.Result.APPLIED, player.stopMediaPlayback(uiObjectHandler));
+
+    assertEquals(
+        ImmutableList.of(
+            "INACTIVE LOAD PAUSED",
+            "PAUSED PLAY PLAYING",
+            "PLAYING END ENDED",
+            "ENDED STOP INACTIVE"),
+        transitions);
+  }
+
+  @Test
+  public void startMediaPlayback_alreadyPlaying_isRejected() {
+    startPlaying();
+
+    assertEquals(
+        PlaybackStateMachine.Result.ALREADY_IN_STATE, player.startMediaPlayback(uiObjectHandler));
+    scheduler.advanceBy(Duration.ofMinutes(1));
+
+    assertTrue(player.isPlaying());
+    assertEquals(Duration.ofMinutes(1), player.getCurrentPosition());
+  }
+
+  @Test
+  public void startMediaPlayback_atEnd_isRejectedUntilRewound() {
+    startPlaying();
+    scheduler.advanceBy(Duration.ofHours(1).plusSeconds(1));
+    assertTrue(player.isEnded());
+
+    assertEquals(
+        PlaybackStateMachine.Result.MEDIA_ENDED, player.startMediaPlayback(uiObjectHandler));
+
+    player.setCurrentPosition(Duration.ofMinutes(59));
+    assertEquals(MediaPlayer.State.PAUSED, player.getState());
+    assertEquals(PlaybackStateMachine.Result.APPLIED, player.startMediaPlayback(uiObjectHandler));
+  }
+
+  @Test
+  public void play_forAnHour_pausesAtEnd() {
+    startPlaying();
+
+    scheduler.advanceBy(Duration.ofMinutes(30));
+    assertTrue(player.isPlaying());
+    assertEquals(Duration.ofMinutes(30), player.getCurrentPosition());
+
+    scheduler.advanceBy(Duration.ofMinutes(31));
+    assertTrue(player.isPaused());
+    assertEquals(Duration.ofHours(1), player.getCurrentPosition());
+    assertEquals(3599, (int) seekBarPositions.get(seekBarPositions.size() - 1));
+    assertEquals(3600, player.getWakeUpCount());
+  }
+
+  @Test
+  public void setPlayoutRate_double_reachesEndInHalfTheTime() {
+    startPlaying();
+
+    player.setPlayoutRate(2);
+    scheduler.advanceBy(Duration.ofMinutes(29));
+    assertTrue(player.isPlaying());
+    scheduler.advanceBy(Duration.ofMinutes(1).plusSeconds(1));
+
+    assertTrue(player.isPaused());
+    assertEquals(Duration.ofHours(1), player.getCurrentPosition());
+  }
+
+  @Test
+  public void syncTo_smallDrift_catchesUpWithoutSeeking() {
+    startPlaying();
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    MediaPlayer.SyncResult result = player.syncTo(Duration.ofMillis(10_300), true);
+    assertEquals(MediaPlayer.SyncResult.CATCHING_UP, result);
+    assertTrue(player.getEffectivePlayoutRate() > 1);
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    Duration drift = player.getCurrentPosition().minus(Duration.ofMillis(20_300));
+    assertTrue(drift.abs().compareTo(CatchUpRateController.DEFAULT_TOLERANCE) <= 0);
+    assertEquals(1, player.getEffectivePlayoutRate(), 0);
+  }
+
+  @Test
+  public void syncTo_largeDrift_seeks() {
+    startPlaying();
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    MediaPlayer.SyncResult result = player.syncTo(Duration.ofSeconds(30), true);
+
+    assertEquals(MediaPlayer.SyncResult.SEEKED, result);
+    assertEquals(Duration.ofSeconds(30), player.getCurrentPosition());
+  }
+
+  @Test
+  public void setUiVisible_hidden_onlyWakesUpAtEnd() {
+    startPlaying();
+    player.setUiVisible(false);
+    long wakeUpCount = player.getWakeUpCount();
+
+    scheduler.advanceBy(Duration.ofMinutes(59));
+    assertEquals(Duration.ofMinutes(59), player.getCurrentPosition());
+    scheduler.advanceBy(Duration.ofMinutes(1));
+
+    assertTrue(player.isPaused());
+    assertEquals(Duration.ofHours(1), player.getCurrentPosition());
+    assertEquals(1, player.getWakeUpCount() - wakeUpCount);
+  }
+
+  @Test
+  public void setUiVisible_hiddenRateChange_movesEndWakeUp() {
+    startPlaying();
+    player.setUiVisible(false);
+    scheduler.advanceBy(Duration.ofMinutes(10));
+
+    player.setPlayoutRate(2);
+    scheduler.advanceBy(Duration.ofMinutes(25));
+
+    assertTrue(player.isPaused());
+    assertEquals(Duration.ofHours(1), player.getCurrentPosition());
+  }
+
+  @Test
+  public void setUiVisible_visibleAgain_refreshesOnceAndResumesTicks() {
+    startPlaying();
+    player.setUiVisible(false);
+    scheduler.advanceBy(Duration.ofMinutes(10));
+    int refreshCount = seekBarPositions.size();
+
+    player.setUiVisible(true);
+    assertEquals(refreshCount + 1, seekBarPositions.size());
+    assertEquals(600, (int) seekBarPositions.get(refreshCount));
+    scheduler.advanceBy(Duration.ofSeconds(5));
+
+    assertEquals(refreshCount + 6, seekBarPositions.size());
+  }
+
+  @Test
+  public void applyCanonicalState_lateJoin_startsInSyncInOneStep() {
+    // Received at 1s, applied after waiting 2s on the main thread.
+    PlaybackSnapshot canonical =
+        PlaybackSnapshot.create(
+            Optional.of(HOUR_LONG_MEDIA.id()),
+            MediaPlayer.State.PLAYING,
+            Duration.ofSeconds(30),
+            Duration.ofSeconds(1).toNanos(),
+            /* playoutRate= */ 1.5,
+            HOUR_LONG_MEDIA.duration());
+    scheduler.advanceBy(Duration.ofSeconds(3));
+
+    player.applyCanonicalState(uiObjectHandler, HOUR_LONG_MEDIA, canonical);
+
+    // In sync from the first frame, without a catch-up phase.
+    assertTrue(player.isPlaying());
+    assertEquals(Duration.ofSeconds(33), player.getCurrentPosition());
+    assertEquals(1.5, player.getEffectivePlayoutRate(), 0);
+    assertEquals(1, createdEngineCount);
+    assertEquals(ImmutableList.of(33), seekBarPositions);
+    scheduler.advanceBy(Duration.ofSeconds(10));
+    assertEquals(canonical.positionAt(scheduler.nanoTime()), player.getCurrentPosition());
+  }
+
+  @Test
+  public void applyCanonicalState_otherMediaActive_switchesInOneStep() {
+    startPlaying();
+    scheduler.advanceBy(Duration.ofMinutes(1));
+
+    player.applyCanonicalState(
+        uiObjectHandler,
+        TEN_MINUTE_MEDIA,
+        PlaybackSnapshot.create(
+            Optional.of(TEN_MINUTE_MEDIA.id()),
+            MediaPlayer.State.PAUSED,
+            Duration.ofSeconds(5),
+            scheduler.nanoTime(),
+            /* playoutRate= */ 1,
+            TEN_MINUTE_MEDIA.duration()));
+    scheduler.advanceBy(Duration.ofMinutes(1));
+
+    assertEquals(Optional.of(TEN_MINUTE_MEDIA), player.getActiveMedia());
+    assertTrue(player.isPaused());
+    assertEquals(Duration.ofSeconds(5), player.getCurrentPosition());
+    assertEquals(2, createdEngineCount);
+  }
+
+  @Test
+  public void applyCanonicalState_sameMediaPlaying_keepsPlayingFromTarget() {
+    startPlaying();
+    scheduler.advanceBy(Duration.ofMinutes(1));
+
+    player.applyCanonicalState(
+        uiObjectHandler,
+        HOUR_LONG_MEDIA,
+        PlaybackSnapshot.create(
+            Optional.of(HOUR_LONG_MEDIA.id()),
+            MediaPlayer.State.PLAYING,
+            Duration.ofMinutes(10),
+            scheduler.nanoTime(),
+            /* playoutRate= */ 1,
+            HOUR_LONG_MEDIA.duration()));
+    scheduler.advanceBy(Duration.ofMinutes(1));
+
+    assertTrue(player.isPlaying());
+    assertEquals(Duration.ofMinutes(11), player.getCurrentPosition());
+    assertEquals(1, createdEngineCount);
+    assertEquals(1, scheduler.getPendingCount());
+  }
+
+  @Test
+  public void registerMediaForPlayback_contentDuration_replacesDeclaredDuration() {
+    MediaPlayer contentPlayer =
+        createPlayer(
+            media ->
+                new ContentEngine(
+                    Duration.ofMinutes(30), /* contentLengthKnown= */ true, scheduler));
+    contentPlayer.registerMediaForPlayback(uiObjectHandler, HOUR_LONG_MEDIA);
+    assertEquals(
+        PlaybackStateMachine.Result.APPLIED, contentPlayer.startMediaPlayback(uiObjectHandler));
+
+    scheduler.advanceBy(Duration.ofMinutes(31));
+
+    assertTrue(contentPlayer.isEnded());
+    assertEquals(Duration.ofMinutes(30), contentPlayer.getCurrentPosition());
+  }
+
+  @Test
+  public void endOfStream_contentShorterThanDeclared_endsPlayback() {
+    List<ContentEngine> engines = new ArrayList<>();
+    MediaPlayer contentPlayer =
+        createPlayer(
+            media -> {
+              ContentEngine engine =
+                  new ContentEngine(
+                      Duration.ofMinutes(20), /* contentLengthKnown= */ false, scheduler);
+              engines.add(engine);
+              return engine;
+            });
+    contentPlayer.registerMediaForPlayback(uiObjectHandler, HOUR_LONG_MEDIA);
+    assertEquals(
+        PlaybackStateMachine.Result.APPLIED, contentPlayer.startMediaPlayback(uiObjectHandler));
+    scheduler.advanceBy(Duration.ofMinutes(25));
+    assertTrue(contentPlayer.isPlaying());
+
+    engines.get(0).endOfStreamListener.get().run();
+    scheduler.advanceBy(Duration.ZERO);
+
+    assertTrue(contentPlayer.isEnded());
+    assertEquals(Duration.ofMinutes(20), contentPlayer.getCurrentPosition());
+    assertEquals(0, scheduler.getPendingCount());
+    contentPlayer.setCurrentPosition(Duration.ofMinutes(10));
+    assertEquals(MediaPlayer.State.PAUSED, contentPlayer.getState());
+  }
+
+  @Test
+  public void endOfStream_ofReplacedEngine_isIgnored() {
+    List<ContentEngine> engines = new ArrayList<>();
+    MediaPlayer contentPlayer =
+        createPlayer(
+            media -> {
+              ContentEngine engine =
+                  new ContentEngine(
+                      Duration.ofMinutes(20), /* contentLengthKnown= */ false, scheduler);
+              engines.add(engine);
+              return engine;
+            });
+    contentPlayer.registerMediaForPlayback(uiObjectHandler, HOUR_LONG_MEDIA);
+    contentPlayer.registerMediaForPlayback(uiObjectHandler, TEN_MINUTE_MEDIA);
+    assertEquals(
+        PlaybackStateMachine.Result.APPLIED, contentPlayer.startMediaPlayback(uiObjectHandler));
+
+    engines.get(0).endOfStreamListener.get().run();
+    scheduler.advanceBy(Duration.ofSeconds(1));
+
+    assertTrue(contentPlayer.isPlaying());
+  }
+
+  @Test
+  public void release_stopsTicksAndReleasesEngine() {
+    List<ContentEngine> engines = new ArrayList<>();
+    MediaPlayer contentPlayer =
+        createPlayer(
+            media -> {
+              ContentEngine engine =
+                  new ContentEngine(media.duration(), /* contentLengthKnown= */ false, scheduler);
+              engines.add(engine);
+              return engine;
+            });
+    contentPlayer.registerMediaForPlayback(uiObjectHandler, HOUR_LONG_MEDIA);
+    assertEquals(
+        PlaybackStateMachine.Result.APPLIED, contentPlayer.startMediaPlayback(uiObjectHandler));
+
+    contentPlayer.release();
+
+    assertEquals(0, scheduler.getPendingCount());
+    assertTrue(engines.get(0).released);
+  }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link MessageTimingMonitor}. */
+@RunWith(JUnit4.class)
+public class MessageTimingMonitorTest {
+
+  private static final long MILLIS = 1_000_000;
+
+  private final List<ImmutableList<MessageTimingMonitor.CategoryTiming>> windows =
+      new ArrayList<>();
+  private long nowNanos = 0;
+  private final MessageTimingMonitor monitor =
+      new MessageTimingMonitor(Duration.ofSeconds(1), () -> nowNanos, windows::add);
+
+  /** Dispatches {@code task} as one looper message that takes {@code durationMillis}. */
+  private void dispatch(String description, Runnable task, long durationMillis) {
+    monitor.onDispatchStarted(description);
+    task.run();
+    nowNanos += durationMillis * MILLIS;
+    monitor.onDispatchFinished();
+  }
+
+  @Test
+  public void taggedMessage_isAttributedWithQueueingDelay() {
+    Runnable tick = monitor.tag("tick", () -> {}, Duration.ofMillis(100));
+    nowNanos = 130 * MILLIS;
+
+    dispatch(">>>>> Dispatching to Handler (android.os.Handler) {1} x: 0", tick, 4);
+
+    MessageTimingMonitor.CategoryTiming timing = monitor.getSlowestCategories().get(0);
+    assertEquals("tick", timing.category());
+    assertEquals(1, timing.messageCount());
+    assertEquals(Duration.ofMillis(4), timing.totalDispatchTime());
+    assertEquals(Duration.ofMillis(30), timing.maxQueueingDelay());
+  }
+
+  @Test
+  public void untaggedMessages_areAttributedFromTheirDescription() {
+    dispatch(
+        ">>>>> Dispatching to Handler (android.view.Choreographer$FrameHandler) {2} y: 0",
+        () -> {},
+        8);
+    dispatch(">>>>> Dispatching to Handler (android.os.Handler) {1} z: 0", () -> {}, 1);
+
+    ImmutableList<MessageTimingMonitor.CategoryTiming> timings = monitor.getSlowestCategories();
+    assertEquals(MessageTimingMonitor.CATEGORY_FRAME, timings.get(0).category());
+    assertEquals(MessageTimingMonitor.CATEGORY_OTHER, timings.get(1).category());
+  }
+
+  @Test
+  public void nestedTaggedTask_isAccountedToOuterMessage() {
+    Runnable inner = monitor.tag("inner", () -> {});
+    Runnable outer = monitor.tag("outer", inner);
+
+    dispatch(">>>>> Dispatching", outer, 2);
+
+    assertEquals(1, monitor.getSlowestCategories().size());
+    assertEquals("outer", monitor.getSlowestCategories().get(0).category());
+  }
+
+  @Test
+  public void taggedTaskRunOutsideDispatch_isIgnored() {
+    monitor.tag("inline", () -> {}).run();
+
+    assertTrue(monitor.getSlowestCategories().isEmpty());
+  }
+
+  @Test
+  public void taggedTaskOnSelfTimedThread_isTimedWithoutDispatch() {
+    monitor.timeTaggedTasksOn(Thread.currentThread());
+    Runnable tick = monitor.tag("tick", () -> nowNanos += 3 * MILLIS, Duration.ofMillis(100));
+    nowNanos = 120 * MILLIS;
+
+    tick.run();
+
+    MessageTimingMonitor.CategoryTiming timing = monitor.getSlowestCategories().get(0);
+    assertEquals("tick", timing.category());
+    assertEquals(1, timing.messageCount());
+    assertEquals(Duration.ofMillis(3), timing.totalDispatchTime());
+    assertEquals(Duration.ofMillis(20), timing.maxQueueingDelay());
+    assertEquals(1, monitor.getMessageCount());
+  }
+
+  @Test
+  public void taggedTaskOnSelfTimedThread_insideDispatch_isAccountedToDispatch() {
+    monitor.timeTaggedTasksOn(Thread.currentThread());
+
+    dispatch(">>>>> Dispatching", monitor.tag("outer", monitor.tag("inner", () -> {})), 2);
+
+    assertEquals(1, monitor.getSlowestCategories().size());
+    assertEquals("outer", monitor.getSlowestCategories().get(0).category());
+    assertEquals(1, monitor.getMessageCount());
+  }
+
+  @Test
+  public void taggedTaskOnOtherThread_isNotSelfTimed() throws InterruptedException {
+    monitor.timeTaggedTasksOn(Thread.currentThread());
+    Thread other = new Thread(monitor.tag("elsewhere", () -> {}));
+    other.start();
+    other.join();
+
+    assertTrue(monitor.getSlowestCategories().isEmpty());
+  }
+
+  @Test
+  public void window_reportsSlowestFirstAndStartsOver() {
+    for (int i = 0; i < 10; i++) {
+      dispatch(">>>>> Dispatching", monitor.tag("log append", () -> {}), 10);
+    }
+    dispatch(">>>>> Dispatching", monitor.tag("tick", () -> {}), 50);
+    nowNanos += 900 * MILLIS;
+    dispatch(">>>>> Dispatching", monitor.tag("tick", () -> {}), 1);
+
+    assertEquals(1, windows.size());
+    ImmutableList<MessageTimingMonitor.CategoryTiming> window = windows.get(0);
+    assertEquals("log append", window.get(0).category());
+    assertEquals(Duration.ofMillis(100), window.get(0).totalDispatchTime());
+    assertEquals("tick", window.get(1).category());
+    assertEquals(Duration.ofMillis(50), window.get(1).maxDispatchTime());
+    assertTrue(monitor.getSlowestCategories().isEmpty());
+  }
+
+  @Test
+  public void messageCount_keepsCountingAcrossWindows() {
+    dispatch(">>>>> Dispatching", () -> {}, 1);
+    nowNanos += 1000 * MILLIS;
+    dispatch(">>>>> Dispatching", monitor.tag("tick", () -> {}), 1);
+    dispatch(">>>>> Dispatching", () -> {}, 1);
+
+    assertEquals(1, windows.size());
+    assertEquals(3, monitor.getMessageCount());
+  }
+}
@@ -0,0 +1,129 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OfflineCommandBuffer}. */
+@RunWith(JUnit4.class)
+public class OfflineCommandBufferTest {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final OfflineCommandBuffer buffer = new OfflineCommandBuffer();
+
+  @Test
+  public void drain_manyActions_compactsToLatestOfEachState() {
+    buffer.record(SyncEvent.switchedToMedia(0, "Media 1", "media1", Duration.ZERO));
+    buffer.record(SyncEvent.pauseState(1, /* paused= */ false, Duration.ZERO));
+    buffer.record(SyncEvent.playoutRate(2, 2.0, Duration.ofSeconds(1)));
+    buffer.record(SyncEvent.setGlobalState(3, new byte[] {1}));
+    buffer.record(SyncEvent.switchedToMedia(4, "Media 2", "media2", Duration.ZERO));
+    buffer.record(SyncEvent.seekToTimestamp(5, Duration.ofSeconds(7)));
+    buffer.record(SyncEvent.pauseState(6, /* paused= */ true, Duration.ofSeconds(7)));
+    buffer.record(SyncEvent.setGlobalState(7, new byte[] {2}));
+    assertEquals(8, buffer.getRecordedCount());
+
+    ImmutableList<SyncEvent> events = buffer.drain(100);
+
+    assertEquals(
+        ImmutableList.of(
+            SyncEvent.switchedToMedia(100, "Media 2", "media2", Duration.ofSeconds(7)),
+            SyncEvent.playoutRate(100, 2.0, Duration.ofSeconds(7)),
+            SyncEvent.pauseState(100, /* paused= */ true, Duration.ofSeconds(7))),
+        events.subList(0, 3));
+    assertEquals(SyncEvent.Type.SET_GLOBAL_STATE, events.get(3).type());
+    assertArrayEquals(new byte[] {2}, events.get(3).payloads().get(0));
+    assertEquals(4, events.size());
+  }
+
+  @Test
+  public void drain_playing_extrapolatesPositionAtRate() {
+    buffer.record(SyncEvent.playoutRate(0, 1.5, Duration.ofSeconds(10)));
+    buffer.record(SyncEvent.pauseState(0, /* paused= */ false, Duration.ofSeconds(10)));
+
+    ImmutableList<SyncEvent> events = buffer.drain(4 * NANOS_PER_SECOND);
+
+    assertEquals(
+        ImmutableList.of(
+            SyncEvent.playoutRate(4 * NANOS_PER_SECOND, 1.5, Duration.ofSeconds(16)),
+            SyncEvent.pauseState(
+                4 * NANOS_PER_SECOND, /* paused= */ false, Duration.ofSeconds(16))),
+        events);
+  }
+
+  @Test
+  public void drain_switchAfterPause_isPlayingNewMedia() {
+    buffer.record(SyncEvent.pauseState(0, /* paused= */ true, Duration.ofSeconds(3)));
+    buffer.record(SyncEvent.switchedToMedia(0, "Media 2", "media2", Duration.ZERO));
+
+    assertEquals(
+        ImmutableList.of(
+            SyncEvent.switchedToMedia(
+                NANOS_PER_SECOND, "Media 2", "media2", Duration.ofSeconds(1)),
+            SyncEvent.pauseState(NANOS_PER_SECOND, /* paused= */ false, Duration.ofSeconds(1))),
+        buffer.drain(NANOS_PER_SECOND));
+  }
+
+  @Test
+  public void drain_pauseAfterSwitch_isPausedAtPausePosition() {
+    buffer.record(SyncEvent.switchedToMedia(0, "Media 2", "media2", Duration.ZERO));
+    buffer.record(
+        SyncEvent.pauseState(2 * NANOS_PER_SECOND, /* paused= */ true, Duration.ofSeconds(2)));
+
+    assertEquals(
+        ImmutableList.of(
+            SyncEvent.switchedToMedia(
+                10 * NANOS_PER_SECOND, "Media 2", "media2", Duration.ofSeconds(2)),
+            SyncEvent.pauseState(
+                10 * NANOS_PER_SECOND, /* paused= */ true, Duration.ofSeconds(2))),
+        buffer.drain(10 * NANOS_PER_SECOND));
+  }
+
+  @Test
+  public void drain_onlySeeks_sendsOneSeekAndEmptiesBuffer() {
+    buffer.record(SyncEvent.seekToTimestamp(0, Duration.ofSeconds(1)));
+    buffer.record(SyncEvent.seekToTimestamp(1, Duration.ofSeconds(2)));
+    buffer.record(SyncEvent.seekToTimestamp(2, Duration.ofSeconds(3)));
+
+    assertEquals(
+        ImmutableList.of(SyncEvent.seekToTimestamp(10, Duration.ofSeconds(3))), buffer.drain(10));
+    assertTrue(buffer.drain(20).isEmpty());
+    assertEquals(0, buffer.getRecordedCount());
+  }
+
+  @Test
+  public void drain_ended_sendsEndedAtLastPosition() {
+    buffer.record(SyncEvent.pauseState(0, /* paused= */ false, Duration.ofSeconds(95)));
+    buffer.record(SyncEvent.ended(5 * NANOS_PER_SECOND, Duration.ofSeconds(100)));
+
+    assertEquals(
+        ImmutableList.of(SyncEvent.ended(60 * NANOS_PER_SECOND, Duration.ofSeconds(100))),
+        buffer.drain(60 * NANOS_PER_SECOND));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void record_inboundEvent_throws() {
+    buffer.record(SyncEvent.sessionEnded(0, "ended"));
+  }
+}
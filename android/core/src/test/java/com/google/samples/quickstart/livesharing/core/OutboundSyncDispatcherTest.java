@@ -0,0 +1,205 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OutboundSyncDispatcher}. */
+@RunWith(JUnit4.class)
+public class OutboundSyncDispatcherTest {
+
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private final List<SyncEvent> sent = new ArrayList<>();
+  private final List<Optional<RuntimeException>> failures = new ArrayList<>();
+  private long nowNanos = 0;
+
+  private OutboundSyncDispatcher createDispatcher(OutboundSyncDispatcher.Sender sender) {
+    return new OutboundSyncDispatcher(
+        sender,
+        (event, queueingDelay, callLatency, failure) -> failures.add(failure),
+        tasks::add,
+        () -> nowNanos,
+        NoOpTracer.INSTANCE);
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.remove().run();
+    }
+  }
+
+  @Test
+  public void dispatch_sendsLaterInOrder() {
+    OutboundSyncDispatcher dispatcher = createDispatcher(sent::add);
+    SyncEvent pause = SyncEvent.pauseState(0, /* paused= */ true, Duration.ofSeconds(1));
+    SyncEvent seek = SyncEvent.seekToTimestamp(0, Duration.ofSeconds(5));
+    SyncEvent play = SyncEvent.pauseState(0, /* paused= */ false, Duration.ofSeconds(5));
+
+    dispatcher.dispatch(pause);
+    dispatcher.dispatch(seek);
+    dispatcher.dispatch(play);
+
+    assertTrue(sent.isEmpty());
+    assertEquals(3, dispatcher.getQueueDepth());
+    runTasks();
+    assertEquals(Arrays.asList(pause, seek, play), sent);
+    assertEquals(0, dispatcher.getQueueDepth());
+    assertEquals(3, dispatcher.getDispatchedCount());
+  }
+
+  @Test
+  public void dispatch_afterExecutorShutDown_dropsEvent() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    OutboundSyncDispatcher dispatcher =
+        new OutboundSyncDispatcher(
+            sent::add,
+            (event, queueingDelay, callLatency, failure) -> {},
+            executor,
+            () -> nowNanos,
+            NoOpTracer.INSTANCE);
+    executor.shutdown();
+
+    dispatcher.dispatch(SyncEvent.seekToTimestamp(0, Duration.ofSeconds(5)));
+
+    assertTrue(sent.isEmpty());
+    assertEquals(0, dispatcher.getQueueDepth());
+    assertEquals(1, dispatcher.getDroppedCount());
+  }
+
+  @Test
+  public void dispatch_recordsQueueingDelayAndCallLatency() {
+    OutboundSyncDispatcher dispatcher =
+        createDispatcher(
+            event -> {
+              nowNanos += 5_000_000;
+              sent.add(event);
+            });
+    dispatcher.dispatch(SyncEvent.seekToTimestamp(/* timestampNanos= */ 0, Duration.ZERO));
+    dispatcher.dispatch(SyncEvent.seekToTimestamp(/* timestampNanos= */ 0, Duration.ZERO));
+    nowNanos = 20_000_000;
+
+    runTasks();
+
+    // The second event also waited for the first call.
+    assertEquals(Duration.ofMillis(25), dispatcher.getMaxQueueingDelay());
+    assertEquals(Duration.ofMillis(22).plusNanos(500_000), dispatcher.getMeanQueueingDelay());
+    assertEquals(Duration.ofMillis(5), dispatcher.getMaxCallLatency());
+    assertEquals(Duration.ofMillis(5), dispatcher.getMeanCallLatency());
+  }
+
+  @Test
+  public void dispatch_failedCall_isReportedAndLaterEventsAreSent() {
+    OutboundSyncDispatcher dispatcher =
+        createDispatcher(
+            event -> {
+              if (event.type() == SyncEvent.Type.NOTIFY_ENDED) {
+                throw new IllegalStateException("No session.");
+              }
+              sent.add(event);
+            });
+    SyncEvent seek = SyncEvent.seekToTimestamp(0, Duration.ZERO);
+
+    dispatcher.dispatch(SyncEvent.ended(0, Duration.ZERO));
+    dispatcher.dispatch(seek);
+    runTasks();
+
+    assertEquals(1, dispatcher.getFailedCount());
+    assertTrue(failures.get(0).isPresent());
+    assertFalse(failures.get(1).isPresent());
+    assertEquals(Collections.singletonList(seek), sent);
+  }
+
+  @Test
+  public void dispatch_tracesCallAndQueueDepth() {
+    List<String> trace = new ArrayList<>();
+    Tracer tracer =
+        new Tracer() {
+          @Override
+          public void beginSection(String name) {
+            trace.add("begin " + name);
+          }
+
+          @Override
+          public void endSection() {
+            trace.add("end");
+          }
+
+          @Override
+          public void setCounter(String name, long value) {
+            trace.add(name + " " + value);
+          }
+        };
+    OutboundSyncDispatcher dispatcher =
+        new OutboundSyncDispatcher(
+            sent::add,
+            (event, queueingDelay, callLatency, failure) -> {},
+            tasks::add,
+            () -> nowNanos,
+            tracer);
+
+    dispatcher.dispatch(SyncEvent.seekToTimestamp(0, Duration.ZERO));
+    runTasks();
+
+    assertEquals(
+        Arrays.asList(
+            "outbound sync queue depth 1",
+            "begin NOTIFY_SEEK_TO_TIMESTAMP",
+            "end",
+            "outbound sync queue depth 0"),
+        trace);
+  }
+
+  @Test
+  public void dispatch_onSerialExecutor_keepsOrder() throws InterruptedException {
+    ExecutorService outbound = Executors.newSingleThreadExecutor();
+    List<SyncEvent> received = Collections.synchronizedList(new ArrayList<>());
+    OutboundSyncDispatcher dispatcher =
+        new OutboundSyncDispatcher(
+            received::add,
+            (event, queueingDelay, callLatency, failure) -> {},
+            outbound,
+            System::nanoTime,
+            NoOpTracer.INSTANCE);
+    int eventCount = 1000;
+
+    for (int i = 0; i < eventCount; i++) {
+      dispatcher.dispatch(SyncEvent.seekToTimestamp(System.nanoTime(), Duration.ofMillis(i)));
+    }
+    outbound.shutdown();
+    assertTrue(outbound.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(eventCount, received.size());
+    for (int i = 0; i < eventCount; i++) {
+      assertEquals(Duration.ofMillis(i), received.get(i).position());
+    }
+  }
+}
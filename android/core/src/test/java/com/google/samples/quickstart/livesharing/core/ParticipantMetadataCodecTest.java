@@ -0,0 +1,214 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParticipantMetadataCodec}. */
+@RunWith(JUnit4.class)
+public class ParticipantMetadataCodecTest {
+
+  private final ParticipantMetadataCodec codec = new ParticipantMetadataCodec();
+
+  private static ParticipantMetadata metadata(long id, String name, int flags) {
+    return ParticipantMetadata.builder()
+        .setParticipantId(id)
+        .setDisplayName(name)
+        .setFlags(flags)
+        .build();
+  }
+
+  @Test
+  public void encode_roundTrips() {
+    ParticipantMetadata metadata =
+        metadata(0x0123456789abcdefL, "Ana", ParticipantMetadata.FLAG_MAY_CHANGE_STATE);
+
+    assertEquals(
+        Optional.of(metadata),
+        ParticipantMetadataCodec.tryDecode(ParticipantMetadataCodec.encode(metadata)));
+  }
+
+  private static ParticipantMetadata metadataWithIntents() {
+    return ParticipantMetadata.builder()
+        .setParticipantId(7)
+        .setDisplayName("Ana")
+        .setFlags(ParticipantMetadata.FLAG_MAY_CHANGE_STATE)
+        .setPendingIntent(
+            Optional.of(
+                PlaybackIntent.create(
+                    /* senderId= */ 7,
+                    /* sequence= */ 3,
+                    SyncEvent.seekToTimestamp(/* timestampNanos= */ 0, Duration.ofSeconds(42)))))
+        .setAppliedIntents(ImmutableMap.of(8L, 1L, -9L, Long.MAX_VALUE))
+        .build();
+  }
+
+  @Test
+  public void encode_withoutIntents_keepsFirstVersion() {
+    byte[] encoded = ParticipantMetadataCodec.encode(metadata(/* id= */ 7, "Ana", 0));
+
+    assertEquals(1, encoded[0]);
+  }
+
+  @Test
+  public void encode_withIntents_roundTrips() {
+    ParticipantMetadata metadata = metadataWithIntents();
+
+    byte[] encoded = ParticipantMetadataCodec.encode(metadata);
+
+    assertEquals(2, encoded[0]);
+    assertEquals(Optional.of(metadata), ParticipantMetadataCodec.tryDecode(encoded));
+  }
+
+  @Test
+  public void encode_onlyAppliedIntents_roundTrips() {
+    ParticipantMetadata metadata =
+        ParticipantMetadata.builder()
+            .setParticipantId(7)
+            .setDisplayName("leader")
+            .setAppliedIntents(ImmutableMap.of(8L, 1L))
+            .build();
+
+    assertEquals(metadata, codec.decode(ParticipantMetadataCodec.encode(metadata)));
+  }
+
+  @Test
+  public void encode_extremeIdsAndNonAsciiName_roundTrip() {
+    for (long id : new long[] {0, -1, Long.MIN_VALUE, Long.MAX_VALUE}) {
+      ParticipantMetadata metadata = metadata(id, "Zoë 参加者 🎬", /* flags= */ 0);
+
+      assertEquals(metadata, codec.decode(ParticipantMetadataCodec.encode(metadata)));
+    }
+  }
+
+  @Test
+  public void encode_flagsAtVarintBoundaries_roundTrip() {
+    int[] flags = {0, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, Integer.MAX_VALUE, -1};
+    int[] expectedVarintBytes = {1, 1, 2, 2, 3, 3, 4, 5, 5};
+    for (int i = 0; i < flags.length; i++) {
+      ParticipantMetadata metadata = metadata(/* id= */ 7, "a", flags[i]);
+
+      byte[] encoded = ParticipantMetadataCodec.encode(metadata);
+
+      // Version byte, flags, 8 id bytes, 1 name length byte and the name.
+      assertEquals(1 + expectedVarintBytes[i] + 8 + 1 + 1, encoded.length);
+      assertEquals(metadata, codec.decode(encoded));
+    }
+  }
+
+  @Test
+  public void encode_nameLengthsAtVarintBoundaries_roundTrip() {
+    for (int length : new int[] {0, 127, 128, 16_383, 16_384}) {
+      ParticipantMetadata metadata = metadata(/* id= */ 7, Strings.repeat("x", length), 0);
+
+      assertEquals(metadata, codec.decode(ParticipantMetadataCodec.encode(metadata)));
+    }
+  }
+
+  @Test
+  public void tryDecode_truncatedOrPadded_isEmpty() {
+    byte[] encoded = ParticipantMetadataCodec.encode(metadata(/* id= */ 7, "name", 0));
+
+    for (int length = 0; length < encoded.length; length++) {
+      assertFalse(ParticipantMetadataCodec.tryDecode(Arrays.copyOf(encoded, length)).isPresent());
+    }
+    assertFalse(
+        ParticipantMetadataCodec.tryDecode(Arrays.copyOf(encoded, encoded.length + 1))
+            .isPresent());
+  }
+
+  @Test
+  public void tryDecode_truncatedOrPaddedWithIntents_isEmpty() {
+    byte[] encoded = ParticipantMetadataCodec.encode(metadataWithIntents());
+
+    for (int length = 0; length < encoded.length; length++) {
+      assertFalse(ParticipantMetadataCodec.tryDecode(Arrays.copyOf(encoded, length)).isPresent());
+    }
+    assertFalse(
+        ParticipantMetadataCodec.tryDecode(Arrays.copyOf(encoded, encoded.length + 1))
+            .isPresent());
+  }
+
+  @Test
+  public void tryDecode_malformedVarint_isEmpty() {
+    byte[] encoded = {1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0};
+
+    assertFalse(ParticipantMetadataCodec.tryDecode(encoded).isPresent());
+  }
+
+  @Test
+  public void tryDecode_negativeNameLength_isEmpty() {
+    for (byte version : new byte[] {1, 2}) {
+      byte[] encoded = {
+        version, 0, 0, 0, 0, 0, 0, 0, 0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        0x0F, 0, 0
+      };
+
+      assertFalse(ParticipantMetadataCodec.tryDecode(encoded).isPresent());
+      assertEquals(new String(encoded, UTF_8), codec.decode(encoded).displayName());
+    }
+  }
+
+  @Test
+  public void tryDecode_negativeIntentLength_isEmpty() {
+    byte[] encoded = {
+      2, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0
+    };
+
+    assertFalse(ParticipantMetadataCodec.tryDecode(encoded).isPresent());
+  }
+
+  @Test
+  public void tryDecode_oversizedLengths_isEmpty() {
+    byte[] oversizedName = {1, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0x7F, 'A'};
+    byte[] oversizedIntent = {2, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0x7F, 0, 0};
+
+    assertFalse(ParticipantMetadataCodec.tryDecode(oversizedName).isPresent());
+    assertFalse(ParticipantMetadataCodec.tryDecode(oversizedIntent).isPresent());
+  }
+
+  @Test
+  public void decode_plainTextFromOlderClient_becomesDisplayNameWithStableId() {
+    byte[] plain = "Participant 1".getBytes(UTF_8);
+
+    ParticipantMetadata decoded = codec.decode(plain);
+
+    assertEquals("Participant 1", decoded.displayName());
+    assertEquals(0, decoded.flags());
+    assertEquals(decoded, codec.decode("Participant 1".getBytes(UTF_8)));
+    assertTrue(
+        decoded.participantId()
+            != codec.decode("Participant 2".getBytes(UTF_8)).participantId());
+  }
+
+  @Test
+  public void keyOf_dependsOnlyOnId() {
+    assertEquals(
+        codec.keyOf(metadata(/* id= */ 42, "before", 0)),
+        codec.keyOf(metadata(/* id= */ 42, "after", ParticipantMetadata.FLAG_MAY_CHANGE_STATE)));
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParticipantMetadataPublisher}. */
+@RunWith(JUnit4.class)
+public class ParticipantMetadataPublisherTest {
+
+  private static final Duration WINDOW = Duration.ofSeconds(1);
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final List<byte[]> sent = new ArrayList<>();
+  private final List<String> transmitted = new ArrayList<>();
+  private boolean sendSucceeds = true;
+
+  private final ParticipantMetadataPublisher publisher =
+      new ParticipantMetadataPublisher(
+          encoded -> {
+            sent.add(encoded);
+            return sendSucceeds;
+          },
+          this::onTransmitted,
+          WINDOW,
+          scheduler);
+
+  private void onTransmitted(byte[] encoded) {
+    transmitted.add(
+        publisher.getTransmittedCount()
+            + " updates, "
+            + publisher.getTransmittedBytes()
+            + " bytes");
+  }
+
+  private static ParticipantMetadata metadata(String name) {
+    return ParticipantMetadata.builder().setParticipantId(1).setDisplayName(name).build();
+  }
+
+  @Test
+  public void publish_notifiesListenerAfterCountersAccountForUpdate() {
+    byte[] encoded = ParticipantMetadataCodec.encode(metadata("a"));
+
+    publisher.publish(metadata("a"));
+
+    assertEquals(1, sent.size());
+    assertArrayEquals(encoded, sent.get(0));
+    assertEquals(1, publisher.getTransmittedCount());
+    assertEquals(encoded.length, publisher.getTransmittedBytes());
+    assertEquals(1, transmitted.size());
+    assertEquals("1 updates, " + encoded.length + " bytes", transmitted.get(0));
+  }
+
+  @Test
+  public void publish_sameValueAgain_isNotSent() {
+    publisher.publish(metadata("a"));
+    scheduler.advanceBy(WINDOW);
+    publisher.publish(metadata("a"));
+    scheduler.advanceBy(WINDOW);
+
+    assertEquals(1, sent.size());
+    assertEquals(1, publisher.getDuplicateCount());
+    assertEquals(1, transmitted.size());
+  }
+
+  @Test
+  public void publish_burst_sendsFirstAndLatestOnly() {
+    publisher.publish(metadata("a"));
+    publisher.publish(metadata("b"));
+    publisher.publish(metadata("c"));
+    scheduler.advanceBy(WINDOW);
+
+    assertEquals(2, sent.size());
+    assertArrayEquals(ParticipantMetadataCodec.encode(metadata("c")), sent.get(1));
+    assertEquals(1, publisher.getMergedCount());
+    assertEquals(3, publisher.getPublishCount());
+  }
+
+  @Test
+  public void publish_burstEndingOnTransmittedValue_sendsNothingMore() {
+    publisher.publish(metadata("a"));
+    publisher.publish(metadata("b"));
+    publisher.publish(metadata("a"));
+    scheduler.advanceBy(WINDOW);
+
+    assertEquals(1, sent.size());
+    assertEquals(1, publisher.getDuplicateCount());
+  }
+
+  @Test
+  public void publish_failedSend_isNotCountedAndIsRetriedOnNextPublish() {
+    sendSucceeds = false;
+    publisher.publish(metadata("a"));
+
+    assertEquals(0, publisher.getTransmittedCount());
+    assertEquals(0, transmitted.size());
+
+    sendSucceeds = true;
+    scheduler.advanceBy(WINDOW);
+    publisher.publish(metadata("a"));
+
+    assertEquals(2, sent.size());
+    assertEquals(1, publisher.getTransmittedCount());
+  }
+
+  @Test
+  public void reset_sameValueIsSentAgain() {
+    publisher.publish(metadata("a"));
+    publisher.reset();
+    publisher.publish(metadata("a"));
+
+    assertEquals(2, sent.size());
+    assertEquals(0, publisher.getDuplicateCount());
+  }
+}
@@ -0,0 +1,308 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests and a benchmark for {@link ParticipantRegistry}. */
+@RunWith(JUnit4.class)
+public class ParticipantRegistryTest {
+
+  private static final String BENCHMARK_PROPERTY = "benchmark";
+  private static final int SCALING_PARTICIPANTS = 500;
+  private static final int SCALING_UPDATES = 200;
+
+  /** Decodes "id:value" metadata, keyed by id. */
+  private static final ParticipantRegistry.Decoder<String> DECODER =
+      new ParticipantRegistry.Decoder<String>() {
+        @Override
+        public String decode(byte[] metadata) {
+          return new String(metadata, UTF_8);
+        }
+
+        @Override
+        public String keyOf(String participant) {
+          return participant.substring(0, participant.indexOf(':'));
+        }
+      };
+
+  private final List<String> events = new ArrayList<>();
+
+  private final ParticipantRegistry.Listener<String> recordingListener =
+      new ParticipantRegistry.Listener<String>() {
+        @Override
+        public void onParticipantAdded(String participant) {
+          events.add("added " + participant);
+        }
+
+        @Override
+        public void onParticipantChanged(String previous, String current) {
+          events.add("changed " + previous + " -> " + current);
+        }
+
+        @Override
+        public void onParticipantRemoved(String participant) {
+          events.add("removed " + participant);
+        }
+      };
+
+  private static Byte[] box(String metadata) {
+    return box(metadata.getBytes(UTF_8));
+  }
+
+  private static Byte[] box(byte[] raw) {
+    Byte[] boxed = new Byte[raw.length];
+    for (int i = 0; i < raw.length; i++) {
+      boxed[i] = raw[i];
+    }
+    return boxed;
+  }
+
+  private static Set<Byte[]> snapshot(String... metadata) {
+    Set<Byte[]> snapshot = new HashSet<>();
+    for (String value : metadata) {
+      snapshot.add(box(value));
+    }
+    return snapshot;
+  }
+
+  @Test
+  public void update_publishesAddedChangedAndRemoved() {
+    ParticipantRegistry<String> registry = new ParticipantRegistry<>(DECODER, recordingListener);
+
+    registry.update(snapshot("a:1", "b:1"));
+    events.sort(null);
+    assertEquals(ImmutableList.of("added a:1", "added b:1"), events);
+
+    events.clear();
+    registry.update(snapshot("a:2", "c:1"));
+    events.sort(null);
+    assertEquals(ImmutableList.of("added c:1", "changed a:1 -> a:2", "removed b:1"), events);
+    assertEquals(ImmutableSet.of("a", "c"), registry.getParticipants().keySet());
+  }
+
+  @Test
+  public void update_unchangedSnapshot_publishesNothing() {
+    ParticipantRegistry<String> registry = new ParticipantRegistry<>(DECODER, recordingListener);
+
+    registry.update(snapshot("a:1", "b:1", "c:1"));
+    events.clear();
+    // Fresh arrays with the same content, as the SDK hands out on every callback.
+    registry.update(snapshot("a:1", "b:1", "c:1"));
+
+    assertEquals(ImmutableList.of(), events);
+    assertEquals(ImmutableSet.of("a", "b", "c"), registry.getParticipants().keySet());
+    assertEquals(3, registry.getDecodeCount());
+    assertEquals(3, registry.getReuseCount());
+  }
+
+  @Test
+  public void update_onlyChangedEntriesAreDecoded() {
+    ParticipantRegistry<String> registry = new ParticipantRegistry<>(DECODER, recordingListener);
+
+    registry.update(snapshot("a:1", "b:1", "c:1"));
+    registry.update(snapshot("a:1", "b:2", "c:1"));
+
+    assertEquals(4, registry.getDecodeCount());
+  }
+
+  @Test
+  public void update_duplicateKeyGoneAway_publishesRemainingEntry() {
+    ParticipantRegistry<String> registry = new ParticipantRegistry<>(DECODER, recordingListener);
+    registry.update(snapshot("a:1", "a:2"));
+    String winner = registry.getParticipants().get("a");
+    String loser = winner.equals("a:1") ? "a:2" : "a:1";
+    events.clear();
+
+    registry.update(snapshot(loser));
+
+    assertEquals(ImmutableList.of("changed " + winner + " -> " + loser), events);
+    assertEquals(ImmutableMap.of("a", loser), registry.getParticipants());
+  }
+
+  @Test
+  public void update_hundredsOfParticipants_decodesOnlyChanges() {
+    List<Set<Byte[]>> callbacks = oneChangePerCallback(SCALING_PARTICIPANTS, SCALING_UPDATES);
+    ParticipantRegistry<ParticipantMetadata> registry =
+        new ParticipantRegistry<>(new ParticipantMetadataCodec(), new CountingListener<>());
+
+    for (Set<Byte[]> callback : callbacks) {
+      registry.update(callback);
+    }
+
+    // The first callback decodes everyone, each later one only the participant that changed.
+    assertEquals(SCALING_PARTICIPANTS + SCALING_UPDATES - 1, registry.getDecodeCount());
+    assertEquals(
+        (long) SCALING_PARTICIPANTS * SCALING_UPDATES - registry.getDecodeCount(),
+        registry.getReuseCount());
+    assertEquals(SCALING_PARTICIPANTS, registry.getParticipants().size());
+  }
+
+  /**
+   * Compares the registry with decoding and diffing every entry of every callback, using the real
+   * codec. Opt in with {@code ./gradlew :core:test -Pbenchmark}.
+   */
+  @Test
+  public void benchmark_hundredsOfParticipants_beatsDecodingEveryEntry() {
+    assumeTrue(
+        "Set -P" + BENCHMARK_PROPERTY + " to run benchmarks.",
+        System.getProperty(BENCHMARK_PROPERTY) != null);
+    List<Set<Byte[]>> callbacks = oneChangePerCallback(SCALING_PARTICIPANTS, SCALING_UPDATES);
+    ParticipantMetadataCodec codec = new ParticipantMetadataCodec();
+
+    // Warm up both paths so that the timings compare steady-state code.
+    for (int round = 0; round < 20; round++) {
+      runRegistry(codec, callbacks);
+      decodeEveryEntry(codec, callbacks);
+    }
+    long registryNanos = Long.MAX_VALUE;
+    long fullDecodeNanos = Long.MAX_VALUE;
+    for (int round = 0; round < 10; round++) {
+      long start = System.nanoTime();
+      runRegistry(codec, callbacks);
+      registryNanos = Math.min(registryNanos, System.nanoTime() - start);
+      start = System.nanoTime();
+      decodeEveryEntry(codec, callbacks);
+      fullDecodeNanos = Math.min(fullDecodeNanos, System.nanoTime() - start);
+    }
+
+    String result =
+        String.format(
+            "%d participants, %d callbacks: registry %.2f ms, decoding everyone %.2f ms",
+            SCALING_PARTICIPANTS, SCALING_UPDATES, registryNanos / 1e6, fullDecodeNanos / 1e6);
+    System.out.println("ParticipantRegistry benchmark: " + result);
+    assertTrue(result, registryNanos < fullDecodeNanos);
+  }
+
+  /** Metadata of {@code participants}, of which one changes before each of {@code updates}. */
+  private static List<Set<Byte[]>> oneChangePerCallback(int participants, int updates) {
+    ParticipantMetadata[] metadata = new ParticipantMetadata[participants];
+    for (int i = 0; i < participants; i++) {
+      metadata[i] = participant(i, /* state= */ 0);
+    }
+    List<Set<Byte[]>> callbacks = new ArrayList<>();
+    for (int update = 0; update < updates; update++) {
+      int changed = (update * 7) % participants;
+      metadata[changed] = participant(changed, update + 1);
+      Set<Byte[]> callback = new HashSet<>();
+      for (ParticipantMetadata participant : metadata) {
+        callback.add(box(ParticipantMetadataCodec.encode(participant)));
+      }
+      callbacks.add(callback);
+    }
+    return callbacks;
+  }
+
+  private static ParticipantMetadata participant(int index, int state) {
+    return ParticipantMetadata.builder()
+        .setParticipantId(index)
+        .setDisplayName("Participant " + index + " (state " + state + ")")
+        .setFlags(state % 2 == 0 ? 0 : ParticipantMetadata.FLAG_MAY_CHANGE_STATE)
+        .build();
+  }
+
+  private static void runRegistry(
+      ParticipantMetadataCodec codec, List<Set<Byte[]>> callbacks) {
+    ParticipantRegistry<ParticipantMetadata> registry =
+        new ParticipantRegistry<>(codec, new CountingListener<>());
+    for (Set<Byte[]> callback : callbacks) {
+      registry.update(callback);
+    }
+  }
+
+  /**
+   * Baseline that unboxes and decodes every entry of every callback, and diffs the decoded
+   * participants by key against the previous callback.
+   */
+  private static int decodeEveryEntry(
+      ParticipantMetadataCodec codec, List<Set<Byte[]>> callbacks) {
+    CountingListener<ParticipantMetadata> listener = new CountingListener<>();
+    Map<String, ParticipantMetadata> previous = new HashMap<>();
+    for (Set<Byte[]> callback : callbacks) {
+      Map<String, ParticipantMetadata> current = new HashMap<>();
+      for (Byte[] entry : callback) {
+        byte[] raw = new byte[entry.length];
+        for (int i = 0; i < entry.length; i++) {
+          raw[i] = entry[i];
+        }
+        ParticipantMetadata decoded = codec.decode(raw);
+        current.put(codec.keyOf(decoded), decoded);
+      }
+      for (Map.Entry<String, ParticipantMetadata> entry : current.entrySet()) {
+        ParticipantMetadata before = previous.get(entry.getKey());
+        if (before == null) {
+          listener.onParticipantAdded(entry.getValue());
+        } else if (!before.equals(entry.getValue())) {
+          listener.onParticipantChanged(before, entry.getValue());
+        }
+      }
+      for (Map.Entry<String, ParticipantMetadata> entry : previous.entrySet()) {
+        if (!current.containsKey(entry.getKey())) {
+          listener.onParticipantRemoved(entry.getValue());
+        }
+      }
+      previous = current;
+    }
+    return listener.events;
+  }
+
+  private static final class CountingListener<T> implements ParticipantRegistry.Listener<T> {
+    int events;
+
+    @Override
+    public void onParticipantAdded(T participant) {
+      events++;
+    }
+
+    @Override
+    public void onParticipantChanged(T previous, T current) {
+      events++;
+    }
+
+    @Override
+    public void onParticipantRemoved(T participant) {
+      events++;
+    }
+  }
+
+  @Test
+  public void update_emptySnapshot_removesEveryone() {
+    ParticipantRegistry<String> registry = new ParticipantRegistry<>(DECODER, recordingListener);
+
+    registry.update(snapshot("a:1", "b:1"));
+    events.clear();
+    registry.update(snapshot());
+    events.sort(null);
+
+    assertEquals(ImmutableList.of("removed a:1", "removed b:1"), events);
+    assertEquals(ImmutableMap.of(), registry.getParticipants());
+  }
+}
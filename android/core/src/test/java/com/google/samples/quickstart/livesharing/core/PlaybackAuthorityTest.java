@@ -0,0 +1,370 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PlaybackAuthority}. */
+@RunWith(JUnit4.class)
+public class PlaybackAuthorityTest {
+
+  private static final Duration MIN_LATENCY = Duration.ofMillis(20);
+  private static final Duration MAX_LATENCY = Duration.ofMillis(200);
+  private static final Duration ACK_TIMEOUT = Duration.ofSeconds(2);
+
+  /**
+   * Stand-in for a meeting: messages reach every other participant after a random latency in
+   * virtual time, independently per receiver but in order per sender.
+   */
+  private static final class Meeting {
+    final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+    final Random random = new Random(/* seed= */ 45);
+    final List<Participant> participants = new ArrayList<>();
+    final Map<List<Long>, Long> lastDeliveryNanosByLink = new HashMap<>();
+    long messageCount = 0;
+    long lastChangeNanos = 0;
+
+    Meeting(int participantCount, boolean authorityEnabled) {
+      for (int i = 0; i < participantCount; i++) {
+        participants.add(new Participant(this, /* id= */ 100 + i, authorityEnabled));
+      }
+      for (Participant participant : participants) {
+        for (Participant other : participants) {
+          if (other != participant) {
+            participant.otherMetadata.put(other.id, other.metadata());
+          }
+        }
+        participant.updateParticipants();
+      }
+    }
+
+    void send(Participant sender, Consumer<Participant> delivery) {
+      if (!sender.connected) {
+        return;
+      }
+      messageCount++;
+      for (Participant participant : participants) {
+        if (participant != sender && participant.connected) {
+          long latencyNanos =
+              MIN_LATENCY.toNanos()
+                  + (long) (random.nextDouble() * MAX_LATENCY.minus(MIN_LATENCY).toNanos());
+          List<Long> link = ImmutableList.of(sender.id, participant.id);
+          long deliveryNanos =
+              Math.max(
+                  scheduler.nanoTime() + latencyNanos,
+                  lastDeliveryNanosByLink.getOrDefault(link, 0L));
+          lastDeliveryNanosByLink.put(link, deliveryNanos);
+          scheduler.postDelayed(
+              () -> delivery.accept(participant),
+              Duration.ofNanos(deliveryNanos - scheduler.nanoTime()));
+        }
+      }
+    }
+
+    /** Has every participant seek somewhere else, a few milliseconds apart. */
+    void seekConcurrently() {
+      for (int i = 0; i < participants.size(); i++) {
+        participants.get(i).seek(Duration.ofSeconds(10 + i));
+        scheduler.advanceBy(Duration.ofMillis(5));
+      }
+      scheduler.advanceBy(Duration.ofSeconds(10));
+    }
+
+    Set<Duration> distinctPositions() {
+      Set<Duration> positions = new HashSet<>();
+      for (Participant participant : participants) {
+        positions.add(participant.position);
+      }
+      return positions;
+    }
+
+    long broadcastCount() {
+      long count = 0;
+      for (Participant participant : participants) {
+        count += participant.authority.getBroadcastCount();
+      }
+      return count;
+    }
+  }
+
+  /** A participant whose playback state is just a position. */
+  private static final class Participant
+      implements PlaybackAuthority.Transport, PlaybackAuthority.Listener {
+    final Meeting meeting;
+    final long id;
+    final PlaybackAuthority authority;
+    final Map<Long, ParticipantMetadata> otherMetadata = new HashMap<>();
+    Duration position = Duration.ZERO;
+    Optional<Long> leaderId = Optional.empty();
+    boolean connected = true;
+
+    Participant(Meeting meeting, long id, boolean authorityEnabled) {
+      this.meeting = meeting;
+      this.id = id;
+      this.authority =
+          new PlaybackAuthority(id, authorityEnabled, this, this, ACK_TIMEOUT, meeting.scheduler);
+    }
+
+    ParticipantMetadata metadata() {
+      return ParticipantMetadata.builder()
+          .setParticipantId(id)
+          .setDisplayName("participant " + id)
+          .setFlags(ParticipantMetadata.FLAG_MAY_CHANGE_STATE)
+          .setPendingIntent(authority.getPendingIntent())
+          .setAppliedIntents(authority.getAppliedIntents())
+          .build();
+    }
+
+    void updateParticipants() {
+      List<ParticipantMetadata> participants = new ArrayList<>(otherMetadata.values());
+      participants.add(metadata());
+      authority.updateParticipants(participants);
+    }
+
+    void seek(Duration newPosition) {
+      setPosition(newPosition);
+      authority.publish(SyncEvent.seekToTimestamp(meeting.scheduler.nanoTime(), newPosition));
+    }
+
+    void setPosition(Duration newPosition) {
+      if (!newPosition.equals(position)) {
+        position = newPosition;
+        meeting.lastChangeNanos = meeting.scheduler.nanoTime();
+      }
+    }
+
+    @Override
+    public void broadcast(SyncEvent event) {
+      meeting.send(this, receiver -> receiver.setPosition(event.position()));
+    }
+
+    @Override
+    public boolean publishIntents() {
+      ParticipantMetadata metadata = metadata();
+      meeting.send(
+          this,
+          receiver -> {
+            receiver.otherMetadata.put(id, metadata);
+            receiver.updateParticipants();
+          });
+      return true;
+    }
+
+    @Override
+    public void onIntent(SyncEvent intent) {
+      seek(intent.position());
+    }
+
+    @Override
+    public Optional<SyncEvent> onIntentUnacknowledged(SyncEvent intent) {
+      return Optional.of(SyncEvent.seekToTimestamp(meeting.scheduler.nanoTime(), position));
+    }
+
+    @Override
+    public void onLeaderChanged(Optional<Long> leaderId, boolean isLocalLeader) {
+      this.leaderId = leaderId;
+    }
+  }
+
+  private static ParticipantMetadata metadata(long id, Optional<PlaybackIntent> pendingIntent) {
+    return ParticipantMetadata.builder()
+        .setParticipantId(id)
+        .setDisplayName("participant " + id)
+        .setFlags(ParticipantMetadata.FLAG_MAY_CHANGE_STATE)
+        .setPendingIntent(pendingIntent)
+        .build();
+  }
+
+  @Test
+  public void meeting_withoutLeader_concurrentSeeksDiverge() {
+    Meeting meeting = new Meeting(/* participantCount= */ 8, /* authorityEnabled= */ false);
+
+    meeting.seekConcurrently();
+
+    assertTrue(meeting.distinctPositions().size() > 1);
+    assertEquals(8, meeting.messageCount);
+  }
+
+  @Test
+  public void meeting_withLeader_concurrentSeeksConverge() {
+    for (int participantCount : new int[] {2, 4, 8, 16}) {
+      Meeting meeting = new Meeting(participantCount, /* authorityEnabled= */ true);
+
+      meeting.seekConcurrently();
+
+      assertEquals(1, meeting.distinctPositions().size());
+      // Only the leader broadcasts: its own change and one per intent it applied.
+      assertEquals(participantCount, meeting.broadcastCount());
+      // The seeks are issued over participantCount * 5 ms; after the last one, at most an intent
+      // and a broadcast are in flight.
+      Duration convergenceTime = Duration.ofNanos(meeting.lastChangeNanos);
+      assertTrue(
+          convergenceTime.compareTo(
+                  Duration.ofMillis(5L * participantCount).plus(MAX_LATENCY.multipliedBy(2)))
+              <= 0);
+      for (Participant participant : meeting.participants) {
+        assertFalse(participant.authority.getPendingIntent().isPresent());
+        assertEquals(0, participant.authority.getIntentUnacknowledgedCount());
+      }
+    }
+  }
+
+  @Test
+  public void meeting_leaderUnresponsive_intentIsBroadcastAfterAckTimeout() {
+    Meeting meeting = new Meeting(/* participantCount= */ 3, /* authorityEnabled= */ true);
+    meeting.participants.get(0).connected = false;
+    Participant sender = meeting.participants.get(1);
+
+    sender.seek(Duration.ofSeconds(30));
+    meeting.scheduler.advanceBy(ACK_TIMEOUT.minusMillis(1));
+    assertEquals(Duration.ZERO, meeting.participants.get(2).position);
+
+    meeting.scheduler.advanceBy(Duration.ofSeconds(1));
+
+    assertEquals(Duration.ofSeconds(30), meeting.participants.get(2).position);
+    assertEquals(1, sender.authority.getIntentUnacknowledgedCount());
+    assertEquals(1, sender.authority.getBroadcastCount());
+    assertFalse(sender.authority.getPendingIntent().isPresent());
+  }
+
+  @Test
+  public void updateParticipants_leaderLeft_pendingIntentIsBroadcast() {
+    Meeting meeting = new Meeting(/* participantCount= */ 3, /* authorityEnabled= */ true);
+    Participant leader = meeting.participants.get(0);
+    Participant sender = meeting.participants.get(2);
+    leader.connected = false;
+    sender.seek(Duration.ofSeconds(30));
+
+    sender.otherMetadata.remove(leader.id);
+    sender.updateParticipants();
+    meeting.scheduler.advanceBy(MAX_LATENCY);
+
+    assertEquals(Optional.of(101L), sender.leaderId);
+    assertEquals(Duration.ofSeconds(30), meeting.participants.get(1).position);
+    assertEquals(1, sender.authority.getIntentUnacknowledgedCount());
+  }
+
+  @Test
+  public void updateParticipants_electsLowestIdThatMayChangeState() {
+    Meeting meeting = new Meeting(/* participantCount= */ 3, /* authorityEnabled= */ true);
+    Participant participant = meeting.participants.get(2);
+
+    participant.authority.updateParticipants(
+        ImmutableList.of(
+            ParticipantMetadata.builder().setParticipantId(5).setDisplayName("viewer").build(),
+            metadata(/* id= */ 102, Optional.empty()),
+            metadata(/* id= */ 101, Optional.empty())));
+
+    assertEquals(Optional.of(101L), participant.leaderId);
+    assertFalse(participant.authority.isLeader());
+  }
+
+  @Test
+  public void updateParticipants_sameIntentAgain_isAppliedOnce() {
+    Meeting meeting = new Meeting(/* participantCount= */ 2, /* authorityEnabled= */ true);
+    Participant leader = meeting.participants.get(0);
+    ImmutableList<ParticipantMetadata> participants =
+        ImmutableList.of(
+            leader.metadata(),
+            metadata(
+                /* id= */ 101,
+                Optional.of(
+                    PlaybackIntent.create(
+                        /* senderId= */ 101,
+                        /* sequence= */ 7,
+                        SyncEvent.seekToTimestamp(
+                            /* timestampNanos= */ 0, Duration.ofSeconds(42))))));
+
+    leader.authority.updateParticipants(participants);
+    leader.authority.updateParticipants(participants);
+
+    assertEquals(Duration.ofSeconds(42), leader.position);
+    assertEquals(1, leader.authority.getIntentAppliedCount());
+    assertEquals(ImmutableMap.of(101L, 7L), leader.authority.getAppliedIntents());
+  }
+
+  @Test
+  public void publish_intentCannotBeSent_broadcasts() {
+    List<SyncEvent> broadcasts = new ArrayList<>();
+    PlaybackAuthority authority =
+        new PlaybackAuthority(
+            /* localParticipantId= */ 2,
+            /* enabled= */ true,
+            new PlaybackAuthority.Transport() {
+              @Override
+              public void broadcast(SyncEvent event) {
+                broadcasts.add(event);
+              }
+
+              @Override
+              public boolean publishIntents() {
+                return false;
+              }
+            },
+            new PlaybackAuthority.Listener() {
+              @Override
+              public void onIntent(SyncEvent intent) {}
+
+              @Override
+              public Optional<SyncEvent> onIntentUnacknowledged(SyncEvent intent) {
+                return Optional.of(intent);
+              }
+
+              @Override
+              public void onLeaderChanged(Optional<Long> leaderId, boolean isLocalLeader) {}
+            },
+            ACK_TIMEOUT,
+            new VirtualScheduler(/* startNanos= */ 0));
+    authority.updateParticipants(ImmutableList.of(metadata(/* id= */ 1, Optional.empty())));
+
+    authority.publish(SyncEvent.pauseState(/* timestampNanos= */ 0, true, Duration.ZERO));
+
+    assertEquals(1, broadcasts.size());
+    assertEquals(0, authority.getIntentSentCount());
+    assertFalse(authority.getPendingIntent().isPresent());
+  }
+
+  @Test
+  public void decode_roundTripsIntent() {
+    SyncEvent event =
+        SyncEvent.switchedToMedia(/* timestampNanos= */ 0, "Media 1", "media_1", Duration.ZERO);
+
+    Optional<PlaybackIntent> decoded =
+        PlaybackIntent.decode(
+            PlaybackIntent.create(/* senderId= */ 3, /* sequence= */ 1, event).encode());
+
+    assertEquals(Optional.of(PlaybackIntent.create(3, 1, event)), decoded);
+    assertFalse(PlaybackIntent.decode("true".getBytes(UTF_8)).isPresent());
+  }
+}
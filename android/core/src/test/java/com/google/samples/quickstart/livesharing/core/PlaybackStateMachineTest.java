@@ -0,0 +1,121 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.samples.quickstart.livesharing.core.MediaPlayer.State;
+import com.google.samples.quickstart.livesharing.core.PlaybackStateMachine.Event;
+import com.google.samples.quickstart.livesharing.core.PlaybackStateMachine.Result;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PlaybackStateMachine}. */
+@RunWith(JUnit4.class)
+public class PlaybackStateMachineTest {
+
+  @Test
+  public void table_everyEventIsAppliedOrRejectedWithReason() {
+    for (State state : State.values()) {
+      for (Event event : Event.values()) {
+        State next = PlaybackStateMachine.next(state, event);
+        Result rejection = PlaybackStateMachine.rejection(state, event);
+        assertTrue(state + " " + event, (next == null) != (rejection == null));
+        if (next != null && event != Event.LOAD) {
+          assertTrue(state + " " + event, next != state);
+        }
+      }
+    }
+    assertEquals(State.PAUSED, PlaybackStateMachine.next(State.PLAYING, Event.LOAD));
+    assertEquals(State.PLAYING, PlaybackStateMachine.next(State.BUFFERING, Event.PLAY));
+    assertEquals(State.INACTIVE, PlaybackStateMachine.next(State.BUFFERING, Event.STOP));
+    assertEquals(State.ENDED, PlaybackStateMachine.next(State.PLAYING, Event.END));
+    assertEquals(State.PAUSED, PlaybackStateMachine.next(State.ENDED, Event.REWIND));
+  }
+
+  @Test
+  public void table_inactive_rejectsEverythingButLoad() {
+    for (Event event : Event.values()) {
+      if (event != Event.LOAD) {
+        assertEquals(
+            event.toString(),
+            Result.NO_ACTIVE_MEDIA,
+            PlaybackStateMachine.rejection(State.INACTIVE, event));
+      }
+    }
+  }
+
+  @Test
+  public void fire_rejectedEvent_keepsStateAndPublishesNothing() {
+    PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+    List<Event> published = new ArrayList<>();
+    stateMachine.setListener((from, event, to) -> published.add(event));
+
+    assertEquals(Result.NO_ACTIVE_MEDIA, stateMachine.fire(Event.PLAY));
+    assertEquals(Result.NO_ACTIVE_MEDIA, stateMachine.fire(Event.STOP));
+
+    assertEquals(State.INACTIVE, stateMachine.getState());
+    assertEquals(0, published.size());
+  }
+
+  @Test
+  public void fire_eventLeavingStateUnchanged_isRejected() {
+    PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+    List<Event> published = new ArrayList<>();
+    stateMachine.fire(Event.LOAD);
+    stateMachine.setListener((from, event, to) -> published.add(event));
+
+    assertEquals(Result.ALREADY_IN_STATE, stateMachine.fire(Event.PAUSE));
+    assertEquals(Result.APPLIED, stateMachine.fire(Event.PLAY));
+    assertEquals(Result.ALREADY_IN_STATE, stateMachine.fire(Event.PLAY));
+    assertEquals(Result.APPLIED, stateMachine.fire(Event.BUFFER));
+    assertEquals(Result.ALREADY_IN_STATE, stateMachine.fire(Event.BUFFER));
+
+    assertEquals(State.BUFFERING, stateMachine.getState());
+    assertEquals(ImmutableList.of(Event.PLAY, Event.BUFFER), published);
+  }
+
+  @Test
+  public void fire_afterEnd_onlyRewindLoadOrStopApply() {
+    PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+    stateMachine.fire(Event.LOAD);
+    stateMachine.fire(Event.PLAY);
+
+    assertEquals(Result.APPLIED, stateMachine.fire(Event.END));
+    assertEquals(Result.MEDIA_ENDED, stateMachine.fire(Event.PLAY));
+    assertEquals(Result.MEDIA_ENDED, stateMachine.fire(Event.PAUSE));
+    assertEquals(Result.ALREADY_IN_STATE, stateMachine.fire(Event.END));
+    assertEquals(State.ENDED, stateMachine.getState());
+
+    assertEquals(Result.APPLIED, stateMachine.fire(Event.REWIND));
+    assertEquals(State.PAUSED, stateMachine.getState());
+    assertEquals(Result.APPLIED, stateMachine.fire(Event.PLAY));
+  }
+
+  @Test
+  public void fire_invalidTransition_isRejected() {
+    PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+    stateMachine.fire(Event.LOAD);
+
+    assertEquals(Result.INVALID_TRANSITION, stateMachine.fire(Event.END));
+    assertEquals(Result.INVALID_TRANSITION, stateMachine.fire(Event.REWIND));
+    assertEquals(State.PAUSED, stateMachine.getState());
+  }
+}
@@ -0,0 +1,121 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RemoteStateCompensator} against a simulated delay model. */
+@RunWith(JUnit4.class)
+public class RemoteStateCompensatorTest {
+
+  private static final long MILLIS = 1_000_000;
+
+  /**
+   * Models a sender whose playback started at time zero, and the delays a state goes through
+   * before a receiver applies it: network transit, then local queueing.
+   */
+  private static final class DelayModel {
+    final Random random = new Random(/* seed= */ 5);
+    final long meanTransitNanos;
+    final long transitJitterNanos;
+    final long maxQueueingNanos;
+
+    DelayModel(long meanTransitNanos, long transitJitterNanos, long maxQueueingNanos) {
+      this.meanTransitNanos = meanTransitNanos;
+      this.transitJitterNanos = transitJitterNanos;
+      this.maxQueueingNanos = maxQueueingNanos;
+    }
+
+    long transitNanos() {
+      return meanTransitNanos + (long) ((random.nextDouble() * 2 - 1) * transitJitterNanos);
+    }
+
+    long queueingNanos() {
+      return (long) (random.nextDouble() * maxQueueingNanos);
+    }
+  }
+
+  @Test
+  public void compensate_paused_returnsPositionUnchanged() {
+    RemoteStateCompensator compensator = new RemoteStateCompensator(Duration.ofMillis(100));
+
+    Duration position =
+        compensator.compensate(
+            Duration.ofSeconds(10),
+            /* playoutRate= */ 1,
+            /* playing= */ false,
+            /* receivedNanos= */ 0,
+            /* nowNanos= */ 500 * MILLIS);
+
+    assertEquals(Duration.ofSeconds(10), position);
+  }
+
+  @Test
+  public void compensate_playing_extrapolatesWithRate() {
+    RemoteStateCompensator compensator = new RemoteStateCompensator(Duration.ofMillis(100));
+
+    Duration position =
+        compensator.compensate(
+            Duration.ofSeconds(10),
+            /* playoutRate= */ 2,
+            /* playing= */ true,
+            /* receivedNanos= */ 1_000 * MILLIS,
+            /* nowNanos= */ 1_150 * MILLIS);
+
+    // 100ms transit and 150ms queueing at 2x.
+    assertEquals(Duration.ofMillis(10_500), position);
+  }
+
+  @Test
+  public void compensate_simulatedDelays_staysWithinJitterOfTruth() {
+    double rate = 1.5;
+    DelayModel delays =
+        new DelayModel(
+            /* meanTransitNanos= */ 120 * MILLIS,
+            /* transitJitterNanos= */ 20 * MILLIS,
+            /* maxQueueingNanos= */ 200 * MILLIS);
+    RemoteStateCompensator compensator =
+        new RemoteStateCompensator(Duration.ofNanos(delays.meanTransitNanos));
+    long maxCompensatedErrorNanos = 0;
+    long maxRawErrorNanos = 0;
+
+    for (int i = 0; i < 1_000; i++) {
+      long sentNanos = i * 250 * MILLIS;
+      Duration sentPosition = Duration.ofNanos((long) (sentNanos * rate));
+      long receivedNanos = sentNanos + delays.transitNanos();
+      long appliedNanos = receivedNanos + delays.queueingNanos();
+      long truthNanos = (long) (appliedNanos * rate);
+
+      Duration compensated =
+          compensator.compensate(
+              sentPosition, rate, /* playing= */ true, receivedNanos, appliedNanos);
+
+      maxCompensatedErrorNanos =
+          Math.max(maxCompensatedErrorNanos, Math.abs(compensated.toNanos() - truthNanos));
+      maxRawErrorNanos = Math.max(maxRawErrorNanos, Math.abs(sentPosition.toNanos() - truthNanos));
+    }
+
+    // Only the transit jitter, scaled by the rate, remains.
+    assertTrue(maxCompensatedErrorNanos <= (long) (delays.transitJitterNanos * rate) + 1);
+    assertTrue(maxRawErrorNanos > 300 * MILLIS);
+  }
+}
@@ -0,0 +1,176 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ResumeSnapshot}. */
+@RunWith(JUnit4.class)
+public class ResumeSnapshotTest {
+
+  private static final long ANCHOR_NANOS = TimeUnit.SECONDS.toNanos(1_000);
+  private static final long ANCHOR_WALL_CLOCK_MILLIS = 1_650_000_000_000L;
+  private static final Duration ANCHOR_POSITION = Duration.ofSeconds(20);
+  private static final Duration LENGTH = Duration.ofSeconds(100);
+
+  /** Rate multiplier of a player catching up when the snapshot is taken. */
+  private static final double CATCH_UP_MULTIPLIER = 1.1;
+
+  private static ResumeSnapshot snapshot(MediaPlayer.State state, double nominalPlayoutRate) {
+    return ResumeSnapshot.create(
+        PlaybackSnapshot.create(
+            Optional.of("media-1"),
+            state,
+            ANCHOR_POSITION,
+            ANCHOR_NANOS,
+            nominalPlayoutRate * CATCH_UP_MULTIPLIER,
+            LENGTH),
+        nominalPlayoutRate,
+        SessionType.BOTH,
+        ANCHOR_WALL_CLOCK_MILLIS);
+  }
+
+  @Test
+  public void create_keepsNominalRateOnly() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 1.5);
+
+    assertEquals(1.5, snapshot.nominalPlayoutRate(), 0);
+    assertEquals(1.5, snapshot.playback().playoutRate(), 0);
+  }
+
+  @Test
+  public void encode_roundTrips() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 2);
+
+    assertEquals(Optional.of(snapshot), ResumeSnapshot.decode(snapshot.encode()));
+  }
+
+  @Test
+  public void encode_withoutMedia_roundTrips() {
+    ResumeSnapshot snapshot =
+        ResumeSnapshot.create(
+            PlaybackSnapshot.INACTIVE, /* nominalPlayoutRate= */ 1, SessionType.NONE, 0);
+
+    assertEquals(Optional.of(snapshot), ResumeSnapshot.decode(snapshot.encode()));
+  }
+
+  @Test
+  public void decode_truncated_isEmpty() {
+    byte[] encoded = snapshot(MediaPlayer.State.PAUSED, 1).encode();
+
+    for (int length = 0; length < encoded.length; length++) {
+      assertFalse(ResumeSnapshot.decode(Arrays.copyOf(encoded, length)).isPresent());
+    }
+  }
+
+  @Test
+  public void decode_unknownVersion_isEmpty() {
+    byte[] encoded = snapshot(MediaPlayer.State.PAUSED, 1).encode();
+    encoded[0] = 1;
+
+    assertFalse(ResumeSnapshot.decode(encoded).isPresent());
+  }
+
+  @Test
+  public void decode_stateOutOfRange_isEmpty() {
+    byte[] encoded = snapshot(MediaPlayer.State.PAUSED, 1).encode();
+    // Version byte, then the media id as a two byte length and its UTF-8 bytes.
+    encoded[1 + 2 + "media-1".length()] = (byte) MediaPlayer.State.values().length;
+
+    assertFalse(ResumeSnapshot.decode(encoded).isPresent());
+  }
+
+  @Test
+  public void positionAt_continuousMonotonicClock_extrapolatesFromItAtNominalRate() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 2);
+
+    // The wall clock was adjusted by one second, which is within the tolerated disagreement.
+    Duration position =
+        snapshot.positionAt(
+            ANCHOR_NANOS + TimeUnit.SECONDS.toNanos(5), ANCHOR_WALL_CLOCK_MILLIS + 6_000);
+
+    assertEquals(Duration.ofSeconds(30), position);
+  }
+
+  @Test
+  public void positionAt_monotonicClockRestarted_extrapolatesFromWallClock() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 1);
+
+    // After a reboot the monotonic clock is behind the anchor.
+    Duration position =
+        snapshot.positionAt(TimeUnit.SECONDS.toNanos(30), ANCHOR_WALL_CLOCK_MILLIS + 7_000);
+
+    assertEquals(Duration.ofSeconds(27), position);
+  }
+
+  @Test
+  public void positionAt_clocksDisagree_trustsWallClock() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 1);
+
+    // The device rebooted and the monotonic clock happens to be past the anchor again.
+    Duration position =
+        snapshot.positionAt(
+            ANCHOR_NANOS + TimeUnit.SECONDS.toNanos(60), ANCHOR_WALL_CLOCK_MILLIS + 10_000);
+
+    assertEquals(Duration.ofSeconds(30), position);
+  }
+
+  @Test
+  public void positionAt_wallClockBehindAnchor_doesNotRewind() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 1);
+
+    Duration position = snapshot.positionAt(0, ANCHOR_WALL_CLOCK_MILLIS - 60_000);
+
+    assertEquals(ANCHOR_POSITION, position);
+  }
+
+  @Test
+  public void positionAt_capsAtLength() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PLAYING, 1);
+
+    Duration position =
+        snapshot.positionAt(
+            ANCHOR_NANOS + TimeUnit.SECONDS.toNanos(500), ANCHOR_WALL_CLOCK_MILLIS + 500_000);
+
+    assertEquals(LENGTH, position);
+  }
+
+  @Test
+  public void positionAt_paused_staysAtAnchor() {
+    ResumeSnapshot snapshot = snapshot(MediaPlayer.State.PAUSED, 1);
+
+    Duration position =
+        snapshot.positionAt(
+            ANCHOR_NANOS + TimeUnit.SECONDS.toNanos(5), ANCHOR_WALL_CLOCK_MILLIS + 5_000);
+
+    assertEquals(ANCHOR_POSITION, position);
+  }
+
+  @Test
+  public void age_isWallClockTimeSinceAnchor() {
+    assertEquals(
+        Duration.ofMinutes(3),
+        snapshot(MediaPlayer.State.PAUSED, 1).age(ANCHOR_WALL_CLOCK_MILLIS + 180_000));
+  }
+}
@@ -0,0 +1,211 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SeekPreviewLoader} and its {@link ByteBudgetLruCache}. */
+@RunWith(JUnit4.class)
+public class SeekPreviewLoaderTest {
+
+  private static final int PREVIEW_BYTES = 1000;
+  private static final Duration LENGTH = Duration.ofSeconds(100);
+  private static final Duration INTERVAL = Duration.ofSeconds(2);
+  private static final String MEDIA_ID = "media";
+
+  /** Runs tasks only when asked to, like a background thread that has not been scheduled yet. */
+  private static final class QueueExecutor implements Executor {
+    final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.poll().run();
+      }
+    }
+  }
+
+  /** Records which slots were extracted, in order. */
+  private static final class FakeExtractor implements SeekPreviewLoader.FrameExtractor<byte[]> {
+    final List<Long> extractedSeconds = new ArrayList<>();
+    boolean closed = false;
+    Runnable onExtract = () -> {};
+
+    @Override
+    public Optional<byte[]> extractFrame(Duration position) {
+      extractedSeconds.add(position.getSeconds());
+      onExtract.run();
+      byte[] preview = new byte[PREVIEW_BYTES];
+      preview[0] = (byte) position.getSeconds();
+      return Optional.of(preview);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private final QueueExecutor executor = new QueueExecutor();
+  private final FakeExtractor extractor = new FakeExtractor();
+  private final List<String> loaded = new ArrayList<>();
+
+  private SeekPreviewLoader<byte[]> createLoader(long maxBytes, int prefetchRadius) {
+    return new SeekPreviewLoader<>(
+        MEDIA_ID,
+        extractor,
+        preview -> preview.length,
+        maxBytes,
+        LENGTH,
+        INTERVAL,
+        prefetchRadius,
+        executor,
+        (mediaId, position, preview) -> loaded.add(mediaId + "@" + position.getSeconds()));
+  }
+
+  @Test
+  public void cache_evictsLeastRecentlyUsedByBytes() {
+    ByteBudgetLruCache<String, byte[]> cache =
+        new ByteBudgetLruCache<>(/* maxBytes= */ 2500, value -> value.length);
+
+    cache.put("a", new byte[1000]);
+    cache.put("b", new byte[1000]);
+    assertTrue(cache.get("a").isPresent());
+    cache.put("c", new byte[1000]);
+
+    assertTrue(cache.contains("a"));
+    assertFalse(cache.contains("b"));
+    assertTrue(cache.contains("c"));
+    assertEquals(2000, cache.getSizeBytes());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void cache_valueLargerThanBudget_isNotCached() {
+    ByteBudgetLruCache<String, byte[]> cache =
+        new ByteBudgetLruCache<>(/* maxBytes= */ 500, value -> value.length);
+
+    cache.put("a", new byte[1000]);
+
+    assertFalse(cache.contains("a"));
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void getPreview_prefetchesAroundPositionFirst_thenSweepsWhileBudgetAllows() {
+    SeekPreviewLoader<byte[]> loader =
+        createLoader(/* maxBytes= */ 10 * PREVIEW_BYTES, /* prefetchRadius= */ 2);
+
+    assertFalse(loader.getPreview(Duration.ofSeconds(40)).isPresent());
+    executor.runAll();
+
+    assertEquals(
+        ImmutableList.of(40L, 42L, 38L, 44L, 36L), extractor.extractedSeconds.subList(0, 5));
+    assertEquals(10, extractor.extractedSeconds.size());
+    assertTrue(loader.getPreview(Duration.ofSeconds(41)).isPresent());
+    assertTrue(loader.getPreview(Duration.ofSeconds(36)).isPresent());
+  }
+
+  @Test
+  public void getPreview_nearPrefetchedPosition_isSubMillisecondHit() {
+    SeekPreviewLoader<byte[]> loader =
+        createLoader(/* maxBytes= */ 8 * PREVIEW_BYTES, /* prefetchRadius= */ 3);
+    assertFalse(loader.getPreview(Duration.ofSeconds(50)).isPresent());
+    executor.runAll();
+
+    int lookups = 10_000;
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      // Drag back and forth across the prefetched window.
+      Duration position = Duration.ofMillis(44_000 + (i % 12_000));
+      assertTrue(loader.getPreview(position).isPresent());
+    }
+    long averageNanos = (System.nanoTime() - startNanos) / lookups;
+
+    assertTrue("Average lookup took " + averageNanos + "ns", averageNanos < 1_000_000);
+  }
+
+  @Test
+  public void getPreview_slotNotCached_returnsNearestCachedWithinRadius() {
+    SeekPreviewLoader<byte[]> loader =
+        createLoader(/* maxBytes= */ 5 * PREVIEW_BYTES, /* prefetchRadius= */ 2);
+    assertFalse(loader.getPreview(Duration.ofSeconds(40)).isPresent());
+    executor.runAll();
+    assertEquals(ImmutableList.of(40L, 42L, 38L, 44L, 36L), extractor.extractedSeconds);
+
+    // Neither 48 s nor 46 s is cached yet; 44 s is the nearest preview that is.
+    assertEquals(44, loader.getPreview(Duration.ofSeconds(47)).get()[0]);
+    assertEquals(36, loader.getPreview(Duration.ofSeconds(33)).get()[0]);
+    assertFalse(loader.getPreview(Duration.ofSeconds(10)).isPresent());
+  }
+
+  @Test
+  public void loadedPreviews_areKeyedAndReportedByMedia() {
+    SeekPreviewLoader<byte[]> loader =
+        createLoader(/* maxBytes= */ PREVIEW_BYTES, /* prefetchRadius= */ 0);
+
+    assertFalse(loader.getPreview(Duration.ofSeconds(40)).isPresent());
+    executor.runAll();
+
+    assertEquals(ImmutableList.of(MEDIA_ID + "@40"), loaded);
+    assertTrue(loader.getCache().contains(SeekPreviewLoader.PreviewKey.create(MEDIA_ID, 20)));
+    assertEquals(MEDIA_ID, loader.getMediaId());
+  }
+
+  @Test
+  public void close_duringExtraction_dropsResult() {
+    SeekPreviewLoader<byte[]> loader =
+        createLoader(/* maxBytes= */ 10 * PREVIEW_BYTES, /* prefetchRadius= */ 2);
+    extractor.onExtract = loader::close;
+
+    loader.start();
+    executor.runAll();
+
+    assertEquals(1, extractor.extractedSeconds.size());
+    assertTrue(loaded.isEmpty());
+    assertEquals(0, loader.getCache().getSizeBytes());
+    assertTrue(extractor.closed);
+  }
+
+  @Test
+  public void close_releasesExtractorAfterPendingWork() {
+    SeekPreviewLoader<byte[]> loader =
+        createLoader(/* maxBytes= */ 10 * PREVIEW_BYTES, /* prefetchRadius= */ 2);
+    loader.start();
+
+    loader.close();
+    executor.runAll();
+
+    assertTrue(extractor.closed);
+    assertTrue(extractor.extractedSeconds.isEmpty());
+  }
+}
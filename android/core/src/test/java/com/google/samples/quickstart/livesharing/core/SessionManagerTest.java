@@ -0,0 +1,306 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SessionManager}. */
+@RunWith(JUnit4.class)
+public class SessionManagerTest {
+
+  private static final Duration WARM_UP_LATENCY = Duration.ofMillis(300);
+  private static final Duration CALL_DEADLINE = Duration.ofSeconds(2);
+  private static final Duration INITIAL_BACKOFF = Duration.ofMillis(100);
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final FakeMeetService service = new FakeMeetService();
+  private final List<Duration> backoffs = new ArrayList<>();
+  private final List<String> reports = new ArrayList<>();
+  private final List<String> endedLateSessions = new ArrayList<>();
+  private final List<Boolean> lateSessionEnds = new ArrayList<>();
+  private int clientsCreated = 0;
+
+  /**
+   * A local stand-in for the Meet service. Each call takes the next scripted response: a latency
+   * after which it succeeds, or a failure. A call with no scripted response never completes.
+   */
+  private final class FakeMeetService {
+    private final Queue<Object> responses = new ArrayDeque<>();
+    private final List<SettableFuture<String>> calls = new ArrayList<>();
+
+    void respondAfter(Duration latency) {
+      responses.add(latency);
+    }
+
+    void failWith(Exception failure) {
+      responses.add(failure);
+    }
+
+    ListenableFuture<String> call() {
+      SettableFuture<String> response = SettableFuture.create();
+      calls.add(response);
+      Object scripted = responses.poll();
+      if (scripted instanceof Duration) {
+        scheduler.postDelayed(() -> response.set("session"), (Duration) scripted);
+      } else if (scripted instanceof Exception) {
+        response.setException((Exception) scripted);
+      }
+      return response;
+    }
+  }
+
+  private SessionManager<String, String> createManager(int maxAttempts) {
+    return new SessionManager<>(
+        () -> {
+          clientsCreated++;
+          return "client";
+        },
+        task -> scheduler.postDelayed(task, WARM_UP_LATENCY),
+        scheduler,
+        CALL_DEADLINE,
+        maxAttempts,
+        INITIAL_BACKOFF,
+        new SessionManager.Listener() {
+          @Override
+          public void onRetry(String operation, int attempt, Throwable failure, Duration backoff) {
+            backoffs.add(backoff);
+          }
+
+          @Override
+          public void onFinished(String operation, boolean succeeded, StartupTracer phases) {
+            reports.add(operation + (succeeded ? " succeeded: " : " failed: ") + phases.report());
+          }
+
+          @Override
+          public void onLateSessionEnded(boolean succeeded) {
+            lateSessionEnds.add(succeeded);
+          }
+        });
+  }
+
+  private ListenableFuture<String> begin(SessionManager<String, String> manager) {
+    return manager.begin(
+        client -> service.call(),
+        session -> {
+          endedLateSessions.add(session);
+          return Futures.immediateFuture(null);
+        });
+  }
+
+  @Test
+  public void begin_afterPreWarm_doesNotWaitForClient() throws Exception {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 1);
+    ListenableFuture<String> client = manager.preWarm();
+    scheduler.advanceBy(Duration.ofSeconds(1));
+    assertTrue(client.isDone());
+
+    service.respondAfter(Duration.ofMillis(50));
+    ListenableFuture<String> session = begin(manager);
+    scheduler.advanceBy(Duration.ofMillis(50));
+
+    assertEquals("session", Futures.getDone(session));
+    assertEquals(1, clientsCreated);
+    assertEquals(
+        Arrays.asList(
+            "begin succeeded: client_ready at 0.0ms (+0.0ms),"
+                + " attempt_1_succeeded at 50.0ms (+50.0ms)"),
+        reports);
+  }
+
+  @Test
+  public void begin_withoutPreWarm_recordsClientWait() throws Exception {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 1);
+
+    service.respondAfter(Duration.ofMillis(50));
+    ListenableFuture<String> session = begin(manager);
+    scheduler.advanceBy(Duration.ofSeconds(1));
+
+    assertEquals("session", Futures.getDone(session));
+    assertEquals(
+        Arrays.asList(
+            "begin succeeded: client_ready at 300.0ms (+300.0ms),"
+                + " attempt_1_succeeded at 350.0ms (+50.0ms)"),
+        reports);
+  }
+
+  @Test
+  public void begin_slowCall_failsAtDeadlineWithoutRetrying() {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 3);
+    manager.preWarm();
+    scheduler.advanceBy(WARM_UP_LATENCY);
+
+    service.respondAfter(Duration.ofSeconds(10));
+    ListenableFuture<String> session = begin(manager);
+    scheduler.advanceBy(Duration.ofSeconds(3));
+
+    assertTrue(assertFailed(session).getCause() instanceof TimeoutException);
+    assertFalse(service.calls.get(0).isCancelled());
+    assertEquals(1, service.calls.size());
+    assertTrue(backoffs.isEmpty());
+    assertEquals(
+        Arrays.asList(
+            "begin failed: client_ready at 0.0ms (+0.0ms),"
+                + " attempt_1_timed_out at 2000.0ms (+2000.0ms)"),
+        reports);
+  }
+
+  @Test
+  public void begin_sessionArrivingAfterTimeout_isEnded() {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 3);
+    service.respondAfter(Duration.ofSeconds(10));
+    ListenableFuture<String> session = begin(manager);
+    scheduler.advanceBy(Duration.ofSeconds(3));
+    assertTrue(endedLateSessions.isEmpty());
+
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertTrue(assertFailed(session).getCause() instanceof TimeoutException);
+    assertEquals(Arrays.asList("session"), endedLateSessions);
+    assertEquals(Arrays.asList(true), lateSessionEnds);
+    assertEquals(1, reports.size());
+  }
+
+  @Test
+  public void begin_failingCall_isRetried() throws Exception {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 3);
+    service.failWith(new IllegalStateException("unavailable"));
+    service.respondAfter(Duration.ofMillis(50));
+
+    ListenableFuture<String> session = begin(manager);
+    scheduler.advanceBy(Duration.ofSeconds(1));
+
+    assertEquals("session", Futures.getDone(session));
+    assertEquals(Arrays.asList(INITIAL_BACKOFF), backoffs);
+    assertTrue(endedLateSessions.isEmpty());
+  }
+
+  @Test
+  public void begin_whilePending_isRejectedWithoutCancellingPendingBegin() throws Exception {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 1);
+    service.respondAfter(Duration.ofMillis(50));
+    ListenableFuture<String> first = begin(manager);
+
+    ListenableFuture<String> second = begin(manager);
+    assertTrue(manager.isBeginPending());
+    scheduler.advanceBy(Duration.ofSeconds(1));
+
+    assertTrue(assertFailed(second).getCause() instanceof IllegalStateException);
+    assertEquals("session", Futures.getDone(first));
+    assertEquals(1, service.calls.size());
+    assertFalse(manager.isBeginPending());
+    assertEquals(1, reports.size());
+  }
+
+  @Test
+  public void end_slowCall_isCancelledAtDeadlineAndRetried() throws Exception {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 3);
+    service.respondAfter(Duration.ofSeconds(10));
+    service.respondAfter(Duration.ofMillis(50));
+
+    ListenableFuture<Void> ended =
+        manager.end(() -> Futures.transform(service.call(), session -> null, Runnable::run));
+    scheduler.advanceBy(Duration.ofSeconds(3));
+
+    assertTrue(ended.isDone());
+    Futures.getDone(ended);
+    assertTrue(service.calls.get(0).isCancelled());
+    assertEquals(Arrays.asList(INITIAL_BACKOFF), backoffs);
+    assertEquals(
+        Arrays.asList(
+            "end succeeded: attempt_1_timed_out at 2000.0ms (+2000.0ms),"
+                + " attempt_2_succeeded at 2150.0ms (+150.0ms)"),
+        reports);
+  }
+
+  @Test
+  public void end_failingCalls_failAfterMaxAttemptsWithDoublingBackoff() {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 3);
+    service.failWith(new IllegalStateException("unavailable"));
+    service.failWith(new IllegalStateException("unavailable"));
+    service.failWith(new IllegalStateException("still unavailable"));
+
+    ListenableFuture<Void> ended =
+        manager.end(() -> Futures.transform(service.call(), session -> null, Runnable::run));
+    scheduler.advanceBy(Duration.ofSeconds(1));
+
+    ExecutionException e = assertFailed(ended);
+    assertEquals("still unavailable", e.getCause().getMessage());
+    assertEquals(3, service.calls.size());
+    assertEquals(Arrays.asList(INITIAL_BACKOFF, INITIAL_BACKOFF.multipliedBy(2)), backoffs);
+    assertEquals(
+        Arrays.asList(
+            "end failed: attempt_1_failed at 0.0ms (+0.0ms), attempt_2_failed at 100.0ms"
+                + " (+100.0ms), attempt_3_failed at 300.0ms (+200.0ms)"),
+        reports);
+  }
+
+  @Test
+  public void begin_lastAttemptTimesOut_failsWithTimeout() {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 1);
+
+    ListenableFuture<String> session = begin(manager);
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertTrue(assertFailed(session).getCause() instanceof TimeoutException);
+    assertFalse(manager.isBeginPending());
+  }
+
+  @Test
+  public void cancelPending_endsSessionOfBeginInFlightWithoutRetrying() {
+    SessionManager<String, String> manager = createManager(/* maxAttempts= */ 3);
+    manager.preWarm();
+    scheduler.advanceBy(WARM_UP_LATENCY);
+    service.respondAfter(Duration.ofSeconds(1));
+    ListenableFuture<String> session = begin(manager);
+
+    manager.cancelPending();
+    assertFalse(manager.isBeginPending());
+    scheduler.advanceBy(Duration.ofSeconds(10));
+
+    assertTrue(session.isCancelled());
+    assertEquals(Arrays.asList("session"), endedLateSessions);
+    assertEquals(1, service.calls.size());
+    assertTrue(backoffs.isEmpty());
+    assertEquals(1, reports.size());
+    assertFalse(reports.get(0).contains("succeeded:"));
+  }
+
+  private static ExecutionException assertFailed(ListenableFuture<?> future) {
+    assertTrue(future.isDone());
+    try {
+      Futures.getDone(future);
+      throw new AssertionError("Expected failure");
+    } catch (ExecutionException e) {
+      return e;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SimulatedMediaSource}. */
+@RunWith(JUnit4.class)
+public class SimulatedMediaSourceTest {
+
+  /** A single level, so that a two second segment is 1 MB. */
+  private static final long BITRATE = 4_000_000;
+
+  private static final Duration SEGMENT_DURATION = Duration.ofSeconds(2);
+  private static final Duration LOW_WATERMARK = Duration.ofMillis(500);
+  private static final Duration HIGH_WATERMARK = Duration.ofSeconds(2);
+  private static final Duration MAX_BUFFER = Duration.ofSeconds(10);
+  private static final Duration MEDIA_LENGTH = Duration.ofSeconds(60);
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final List<Boolean> bufferingChanges = new ArrayList<>();
+
+  /** Creates a source whose segments take {@code BITRATE / bandwidth} times their duration. */
+  private SimulatedMediaSource newSource(long bandwidthBitsPerSecond) {
+    return new SimulatedMediaSource(
+        new SimulatedNetworkLink(
+            bandwidthBitsPerSecond, Duration.ZERO, /* jitter= */ 0, /* seed= */ 1),
+        new AbrPolicy(ImmutableList.of(BITRATE), HIGH_WATERMARK),
+        SEGMENT_DURATION,
+        LOW_WATERMARK,
+        HIGH_WATERMARK,
+        MAX_BUFFER,
+        scheduler,
+        bufferingChanges::add);
+  }
+
+  @Test
+  public void load_fillsBufferUpToMaxAndStops() {
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 8_000_000);
+
+    source.load(MEDIA_LENGTH);
+    scheduler.advanceBy(Duration.ofSeconds(30));
+
+    assertEquals(MAX_BUFFER, source.getBufferedAhead());
+    assertEquals(5, source.getSegmentsLoaded());
+    assertEquals(5_000_000, source.getBytesLoaded());
+    assertEquals(BITRATE, source.getLastBitrate());
+    assertEquals(0, scheduler.getPendingCount());
+  }
+
+  @Test
+  public void play_slowLink_buffersUntilHighWatermarkThenRunsDryAgain() {
+    // Each two second segment takes four seconds to download.
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 2_000_000);
+    source.load(MEDIA_LENGTH);
+
+    source.setPlaying(true, /* playoutRate= */ 1);
+    assertTrue(source.isBuffering());
+
+    scheduler.advanceBy(Duration.ofSeconds(4));
+    assertFalse(source.isBuffering());
+
+    // Two seconds buffered drain to the low watermark after 1.5 s, before the next segment.
+    scheduler.advanceBy(Duration.ofMillis(1499));
+    assertFalse(source.isBuffering());
+    scheduler.advanceBy(Duration.ofMillis(1));
+    assertTrue(source.isBuffering());
+    assertEquals(ImmutableList.of(true, false, true), bufferingChanges);
+    assertEquals(2, source.getRebufferCount());
+  }
+
+  @Test
+  public void play_fastLink_neverBuffers() {
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 16_000_000);
+    source.load(MEDIA_LENGTH);
+    scheduler.advanceBy(Duration.ofSeconds(5));
+
+    source.setPlaying(true, /* playoutRate= */ 1);
+    scheduler.advanceBy(MEDIA_LENGTH);
+
+    assertEquals(ImmutableList.of(), bufferingChanges);
+    assertEquals(30, source.getSegmentsLoaded());
+  }
+
+  @Test
+  public void seekTo_insideBuffer_keepsBufferedMedia() {
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 8_000_000);
+    source.load(MEDIA_LENGTH);
+    scheduler.advanceBy(Duration.ofSeconds(30));
+
+    source.seekTo(Duration.ofSeconds(4));
+
+    assertEquals(Duration.ofSeconds(6), source.getBufferedAhead());
+  }
+
+  @Test
+  public void seekTo_outsideBuffer_flushesAndReloadsFromTarget() {
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 8_000_000);
+    source.load(MEDIA_LENGTH);
+    scheduler.advanceBy(Duration.ofSeconds(30));
+
+    source.seekTo(Duration.ofSeconds(30));
+    assertEquals(Duration.ZERO, source.getBufferedAhead());
+
+    scheduler.advanceBy(Duration.ofSeconds(1));
+    assertEquals(SEGMENT_DURATION, source.getBufferedAhead());
+  }
+
+  @Test
+  public void release_discardsInFlightDownload() {
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 8_000_000);
+    source.load(MEDIA_LENGTH);
+
+    source.release();
+    scheduler.advanceBy(Duration.ofSeconds(30));
+
+    assertEquals(0, source.getSegmentsLoaded());
+    assertEquals(Duration.ZERO, source.getBufferedAhead());
+  }
+
+  @Test
+  public void setSuspended_schedulesNothingUntilResumed() {
+    SimulatedMediaSource source = newSource(/* bandwidthBitsPerSecond= */ 8_000_000);
+    source.load(MEDIA_LENGTH);
+    scheduler.advanceBy(Duration.ofMillis(1500));
+    source.setPlaying(true, /* playoutRate= */ 1);
+
+    source.setSuspended(true);
+    assertEquals(0, scheduler.getPendingCount());
+    scheduler.advanceBy(Duration.ofSeconds(5));
+    assertEquals(1, source.getSegmentsLoaded());
+    assertEquals(ImmutableList.of(), bufferingChanges);
+
+    source.setSuspended(false);
+    assertEquals(ImmutableList.of(true), bufferingChanges);
+    scheduler.advanceBy(Duration.ofSeconds(30));
+    assertEquals(ImmutableList.of(true, false), bufferingChanges);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_watermarksOutOfOrder_throws() {
+    new SimulatedMediaSource(
+        new SimulatedNetworkLink(8_000_000, Duration.ZERO, /* jitter= */ 0, /* seed= */ 1),
+        new AbrPolicy(ImmutableList.of(BITRATE), HIGH_WATERMARK),
+        SEGMENT_DURATION,
+        /* lowWatermark= */ HIGH_WATERMARK,
+        /* highWatermark= */ LOW_WATERMARK,
+        MAX_BUFFER,
+        scheduler,
+        bufferingChanges::add);
+  }
+}
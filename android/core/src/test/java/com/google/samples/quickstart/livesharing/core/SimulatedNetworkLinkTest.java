@@ -0,0 +1,74 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SimulatedNetworkLink}. */
+@RunWith(JUnit4.class)
+public class SimulatedNetworkLinkTest {
+
+  private static final long BANDWIDTH_BITS_PER_SECOND = 8_000_000;
+  private static final Duration LATENCY = Duration.ofMillis(80);
+
+  @Test
+  public void transferTime_withoutJitter_isLatencyPlusSizeOverBandwidth() {
+    SimulatedNetworkLink link =
+        new SimulatedNetworkLink(BANDWIDTH_BITS_PER_SECOND, LATENCY, /* jitter= */ 0, 1);
+
+    assertEquals(Duration.ofMillis(1080), link.transferTime(1_000_000));
+    assertEquals(LATENCY, link.transferTime(0));
+  }
+
+  @Test
+  public void transferTime_withJitter_staysWithinBounds() {
+    SimulatedNetworkLink link =
+        new SimulatedNetworkLink(BANDWIDTH_BITS_PER_SECOND, LATENCY, /* jitter= */ 0.5, 1);
+
+    for (int i = 0; i < 1000; i++) {
+      long transferMillis = link.transferTime(1_000_000).minus(LATENCY).toMillis();
+      // Between 1.5x and 0.5x the nominal bandwidth.
+      assertTrue(transferMillis >= 666 && transferMillis <= 2000);
+    }
+  }
+
+  @Test
+  public void transferTime_sameSeed_isReproducible() {
+    SimulatedNetworkLink first =
+        new SimulatedNetworkLink(BANDWIDTH_BITS_PER_SECOND, LATENCY, 0.3, 7);
+    SimulatedNetworkLink second =
+        new SimulatedNetworkLink(BANDWIDTH_BITS_PER_SECOND, LATENCY, 0.3, 7);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(first.transferTime(500_000), second.transferTime(500_000));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_zeroBandwidth_throws() {
+    new SimulatedNetworkLink(0, LATENCY, /* jitter= */ 0, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_jitterOfOne_throws() {
+    new SimulatedNetworkLink(BANDWIDTH_BITS_PER_SECOND, LATENCY, /* jitter= */ 1, 1);
+  }
+}
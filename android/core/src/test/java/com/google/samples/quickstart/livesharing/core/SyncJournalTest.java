@@ -0,0 +1,371 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SyncJournal} and {@link SyncJournalReplayer}. */
+@RunWith(JUnit4.class)
+public class SyncJournalTest {
+
+  private static final long MILLIS = 1_000_000;
+  private static final long SECONDS = 1000 * MILLIS;
+
+  private static final long UNLIMITED = Long.MAX_VALUE;
+
+  /** System property naming a journal pulled off a device, to replay it with this test. */
+  private static final String JOURNAL_PROPERTY = "syncJournal";
+
+  /** Log lines kept per replayed event; the replayed participant drops them after each. */
+  private static final int LOG_CAPACITY = 64;
+
+  private static final LogSink SILENT_LOG_SINK =
+      new LogSink() {
+        @Override
+        public void log(String message) {}
+
+        @Override
+        public void logError(String message) {}
+      };
+
+  private static final Media MEDIA =
+      Media.builder().setId("media_1").setName("Media 1").setDuration(Duration.ofHours(2)).build();
+
+  /**
+   * A participant running the app's co-watching sync logic on a virtual clock: received states are
+   * applied by a {@link CoWatchingSync} to a {@link MediaPlayer} playing on a {@link
+   * TimerPlaybackEngine}, as in the activity.
+   */
+  private static final class ReplayedParticipant implements Consumer<SyncEvent> {
+    final ArrayBlockingQueue<String> logQueue = new ArrayBlockingQueue<>(LOG_CAPACITY);
+    final CoWatchingSync sync;
+
+    ReplayedParticipant(VirtualScheduler scheduler) {
+      MediaPlayer player =
+          new MediaPlayer(
+              (mediaName, positionSeconds, lengthSeconds) -> "",
+              media -> new TimerPlaybackEngine(media.duration(), scheduler::nanoTime),
+              scheduler,
+              new MessageTimingMonitor(Duration.ofMinutes(1), scheduler::nanoTime, timings -> {}),
+              NoOpTracer.INSTANCE);
+      sync =
+          new CoWatchingSync(
+              player,
+              new OfflineCommandBuffer(),
+              new PlayerHost(player),
+              Duration.ofMillis(100),
+              Duration.ofSeconds(2),
+              scheduler,
+              new LogProducer(logQueue, SILENT_LOG_SINK),
+              NoOpTracer.INSTANCE);
+    }
+
+    @Override
+    public void accept(SyncEvent event) {
+      if (event.type() != SyncEvent.Type.CO_WATCHING_STATE_RECEIVED) {
+        return;
+      }
+      long generation =
+          sync.onStateReceived(
+              event.mediaId(),
+              CoWatchingSync.stateOf(event.label()),
+              event.position(),
+              event.playoutRate(),
+              event.timestampNanos());
+      assertTrue(sync.applyState(generation));
+      logQueue.clear();
+    }
+  }
+
+  /** Takes the steps of {@link CoWatchingSync} with the player alone, without publishing any. */
+  private static final class PlayerHost implements CoWatchingSync.Host {
+    final UiObjectHandler uiObjectHandler = seekBarPosition -> {};
+    final MediaPlayer player;
+
+    PlayerHost(MediaPlayer player) {
+      this.player = player;
+    }
+
+    @Override
+    public Optional<Media> findMedia(String mediaId) {
+      return mediaId.equals(MEDIA.id()) ? Optional.of(MEDIA) : Optional.empty();
+    }
+
+    @Override
+    public void registerMedia(Media media) {
+      player.registerMediaForPlayback(uiObjectHandler, media);
+      assertEquals(
+          PlaybackStateMachine.Result.APPLIED, player.startMediaPlayback(uiObjectHandler));
+    }
+
+    @Override
+    public void stopMedia(boolean publishEnded) {
+      assertEquals(
+          PlaybackStateMachine.Result.APPLIED, player.stopMediaPlayback(uiObjectHandler));
+    }
+
+    @Override
+    public void switchTo(Media media, PlaybackSnapshot target) {
+      player.applyCanonicalState(uiObjectHandler, media, target);
+    }
+
+    @Override
+    public void startPlayback() {
+      player.startMediaPlayback(uiObjectHandler);
+    }
+
+    @Override
+    public void pausePlayback(boolean buffering) {
+      player.pauseMediaPlayback(buffering);
+    }
+
+    @Override
+    public void showRemotePlayoutRate(double playoutRate) {}
+
+    @Override
+    public void publish(SyncEvent event) {}
+  }
+
+  private static SyncJournal.Reader reader(byte[] journal) throws IOException {
+    return new SyncJournal.Reader(new ByteArrayInputStream(journal));
+  }
+
+  private static List<SyncEvent> readAll(byte[] journal) throws IOException {
+    SyncJournal.Reader reader = reader(journal);
+    List<SyncEvent> events = new ArrayList<>();
+    for (Optional<SyncEvent> next = reader.next(); next.isPresent(); next = reader.next()) {
+      events.add(next.get());
+    }
+    return events;
+  }
+
+  /**
+   * Records a remote participant, already two seconds into the media, playing at a slightly fast
+   * clock, whose states reach this device after a jittered delay, while the local user sends a few
+   * notifications of their own.
+   */
+  private static byte[] recordSession(int stateCount) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SyncJournal journal = new SyncJournal(bytes, UNLIMITED);
+    Random random = new Random(/* seed= */ 7);
+    long startNanos = 10 * SECONDS;
+    for (int i = 0; i < stateCount; i++) {
+      long sentNanos = startNanos + i * SECONDS;
+      Duration remotePosition = Duration.ofNanos(2 * SECONDS + (long) (i * SECONDS * 1.003));
+      long receivedNanos = sentNanos + 80 * MILLIS + (long) (random.nextDouble() * 40 * MILLIS);
+      journal.append(
+          SyncEvent.coWatchingStateReceived(receivedNanos, "media_1", remotePosition, 1, "PLAY"));
+      if (i % 100 == 50) {
+        journal.append(
+            SyncEvent.pauseState(
+                receivedNanos + 5 * MILLIS, /* paused= */ false, remotePosition));
+      }
+    }
+    journal.flush();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void append_thenRead_roundTripsEveryEventType() throws IOException {
+    ImmutableList<SyncEvent> events =
+        ImmutableList.of(
+            SyncEvent.coWatchingStateReceived(
+                1_000, "media_1", Duration.ofMillis(1500), 1.25, "PLAY"),
+            SyncEvent.globalStateReceived(2_000, new byte[] {1, 2, 3}),
+            SyncEvent.participantMetadataReceived(
+                3_000, ImmutableList.of(new byte[] {4}, new byte[] {5, 6})),
+            SyncEvent.privilegeChanged(4_000, "+[MAY_CHANGE_ADDON_SESSION_STATE] -[]"),
+            SyncEvent.sessionEnded(5_000, "SESSION_ENDED_BY_USER"),
+            SyncEvent.switchedToMedia(6_000, "Media 1", "media_1", Duration.ZERO),
+            SyncEvent.pauseState(7_000, /* paused= */ true, Duration.ofSeconds(3)),
+            SyncEvent.seekToTimestamp(6_500, Duration.ofSeconds(42)),
+            SyncEvent.playoutRate(8_000, 0.5, Duration.ofSeconds(4)),
+            SyncEvent.ended(9_000, Duration.ofSeconds(100)),
+            SyncEvent.setGlobalState(10_000, "true".getBytes(UTF_8)));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SyncJournal journal = new SyncJournal(bytes, UNLIMITED);
+    for (SyncEvent event : events) {
+      journal.append(event);
+    }
+    journal.flush();
+
+    List<SyncEvent> read = readAll(bytes.toByteArray());
+
+    assertEquals(events.size(), read.size());
+    for (int i = 0; i < events.size(); i++) {
+      SyncEvent expected = events.get(i);
+      SyncEvent actual = read.get(i);
+      assertEquals(expected.type(), actual.type());
+      assertEquals(expected.timestampNanos(), actual.timestampNanos());
+      assertEquals(expected.mediaId(), actual.mediaId());
+      assertEquals(expected.label(), actual.label());
+      assertEquals(expected.position(), actual.position());
+      assertEquals(expected.playoutRate(), actual.playoutRate(), 0);
+      assertEquals(expected.paused(), actual.paused());
+      assertEquals(expected.payloads().size(), actual.payloads().size());
+      for (int j = 0; j < expected.payloads().size(); j++) {
+        assertArrayEquals(expected.payloads().get(j), actual.payloads().get(j));
+      }
+    }
+  }
+
+  @Test
+  public void append_playbackNotification_isCompact() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SyncJournal journal = new SyncJournal(bytes, UNLIMITED);
+    journal.append(SyncEvent.pauseState(5 * SECONDS, /* paused= */ true, Duration.ZERO));
+    journal.flush();
+    int sizeAfterFirst = bytes.size();
+
+    journal.append(
+        SyncEvent.pauseState(6 * SECONDS, /* paused= */ false, Duration.ofMillis(61_234)));
+    journal.flush();
+
+    // Type, timestamp delta, field mask and position: about a dozen bytes.
+    assertTrue(bytes.size() - sizeAfterFirst <= 16);
+  }
+
+  @Test
+  public void append_beyondMaxBytes_dropsEvents() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SyncJournal journal = new SyncJournal(bytes, /* maxBytes= */ 100);
+
+    for (int i = 0; i < 100; i++) {
+      journal.append(
+          SyncEvent.pauseState(i * SECONDS, /* paused= */ true, Duration.ofMillis(61_234 + i)));
+    }
+    journal.flush();
+
+    // The record that crosses the limit is still written whole.
+    assertTrue(bytes.size() <= 100 + 16);
+    assertEquals(100, journal.getRecordCount() + journal.getDroppedCount());
+    assertEquals(journal.getRecordCount(), readAll(bytes.toByteArray()).size());
+  }
+
+  @Test
+  public void read_truncatedRecord_endsJournal() throws IOException {
+    byte[] journal = recordSession(/* stateCount= */ 3);
+
+    List<SyncEvent> events = readAll(Arrays.copyOf(journal, journal.length - 2));
+
+    assertEquals(2, events.size());
+  }
+
+  @Test(expected = IOException.class)
+  public void read_corruptPayloadLength_throwsWithoutAllocating() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SyncJournal journal = new SyncJournal(bytes, UNLIMITED);
+    journal.append(SyncEvent.globalStateReceived(1_000, new byte[] {1, 2, 3}));
+    journal.flush();
+    byte[] record = bytes.toByteArray();
+    // Replaces the payload length, the byte before the payload, with a varint of 2^31 - 1.
+    ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+    corrupt.write(record, 0, record.length - 4);
+    corrupt.write(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    corrupt.write(record, record.length - 3, 3);
+
+    readAll(corrupt.toByteArray());
+  }
+
+  @Test
+  public void append_oversizedPayload_dropsEvent() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SyncJournal journal = new SyncJournal(bytes, UNLIMITED);
+
+    journal.append(
+        SyncEvent.globalStateReceived(1_000, new byte[SyncJournal.MAX_FIELD_BYTES + 1]));
+    journal.append(SyncEvent.globalStateReceived(2_000, new byte[] {1}));
+    journal.flush();
+
+    assertEquals(1, journal.getDroppedCount());
+    assertEquals(1, readAll(bytes.toByteArray()).size());
+  }
+
+  @Test
+  public void replay_recordedSession_isDeterministicAndConverges() throws IOException {
+    byte[] journal = recordSession(/* stateCount= */ 3600);
+
+    VirtualScheduler firstScheduler = new VirtualScheduler(/* startNanos= */ 0);
+    ReplayedParticipant first = new ReplayedParticipant(firstScheduler);
+    SyncJournalReplayer replayer = new SyncJournalReplayer(firstScheduler);
+    long startNanos = System.nanoTime();
+    replayer.replay(reader(journal), /* inboundOnly= */ true, first);
+    long replayNanos = System.nanoTime() - startNanos;
+
+    VirtualScheduler secondScheduler = new VirtualScheduler(/* startNanos= */ 0);
+    ReplayedParticipant second = new ReplayedParticipant(secondScheduler);
+    new SyncJournalReplayer(secondScheduler).replay(reader(journal), true, second);
+
+    assertEquals(3600, replayer.getReplayedCount());
+    assertEquals(first.sync.getSwitchCount(), second.sync.getSwitchCount());
+    assertEquals(first.sync.getSeekCount(), second.sync.getSeekCount());
+    assertEquals(first.sync.getCatchUpCount(), second.sync.getCatchUpCount());
+    assertEquals(first.sync.getLastDrift(), second.sync.getLastDrift());
+    // Joining switches to the remote state once; the clock skew is then caught up, never sought.
+    assertEquals(1, first.sync.getSwitchCount());
+    assertEquals(0, first.sync.getSeekCount());
+    assertTrue(first.sync.getCatchUpCount() > 0);
+    assertTrue(first.sync.getLastDrift().abs().compareTo(Duration.ofMillis(50)) <= 0);
+    // An hour of session replays far faster than real time.
+    assertTrue(replayNanos < replayer.getSpanNanos() / 100);
+  }
+
+  @Test
+  public void replay_journalFromDevice() throws IOException {
+    String path = System.getProperty(JOURNAL_PROPERTY);
+    assumeTrue("Set -P" + JOURNAL_PROPERTY + "=<file> to replay a journal.", path != null);
+
+    VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+    ReplayedParticipant model = new ReplayedParticipant(scheduler);
+    SyncJournalReplayer replayer = new SyncJournalReplayer(scheduler);
+    SyncJournal.Reader journal =
+        new SyncJournal.Reader(new BufferedInputStream(new FileInputStream(path)));
+    long startNanos = System.nanoTime();
+    replayer.replay(journal, /* inboundOnly= */ true, model);
+    journal.close();
+
+    System.out.printf(
+        "Replayed %d events spanning %d ms in %d ms: %d seeks, %d catch-ups, final drift %s%n",
+        replayer.getReplayedCount(),
+        replayer.getSpanNanos() / MILLIS,
+        (System.nanoTime() - startNanos) / MILLIS,
+        model.sync.getSeekCount(),
+        model.sync.getCatchUpCount(),
+        model.sync.getLastDrift());
+    assertTrue(scheduler.nanoTime() >= replayer.getSpanNanos());
+  }
+}
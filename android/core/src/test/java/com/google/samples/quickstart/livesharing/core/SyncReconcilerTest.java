@@ -0,0 +1,106 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SyncReconciler}. */
+@RunWith(JUnit4.class)
+public class SyncReconcilerTest {
+
+  private static final Duration TRANSIT_ESTIMATE = Duration.ofMillis(100);
+  private static final Media MEDIA_1 =
+      Media.builder()
+          .setId("media_1")
+          .setName("Media 1")
+          .setDuration(Duration.ofMinutes(1))
+          .build();
+  private static final Media MEDIA_2 =
+      Media.builder()
+          .setId("media_2")
+          .setName("Media 2")
+          .setDuration(Duration.ofMinutes(1))
+          .build();
+
+  private final SyncReconciler syncReconciler = new SyncReconciler(TRANSIT_ESTIMATE);
+
+  private long receive(String mediaId, MediaPlayer.State state, Duration position) {
+    return syncReconciler.onStateReceived(
+        mediaId,
+        state,
+        position,
+        /* playoutRate= */ 2,
+        Duration.ofMinutes(1),
+        /* receivedNanos= */ Duration.ofSeconds(5).toNanos());
+  }
+
+  @Test
+  public void onStateReceived_playing_isAnchoredAheadByTransitTime() {
+    long generation = receive("media_1", MediaPlayer.State.PLAYING, Duration.ofSeconds(10));
+
+    PlaybackSnapshot target = syncReconciler.getIfLatest(generation).get();
+
+    assertEquals(Duration.ofMillis(10_200), target.anchorPosition());
+    assertEquals(Duration.ofSeconds(5).toNanos(), target.anchorTimeNanos());
+  }
+
+  @Test
+  public void getIfLatest_supersededState_isSkipped() {
+    long first = receive("media_1", MediaPlayer.State.PLAYING, Duration.ofSeconds(10));
+    long second = receive("media_1", MediaPlayer.State.PAUSED, Duration.ofSeconds(12));
+
+    assertFalse(syncReconciler.getIfLatest(first).isPresent());
+    assertEquals(Duration.ofSeconds(12), syncReconciler.getIfLatest(second).get().anchorPosition());
+    assertEquals(1, syncReconciler.getSkippedCount());
+  }
+
+  @Test
+  public void hasReceivedState_untilCleared() {
+    assertFalse(syncReconciler.hasReceivedState());
+
+    receive("media_1", MediaPlayer.State.PAUSED, Duration.ofSeconds(1));
+    assertTrue(syncReconciler.hasReceivedState());
+
+    syncReconciler.clear();
+    assertFalse(syncReconciler.hasReceivedState());
+  }
+
+  @Test
+  public void reconcile_choosesStepByActiveMedia() {
+    PlaybackSnapshot playing =
+        syncReconciler
+            .getIfLatest(receive("media_1", MediaPlayer.State.PLAYING, Duration.ofSeconds(10)))
+            .get();
+    PlaybackSnapshot ended =
+        syncReconciler
+            .getIfLatest(receive("media_1", MediaPlayer.State.INACTIVE, Duration.ofSeconds(10)))
+            .get();
+
+    assertEquals(SyncReconciler.Step.SWITCH, SyncReconciler.reconcile(playing, Optional.empty()));
+    assertEquals(
+        SyncReconciler.Step.SWITCH, SyncReconciler.reconcile(playing, Optional.of(MEDIA_2)));
+    assertEquals(
+        SyncReconciler.Step.CONVERGE, SyncReconciler.reconcile(playing, Optional.of(MEDIA_1)));
+    assertEquals(SyncReconciler.Step.STOP, SyncReconciler.reconcile(ended, Optional.of(MEDIA_1)));
+  }
+}
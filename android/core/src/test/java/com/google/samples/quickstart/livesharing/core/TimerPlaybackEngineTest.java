@@ -0,0 +1,121 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TimerPlaybackEngine}. */
+@RunWith(JUnit4.class)
+public class TimerPlaybackEngineTest {
+
+  private static final Duration LENGTH = Duration.ofSeconds(60);
+
+  private long nowNanos = 1_000_000_000L;
+
+  private final TimerPlaybackEngine engine = new TimerPlaybackEngine(LENGTH, () -> nowNanos);
+
+  private void advance(Duration duration) {
+    nowNanos += duration.toNanos();
+  }
+
+  @Test
+  public void getPosition_startsPausedAtZero() {
+    advance(Duration.ofSeconds(5));
+
+    assertEquals(Duration.ZERO, engine.getPosition());
+  }
+
+  @Test
+  public void play_advancesWithClock() {
+    engine.play();
+    advance(Duration.ofMillis(2500));
+
+    assertEquals(Duration.ofMillis(2500), engine.getPosition());
+  }
+
+  @Test
+  public void pause_freezesPosition() {
+    engine.play();
+    advance(Duration.ofSeconds(3));
+    engine.pause();
+    advance(Duration.ofSeconds(10));
+
+    assertEquals(Duration.ofSeconds(3), engine.getPosition());
+
+    engine.play();
+    advance(Duration.ofSeconds(1));
+    assertEquals(Duration.ofSeconds(4), engine.getPosition());
+  }
+
+  @Test
+  public void seekTo_whilePlaying_continuesFromTarget() {
+    engine.play();
+    advance(Duration.ofSeconds(3));
+    engine.seekTo(Duration.ofSeconds(30));
+
+    assertEquals(Duration.ofSeconds(30), engine.getPosition());
+    advance(Duration.ofSeconds(2));
+    assertEquals(Duration.ofSeconds(32), engine.getPosition());
+  }
+
+  @Test
+  public void seekTo_whilePaused_staysAtTarget() {
+    engine.seekTo(Duration.ofSeconds(30));
+    advance(Duration.ofSeconds(2));
+
+    assertEquals(Duration.ofSeconds(30), engine.getPosition());
+  }
+
+  @Test
+  public void setPlaybackRate_appliesFromNowOn() {
+    engine.play();
+    advance(Duration.ofSeconds(2));
+    engine.setPlaybackRate(2);
+    advance(Duration.ofSeconds(2));
+
+    assertEquals(Duration.ofSeconds(6), engine.getPosition());
+
+    engine.setPlaybackRate(0.5);
+    advance(Duration.ofSeconds(2));
+    assertEquals(Duration.ofSeconds(7), engine.getPosition());
+  }
+
+  @Test
+  public void getPosition_stopsAtLength() {
+    engine.play();
+    advance(LENGTH.plusSeconds(10));
+
+    assertEquals(LENGTH, engine.getPosition());
+
+    // Pausing past the end keeps the position at the end.
+    engine.pause();
+    assertEquals(LENGTH, engine.getPosition());
+  }
+
+  @Test
+  public void release_stopsAdvancing() {
+    engine.play();
+    advance(Duration.ofSeconds(1));
+    engine.release();
+    advance(Duration.ofSeconds(1));
+
+    assertEquals(Duration.ofSeconds(1), engine.getPosition());
+  }
+}
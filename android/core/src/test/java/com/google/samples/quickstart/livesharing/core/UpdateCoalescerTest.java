@@ -0,0 +1,107 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.quickstart.livesharing.core;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link UpdateCoalescer}, run in virtual time. */
+@RunWith(JUnit4.class)
+public class UpdateCoalescerTest {
+
+  private static final Duration WINDOW = Duration.ofMillis(100);
+
+  private final VirtualScheduler scheduler = new VirtualScheduler(/* startNanos= */ 0);
+  private final List<String> sent = new ArrayList<>();
+  private final UpdateCoalescer<String> coalescer =
+      new UpdateCoalescer<>(sent::add, WINDOW, scheduler);
+
+  @Test
+  public void submit_afterQuietPeriod_sendsRightAway() {
+    coalescer.submit("a");
+
+    assertEquals(ImmutableList.of("a"), sent);
+    assertEquals(1, coalescer.getSentCount());
+  }
+
+  @Test
+  public void submit_insideWindow_onlyLatestIsSentAtDeadline() {
+    coalescer.submit("a");
+    scheduler.advanceBy(Duration.ofMillis(10));
+    coalescer.submit("b");
+    scheduler.advanceBy(Duration.ofMillis(10));
+    coalescer.submit("c");
+
+    scheduler.advanceBy(WINDOW.minusMillis(20).minusNanos(1));
+    assertEquals(ImmutableList.of("a"), sent);
+
+    scheduler.advanceBy(Duration.ofNanos(1));
+    assertEquals(ImmutableList.of("a", "c"), sent);
+    assertEquals(2, coalescer.getSentCount());
+    assertEquals(1, coalescer.getSuppressedCount());
+  }
+
+  @Test
+  public void submit_burstLongerThanWindow_sendsOncePerWindowAndFlushesLastUpdate() {
+    for (int i = 0; i < 25; i++) {
+      coalescer.submit("update " + i);
+      scheduler.advanceBy(Duration.ofMillis(10));
+    }
+    // Each window sent the latest update submitted before it closed; the burst ended at 250 ms, in
+    // the window opened at 200 ms.
+    assertEquals(ImmutableList.of("update 0", "update 9", "update 19"), sent);
+
+    scheduler.advanceBy(WINDOW);
+
+    assertEquals(ImmutableList.of("update 0", "update 9", "update 19", "update 24"), sent);
+    assertEquals(4, coalescer.getSentCount());
+    assertEquals(21, coalescer.getSuppressedCount());
+  }
+
+  @Test
+  public void submit_afterFlushedWindowClosed_sendsRightAway() {
+    coalescer.submit("a");
+    coalescer.submit("b");
+    scheduler.advanceBy(WINDOW);
+    assertEquals(ImmutableList.of("a", "b"), sent);
+
+    // Sending "b" opened another window, which closes without anything to send.
+    scheduler.advanceBy(WINDOW);
+    coalescer.submit("c");
+
+    assertEquals(ImmutableList.of("a", "b", "c"), sent);
+  }
+
+  @Test
+  public void reset_dropsPendingUpdateAndClosesWindow() {
+    coalescer.submit("a");
+    coalescer.submit("b");
+
+    coalescer.reset();
+    scheduler.advanceBy(WINDOW);
+    assertEquals(ImmutableList.of("a"), sent);
+    assertEquals(1, coalescer.getSuppressedCount());
+
+    coalescer.submit("c");
+    assertEquals(ImmutableList.of("a", "c"), sent);
+  }
+}